@@ -1,21 +1,21 @@
 package org.mitre.synthea.engine;
 
+import com.google.common.cache.CacheStats;
+
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -30,7 +30,6 @@ import org.mitre.synthea.editors.GrowthDataErrorsEditor;
 import org.mitre.synthea.export.CDWExporter;
 import org.mitre.synthea.export.Exporter;
 import org.mitre.synthea.helpers.Config;
-import org.mitre.synthea.helpers.DefaultRandomNumberGenerator;
 import org.mitre.synthea.helpers.RandomNumberGenerator;
 import org.mitre.synthea.helpers.TransitionMetrics;
 import org.mitre.synthea.helpers.Utilities;
@@ -63,8 +62,8 @@ public class Generator {
    */
   public final UUID id = UUID.randomUUID();
   public GeneratorOptions options;
-  private DefaultRandomNumberGenerator populationRandom;
-  private DefaultRandomNumberGenerator clinicianRandom;
+  private RandomNumberGenerator populationRandom;
+  private RandomNumberGenerator clinicianRandom;
   public long timestep;
   public long stop;
   public long referenceTime;
@@ -76,7 +75,30 @@ public class Generator {
   private boolean onlyDeadPatients;
   private boolean onlyVeterans;
   private Module keepPatientsModule;
+  /** The criteria of the keep patients module, or null if they can't be checked separately. */
+  KeepCriteria keepCriteria;
+  /**
+   * If true, people are checked against the keep criteria as they are simulated and rejected
+   * as soon as they can no longer meet them. See generate.keep_patients_early_rejection.
+   */
+  private boolean keepPatientsEarlyRejection;
+  /**
+   * If true, people rejected early are retried with new demographics rather than the same
+   * ones. See generate.keep_patients_early_rejection.redraw_demographics.
+   */
+  private boolean keepPatientsRedrawDemographics;
   private Long maxAttemptsToKeepPatient;
+  /**
+   * If true, modules that are blocked in a Delay are only processed once the delay may have
+   * expired, rather than on every timestep. Guards and Java modules are still processed on
+   * every timestep. See generate.event_scheduling.
+   */
+  boolean eventScheduling;
+  /**
+   * If true, people loaded from a population snapshot are only simulated again as far as they
+   * can have changed. See generate.incremental_time_travel.
+   */
+  boolean incrementalTimeTravel;
   public TransitionMetrics metrics;
   public static String DEFAULT_STATE = "Massachusetts";
   private Exporter.ExporterRuntimeOptions exporterRuntimeOptions;
@@ -90,6 +112,9 @@ public class Generator {
    */
   List<Person> internalStore;
 
+  /** Streams each person to the updated population snapshot as they finish, if one is set. */
+  private PopulationSnapshot.Writer snapshotWriter;
+
   /**
    * A filename predicate used to filter a subset of modules. Helpful when testing a particular
    * module. Use "-m filename" on the command line to filter which modules get loaded.
@@ -195,10 +220,6 @@ public class Generator {
   public Generator(GeneratorOptions o, Exporter.ExporterRuntimeOptions ero) {
     options = o;
     exporterRuntimeOptions = ero;
-    if (options.updatedPopulationSnapshotPath != null) {
-      exporterRuntimeOptions.deferExports = true;
-      internalStore = Collections.synchronizedList(new LinkedList<>());
-    }
     if (options.threadPoolSize == -1) {
       threadPoolSize = Runtime.getRuntime().availableProcessors();
     } else if (options.threadPoolSize > 0) {
@@ -219,8 +240,8 @@ public class Generator {
       CDWExporter.getInstance().setKeyStart((stateIndex * 1_000_000) + 1);
     }
 
-    this.populationRandom = new DefaultRandomNumberGenerator(options.seed);
-    this.clinicianRandom = new DefaultRandomNumberGenerator(options.clinicianSeed);
+    this.populationRandom = RandomNumberGenerator.create(options.seed);
+    this.clinicianRandom = RandomNumberGenerator.create(options.clinicianSeed);
     this.timestep = Long.parseLong(Config.get("generate.timestep"));
     this.stop = options.endTime;
     this.referenceTime = options.referenceTime;
@@ -252,6 +273,14 @@ public class Generator {
     }
 
     this.onlyVeterans = Config.getAsBoolean("generate.veteran_population_override");
+    this.eventScheduling = Config.getAsBoolean("generate.event_scheduling", false);
+    this.incrementalTimeTravel =
+        Config.getAsBoolean("generate.incremental_time_travel", false);
+    if (this.incrementalTimeTravel) {
+      // only process the modules whose state can change before the delays they are waiting on
+      // are over, which is equivalent to processing them on every timestep
+      this.eventScheduling = true;
+    }
     this.totalGeneratedPopulation = new AtomicInteger(0);
     this.stats = Collections.synchronizedMap(new HashMap<String, AtomicInteger>());
     this.modulePredicate = getModulePredicate();
@@ -281,6 +310,15 @@ public class Generator {
       } catch (Exception e) {
         throw new ExceptionInInitializerError(e);
       }
+      this.keepCriteria = KeepCriteria.of(this.keepPatientsModule);
+      this.keepPatientsEarlyRejection =
+          Config.getAsBoolean("generate.keep_patients_early_rejection", false);
+      this.keepPatientsRedrawDemographics = this.keepPatientsEarlyRejection && Config.getAsBoolean(
+          "generate.keep_patients_early_rejection.redraw_demographics", false);
+      if (this.keepPatientsEarlyRejection && this.keepCriteria == null) {
+        System.out.println("The keep patients module can only be checked at the end of each "
+            + "simulation, as its Initial state does not transition straight to Keep.");
+      }
     }
 
     Costs.loadCostData(); // ensure cost data loads early
@@ -348,60 +386,70 @@ public class Generator {
 
     }
 
-    ExecutorService threadPool = Executors.newFixedThreadPool(threadPoolSize);
-
-    if (options.initialPopulationSnapshotPath != null) {
-      FileInputStream fis = null;
-      List<Person> initialPopulation = null;
+    if (options.updatedPopulationSnapshotPath != null) {
       try {
-        fis = new FileInputStream(options.initialPopulationSnapshotPath);
-        ObjectInputStream ois = new ObjectInputStream(fis);
-        initialPopulation = (List<Person>) ois.readObject();
-        ois.close();
-      } catch (Exception ex) {
-        System.out.printf("Unable to load population snapshot, error: %s", ex.getMessage());
+        snapshotWriter = new PopulationSnapshot.Writer(options.updatedPopulationSnapshotPath);
+      } catch (IOException ex) {
+        System.out.printf("Unable to save population snapshot, error: %s", ex.getMessage());
       }
-      if (initialPopulation != null && initialPopulation.size() > 0) {
-        // default is to run until current system time.
-        if (options.daysToTravelForward > 0) {
-          stop = initialPopulation.get(0).lastUpdated
-              + Utilities.convertTime("days", options.daysToTravelForward);
+    }
+
+    // Only keep a few tasks per thread queued up, so the tasks of a large population are not
+    // all allocated before the first person finishes.
+    ExecutorService threadPool = Executors.newFixedThreadPool(threadPoolSize);
+    TaskScheduler scheduler = new TaskScheduler(threadPool,
+        threadPoolSize * Config.getAsInteger("generate.tasks_in_flight_per_thread", 4),
+        TimeUnit.SECONDS.toMillis(30));
+
+    try {
+      if (options.initialPopulationSnapshotPath != null) {
+        PopulationSnapshot.Reader reader = null;
+        try {
+          reader = new PopulationSnapshot.Reader(options.initialPopulationSnapshotPath);
+          PopulationSnapshot.Record record = reader.nextRecord();
+          // default is to run until current system time.
+          if (record != null && options.daysToTravelForward > 0) {
+            stop = record.getPerson().lastUpdated
+                + Utilities.convertTime("days", options.daysToTravelForward);
+          }
+          for (int i = 0; record != null; i++) {
+            final int index = i;
+            final PopulationSnapshot.Record r = record;
+            // people are decoded by the thread that updates them
+            scheduler.submit(() -> updateRecordExportPerson(r, index));
+            record = reader.nextRecord();
+          }
+        } catch (IOException | ClassNotFoundException | RuntimeException ex) {
+          System.out.printf("Unable to load population snapshot, error: %s", ex.getMessage());
+        } finally {
+          if (reader != null) {
+            try {
+              reader.close();
+            } catch (IOException ex) {
+              // nothing more to read
+            }
+          }
         }
-        for (int i = 0; i < initialPopulation.size(); i++) {
+      } else {
+        // Generate patients up to the specified population size.
+        for (int i = 0; i < this.options.population; i++) {
           final int index = i;
-          final Person p = initialPopulation.get(i);
-          threadPool.submit(() -> updateRecordExportPerson(p, index));
+          final long seed = this.populationRandom.randLong();
+          scheduler.submit(() -> generatePerson(index, seed));
         }
       }
-    } else {
-      // Generate patients up to the specified population size.
-      for (int i = 0; i < this.options.population; i++) {
-        final int index = i;
-        final long seed = this.populationRandom.randLong();
-        threadPool.submit(() -> generatePerson(index, seed));
-      }
-    }
 
-    try {
-      threadPool.shutdown();
-      while (!threadPool.awaitTermination(30, TimeUnit.SECONDS)) {
-        System.out.println("Waiting for threads to finish... " + threadPool);
-      }
+      scheduler.shutdownAndWait();
     } catch (InterruptedException e) {
       System.out.println("Generator interrupted. Attempting to shut down associated thread pool.");
       threadPool.shutdownNow();
     }
 
-    // Save a snapshot of the generated population using Java Serialization
-    if (options.updatedPopulationSnapshotPath != null) {
-      FileOutputStream fos = null;
+    // Finish the snapshot of the generated population
+    if (snapshotWriter != null) {
       try {
-        fos = new FileOutputStream(options.updatedPopulationSnapshotPath);
-        ObjectOutputStream oos = new ObjectOutputStream(fos);
-        oos.writeObject(internalStore);
-        oos.close();
-        fos.close();
-      } catch (Exception ex) {
+        snapshotWriter.close();
+      } catch (IOException ex) {
         System.out.printf("Unable to save population snapshot, error: %s", ex.getMessage());
       }
     }
@@ -411,6 +459,17 @@ public class Generator {
             stats.get("alive").get(), stats.get("dead").get());
     System.out.printf("RNG=%d\n", this.populationRandom.getCount());
     System.out.printf("Clinician RNG=%d\n", this.clinicianRandom.getCount());
+    if (LifecycleModule.ENABLE_PHYSIOLOGY_GENERATORS || State.ENABLE_PHYSIOLOGY_STATE) {
+      CacheStats physiologyStats = PhysiologySimulator.getCacheStats();
+      if (physiologyStats != null) {
+        System.out.printf("Physiology cache: hits=%d, misses=%d, evictions=%d\n",
+            physiologyStats.hitCount(), physiologyStats.missCount(),
+            physiologyStats.evictionCount());
+      }
+    }
+    if (this.keepCriteria != null) {
+      this.keepCriteria.printStats();
+    }
 
     if (this.metrics != null) {
       metrics.printStats(totalGeneratedPopulation.get(), Module.getModules(getModulePredicate()));
@@ -470,7 +529,23 @@ public class Generator {
 
       do {
         tryNumber++;
-        person = createPerson(personSeed, demoAttributes);
+        person = initializePerson(personSeed, demoAttributes);
+        Logic unreachable = updatePerson(person,
+            this.keepPatientsEarlyRejection ? this.keepCriteria : null);
+        if (unreachable != null) {
+          // the person can no longer meet the keep criteria, so was not simulated to the end
+          this.keepCriteria.recordRejectedEarly(unreachable);
+          checkAttemptsToKeepPatient(tryNumber);
+          // rotate the seed so the next attempt gets a consistent but different one
+          personSeed = person.randLong();
+          if (entityManager == null && this.keepPatientsRedrawDemographics) {
+            // criteria that can be ruled out early usually depend on the demographics,
+            // ex. an age window, so the same demographics would be rejected again
+            demoAttributes = randomDemographics(person);
+          }
+          patientMeetsCriteria = false;
+          continue;
+        }
         long finishTime = person.lastUpdated + timestep;
 
         boolean isAlive = person.alive(finishTime);
@@ -479,24 +554,7 @@ public class Generator {
         patientMeetsCriteria = check.meetsCriteria();
 
         if (!patientMeetsCriteria) {
-          if (this.maxAttemptsToKeepPatient != null
-              && tryNumber >= this.maxAttemptsToKeepPatient) {
-            // we've tried and failed to produce a patient that meets the criteria
-            // throw an exception to halt processing in this slot
-            String msg = "Failed to produce a matching patient after "
-                + tryNumber + " attempts. "
-                + "Ensure that it is possible for all "
-                + "requested demographics to meet the criteria. "
-                + "(e.g., make sure there is no age restriction "
-                + "that conflicts with a requested condition, "
-                + "such as limiting age to 0-18 and requiring "
-                + "all patients have a condition that only onsets after 55.) "
-                + "If you are confident that the constraints"
-                + " are possible to satisfy but rare, "
-                + "consider increasing the value in config setting "
-                + "`generate.max_attempts_to_keep_patient`";
-            throw new RuntimeException(msg);
-          }
+          checkAttemptsToKeepPatient(tryNumber);
 
           // this should be false for any clauses in checkCriteria below
           // when we want to export this patient, but keep trying to produce one meeting criteria
@@ -555,6 +613,32 @@ public class Generator {
     return person;
   }
 
+  /**
+   * Halt processing in this slot if we've tried and failed too many times to produce a patient
+   * that meets the criteria.
+   * @param tryNumber The number of attempts so far.
+   */
+  private void checkAttemptsToKeepPatient(int tryNumber) {
+    if (this.maxAttemptsToKeepPatient != null
+        && tryNumber >= this.maxAttemptsToKeepPatient) {
+      // we've tried and failed to produce a patient that meets the criteria
+      // throw an exception to halt processing in this slot
+      String msg = "Failed to produce a matching patient after "
+          + tryNumber + " attempts. "
+          + "Ensure that it is possible for all "
+          + "requested demographics to meet the criteria. "
+          + "(e.g., make sure there is no age restriction "
+          + "that conflicts with a requested condition, "
+          + "such as limiting age to 0-18 and requiring "
+          + "all patients have a condition that only onsets after 55.) "
+          + "If you are confident that the constraints"
+          + " are possible to satisfy but rare, "
+          + "consider increasing the value in config setting "
+          + "`generate.max_attempts_to_keep_patient`";
+      throw new RuntimeException(msg);
+    }
+  }
+
   /**
    * Helper class to keep track of patient criteria.
    * Caches results in booleans so different combinations are quick to check
@@ -621,12 +705,69 @@ public class Generator {
         this.keepPatientsModule.process(person, finishTime, false);
         State terminal = person.history.get(0);
         check.failedKeepModule = !terminal.name.equals("Keep");
+        if (check.failedKeepModule && this.keepCriteria != null) {
+          this.keepCriteria.recordRejectedAtEnd(person, finishTime);
+        }
       }
     }
 
     return check;
   }
 
+  /**
+   * Bring a person loaded from a population snapshot up to date, then record and export them.
+   * With incremental time travel, dead people are not simulated again. Everyone is exported
+   * again, since exporters such as CSV and bulk FHIR rewrite their files on each run.
+   */
+  private void updateRecordExportPerson(PopulationSnapshot.Record record, int index) {
+    if (!incrementalTimeTravel) {
+      updateRecordExportPerson(record.getPerson(), index);
+      return;
+    }
+    PopulationSnapshot.Summary summary = record.getSummary();
+    Person person = record.getPerson();
+    if (!summary.isDead()) {
+      updateModules(person, summary);
+      updatePerson(person);
+    }
+    recordPerson(person, index);
+    Exporter.export(person, person.lastUpdated + timestep, exporterRuntimeOptions);
+  }
+
+  /**
+   * Switch a person loaded from a population snapshot over to the modules as they are now,
+   * rather than as they were when the snapshot was written, so any changes to a module apply
+   * from here on. Modules that haven't changed since the snapshot carry on where they were.
+   * In modules that have changed, people whose current state no longer exists start from the
+   * beginning. Modules the person hadn't started, such as new modules, start from the
+   * beginning too. Finished modules stay finished.
+   * @param person The person.
+   * @param summary The summary of the person from the snapshot.
+   */
+  void updateModules(Person person, PopulationSnapshot.Summary summary) {
+    Set<String> running = new HashSet<String>();
+    for (Module module : person.currentModules) {
+      running.add(module.name);
+    }
+    List<Module> modules = new ArrayList<Module>();
+    for (Module module : Module.getModules(modulePredicate)) {
+      PopulationSnapshot.ModulePosition position = summary.getModules().get(module.name);
+      // java modules don't record a position, and are only finished if they said so
+      boolean javaModule = module.getContentHash() == null;
+      if (javaModule || position != null
+          && (module.getContentHash().equals(position.moduleHash)
+              || module.getStateNames().contains(position.state))) {
+        if (running.contains(module.name)) {
+          modules.add(module);
+        }
+      } else {
+        person.attributes.remove(module.name);
+        modules.add(module);
+      }
+    }
+    person.currentModules = modules;
+  }
+
   /**
    * Update person record to stop time, record the entry and export record.
    */
@@ -646,8 +787,21 @@ public class Generator {
    * @return the new person
    */
   public Person createPerson(long personSeed, Map<String, Object> demoAttributes) {
+    Person person = initializePerson(personSeed, demoAttributes);
+
+    // Enter the loop of updating the person's life.
+    updatePerson(person);
 
-    // Initialize person.
+    return person;
+  }
+
+  /**
+   * Create a new person, born but not yet updated.
+   * @param personSeed Seed for the random person
+   * @param demoAttributes Demographic attributes for the new person, {@link #randomDemographics}
+   * @return the new person
+   */
+  private Person initializePerson(long personSeed, Map<String, Object> demoAttributes) {
     Person person = new Person(personSeed);
     person.populationSeed = this.options.seed;
     person.attributes.putAll(demoAttributes);
@@ -659,9 +813,6 @@ public class Generator {
 
     person.currentModules = Module.getModules(modulePredicate);
 
-    // Enter the loop of updating the person's life.
-    updatePerson(person);
-
     return person;
   }
 
@@ -672,11 +823,31 @@ public class Generator {
    * @param person the previously created person to update
    */
   public void updatePerson(Person person) {
+    updatePerson(person, null);
+  }
+
+  /**
+   * Update a person from the time they were last updated until Generator.stop or they die,
+   * whichever comes sooner, or until they can no longer meet the given keep criteria.
+   * @param person the person to update
+   * @param keepCriteria criteria to check the person against on every timestep, or null
+   * @return the criterion the person could no longer meet, if the update was stopped because
+   *     of it, otherwise null
+   */
+  private Logic updatePerson(Person person, KeepCriteria keepCriteria) {
     HealthInsuranceModule healthInsuranceModule = new HealthInsuranceModule();
     EncounterModule encounterModule = new EncounterModule();
 
     long time = person.lastUpdated;
+    // the keep module is processed one timestep after the last update
+    long keepEnd = stop + timestep;
     while (person.alive(time) && time < stop) {
+      if (keepCriteria != null) {
+        Logic unreachable = keepCriteria.findUnreachable(person, time, keepEnd);
+        if (unreachable != null) {
+          return unreachable;
+        }
+      }
 
       // If fixed demographics are in use then check to update the person's current fixed record.
       Entity entity = (Entity) person.attributes.get(Person.ENTITY);
@@ -704,6 +875,10 @@ public class Generator {
       while (iter.hasNext()) {
         Module module = iter.next();
 
+        if (eventScheduling && module.nextWakeTime(person) > time) {
+          // the module is waiting on a delay that hasn't expired, so processing it is a no-op
+          continue;
+        }
         if (module.process(person, time)) {
           iter.remove(); // this module has completed/terminated.
         }
@@ -749,6 +924,7 @@ public class Generator {
 
     // If the person is dead, we need a death certificate.
     DeathModule.process(person, time);
+    return null;
   }
 
   /**
@@ -928,6 +1104,14 @@ public class Generator {
       internalStore.add(person);
     }
 
+    if (snapshotWriter != null) {
+      try {
+        snapshotWriter.write(person);
+      } catch (IOException ex) {
+        throw new RuntimeException("Unable to save population snapshot", ex);
+      }
+    }
+
     if (this.metrics != null) {
       metrics.recordStats(person, finishTime, Module.getModules(modulePredicate));
     }
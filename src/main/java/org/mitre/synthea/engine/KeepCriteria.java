@@ -0,0 +1,179 @@
+package org.mitre.synthea.engine;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mitre.synthea.engine.Transition.ConditionalTransition;
+import org.mitre.synthea.engine.Transition.ConditionalTransitionOption;
+import org.mitre.synthea.world.agents.Person;
+
+/**
+ * The criteria of a keep patients module (the -k option), so they can be checked while a
+ * person is being simulated. A person who can no longer reach the "Keep" state, for example
+ * because they are already past the age window of the criteria, can then be rejected without
+ * simulating the rest of their life.
+ * Only keep modules whose Initial state has a conditional transition straight to terminal
+ * states can be checked this way. The criteria are the conditions of the transitions to
+ * "Keep", split into the conditions of an And, and are also used to count how often each of
+ * them caused a person to be rejected.
+ */
+public class KeepCriteria {
+  private static final String KEEP = "Keep";
+  private static final Gson GSON = new GsonBuilder()
+      .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+      .disableHtmlEscaping()
+      .create();
+
+  /** The conditions of each transition to Keep, split into the conditions of an And. */
+  private final List<List<Logic>> paths;
+  private final Map<String, AtomicInteger> rejectedEarly;
+  private final Map<String, AtomicInteger> rejectedAtEnd;
+
+  private KeepCriteria(List<List<Logic>> paths) {
+    this.paths = paths;
+    this.rejectedEarly = new ConcurrentHashMap<String, AtomicInteger>();
+    this.rejectedAtEnd = new ConcurrentHashMap<String, AtomicInteger>();
+  }
+
+  /**
+   * Extract the criteria of a keep patients module.
+   * @param module The keep patients module.
+   * @return the criteria, or null if the module is not a single conditional transition from the
+   *     Initial state to terminal states, or if it can reach Keep without any condition.
+   */
+  public static KeepCriteria of(Module module) {
+    State initial = module.getState("Initial");
+    if (initial == null || !(initial.getTransition() instanceof ConditionalTransition)) {
+      return null;
+    }
+    List<ConditionalTransitionOption> options =
+        ((ConditionalTransition) initial.getTransition()).getTransitions();
+    List<List<Logic>> paths = new ArrayList<List<Logic>>();
+    for (int i = 0; i < options.size(); i++) {
+      ConditionalTransitionOption option = options.get(i);
+      if (!(module.getState(option.getTransition()) instanceof State.Terminal)) {
+        return null;
+      }
+      if (KEEP.equals(option.getTransition())) {
+        if (option.getCondition() == null || i == options.size() - 1) {
+          // the last transition is also the fallback when no condition is true
+          return null;
+        }
+        paths.add(new ArrayList<Logic>(Logic.conjuncts(option.getCondition())));
+      }
+    }
+    return new KeepCriteria(paths);
+  }
+
+  /**
+   * Find a criterion that the person can no longer meet.
+   * @param person The person being simulated.
+   * @param time The current time.
+   * @param end The latest time the keep module may be processed.
+   * @return a criterion that is certain to be false until the end time, on every path to Keep,
+   *     or null if the person may still reach Keep.
+   */
+  public Logic findUnreachable(Person person, long time, long end) {
+    Logic first = null;
+    for (List<Logic> path : paths) {
+      Logic unreachable = null;
+      for (Logic criterion : path) {
+        if (criterion.isFalseThrough(person, time, end)) {
+          unreachable = criterion;
+          break;
+        }
+      }
+      if (unreachable == null) {
+        return null;
+      } else if (first == null) {
+        first = unreachable;
+      }
+    }
+    return first;
+  }
+
+  /**
+   * Count a person who was rejected before the end of their simulation.
+   * @param criterion The criterion they could no longer meet.
+   */
+  public void recordRejectedEarly(Logic criterion) {
+    rejectedEarly.computeIfAbsent(describe(criterion), k -> new AtomicInteger()).incrementAndGet();
+  }
+
+  /**
+   * Count a person who did not reach Keep at the end of their simulation, once for each of the
+   * criteria that was false.
+   * @param person The person.
+   * @param time The time the keep module was processed.
+   */
+  public void recordRejectedAtEnd(Person person, long time) {
+    for (List<Logic> path : paths) {
+      for (Logic criterion : path) {
+        if (!criterion.test(person, time)) {
+          rejectedAtEnd.computeIfAbsent(describe(criterion), k -> new AtomicInteger())
+              .incrementAndGet();
+        }
+      }
+    }
+  }
+
+  /**
+   * Print the number of people rejected by each criterion.
+   */
+  public void printStats() {
+    if (rejectedEarly.isEmpty() && rejectedAtEnd.isEmpty()) {
+      return;
+    }
+    System.out.println("Keep patients module rejections:");
+    for (Map.Entry<String, AtomicInteger> entry : new TreeMap<>(rejectedEarly).entrySet()) {
+      System.out.printf("  stopped early: %s = %d\n", entry.getKey(), entry.getValue().get());
+    }
+    for (Map.Entry<String, AtomicInteger> entry : new TreeMap<>(rejectedAtEnd).entrySet()) {
+      System.out.printf("  at the end: %s = %d\n", entry.getKey(), entry.getValue().get());
+    }
+  }
+
+  /**
+   * Get the number of people rejected before the end of their simulation.
+   * @return the number of people rejected early, by criterion.
+   */
+  public Map<String, Integer> getRejectedEarly() {
+    return counts(rejectedEarly);
+  }
+
+  /**
+   * Get the number of people rejected at the end of their simulation.
+   * @return the number of times each criterion was false when a person was rejected.
+   */
+  public Map<String, Integer> getRejectedAtEnd() {
+    return counts(rejectedAtEnd);
+  }
+
+  private static Map<String, Integer> counts(Map<String, AtomicInteger> counters) {
+    Map<String, Integer> counts = new TreeMap<String, Integer>();
+    for (Map.Entry<String, AtomicInteger> entry : counters.entrySet()) {
+      counts.put(entry.getKey(), entry.getValue().get());
+    }
+    return counts;
+  }
+
+  /**
+   * Describe a criterion by its first remark, or otherwise by its type and settings.
+   */
+  static String describe(Logic criterion) {
+    Collection<String> remarks = criterion.remarks;
+    if (remarks != null && !remarks.isEmpty()) {
+      return remarks.iterator().next();
+    }
+    return criterion.getClass().getSimpleName() + " " + GSON.toJson(criterion);
+  }
+}
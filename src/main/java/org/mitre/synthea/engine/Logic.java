@@ -3,11 +3,13 @@ package org.mitre.synthea.engine;
 import java.io.Serializable;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.TimeZone;
 
 import org.mitre.synthea.engine.Components.DateInput;
 import org.mitre.synthea.engine.Components.ExactWithUnit;
+import org.mitre.synthea.helpers.AttributeMap;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.world.agents.Person;
@@ -35,6 +37,74 @@ public abstract class Logic implements Serializable {
    */
   public abstract boolean test(Person person, long time);
 
+  /**
+   * Compile this logic into an evaluator that gives the same answers as {@link #test}, with
+   * operators, units and constant values resolved once rather than on every call. Logic that
+   * has no specialized form, or whose settings the compiled form cannot represent, returns
+   * itself and continues to be interpreted.
+   *
+   * @return Logic to evaluate in place of this one
+   */
+  public Logic compile() {
+    return this;
+  }
+
+  /**
+   * Check whether this logic is certain to be false whenever it is tested from the given time
+   * until the given end time, whatever else happens to the person in the meantime. Logic that
+   * cannot be sure, which is most logic, returns false.
+   *
+   * @param person Person to execute logic against
+   * @param time The current time
+   * @param end The latest time the logic may be tested
+   * @return true if the logic cannot become true before the end time
+   */
+  public boolean isFalseThrough(Person person, long time, long end) {
+    return false;
+  }
+
+  /**
+   * Split logic into the conditions that must all be true for it to be true.
+   * @param logic Logic to split
+   * @return the conditions of an And, or the logic itself
+   */
+  static Collection<Logic> conjuncts(Logic logic) {
+    if (logic instanceof And && ((And) logic).conditions != null) {
+      return ((And) logic).conditions;
+    }
+    return Collections.singletonList(logic);
+  }
+
+  /**
+   * Check a comparison against a value that only increases over time, such as age or the
+   * current date: an upper bound that is false now stays false, and a lower bound that is
+   * false at the end time was false all along.
+   */
+  private static boolean isIncreasingFalseThrough(Logic logic, String operator, Person person,
+      long time, long end) {
+    Operator op = Operator.fromString(operator);
+    if (op == Operator.LESS_THAN || op == Operator.LESS_THAN_OR_EQUAL) {
+      return !logic.test(person, time);
+    } else if (op == Operator.GREATER_THAN || op == Operator.GREATER_THAN_OR_EQUAL) {
+      return !logic.test(person, end);
+    }
+    return false;
+  }
+
+  /**
+   * Compile each of the given conditions.
+   * @param conditions Conditions to compile
+   * @return Compiled conditions, in the same order
+   */
+  private static Logic[] compileAll(Collection<Logic> conditions) {
+    Logic[] compiled = new Logic[conditions.size()];
+    int i = 0;
+    for (Logic condition : conditions) {
+      compiled[i++] = condition.compile();
+    }
+    return compiled;
+  }
+
   /**
    * Find the most recent entry, of a specific type of HealthRecord.Entry
    * within the patient history. May return null.
@@ -48,9 +118,13 @@ public abstract class Logic implements Serializable {
       Person person, Class<T> classType, Code code) {
     // Find the most recent health record entry from the patient history
     HealthRecord.Entry entry = null;
-    for (State state : person.history) {
-      if (state.entry != null && classType.isInstance(state.entry)) {
-        T candidate = (T) state.entry;
+    List<State> history = person.history;
+    // a StateHistory keeps the entries without copies of the states
+    StateHistory compact = (history instanceof StateHistory) ? (StateHistory) history : null;
+    for (int i = 0; i < history.size(); i++) {
+      HealthRecord.Entry found = (compact != null) ? compact.getEntry(i) : history.get(i).entry;
+      if (found != null && classType.isInstance(found)) {
+        T candidate = (T) found;
         for (Code candidateCode : candidate.codes) {
           if (candidateCode.equals(code)) {
             entry = candidate;
@@ -65,6 +139,120 @@ public abstract class Logic implements Serializable {
     return entry;
   }
 
+  /**
+   * Count how many of the conditions are true, testing all of them.
+   */
+  private static int countTrue(Logic[] conditions, Person person, long time) {
+    int count = 0;
+    for (Logic condition : conditions) {
+      if (condition.test(person, time)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Comparison operators used by logic, resolved once from their JSON names so that compiled
+   * logic does not repeat string comparisons on every test. The comparisons give the same
+   * answers as the matching Utilities.compare methods.
+   */
+  enum Operator {
+    LESS_THAN("<"),
+    LESS_THAN_OR_EQUAL("<="),
+    EQUAL("=="),
+    GREATER_THAN_OR_EQUAL(">="),
+    GREATER_THAN(">"),
+    NOT_EQUAL("!="),
+    IS_NIL("is nil"),
+    IS_NOT_NIL("is not nil");
+
+    private final String symbol;
+
+    Operator(String symbol) {
+      this.symbol = symbol;
+    }
+
+    /**
+     * Find the operator with the given JSON name.
+     * @param symbol Operator name, ex. "&lt;=" or "is nil"
+     * @return the Operator, or null if it is not supported
+     */
+    static Operator fromString(String symbol) {
+      for (Operator operator : values()) {
+        if (operator.symbol.equals(symbol)) {
+          return operator;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Compare two non-null numbers.
+     */
+    boolean compare(double lhs, double rhs) {
+      switch (this) {
+        case LESS_THAN:
+          return lhs < rhs;
+        case LESS_THAN_OR_EQUAL:
+          return lhs <= rhs;
+        case EQUAL:
+          return lhs == rhs;
+        case GREATER_THAN_OR_EQUAL:
+          return lhs >= rhs;
+        case GREATER_THAN:
+          return lhs > rhs;
+        case NOT_EQUAL:
+          return lhs != rhs;
+        case IS_NOT_NIL:
+          return true;
+        default:
+          // IS_NIL, the values are never null
+          return false;
+      }
+    }
+
+    /**
+     * Compare any two values. Numbers are compared here and other types are handed to
+     * Utilities.compare.
+     */
+    boolean compare(Object lhs, Object rhs) {
+      if (this == IS_NIL) {
+        return lhs == null;
+      } else if (this == IS_NOT_NIL) {
+        return lhs != null;
+      } else if (lhs == null) {
+        return false;
+      } else if (lhs instanceof Number && rhs instanceof Number) {
+        return compare(((Number) lhs).doubleValue(), ((Number) rhs).doubleValue());
+      }
+      return Utilities.compare(lhs, rhs, symbol);
+    }
+  }
+
+  /**
+   * Parent class for compiled logic. Keeps the logic it was compiled from, which remains the
+   * reference for what the compiled form must return.
+   */
+  private abstract static class Compiled extends Logic {
+    protected final Logic source;
+
+    Compiled(Logic source) {
+      this.source = source;
+      this.remarks = source.remarks;
+    }
+
+    @Override
+    public boolean isFalseThrough(Person person, long time, long end) {
+      return source.isFalseThrough(person, time, end);
+    }
+
+    @Override
+    public String toString() {
+      return "Compiled " + source.getClass().getSimpleName();
+    }
+  }
+
   /**
    * The Gender condition type tests the patient's gender. (M or F)
    */
@@ -105,6 +293,29 @@ public abstract class Logic implements Serializable {
 
       return Utilities.compare(age, quantity, operator);
     }
+
+    @Override
+    public boolean isFalseThrough(Person person, long time, long end) {
+      return isIncreasingFalseThrough(this, operator, person, time, end);
+    }
+
+    @Override
+    public Logic compile() {
+      Operator op = Operator.fromString(operator);
+      if (op == null || quantity == null
+          || !("years".equals(unit) || "months".equals(unit))) {
+        return this;
+      }
+      boolean months = "months".equals(unit);
+      double value = quantity;
+      return new Compiled(this) {
+        @Override
+        public boolean test(Person person, long time) {
+          double age = months ? person.ageInMonths(time) : person.ageInYears(time);
+          return op.compare(age, value);
+        }
+      };
+    }
   }
 
   /**
@@ -138,6 +349,51 @@ public abstract class Logic implements Serializable {
             + "not currently supported in Date logic.");
       }
     }
+
+    @Override
+    public boolean isFalseThrough(Person person, long time, long end) {
+      // the month comes around again every year, but the year and date only increase
+      if (year == null && date == null) {
+        return false;
+      }
+      return isIncreasingFalseThrough(this, operator, person, time, end);
+    }
+
+    @Override
+    public Logic compile() {
+      Operator op = Operator.fromString(operator);
+      if (op == null) {
+        return this;
+      } else if (year != null) {
+        int value = year;
+        return new Compiled(this) {
+          @Override
+          public boolean test(Person person, long time) {
+            return op.compare(Utilities.getYear(time), value);
+          }
+        };
+      } else if (month != null) {
+        int value = month;
+        return new Compiled(this) {
+          @Override
+          public boolean test(Person person, long time) {
+            return op.compare(Utilities.getMonth(time), value);
+          }
+        };
+      } else if (date != null) {
+        Calendar testDate = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        testDate.set(date.year, date.month - 1, date.day, date.hour, date.minute, date.second);
+        testDate.set(Calendar.MILLISECOND,date.millisecond);
+        double testTime = testDate.getTimeInMillis();
+        return new Compiled(this) {
+          @Override
+          public boolean test(Person person, long time) {
+            return op.compare(time, testTime);
+          }
+        };
+      }
+      return this;
+    }
   }
 
   /**
@@ -181,6 +437,20 @@ public abstract class Logic implements Serializable {
     public boolean test(Person person, long time) {
       return Utilities.compare((double) person.getSymptom(symptom), value, operator);
     }
+
+    @Override
+    public Logic compile() {
+      Operator op = Operator.fromString(operator);
+      if (op == null) {
+        return this;
+      }
+      return new Compiled(this) {
+        @Override
+        public boolean test(Person person, long time) {
+          return op.compare(person.getSymptom(symptom), value);
+        }
+      };
+    }
   }
 
   /**
@@ -204,35 +474,7 @@ public abstract class Logic implements Serializable {
     public boolean test(Person person, long time) {
       HealthRecord.Observation observation = null;
       if (this.codes != null) {
-        for (Code code : this.codes) {
-          // First, look in the current health record for the latest observation
-          HealthRecord.Observation last = person.record.getLatestObservation(code.code);
-          if (person.lossOfCareEnabled) {
-            if (last == null) {
-              // If the observation is not in the current record,
-              // it could be in the uncovered health record.
-              last = person.lossOfCareRecord.getLatestObservation(code.code);
-            }
-            if (last == null) {
-              // If the observation still is not in the uncovered health record,
-              // it could be in the covered health record.
-              last = person.defaultRecord.getLatestObservation(code.code);
-            }
-          }
-          if (last == null && person.hasMultipleRecords) {
-            // If the latest observation is not in the covered/uncovered health record,
-            // then look in the module history.
-            last = (HealthRecord.Observation)
-                findEntryFromHistory(person, HealthRecord.Observation.class, code);
-            if (Config.getAsBoolean("exporter.split_records.duplicate_data", false)) {
-              person.record.currentEncounter(time).observations.add(last);
-            }
-          }
-          if (last != null) {
-            observation = last;
-            break;
-          }
-        }
+        observation = findObservation(person, time);
       } else if (this.referencedByAttribute != null) {
         if (person.attributes.containsKey(this.referencedByAttribute)) {
           observation =
@@ -249,25 +491,103 @@ public abstract class Logic implements Serializable {
       } else if (operator.equals("is not nil")) {
         return observation != null;
       } else if (observation == null) {
-        if (this.codes != null) {
-          // TODO - This is a band-aid to try and swallow this exception and just return false if
-          //  using split records.
-          // This issue occurs occasionally when using the split records feature -
-          // see https://github.com/synthetichealth/synthea/issues/774.
-          if (Config.getAsBoolean("exporter.split_records", false)) {
-            return false;
+        return missingObservation();
+      } else {
+        return Utilities.compare(observation.value, this.value, operator);
+      }
+    }
+
+    /**
+     * Find the latest observation matching any of the codes, in code order.
+     */
+    private HealthRecord.Observation findObservation(Person person, long time) {
+      for (Code code : this.codes) {
+        // First, look in the current health record for the latest observation
+        HealthRecord.Observation last = person.record.getLatestObservation(code.code);
+        if (person.lossOfCareEnabled) {
+          if (last == null) {
+            // If the observation is not in the current record,
+            // it could be in the uncovered health record.
+            last = person.lossOfCareRecord.getLatestObservation(code.code);
           }
-          // Original exception that should be thrown:
-          throw new NullPointerException("Required observation " + this.codes + " is null.");
-        } else if (this.referencedByAttribute != null) {
-          throw new NullPointerException("Required observation \""
-              + this.referencedByAttribute + "\" is null.");
-        } else {
-          throw new NullPointerException("Required observation is null.");
+          if (last == null) {
+            // If the observation still is not in the uncovered health record,
+            // it could be in the covered health record.
+            last = person.defaultRecord.getLatestObservation(code.code);
+          }
+        }
+        if (last == null && person.hasMultipleRecords) {
+          // If the latest observation is not in the covered/uncovered health record,
+          // then look in the module history.
+          last = (HealthRecord.Observation)
+              findEntryFromHistory(person, HealthRecord.Observation.class, code);
+          if (last != null
+              && Config.getAsBoolean("exporter.split_records.duplicate_data", false)) {
+            person.record.currentEncounter(time).addObservation(last);
+          }
+        }
+        if (last != null) {
+          return last;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Handle a comparison against an observation that was never recorded.
+     */
+    private boolean missingObservation() {
+      if (this.codes != null) {
+        // TODO - This is a band-aid to try and swallow this exception and just return false if
+        //  using split records.
+        // This issue occurs occasionally when using the split records feature -
+        // see https://github.com/synthetichealth/synthea/issues/774.
+        if (Config.getAsBoolean("exporter.split_records", false)) {
+          return false;
         }
+        // Original exception that should be thrown:
+        throw new NullPointerException("Required observation " + this.codes + " is null.");
+      } else if (this.referencedByAttribute != null) {
+        throw new NullPointerException("Required observation \""
+            + this.referencedByAttribute + "\" is null.");
       } else {
-        return Utilities.compare(observation.value, this.value, operator);
+        throw new NullPointerException("Required observation is null.");
+      }
+    }
+
+    @Override
+    public Logic compile() {
+      Operator op = Operator.fromString(operator);
+      if (op == null) {
+        return this;
       }
+      Object expected = (valueCode != null) ? valueCode : value;
+      boolean numeric = expected instanceof Number;
+      double number = numeric ? ((Number) expected).doubleValue() : 0.0;
+      return new Compiled(this) {
+        @Override
+        public boolean test(Person person, long time) {
+          HealthRecord.Observation observation = null;
+          if (codes != null) {
+            observation = findObservation(person, time);
+          } else if (referencedByAttribute != null) {
+            observation = (HealthRecord.Observation) person.attributes.get(referencedByAttribute);
+            if (observation == null && !person.attributes.containsKey(referencedByAttribute)) {
+              return false;
+            }
+          }
+          if (op == Operator.IS_NIL) {
+            return observation == null;
+          } else if (op == Operator.IS_NOT_NIL) {
+            return observation != null;
+          } else if (observation == null) {
+            return missingObservation();
+          } else if (numeric && observation.value instanceof Number) {
+            return op.compare(((Number) observation.value).doubleValue(), number);
+          }
+          return op.compare(observation.value, expected);
+        }
+      };
     }
   }
 
@@ -285,11 +605,39 @@ public abstract class Logic implements Serializable {
       try {
         return Utilities.compare(person.attributes.get(attribute), value, operator);
       } catch (Exception e) {
-        String message = "Attribute Logic error: " + attribute + " " + operator + " " + value;
-        message += ": " + e.getMessage();
-        throw new RuntimeException(message, e);
+        throw error(e);
       }
     }
+
+    private RuntimeException error(Exception e) {
+      String message = "Attribute Logic error: " + attribute + " " + operator + " " + value;
+      message += ": " + e.getMessage();
+      return new RuntimeException(message, e);
+    }
+
+    @Override
+    public Logic compile() {
+      Operator op = Operator.fromString(operator);
+      if (op == null) {
+        return this;
+      }
+      boolean numeric = value instanceof Number;
+      double number = numeric ? ((Number) value).doubleValue() : 0.0;
+      AttributeMap.Key key = AttributeMap.key(attribute);
+      return new Compiled(this) {
+        @Override
+        public boolean test(Person person, long time) {
+          try {
+            if (numeric && person.attributes.isNumber(key)) {
+              return op.compare(person.attributes.getDouble(key, 0.0), number);
+            }
+            return op.compare(person.attributes.getValue(key), value);
+          } catch (Exception e) {
+            throw error(e);
+          }
+        }
+      };
+    }
   }
 
   /**
@@ -310,6 +658,30 @@ public abstract class Logic implements Serializable {
     public boolean test(Person person, long time) {
       return conditions.stream().allMatch(c -> c.test(person, time));
     }
+
+    @Override
+    public boolean isFalseThrough(Person person, long time, long end) {
+      return conditions.stream().anyMatch(c -> c.isFalseThrough(person, time, end));
+    }
+
+    @Override
+    public Logic compile() {
+      if (conditions == null) {
+        return this;
+      }
+      Logic[] compiled = compileAll(conditions);
+      return new Compiled(this) {
+        @Override
+        public boolean test(Person person, long time) {
+          for (Logic condition : compiled) {
+            if (!condition.test(person, time)) {
+              return false;
+            }
+          }
+          return true;
+        }
+      };
+    }
   }
 
   /**
@@ -322,6 +694,30 @@ public abstract class Logic implements Serializable {
     public boolean test(Person person, long time) {
       return conditions.stream().anyMatch(c -> c.test(person, time));
     }
+
+    @Override
+    public boolean isFalseThrough(Person person, long time, long end) {
+      return conditions.stream().allMatch(c -> c.isFalseThrough(person, time, end));
+    }
+
+    @Override
+    public Logic compile() {
+      if (conditions == null) {
+        return this;
+      }
+      Logic[] compiled = compileAll(conditions);
+      return new Compiled(this) {
+        @Override
+        public boolean test(Person person, long time) {
+          for (Logic condition : compiled) {
+            if (condition.test(person, time)) {
+              return true;
+            }
+          }
+          return false;
+        }
+      };
+    }
   }
 
   /**
@@ -336,6 +732,20 @@ public abstract class Logic implements Serializable {
     public boolean test(Person person, long time) {
       return !condition.test(person, time);
     }
+
+    @Override
+    public Logic compile() {
+      if (condition == null) {
+        return this;
+      }
+      Logic compiled = condition.compile();
+      return new Compiled(this) {
+        @Override
+        public boolean test(Person person, long time) {
+          return !compiled.test(person, time);
+        }
+      };
+    }
   }
 
   /**
@@ -354,6 +764,28 @@ public abstract class Logic implements Serializable {
     public boolean test(Person person, long time) {
       return conditions.stream().filter(c -> c.test(person, time)).count() >= minimum;
     }
+
+    @Override
+    public boolean isFalseThrough(Person person, long time, long end) {
+      return conditions.stream().filter(c -> !c.isFalseThrough(person, time, end)).count()
+          < minimum;
+    }
+
+    @Override
+    public Logic compile() {
+      if (conditions == null || minimum == null) {
+        return this;
+      }
+      Logic[] compiled = compileAll(conditions);
+      int bound = minimum;
+      return new Compiled(this) {
+        @Override
+        public boolean test(Person person, long time) {
+          // every condition is tested, as in the interpreted form
+          return countTrue(compiled, person, time) >= bound;
+        }
+      };
+    }
   }
 
   /**
@@ -368,6 +800,22 @@ public abstract class Logic implements Serializable {
     public boolean test(Person person, long time) {
       return conditions.stream().filter(c -> c.test(person, time)).count() <= maximum;
     }
+
+    @Override
+    public Logic compile() {
+      if (conditions == null || maximum == null) {
+        return this;
+      }
+      Logic[] compiled = compileAll(conditions);
+      int bound = maximum;
+      return new Compiled(this) {
+        @Override
+        public boolean test(Person person, long time) {
+          // every condition is tested, as in the interpreted form
+          return countTrue(compiled, person, time) <= bound;
+        }
+      };
+    }
   }
 
 
@@ -393,6 +841,11 @@ public abstract class Logic implements Serializable {
     public boolean test(Person person, long time) {
       return false;
     }
+
+    @Override
+    public boolean isFalseThrough(Person person, long time, long end) {
+      return true;
+    }
   }
 
   /**
@@ -590,5 +1043,23 @@ public abstract class Logic implements Serializable {
     public boolean test(Person person, long time) {
       return Utilities.compare(person.getVitalSign(vitalSign, time), value, operator);
     }
+
+    @Override
+    public Logic compile() {
+      Operator op = Operator.fromString(operator);
+      if (op == null) {
+        return this;
+      }
+      return new Compiled(this) {
+        @Override
+        public boolean test(Person person, long time) {
+          Double current = person.getVitalSign(vitalSign, time);
+          if (current == null) {
+            return Utilities.compare(current, value, operator);
+          }
+          return op.compare(current.doubleValue(), value);
+        }
+      };
+    }
   }
 }
\ No newline at end of file
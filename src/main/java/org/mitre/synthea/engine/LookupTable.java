@@ -0,0 +1,285 @@
+package org.mitre.synthea.engine;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import org.mitre.synthea.helpers.RandomNumberGenerator;
+import org.mitre.synthea.world.agents.Person;
+
+/**
+ * The rows of a lookup table CSV, indexed for {@link Transition.LookupTableTransition}.
+ * Rows are first matched exactly on the values of their attribute columns, through one level of
+ * hash maps per column, and then by age and time through sorted arrays of the segments of
+ * the age and time ranges in the table. Where the ranges of several rows with the same
+ * attributes overlap, the first of them in the table is used.
+ * Each row holds the cumulative probabilities of its transitions, in the order of the CSV
+ * columns, so picking a transition takes one random number and no further arithmetic.
+ */
+final class LookupTable implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final String name;
+  /** Person attributes matched exactly, in the order of the CSV columns. */
+  private final String[] columns;
+  private final boolean hasAge;
+  /** Names of the states to transition to, in the order of the CSV columns. */
+  private final String[] transitions;
+  /** Maps from the value of each attribute column to the next, ending at an age index. */
+  private final Object root;
+
+  /**
+   * A parsed row of the table.
+   */
+  static final class Row {
+    private final List<String> attributes;
+    private final long ageLow;
+    private final long ageHigh;
+    private final long timeLow;
+    private final long timeHigh;
+    private final double[] cumulative;
+
+    /**
+     * Create a row.
+     * @param attributes The values of the attribute columns.
+     * @param ageLow Lowest age, in years, inclusive. Long.MIN_VALUE if the table has no age.
+     * @param ageHigh Highest age, in years, inclusive. Long.MAX_VALUE if the table has no age.
+     * @param timeLow Earliest time, inclusive. Long.MIN_VALUE if the table has no time.
+     * @param timeHigh Latest time, inclusive. Long.MAX_VALUE if the table has no time.
+     * @param probabilities The probability of each transition.
+     */
+    Row(List<String> attributes, long ageLow, long ageHigh, long timeLow, long timeHigh,
+        double[] probabilities) {
+      this.attributes = attributes;
+      this.ageLow = ageLow;
+      this.ageHigh = ageHigh;
+      this.timeLow = timeLow;
+      this.timeHigh = timeHigh;
+      this.cumulative = cumulative(probabilities);
+    }
+  }
+
+  /**
+   * Index the rows of a table.
+   * @param name The name of the table, for error messages.
+   * @param columns Person attributes matched exactly, in the order of the CSV columns.
+   * @param hasAge Whether the table has an age column.
+   * @param transitions Names of the states to transition to, in the order of the CSV columns.
+   * @param rows The rows of the table, in order.
+   */
+  LookupTable(String name, List<String> columns, boolean hasAge, List<String> transitions,
+      List<Row> rows) {
+    this.name = name;
+    this.columns = columns.toArray(new String[0]);
+    this.hasAge = hasAge;
+    this.transitions = transitions.toArray(new String[0]);
+
+    // group the rows by their attributes, keeping the order of the table within each group
+    Map<List<String>, List<Row>> groups = new HashMap<List<String>, List<Row>>();
+    for (Row row : rows) {
+      groups.computeIfAbsent(row.attributes, k -> new ArrayList<Row>()).add(row);
+    }
+    if (this.columns.length == 0) {
+      List<Row> group = groups.get(new ArrayList<String>());
+      this.root = group == null ? null : indexByAge(group);
+    } else {
+      Map<String, Object> map = new HashMap<String, Object>();
+      for (Map.Entry<List<String>, List<Row>> group : groups.entrySet()) {
+        Map<String, Object> level = map;
+        List<String> key = group.getKey();
+        for (int i = 0; i < key.size() - 1; i++) {
+          @SuppressWarnings("unchecked")
+          Map<String, Object> next = (Map<String, Object>) level.computeIfAbsent(key.get(i),
+              k -> new HashMap<String, Object>());
+          level = next;
+        }
+        level.put(key.get(key.size() - 1), indexByAge(group.getValue()));
+      }
+      this.root = map;
+    }
+  }
+
+  private static SegmentIndex<SegmentIndex<double[]>> indexByAge(List<Row> rows) {
+    long[] ageLows = new long[rows.size()];
+    long[] ageHighs = new long[rows.size()];
+    long[] timeLows = new long[rows.size()];
+    long[] timeHighs = new long[rows.size()];
+    for (int i = 0; i < rows.size(); i++) {
+      Row row = rows.get(i);
+      ageLows[i] = row.ageLow;
+      ageHighs[i] = row.ageHigh;
+      timeLows[i] = row.timeLow;
+      timeHighs[i] = row.timeHigh;
+    }
+    return SegmentIndex.build(ageLows, ageHighs, byAge ->
+        SegmentIndex.build(select(timeLows, byAge), select(timeHighs, byAge),
+            byTime -> rows.get(byAge[byTime[0]]).cumulative));
+  }
+
+  private static long[] select(long[] values, int[] indexes) {
+    long[] selected = new long[indexes.length];
+    for (int i = 0; i < indexes.length; i++) {
+      selected[i] = values[indexes[i]];
+    }
+    return selected;
+  }
+
+  /**
+   * Find the cumulative transition probabilities of the row matching a person.
+   * @param person The person.
+   * @param time The current time.
+   * @return the cumulative probabilities, in the order of {@link #getTransitions()}, or null if
+   *     no row matches the person.
+   */
+  @SuppressWarnings("unchecked")
+  double[] find(Person person, long time) {
+    Object node = root;
+    for (String column : columns) {
+      Object value = person.attributes.get(column);
+      if (value == null) {
+        throw new RuntimeException("LOOKUP TABLE ERROR: Attribute '"
+            + column + "' in CSV table '" + name
+            + "' does not exist as one of this person's attributes.");
+      }
+      if (node != null) {
+        node = ((Map<String, Object>) node).get(value.toString());
+      }
+    }
+    if (node == null) {
+      return null;
+    }
+    long age = hasAge ? person.ageInYears(time) : 0;
+    SegmentIndex<double[]> byTime = ((SegmentIndex<SegmentIndex<double[]>>) node).get(age);
+    return byTime == null ? null : byTime.get(time);
+  }
+
+  /**
+   * Get the names of the states to transition to.
+   * @return the names, in the order of the CSV columns.
+   */
+  String[] getTransitions() {
+    return transitions;
+  }
+
+  /**
+   * Sum a list of probabilities.
+   * @param probabilities The probabilities.
+   * @return the running total of the probabilities.
+   */
+  static double[] cumulative(double[] probabilities) {
+    double[] cumulative = new double[probabilities.length];
+    double high = 0.0;
+    for (int i = 0; i < probabilities.length; i++) {
+      high += probabilities[i];
+      cumulative[i] = high;
+    }
+    return cumulative;
+  }
+
+  /**
+   * Pick a transition, the same way as a distributed transition: if the probabilities sum to
+   * less than one, the remainder goes to the last transition.
+   * @param transitions The names of the states to transition to.
+   * @param cumulative The cumulative probability of each transition.
+   * @param random Source of randomness.
+   * @return the name of the state to transition to.
+   */
+  static String pick(String[] transitions, double[] cumulative, RandomNumberGenerator random) {
+    double p = random.rand();
+    for (int i = 0; i < cumulative.length; i++) {
+      if (p < cumulative[i]) {
+        return transitions[i];
+      }
+    }
+    return transitions[transitions.length - 1];
+  }
+
+  /**
+   * Values for a set of inclusive ranges of long keys, ex. ages or times. The key space is
+   * cut at every range boundary into segments, each of which lies either entirely inside or
+   * entirely outside each range, so the value for a key is found with one binary search.
+   * @param <T> The type of the values.
+   */
+  static final class SegmentIndex<T> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** The first key of each segment, in ascending order. */
+    private final long[] starts;
+    /** The value of each segment, or null where no range covers it. */
+    private final Object[] values;
+
+    private SegmentIndex(long[] starts, Object[] values) {
+      this.starts = starts;
+      this.values = values;
+    }
+
+    /**
+     * Build an index.
+     * @param lows The lowest key of each range, inclusive.
+     * @param highs The highest key of each range, inclusive.
+     * @param value Computes the value of a segment from the indexes of the ranges that
+     *     cover it, in ascending order. Only called for segments covered by some range.
+     * @return the index.
+     */
+    static <T> SegmentIndex<T> build(long[] lows, long[] highs, Function<int[], T> value) {
+      TreeSet<Long> boundaries = new TreeSet<Long>();
+      for (int i = 0; i < lows.length; i++) {
+        boundaries.add(lows[i]);
+        if (highs[i] != Long.MAX_VALUE) {
+          boundaries.add(highs[i] + 1);
+        }
+      }
+      long[] starts = new long[boundaries.size()];
+      int index = 0;
+      for (long boundary : boundaries) {
+        starts[index++] = boundary;
+      }
+
+      // sweep through the segments, keeping track of the ranges that cover each one
+      Integer[] byLow = new Integer[lows.length];
+      Integer[] byHigh = new Integer[lows.length];
+      for (int i = 0; i < lows.length; i++) {
+        byLow[i] = i;
+        byHigh[i] = i;
+      }
+      Arrays.sort(byLow, Comparator.comparingLong((Integer i) -> lows[i]));
+      Arrays.sort(byHigh, Comparator.comparingLong((Integer i) -> highs[i]));
+      TreeSet<Integer> covering = new TreeSet<Integer>();
+      Object[] values = new Object[starts.length];
+      int nextLow = 0;
+      int nextHigh = 0;
+      for (int s = 0; s < starts.length; s++) {
+        while (nextLow < byLow.length && lows[byLow[nextLow]] <= starts[s]) {
+          covering.add(byLow[nextLow++]);
+        }
+        while (nextHigh < byHigh.length && highs[byHigh[nextHigh]] < starts[s]) {
+          covering.remove(byHigh[nextHigh++]);
+        }
+        if (!covering.isEmpty()) {
+          values[s] = value.apply(covering.stream().mapToInt(i -> i).toArray());
+        }
+      }
+      return new SegmentIndex<T>(starts, values);
+    }
+
+    /**
+     * Get the value for a key.
+     * @param key The key.
+     * @return the value of the segment containing the key, or null if no range contains it.
+     */
+    @SuppressWarnings("unchecked")
+    T get(long key) {
+      int segment = Arrays.binarySearch(starts, key);
+      if (segment < 0) {
+        segment = -segment - 2;
+      }
+      return segment < 0 ? null : (T) values[segment];
+    }
+  }
+}
@@ -24,19 +24,21 @@ import java.nio.file.spi.FileSystemProvider;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.TreeMap;
+import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
+import org.mitre.synthea.helpers.AttributeMap;
+import org.mitre.synthea.helpers.Attributes;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.modules.CardiovascularDiseaseModule;
@@ -70,6 +72,8 @@ public class Module implements Cloneable, Serializable {
     Map<String, ModuleSupplier> retVal = new TreeMap<>();
     int submoduleCount = 0;
 
+    Attributes.registerJavaModules();
+
     retVal.put("Lifecycle", new ModuleSupplier(new LifecycleModule()));
     //retVal.put("Health Insurance", new ModuleSupplier(new HealthInsuranceModule()));
     retVal.put("Cardiovascular Disease", new ModuleSupplier(new CardiovascularDiseaseModule()));
@@ -215,7 +219,11 @@ public class Module implements Cloneable, Serializable {
       jsonString = applyOverrides(jsonString, overrides, path.getFileName().toString());
     }
     JsonObject object = JsonParser.parseString(jsonString).getAsJsonObject();
-    return new Module(object, submodule);
+    Module module = new Module(object, submodule);
+    if (Config.getAsBoolean("generate.compile_logic", true)) {
+      module.compile();
+    }
+    return module;
   }
 
   private static String applyOverrides(String jsonString, Properties overrides,
@@ -284,7 +292,12 @@ public class Module implements Cloneable, Serializable {
   public String submoduleName;
   public Double gmfVersion;
   public List<String> remarks;
+  /** Hash of the JSON definition, after overrides, or null for a Java module. */
+  private String contentHash;
   private Map<String, State> states;
+  /** Cached activeWellnessKey(), and the name it was made from. */
+  private transient AttributeMap.Key activeWellnessKey;
+  private transient String activeWellnessKeyName;
 
   protected Module() {
     // no-args constructor only allowed to be used by subclasses
@@ -298,6 +311,8 @@ public class Module implements Cloneable, Serializable {
    */
   public Module(JsonObject definition, boolean submodule) throws Exception {
     name = String.format("%s Module", definition.get("name").getAsString());
+    contentHash = UUID.nameUUIDFromBytes(
+        definition.toString().getBytes(StandardCharsets.UTF_8)).toString();
 
     if (definition.has("specialty")) {
       specialty = definition.get("specialty").getAsString();
@@ -313,6 +328,9 @@ public class Module implements Cloneable, Serializable {
     }
 
     this.submodule = submodule;
+    AttributeMap.register(this.name);
+    Attributes.register(definition);
+    activeWellnessKey();
     remarks = new ArrayList<String>();
     if (definition.has("remarks")) {
       JsonElement jsonRemarks = definition.get("remarks");
@@ -329,6 +347,16 @@ public class Module implements Cloneable, Serializable {
     }
   }
 
+  /**
+   * Compile the logic of every state in this module, so that guards and transitions are
+   * evaluated with pre-resolved operators and values instead of being interpreted.
+   */
+  void compile() {
+    for (State state : states.values()) {
+      state.compile();
+    }
+  }
+
   /**
    * Clone this module. Never provide the original.
    */
@@ -343,14 +371,12 @@ public class Module implements Cloneable, Serializable {
       clone.submoduleName = clone.name;
     }
     clone.remarks = this.remarks;
-    if (this.states != null) {
-      clone.states = new ConcurrentHashMap<String, State>();
-      for (String key : this.states.keySet()) {
-        State state = this.states.get(key).clone();
-        state.module = clone;
-        clone.states.put(key, state);
-      }
-    }
+    clone.contentHash = this.contentHash;
+    clone.activeWellnessKey = this.activeWellnessKey;
+    clone.activeWellnessKeyName = this.activeWellnessKeyName;
+    // the states are only prototypes, cloned for a person whenever they enter one, so every
+    // copy of the module shares them
+    clone.states = this.states;
     return clone;
   }
 
@@ -385,10 +411,10 @@ public class Module implements Cloneable, Serializable {
       return true;
     }
     // Possibly reset wellness encounters for this module.
-    String activeKey = EncounterModule.ACTIVE_WELLNESS_ENCOUNTER + " " + this.name;
-    if (!person.attributes.containsKey(activeKey)) {
+    AttributeMap.Key activeKey = activeWellnessKey();
+    if (!person.attributes.has(activeKey)) {
       // "false" means the person has not entered (or is still within) a wellness encounter
-      person.attributes.put(activeKey, false);
+      person.attributes.putBoolean(activeKey, false);
     }
     person.history = null;
     // what current state is this person in?
@@ -396,25 +422,31 @@ public class Module implements Cloneable, Serializable {
     if (this.submodule) {
       historyKey = this.submoduleName;
     }
-    if (!person.attributes.containsKey(historyKey)) {
-      person.history = new LinkedList<State>();
-      person.history.add(initialState());
-      person.attributes.put(historyKey, person.history);
+    Object value = person.attributes.get(historyKey);
+    StateHistory history;
+    if (value instanceof StateHistory) {
+      history = (StateHistory) value;
+    } else {
+      history = new StateHistory();
+      if (value == null) {
+        history.add(initialState());
+      } else {
+        // a list of states, from a population snapshot written before StateHistory
+        history.addAll((List<State>) value);
+      }
+      person.attributes.put(historyKey, history);
     }
-    person.history = (List<State>) person.attributes.get(historyKey);
-    State current = person.history.get(0);
-    // System.out.println(" Resuming at " + current.name);
+    person.history = history;
     // process the current state,
     // looping until module is finished,
     // probably more than one state
     String nextStateName = null;
-    while (current.run(person, time, terminateOnDeath)) {
-      Long exited = current.exited;
-      nextStateName = current.transition(person, time);
+    while (history.runCurrent(person, time, terminateOnDeath)) {
+      long exited = history.currentExited();
+      nextStateName = history.getState(0).transition(person, time);
       // System.out.println(" Transitioning to " + nextStateName);
-      current = states.get(nextStateName).clone(); // clone the state so we don't dirty the original
-      person.history.add(0, current);
-      if (exited != null && exited < time) {
+      history.add(0, enter(nextStateName));
+      if (exited < time) {
         // stop if the patient died in the meantime...
         if (terminateOnDeath && !person.alive(exited)) {
           return true;
@@ -426,14 +458,74 @@ public class Module implements Cloneable, Serializable {
             return true;
           }
         }
-        current = person.history.get(0);
       }
     }
-    return (current instanceof State.Terminal);
+    return (history.getState(0) instanceof State.Terminal);
+  }
+
+  /**
+   * Get the earliest time at which processing this Module for the given Person could change
+   * anything. This lets the Generator skip modules that are waiting in a Delay state instead of
+   * re-processing them every timestep. Skipping a module before this time is guaranteed to be
+   * equivalent to processing it.
+   *
+   * @param person the person being simulated
+   * @return the earliest time this module may progress, or Long.MIN_VALUE if the module must be
+   *     processed on every timestep (e.g. Java modules, or modules that haven't started yet)
+   */
+  @SuppressWarnings("unchecked")
+  public long nextWakeTime(Person person) {
+    if (states == null) {
+      // Java modules may do something on any timestep
+      return Long.MIN_VALUE;
+    }
+    AttributeMap.Key activeKey = activeWellnessKey();
+    if (!person.attributes.has(activeKey)) {
+      // process() needs to reset the wellness encounter flag
+      return Long.MIN_VALUE;
+    }
+    String historyKey = this.submodule ? this.submoduleName : this.name;
+    List<State> history = (List<State>) person.attributes.get(historyKey);
+    if (history == null || history.isEmpty()) {
+      return Long.MIN_VALUE;
+    }
+    if (history instanceof StateHistory) {
+      // the states that wait for a time are the person's own copies
+      return ((StateHistory) history).getState(0).nextWakeTime();
+    }
+    return history.get(0).nextWakeTime();
+  }
+
+  /**
+   * The attribute that records whether this module has used the person's current wellness
+   * encounter. Submodules share the key of the module that called them, whose name they take.
+   */
+  AttributeMap.Key activeWellnessKey() {
+    if (activeWellnessKeyName != name) {
+      activeWellnessKey =
+          AttributeMap.key(EncounterModule.ACTIVE_WELLNESS_ENCOUNTER + " " + name);
+      activeWellnessKeyName = name;
+    }
+    return activeWellnessKey;
   }
 
   private State initialState() {
-    return states.get("Initial").clone(); // all Initial states have name Initial
+    return enter("Initial"); // all Initial states have name Initial
+  }
+
+  /**
+   * Get the state a person enters. States that keep data about the person are cloned, so the
+   * person can enter them without dirtying the original. The rest are shared, unless this is a
+   * submodule running under the name of the module that called it, since states act under the
+   * name of their module.
+   */
+  private State enter(String stateName) {
+    State state = states.get(stateName);
+    if (state.keepsPersonData() || !name.equals(state.module.name)) {
+      state = state.clone();
+      state.module = this;
+    }
+    return state;
   }
 
   /**
@@ -445,6 +537,16 @@ public class Module implements Cloneable, Serializable {
     return states.get(name);
   }
 
+  /**
+   * Get a hash of the definition of this Module, which changes whenever the module is edited,
+   * so people loaded from a population snapshot can tell whether a module has changed since.
+   *
+   * @return the hash, or null if this is a non-GMF module
+   */
+  public String getContentHash() {
+    return contentHash;
+  }
+
   /**
    * Get a collection of the names of all the states this Module contains.
    *
@@ -1,5 +1,9 @@
 package org.mitre.synthea.engine;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -17,7 +21,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.lang3.ArrayUtils;
@@ -25,6 +31,7 @@ import org.apache.commons.math.ode.DerivativeException;
 import org.mitre.synthea.helpers.ChartRenderer;
 import org.mitre.synthea.helpers.ChartRenderer.MultiTableChartConfig;
 import org.mitre.synthea.helpers.ChartRenderer.MultiTableSeriesConfig;
+import org.mitre.synthea.helpers.Config;
 import org.sbml.jsbml.Model;
 import org.sbml.jsbml.SBMLDocument;
 import org.sbml.jsbml.SBMLException;
@@ -54,17 +61,88 @@ public class PhysiologySimulator {
   private static final URL MODELS_RESOURCE = ClassLoader.getSystemClassLoader()
       .getResource("physiology/models");
   private static final Map<String, Class<?>> SOLVER_CLASSES;
-  private static Map<String, Model> MODEL_CACHE;
+  private static final Map<String, LoadedModel> MODEL_CACHE =
+      new ConcurrentHashMap<String, LoadedModel>();
   private static Path SBML_PATH;
   private static Path OUTPUT_PATH = Paths.get("output", "physiology");
 
-  private final Model model;
-  private final SBMLinterpreter interpreter;
-  private final AbstractDESSolver solver;
-  private final String[] modelFields;
-  private final double[] modelDefaults;
+  /** Maximum number of simulation results to keep. Zero disables the result cache. */
+  private static final long RESULT_CACHE_SIZE =
+      Config.getAsLong("physiology.cache.size", 10000);
+  /** Significant digits that inputs are rounded to, so that similar inputs share a result. */
+  private static final int RESULT_CACHE_DIGITS =
+      Config.getAsInteger("physiology.cache.significant_digits", 6);
+  private static final Cache<ResultKey, MultiTable> RESULT_CACHE = RESULT_CACHE_SIZE > 0
+      ? CacheBuilder.newBuilder().maximumSize(RESULT_CACHE_SIZE).recordStats().build()
+      : null;
+
+  /**
+   * Interpreters and solvers of the current thread, by model path and by solver name and
+   * step size. Both keep state while solving, so they cannot be shared between threads, but
+   * building them is expensive, so each thread reuses its own.
+   */
+  private static final ThreadLocal<Map<String, SBMLinterpreter>> INTERPRETERS =
+      ThreadLocal.withInitial(HashMap::new);
+  private static final ThreadLocal<Map<String, AbstractDESSolver>> SOLVERS =
+      ThreadLocal.withInitial(HashMap::new);
+
+  private final String modelPath;
+  private final String solverName;
+  private final double stepSize;
+  private final LoadedModel model;
   private final double simDuration;
 
+  /** A loaded SBML model, with its parameters and their default values. */
+  private static class LoadedModel {
+    private final Model model;
+    private final String[] fields;
+    private final double[] defaults;
+
+    private LoadedModel(Model model, SBMLinterpreter interpreter) {
+      this.model = model;
+      // Copied, since the interpreter may reuse its arrays when it is reinitialized
+      this.fields = interpreter.getIdentifiers().clone();
+      this.defaults = interpreter.getInitialValues().clone();
+    }
+  }
+
+  /** Key of a cached simulation result: the simulation and all of its (rounded) inputs. */
+  private static class ResultKey {
+    private final String modelPath;
+    private final String solverName;
+    private final double stepSize;
+    private final double simDuration;
+    private final double[] params;
+    private final int hash;
+
+    private ResultKey(String modelPath, String solverName, double stepSize, double simDuration,
+        double[] params) {
+      this.modelPath = modelPath;
+      this.solverName = solverName;
+      this.stepSize = stepSize;
+      this.simDuration = simDuration;
+      this.params = params;
+      this.hash = 31 * Objects.hash(modelPath, solverName, stepSize, simDuration)
+          + Arrays.hashCode(params);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof ResultKey)) {
+        return false;
+      }
+      ResultKey that = (ResultKey) obj;
+      return hash == that.hash && stepSize == that.stepSize && simDuration == that.simDuration
+          && modelPath.equals(that.modelPath) && solverName.equals(that.solverName)
+          && Arrays.equals(params, that.params);
+    }
+  }
+
   /** POJO configuration for the simulation. **/
   public static class SimConfig {
     private String name;
@@ -156,9 +234,6 @@ public class PhysiologySimulator {
     } catch (URISyntaxException ex) {
       throw new RuntimeException(ex);
     }
-
-    // Initialize our model cache
-    MODEL_CACHE = new HashMap<String, Model>();
   }
 
   /**
@@ -187,31 +262,36 @@ public class PhysiologySimulator {
   public PhysiologySimulator(String modelPath, String solverName, double stepSize,
       double simDuration) {
 
-    // Get the model from cache if it has already been loaded
-    if (MODEL_CACHE.containsKey(modelPath)) {
-      model = MODEL_CACHE.get(modelPath);
-    } else {
-      // Load and instantiate the model from the SBML file
-      Path modelFilepath = Paths.get(SBML_PATH.toString(), modelPath);
-      SBMLReader reader = new SBMLReader();
-      File inputFile = new File(modelFilepath.toString());
-      SBMLDocument doc;
-      try {
-        doc = reader.readSBML(inputFile);
-      } catch (IOException | XMLStreamException ex) {
-        throw new RuntimeException(ex);
-      }
-      model = doc.getModel();
+    this.modelPath = modelPath;
+    this.solverName = solverName;
+    this.stepSize = stepSize;
+    this.simDuration = simDuration;
+    // Get the model from cache, loading it if this is the first use
+    this.model = MODEL_CACHE.computeIfAbsent(modelPath, PhysiologySimulator::loadModel);
+    // Fail early on an invalid solver
+    getSolver(solverName, stepSize);
+  }
 
-      // Add the loaded model to the cache so we don't need to load it again
-      MODEL_CACHE.put(modelPath, model);
+  /**
+   * Load and instantiate a model from its SBML file.
+   * @param modelPath Path to the SBML file to load relative to resources/physiology
+   * @return the loaded model
+   */
+  private static LoadedModel loadModel(String modelPath) {
+    Path modelFilepath = Paths.get(SBML_PATH.toString(), modelPath);
+    SBMLReader reader = new SBMLReader();
+    File inputFile = new File(modelFilepath.toString());
+    SBMLDocument doc;
+    try {
+      doc = reader.readSBML(inputFile);
+    } catch (IOException | XMLStreamException ex) {
+      throw new RuntimeException(ex);
     }
-    interpreter = getInterpreter(model);
-    solver = getSolver(solverName);
-    solver.setStepSize(stepSize);
-    modelFields = interpreter.getIdentifiers();
-    modelDefaults = interpreter.getInitialValues();
-    this.simDuration = simDuration;
+    Model model = doc.getModel();
+    SBMLinterpreter interpreter = getInterpreter(model);
+    // The interpreter built to read the defaults is as good as any for this thread to reuse
+    INTERPRETERS.get().put(modelPath, interpreter);
+    return new LoadedModel(model, interpreter);
   }
 
   /**
@@ -219,7 +299,7 @@ public class PhysiologySimulator {
    * @return list of model parameters
    */
   public List<String> getParameters() {
-    return Arrays.asList(modelFields);
+    return Arrays.asList(model.fields);
   }
 
   /**
@@ -238,32 +318,79 @@ public class PhysiologySimulator {
    *        solution to differential equations
    */
   public MultiTable run(Map<String, Double> inputs) throws DerivativeException {
-    try {
-      // Reinitialize the interpreter to prevent old values from affecting the new simulation
-      interpreter.init(true);
-    } catch (ModelOverdeterminedException | SBMLException ex) {
-      // This shouldn't ever happen here since the interpreter has already been instantiated
-      // at least once
-      throw new RuntimeException(ex);
-    }
-
     // Create a copy of the default parameters to use
-    double[] params = Arrays.copyOf(modelDefaults, modelDefaults.length);
+    double[] params = Arrays.copyOf(model.defaults, model.defaults.length);
 
     // Overwrite model defaults with the provided input parameters, if present
     if (inputs != null) {
-      for (int i = 0; i < modelFields.length; i++) {
-        String field = modelFields[i];
+      for (int i = 0; i < model.fields.length; i++) {
+        String field = model.fields[i];
         if (inputs.containsKey(field)) {
           params[i] = inputs.get(field);
         }
       }
     }
 
+    if (RESULT_CACHE == null) {
+      return solve(params);
+    }
+    // Solve with the rounded inputs, so the result only depends on the key it is cached under
+    for (int i = 0; i < params.length; i++) {
+      params[i] = roundToSignificantDigits(params[i], RESULT_CACHE_DIGITS);
+    }
+    ResultKey key = new ResultKey(modelPath, solverName, stepSize, simDuration, params);
+    MultiTable results = RESULT_CACHE.getIfPresent(key);
+    if (results == null) {
+      results = solve(params);
+      RESULT_CACHE.put(key, results);
+    }
+    return results;
+  }
+
+  /**
+   * Solves the model with the current thread's interpreter and solver.
+   * @param params Value of every model parameter.
+   * @return the results
+   * @throws DerivativeException Exception if the solver encounters errors while computing the
+   *        solution to differential equations
+   */
+  private MultiTable solve(double[] params) throws DerivativeException {
+    SBMLinterpreter interpreter =
+        INTERPRETERS.get().computeIfAbsent(modelPath, path -> getInterpreter(model.model));
+    try {
+      // Reinitialize the interpreter to prevent old values from affecting the new simulation
+      interpreter.init(true);
+    } catch (ModelOverdeterminedException | SBMLException ex) {
+      // This shouldn't ever happen here since the interpreter has already been instantiated
+      // at least once
+      throw new RuntimeException(ex);
+    }
+
     // Solve the ODE for the specified duration and return the results
-    MultiTable results = solver.solve(interpreter, params, 0, simDuration);
+    return getSolver(solverName, stepSize).solve(interpreter, params, 0, simDuration);
+  }
 
-    return results;
+  /**
+   * Round a value to a number of significant digits.
+   * @param value The value.
+   * @param digits The number of significant digits.
+   * @return the rounded value.
+   */
+  static double roundToSignificantDigits(double value, int digits) {
+    if (value == 0 || Double.isNaN(value) || Double.isInfinite(value)) {
+      return value;
+    }
+    int magnitude = (int) Math.floor(Math.log10(Math.abs(value)));
+    double scale = Math.pow(10, digits - 1 - magnitude);
+    return Math.round(value * scale) / scale;
+  }
+
+  /**
+   * Get the statistics of the simulation result cache: hits, misses and evictions.
+   * @return the statistics, or null if the cache is disabled.
+   */
+  public static CacheStats getCacheStats() {
+    return RESULT_CACHE == null ? null : RESULT_CACHE.stats();
   }
 
   /**
@@ -284,12 +411,27 @@ public class PhysiologySimulator {
   }
 
   /**
-   * Retrieves the solver for the given solver name. If the provided string is
+   * Retrieves the current thread's solver for the given solver name and step size, creating it
+   * if needed. If the provided string is invalid, a RuntimeException will be thrown
+   * @param solverName user-facing name of the solver to instantiate
+   * @param stepSize Time step for the simulation
+   * @return solver instance
+   */
+  private static AbstractDESSolver getSolver(String solverName, double stepSize) {
+    return SOLVERS.get().computeIfAbsent(solverName + ":" + stepSize, key -> {
+      AbstractDESSolver solver = newSolver(solverName);
+      solver.setStepSize(stepSize);
+      return solver;
+    });
+  }
+
+  /**
+   * Instantiates the solver for the given solver name. If the provided string is
    * invalid, a RuntimeException will be thrown
    * @param solverName user-facing name of the solver to instantiate
    * @return solver instance
    */
-  private static AbstractDESSolver getSolver(String solverName) {
+  private static AbstractDESSolver newSolver(String solverName) {
 
     // If the provided solver name doesn't exist in our map, it's an invalid
     // value that the programmer needs to correct.
@@ -369,7 +511,7 @@ public class PhysiologySimulator {
    * @return initial value
    */
   public double getParamDefault(String param) {
-    return modelDefaults[ArrayUtils.indexOf(interpreter.getIdentifiers(), param)];
+    return model.defaults[ArrayUtils.indexOf(model.fields, param)];
   }
 
   /**
@@ -0,0 +1,881 @@
+package org.mitre.synthea.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.mitre.synthea.world.agents.Clinician;
+import org.mitre.synthea.world.agents.Payer;
+import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.agents.Provider;
+import org.mitre.synthea.world.concepts.HealthRecord.Code;
+import org.mitre.synthea.world.concepts.healthinsurance.InsurancePlan;
+
+/**
+ * Population snapshots are the people saved with the -u option, to be updated later with the
+ * -i option. A snapshot is a header followed by length-prefixed frames, one per person plus
+ * the additions to the tables that the people refer to:
+ * <ul>
+ * <li>strings, for strings that are seen in more than one person, ex. descriptions and
+ *     state names</li>
+ * <li>codes, copied for each person as they are read, since codes may be changed by exports</li>
+ * <li>classes, so each person only refers to the classes of their objects by number. The
+ *     fields of each class are recorded too, so a class that has changed since the snapshot
+ *     was written is rejected instead of being read with the wrong layout</li>
+ * <li>shared objects: modules, providers, clinicians, payers and insurance plans, each of which
+ *     is written once and referred to by number</li>
+ * </ul>
+ * The tables are written just before the first person that needs them, so a snapshot is
+ * written and read one person at a time and never held in memory. People are encoded with
+ * Java serialization, apart from the references to the tables. Each person is preceded by a
+ * {@link Summary} of them, which can be read without decoding the person.
+ * Snapshots written by ObjectOutputStream, as a single List of people or one person at a time,
+ * can still be read.
+ */
+public class PopulationSnapshot {
+  /** "SYNS", which can't be mistaken for the start of a Java serialization stream. */
+  static final int MAGIC = 0x53594E53;
+  /**
+   * Version 2 added the summary of each person, version 3 the fields of each class, and
+   * version 4 the hash of the module of each position in the summary. Earlier versions are not
+   * read, since version 3 snapshots hold modules without a hash.
+   */
+  static final int VERSION = 4;
+
+  private static final int END = 0;
+  private static final int STRINGS = 1;
+  private static final int CODES = 2;
+  private static final int CLASSES = 3;
+  private static final int SHARED = 4;
+  private static final int PERSON = 5;
+
+  /** Shorter strings take less space written out than referred to. */
+  static final int MIN_INTERNED_LENGTH = 8;
+  static final int MAX_INTERNED_LENGTH = 1024;
+  /** Limits the size of the string and code tables, and so the memory used to write them. */
+  static final int MAX_TABLE_SIZE = 1 << 20;
+  /** Limits the strings remembered while waiting to see if they are used by another person. */
+  static final int MAX_CANDIDATES = 1 << 16;
+
+  private static final byte STRING_REF = 0;
+  private static final byte CODE_REF = 1;
+  private static final byte SHARED_REF = 2;
+
+  /**
+   * Whether an object is shared by many people, rather than belonging to one of them.
+   */
+  private static boolean isShared(Object obj) {
+    return obj instanceof Module || obj instanceof Provider || obj instanceof Clinician
+        || obj instanceof Payer || obj instanceof InsurancePlan;
+  }
+
+  /**
+   * Written in place of an object that is in one of the tables.
+   */
+  private static final class Ref implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final byte table;
+    private final int index;
+
+    private Ref(byte table, int index) {
+      this.table = table;
+      this.index = index;
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Writes people to a snapshot as they finish. Safe to use from several threads. Each thread
+   * serializes its people into its own buffer, and only the tables they add to and the
+   * appending of the finished frames are synchronized.
+   */
+  public static class Writer implements Closeable {
+    // guarded by this
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream frame;
+    private final DataOutputStream frameOut;
+    private int count;
+
+    /** Reused by each thread for the people it writes, so their buffers only grow once. */
+    private final ThreadLocal<ByteArrayOutputStream> buffers =
+        ThreadLocal.withInitial(ByteArrayOutputStream::new);
+
+    // the tables are only added to while holding this lock, which is also held to write out
+    // what was added
+    private final Object tables = new Object();
+    /** The number of people started, which numbers them for the string candidates. */
+    private int started;
+    private final Map<String, Integer> strings;
+    private final List<String> newStrings;
+    /** Strings seen once, and the number of the person they were seen in. */
+    private final Map<String, Integer> candidates;
+    private final Map<List<String>, Integer> codes;
+    private final List<Code> newCodes;
+    private final Map<String, Integer> classes;
+    private final List<ObjectStreamClass> newClasses;
+    private final Map<Object, Integer> shared;
+    private final ByteArrayOutputStream sharedBytes;
+    private ObjectOutputStream sharedOut;
+    private int newShared;
+
+    /**
+     * Create a new snapshot file.
+     * @param file The file to write.
+     * @throws IOException if the file can't be created.
+     */
+    public Writer(File file) throws IOException {
+      this(new FileOutputStream(file));
+    }
+
+    /**
+     * Write a snapshot to a stream.
+     * @param stream The stream, which is closed when the writer is closed.
+     * @throws IOException if the stream can't be written.
+     */
+    public Writer(OutputStream stream) throws IOException {
+      this.out = new DataOutputStream(new BufferedOutputStream(stream));
+      this.frame = new ByteArrayOutputStream();
+      this.frameOut = new DataOutputStream(frame);
+      // looked up without the lock, and only added to with it
+      this.strings = new ConcurrentHashMap<String, Integer>();
+      this.newStrings = new ArrayList<String>();
+      this.candidates = new HashMap<String, Integer>();
+      this.codes = new ConcurrentHashMap<List<String>, Integer>();
+      this.newCodes = new ArrayList<Code>();
+      this.classes = new ConcurrentHashMap<String, Integer>();
+      this.newClasses = new ArrayList<ObjectStreamClass>();
+      this.shared = new IdentityHashMap<Object, Integer>();
+      this.sharedBytes = new ByteArrayOutputStream();
+      out.writeInt(MAGIC);
+      out.writeShort(VERSION);
+    }
+
+    /**
+     * Write a person to the snapshot.
+     * @param person The person.
+     * @throws IOException if the person can't be written.
+     */
+    public void write(Person person) throws IOException {
+      int number;
+      synchronized (tables) {
+        number = started++;
+      }
+      ByteArrayOutputStream buffer = buffers.get();
+      buffer.reset();
+      writeSummary(new DataOutputStream(buffer), Summary.of(person));
+      int summarySize = buffer.size();
+      try (RecordOutput recordOut = new RecordOutput(buffer, number)) {
+        recordOut.writeObject(person);
+      }
+      synchronized (this) {
+        // everything the person refers to must come before them
+        writeTables();
+        out.writeByte(PERSON);
+        out.writeInt(4 + buffer.size());
+        out.writeInt(summarySize);
+        buffer.writeTo(out);
+        count++;
+      }
+    }
+
+    private void writeSummary(DataOutputStream summaryOut, Summary summary) throws IOException {
+      summaryOut.writeLong(summary.lastUpdated);
+      summaryOut.writeBoolean(summary.deathDate != null);
+      summaryOut.writeLong(summary.deathDate == null ? 0L : summary.deathDate);
+      summaryOut.writeInt(summary.modules.size());
+      for (Map.Entry<String, ModulePosition> module : summary.modules.entrySet()) {
+        summaryOut.writeInt(stringIndex(module.getKey()));
+        summaryOut.writeInt(stringIndex(module.getValue().state));
+        summaryOut.writeLong(module.getValue().entered);
+        summaryOut.writeInt(stringIndex(module.getValue().moduleHash));
+      }
+    }
+
+    /**
+     * Get the number of people written.
+     * @return the number of people written so far.
+     */
+    public synchronized int getCount() {
+      return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      out.writeByte(END);
+      out.writeInt(0);
+      out.close();
+    }
+
+    private void writeTables() throws IOException {
+      synchronized (tables) {
+        writeNewTableEntries();
+      }
+    }
+
+    private void writeNewTableEntries() throws IOException {
+      if (!newClasses.isEmpty()) {
+        frameOut.writeInt(newClasses.size());
+        for (ObjectStreamClass desc : newClasses) {
+          writeString(frameOut, desc.getName());
+          frameOut.writeLong(desc.getSerialVersionUID());
+          ObjectStreamField[] fields = desc.getFields();
+          frameOut.writeShort(fields.length);
+          for (ObjectStreamField field : fields) {
+            frameOut.writeChar(field.getTypeCode());
+            writeString(frameOut, field.getName());
+            if (!field.isPrimitive()) {
+              writeString(frameOut, field.getTypeString());
+            }
+          }
+        }
+        newClasses.clear();
+        writeFrame(CLASSES);
+      }
+      byte[] codeFrame = null;
+      int addedCodes = newCodes.size();
+      if (addedCodes > 0) {
+        // the strings of the codes are added to the string table, which is written first
+        for (Code code : newCodes) {
+          frameOut.writeInt(stringIndex(code.system));
+          frameOut.writeInt(stringIndex(code.code));
+          frameOut.writeInt(stringIndex(code.display));
+          frameOut.writeInt(stringIndex(code.valueSet));
+        }
+        newCodes.clear();
+        codeFrame = frame.toByteArray();
+        frame.reset();
+      }
+      if (!newStrings.isEmpty()) {
+        frameOut.writeInt(newStrings.size());
+        for (String value : newStrings) {
+          writeString(frameOut, value);
+        }
+        newStrings.clear();
+        writeFrame(STRINGS);
+      }
+      if (codeFrame != null) {
+        frameOut.writeInt(addedCodes);
+        frameOut.write(codeFrame);
+        writeFrame(CODES);
+      }
+      if (newShared > 0) {
+        sharedOut.flush();
+        frameOut.writeInt(newShared);
+        sharedBytes.writeTo(frameOut);
+        sharedBytes.reset();
+        newShared = 0;
+        writeFrame(SHARED);
+      }
+    }
+
+    private void writeFrame(int type) throws IOException {
+      out.writeByte(type);
+      out.writeInt(frame.size());
+      frame.writeTo(out);
+      frame.reset();
+    }
+
+    /**
+     * Add a string to the string table, if it isn't already there.
+     * @return the index of the string, or -1 for null.
+     */
+    private int stringIndex(String value) {
+      if (value == null) {
+        return -1;
+      }
+      Integer index = strings.get(value);
+      if (index == null) {
+        synchronized (tables) {
+          index = strings.get(value);
+          if (index == null) {
+            // added to the table and to the entries to write at once, so any person who
+            // finds the index will be written after the entry
+            index = strings.size();
+            newStrings.add(value);
+            strings.put(value, index);
+          }
+        }
+      }
+      return index;
+    }
+
+    private Object replaceString(String value, int person) {
+      Integer index = strings.get(value);
+      if (index == null) {
+        if (value.length() < MIN_INTERNED_LENGTH || value.length() > MAX_INTERNED_LENGTH
+            || strings.size() >= MAX_TABLE_SIZE) {
+          return value;
+        }
+        synchronized (tables) {
+          // only strings used by more than one person are worth a place in the table
+          Integer seenIn = candidates.putIfAbsent(value, person);
+          if (seenIn == null || seenIn == person) {
+            if (candidates.size() > MAX_CANDIDATES) {
+              candidates.clear();
+            }
+            return value;
+          }
+          candidates.remove(value);
+          index = stringIndex(value);
+        }
+      }
+      return new Ref(STRING_REF, index);
+    }
+
+    private Object replaceCode(Code code) {
+      List<String> key = Arrays.asList(code.system, code.code, code.display, code.valueSet);
+      Integer index = codes.get(key);
+      if (index == null) {
+        synchronized (tables) {
+          index = codes.get(key);
+          if (index == null) {
+            if (codes.size() >= MAX_TABLE_SIZE) {
+              return code;
+            }
+            index = codes.size();
+            newCodes.add(code);
+            codes.put(key, index);
+          }
+        }
+      }
+      return new Ref(CODE_REF, index);
+    }
+
+    private Object replaceShared(Object obj) throws IOException {
+      synchronized (tables) {
+        Integer index = shared.get(obj);
+        if (index == null) {
+          if (sharedOut == null) {
+            sharedOut = new ObjectOutputStream(sharedBytes);
+          }
+          // shared objects are written to one stream that is never reset, so the objects they
+          // refer to, such as the clinicians of a provider, are only written once too
+          sharedOut.writeObject(obj);
+          index = shared.size();
+          shared.put(obj, index);
+          newShared++;
+        }
+        return new Ref(SHARED_REF, index);
+      }
+    }
+
+    private int classIndex(ObjectStreamClass desc) {
+      Integer index = classes.get(desc.getName());
+      if (index == null) {
+        synchronized (tables) {
+          index = classes.get(desc.getName());
+          if (index == null) {
+            index = classes.size();
+            newClasses.add(desc);
+            classes.put(desc.getName(), index);
+          }
+        }
+      }
+      return index;
+    }
+
+    /**
+     * Serializes one person, replacing the objects in the tables with references to them.
+     */
+    private class RecordOutput extends ObjectOutputStream {
+      /** The number of the person being written. */
+      private final int person;
+
+      RecordOutput(OutputStream out, int person) throws IOException {
+        super(out);
+        this.person = person;
+        enableReplaceObject(true);
+      }
+
+      @Override
+      protected void writeStreamHeader() {
+        // the snapshot has its own header
+      }
+
+      @Override
+      protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+        writeInt(classIndex(desc));
+      }
+
+      @Override
+      protected Object replaceObject(Object obj) throws IOException {
+        if (obj instanceof String) {
+          return replaceString((String) obj, person);
+        } else if (obj.getClass() == Code.class) {
+          return replaceCode((Code) obj);
+        } else if (isShared(obj)) {
+          return replaceShared(obj);
+        }
+        return obj;
+      }
+    }
+  }
+
+  /**
+   * The position of a person in a module: the state they are in, and when they entered it.
+   */
+  public static final class ModulePosition {
+    /** The name of the current state. */
+    public final String state;
+    /** When the current state was entered, or Long.MIN_VALUE if it hasn't been yet. */
+    public final long entered;
+    /** The {@link Module#getContentHash()} of the module the state belongs to. */
+    public final String moduleHash;
+
+    ModulePosition(String state, long entered, String moduleHash) {
+      this.state = state;
+      this.entered = entered;
+      this.moduleHash = moduleHash;
+    }
+  }
+
+  /**
+   * What is needed to decide how to bring a person up to date, without decoding them.
+   */
+  public static final class Summary {
+    private final long lastUpdated;
+    private final Long deathDate;
+    private final Map<String, ModulePosition> modules;
+
+    Summary(long lastUpdated, Long deathDate, Map<String, ModulePosition> modules) {
+      this.lastUpdated = lastUpdated;
+      this.deathDate = deathDate;
+      this.modules = modules;
+    }
+
+    /**
+     * Summarize a person.
+     * @param person The person.
+     * @return the summary of the person as they are now.
+     */
+    public static Summary of(Person person) {
+      Map<String, ModulePosition> modules = new HashMap<String, ModulePosition>();
+      for (Map.Entry<String, Object> attribute : person.attributes.entrySet()) {
+        // the history of each module the person has started is kept in their attributes
+        if (attribute.getValue() instanceof List) {
+          List<?> history = (List<?>) attribute.getValue();
+          if (!history.isEmpty() && history.get(0) instanceof State) {
+            State current = (State) history.get(0);
+            modules.put(attribute.getKey(), new ModulePosition(current.name,
+                current.entered == null ? Long.MIN_VALUE : current.entered,
+                current.module == null ? null : current.module.getContentHash()));
+          }
+        }
+      }
+      return new Summary(person.lastUpdated, (Long) person.attributes.get(Person.DEATHDATE),
+          modules);
+    }
+
+    /**
+     * Get when the person was last updated.
+     * @return the time the person was last simulated.
+     */
+    public long getLastUpdated() {
+      return lastUpdated;
+    }
+
+    /**
+     * Whether the person had died by the time they were last updated, so simulating them any
+     * further can't change them.
+     * @return true if the person is dead.
+     */
+    public boolean isDead() {
+      return deathDate != null && deathDate <= lastUpdated;
+    }
+
+    /**
+     * Get the position of the person in each module they have started.
+     * @return the positions, keyed by module name, or submodule name for submodules.
+     */
+    public Map<String, ModulePosition> getModules() {
+      return modules;
+    }
+  }
+
+  /**
+   * A person read from a snapshot, who is only decoded when first needed, so people can be
+   * decoded by the threads that will update them.
+   */
+  public static class Record {
+    private Reader reader;
+    private byte[] bytes;
+    private Person person;
+    private Summary summary;
+
+    private Record(Reader reader, byte[] bytes, Summary summary) {
+      this.reader = reader;
+      this.bytes = bytes;
+      this.summary = summary;
+    }
+
+    private Record(Person person) {
+      this.person = person;
+    }
+
+    /**
+     * Get the summary of the person, as they were when the snapshot was written. Snapshots
+     * written by ObjectOutputStream have no summaries, so their people are summarized when
+     * decoded, and this must be called before the person is changed.
+     * @return the summary.
+     */
+    public synchronized Summary getSummary() {
+      if (summary == null) {
+        summary = Summary.of(getPerson());
+      }
+      return summary;
+    }
+
+    /**
+     * Get the person, decoding them if they haven't been already.
+     * @return the person.
+     */
+    public synchronized Person getPerson() {
+      if (person == null) {
+        try (ObjectInputStream in = reader.new RecordInput(new ByteArrayInputStream(bytes))) {
+          person = (Person) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+          throw new RuntimeException("Unable to read person from population snapshot", e);
+        }
+        reader = null;
+        bytes = null;
+      }
+      return person;
+    }
+  }
+
+  /**
+   * Reads people from a snapshot one at a time.
+   */
+  public static class Reader implements Closeable {
+    private final DataInputStream in;
+    private boolean ended;
+
+    private final List<String> strings;
+    private final List<Code> codes;
+    private final List<ObjectStreamClass> classes;
+    private final List<Object> shared;
+    private final FrameInputStream sharedBytes;
+    private ObjectInputStream sharedIn;
+
+    /** Reads snapshots written by ObjectOutputStream. */
+    private ObjectInputStream legacy;
+    /** The people of a snapshot written as a single List, or null. */
+    private Iterator<?> legacyList;
+    private Object legacyNext;
+
+    /**
+     * Open a snapshot file.
+     * @param file The file to read.
+     * @throws IOException if the file can't be read.
+     * @throws ClassNotFoundException if the file holds classes that don't exist.
+     */
+    public Reader(File file) throws IOException, ClassNotFoundException {
+      this(new FileInputStream(file));
+    }
+
+    /**
+     * Read a snapshot from a stream.
+     * @param stream The stream, which is closed when the reader is closed.
+     * @throws IOException if the stream can't be read.
+     * @throws ClassNotFoundException if the stream holds classes that don't exist.
+     */
+    public Reader(InputStream stream) throws IOException, ClassNotFoundException {
+      BufferedInputStream buffered = new BufferedInputStream(stream);
+      this.in = new DataInputStream(buffered);
+      // the tables may be read by the threads decoding people while the next ones are read
+      this.strings = Collections.synchronizedList(new ArrayList<String>());
+      this.codes = Collections.synchronizedList(new ArrayList<Code>());
+      this.classes = Collections.synchronizedList(new ArrayList<ObjectStreamClass>());
+      this.shared = Collections.synchronizedList(new ArrayList<Object>());
+      this.sharedBytes = new FrameInputStream();
+
+      buffered.mark(4);
+      if (in.readInt() == MAGIC) {
+        int version = in.readUnsignedShort();
+        if (version > VERSION) {
+          throw new StreamCorruptedException(
+              "Unsupported population snapshot version " + version);
+        } else if (version < VERSION) {
+          throw new StreamCorruptedException("Population snapshot version " + version
+              + " was written by an earlier release, so it can't be read safely");
+        }
+      } else {
+        buffered.reset();
+        this.legacy = new ObjectInputStream(buffered);
+        this.legacyNext = legacy.readObject();
+        if (legacyNext instanceof List) {
+          this.legacyList = ((List<?>) legacyNext).iterator();
+          this.legacyNext = legacyList.hasNext() ? legacyList.next() : null;
+        }
+      }
+    }
+
+    /**
+     * Read the next person, without decoding them.
+     * @return the next person, or null at the end of the snapshot.
+     * @throws IOException if the file can't be read.
+     * @throws ClassNotFoundException if the file holds classes that don't exist.
+     */
+    public Record nextRecord() throws IOException, ClassNotFoundException {
+      if (legacy != null) {
+        return nextLegacy();
+      }
+      while (!ended) {
+        int type = in.readUnsignedByte();
+        int length = in.readInt();
+        switch (type) {
+          case END:
+            ended = true;
+            in.skipBytes(length);
+            break;
+          case STRINGS:
+            for (int i = in.readInt(); i > 0; i--) {
+              strings.add(readString(in));
+            }
+            break;
+          case CODES:
+            readCodes();
+            break;
+          case CLASSES:
+            for (int i = in.readInt(); i > 0; i--) {
+              classes.add(readClass());
+            }
+            break;
+          case SHARED:
+            int added = in.readInt();
+            byte[] objects = new byte[length - 4];
+            in.readFully(objects);
+            sharedBytes.add(objects);
+            if (sharedIn == null) {
+              sharedIn = new ObjectInputStream(sharedBytes);
+            }
+            for (int i = 0; i < added; i++) {
+              shared.add(sharedIn.readObject());
+            }
+            break;
+          case PERSON:
+            int summaryLength = in.readInt();
+            Summary summary = readSummary();
+            length -= 4 + summaryLength;
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new Record(this, bytes, summary);
+          default:
+            // added in a later revision of this version, and not needed to read people
+            in.skipBytes(length);
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Read and decode the next person.
+     * @return the next person, or null at the end of the snapshot.
+     * @throws IOException if the file can't be read.
+     * @throws ClassNotFoundException if the file holds classes that don't exist.
+     */
+    public Person next() throws IOException, ClassNotFoundException {
+      Record record = nextRecord();
+      return record == null ? null : record.getPerson();
+    }
+
+    private Record nextLegacy() throws IOException, ClassNotFoundException {
+      Person person = (Person) legacyNext;
+      if (person != null) {
+        if (legacyList != null) {
+          legacyNext = legacyList.hasNext() ? legacyList.next() : null;
+        } else {
+          legacyNext = legacy.readObject();
+        }
+      }
+      return person == null ? null : new Record(person);
+    }
+
+    private void readCodes() throws IOException {
+      for (int i = in.readInt(); i > 0; i--) {
+        Code code = new Code(string(in.readInt()), string(in.readInt()), string(in.readInt()));
+        code.valueSet = string(in.readInt());
+        codes.add(code);
+      }
+    }
+
+    private Summary readSummary() throws IOException {
+      long lastUpdated = in.readLong();
+      boolean dead = in.readBoolean();
+      long deathDate = in.readLong();
+      Map<String, ModulePosition> modules = new HashMap<String, ModulePosition>();
+      for (int i = in.readInt(); i > 0; i--) {
+        String module = string(in.readInt());
+        modules.put(module,
+            new ModulePosition(string(in.readInt()), in.readLong(), string(in.readInt())));
+      }
+      return new Summary(lastUpdated, dead ? deathDate : null, modules);
+    }
+
+    private String string(int index) {
+      return index < 0 ? null : strings.get(index);
+    }
+
+    /**
+     * Read a class from the class table, and check that the class as it is now has the same
+     * fields. People are read with the class as it is now, so a class with different fields
+     * would be read with the wrong layout.
+     */
+    private ObjectStreamClass readClass() throws IOException, ClassNotFoundException {
+      String name = readString(in);
+      long serialVersionUID = in.readLong();
+      List<String> written = new ArrayList<String>();
+      for (int i = in.readUnsignedShort(); i > 0; i--) {
+        char typeCode = in.readChar();
+        String field = readString(in);
+        boolean primitive = typeCode != 'L' && typeCode != '[';
+        written.add(describe(typeCode, field, primitive ? null : readString(in)));
+      }
+
+      Class<?> type = Class.forName(name, false, PopulationSnapshot.class.getClassLoader());
+      ObjectStreamClass desc = ObjectStreamClass.lookupAny(type);
+      if (desc.getSerialVersionUID() != serialVersionUID) {
+        throw new InvalidClassException(name,
+            "has changed since the population snapshot was written");
+      }
+      List<String> current = new ArrayList<String>();
+      for (ObjectStreamField field : desc.getFields()) {
+        current.add(describe(field.getTypeCode(), field.getName(), field.getTypeString()));
+      }
+      if (!current.equals(written)) {
+        throw new InvalidClassException(name, "has changed since the population snapshot "
+            + "was written. Its fields were " + written + " and are now " + current);
+      }
+      return desc;
+    }
+
+    private static String describe(char typeCode, String name, String typeString) {
+      return (typeString == null ? String.valueOf(typeCode) : typeString) + " " + name;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+    /**
+     * Deserializes one person, resolving the references to the tables.
+     */
+    private class RecordInput extends ObjectInputStream {
+      RecordInput(InputStream in) throws IOException {
+        super(in);
+        enableResolveObject(true);
+      }
+
+      @Override
+      protected void readStreamHeader() {
+        // the snapshot has its own header
+      }
+
+      @Override
+      protected ObjectStreamClass readClassDescriptor() throws IOException {
+        return classes.get(readInt());
+      }
+
+      @Override
+      protected Object resolveObject(Object obj) {
+        if (!(obj instanceof Ref)) {
+          return obj;
+        }
+        Ref ref = (Ref) obj;
+        switch (ref.table) {
+          case STRING_REF:
+            return strings.get(ref.index);
+          case CODE_REF:
+            // each person gets their own copy, since exports may change codes
+            Code template = codes.get(ref.index);
+            Code code = new Code(template.system, template.code, template.display);
+            code.valueSet = template.valueSet;
+            return code;
+          default:
+            return shared.get(ref.index);
+        }
+      }
+    }
+  }
+
+  /**
+   * The bytes of the frames of shared objects, read by one ObjectInputStream as one stream.
+   */
+  private static class FrameInputStream extends InputStream {
+    private final ArrayDeque<ByteArrayInputStream> frames = new ArrayDeque<>();
+
+    void add(byte[] bytes) {
+      frames.add(new ByteArrayInputStream(bytes));
+    }
+
+    private ByteArrayInputStream current() throws EOFException {
+      while (!frames.isEmpty() && frames.peek().available() == 0) {
+        frames.poll();
+      }
+      if (frames.isEmpty()) {
+        throw new EOFException("Population snapshot shared object is incomplete");
+      }
+      return frames.peek();
+    }
+
+    @Override
+    public int read() throws IOException {
+      return current().read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      return current().read(b, off, len);
+    }
+
+    @Override
+    public int available() {
+      return frames.isEmpty() ? 0 : frames.peek().available();
+    }
+  }
+}
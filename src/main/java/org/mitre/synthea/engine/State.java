@@ -35,6 +35,7 @@ import org.mitre.synthea.engine.Transition.LookupTableTransitionOption;
 import org.mitre.synthea.engine.Transition.TypeOfCareTransition;
 import org.mitre.synthea.engine.Transition.TypeOfCareTransitionOptions;
 import org.mitre.synthea.export.ExportHelper;
+import org.mitre.synthea.helpers.AttributeMap;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.ConstantValueGenerator;
 import org.mitre.synthea.helpers.ExpressionProcessor;
@@ -155,6 +156,38 @@ public abstract class State implements Cloneable, Serializable {
     return transition;
   }
 
+  /**
+   * Compile the logic used by this state and its transition. Called once when the module is
+   * loaded, before the state is ever cloned, so clones share the compiled logic.
+   */
+  void compile() {
+    if (transition != null) {
+      transition.compile();
+    }
+  }
+
+  /**
+   * Whether a person entering this state needs their own copy of it, because processing it
+   * keeps something about the person in the state's own fields, such as when a Delay ends or
+   * the HealthRecord.Entry it made. Other states are shared by everyone who enters them, and
+   * the times of each visit are kept in the person's StateHistory instead.
+   *
+   * @return true if the state is cloned for each visit.
+   */
+  boolean keepsPersonData() {
+    return false;
+  }
+
+  /**
+   * Whether the person's copy of this state is still needed once they have left it, because
+   * later states look at it. Otherwise the StateHistory only keeps the times of the visit.
+   *
+   * @return true if the copy is kept in the history.
+   */
+  boolean keptInHistory() {
+    return false;
+  }
+
   /**
    * Process this State with the given Person at the specified time within the simulation.
    * If this State generates a HealthRecord.Entry during processing, then the resulting data
@@ -209,6 +242,17 @@ public abstract class State implements Cloneable, Serializable {
     return exit;
   }
 
+  /**
+   * Get the earliest time at which running this state could have any effect. States that may
+   * change on any timestep (for example a Guard, whose condition can depend on anything about
+   * the person) return Long.MIN_VALUE, meaning they must be processed every timestep.
+   *
+   * @return the earliest time this state may exit, or Long.MIN_VALUE if unknown
+   */
+  public long nextWakeTime() {
+    return Long.MIN_VALUE;
+  }
+
   public String toString() {
     return this.getClass().getSimpleName() + " '" + name + "'";
   }
@@ -255,6 +299,11 @@ public abstract class State implements Cloneable, Serializable {
       return clone;
     }
 
+    @Override
+    boolean keepsPersonData() {
+      return true;
+    }
+
     @Override
     public boolean process(Person person, long time) {
       // e.g. "submodule": "medications/otc_antihistamine"
@@ -282,6 +331,8 @@ public abstract class State implements Cloneable, Serializable {
           this.submoduleExited = person.history.get(0).exited;
         }
 
+        // the visit before the submodule ends when the submodule does
+        this.exited = this.submoduleExited;
         // add the history from the submodule to this module's history, at the front
         if (moduleHistory != person.history) {
           // if the submodule is a java module, it didn't create its own history
@@ -388,6 +439,11 @@ public abstract class State implements Cloneable, Serializable {
       return clone;
     }
 
+    @Override
+    boolean keepsPersonData() {
+      return true;
+    }
+
     @Override
     public boolean process(Person person, long time) {
       if (!ENABLE_PHYSIOLOGY_STATE) {
@@ -479,6 +535,11 @@ public abstract class State implements Cloneable, Serializable {
       return clone;
     }
 
+    @Override
+    boolean keepsPersonData() {
+      return true;
+    }
+
     public abstract long endOfDelay(long time, Person person);
 
     /**
@@ -508,6 +569,12 @@ public abstract class State implements Cloneable, Serializable {
 
       return ((time >= this.next) && person.alive(this.next));
     }
+
+    @Override
+    public long nextWakeTime() {
+      // until the delay has started we don't know when it ends
+      return (this.next == null) ? Long.MIN_VALUE : this.next;
+    }
   }
 
   public abstract static class LegacyStateWithUnitlessRV extends State {
@@ -620,6 +687,7 @@ public abstract class State implements Cloneable, Serializable {
    */
   public static class Guard extends State {
     private Logic allow;
+    private transient Logic compiledAllow;
 
     @Override
     public Guard clone() {
@@ -628,12 +696,17 @@ public abstract class State implements Cloneable, Serializable {
     }
 
     @Override
-    public boolean process(Person person, long time) {
-      boolean exit = allow.test(person, time);
-      if (exit) {
-        this.exited = time;
+    void compile() {
+      super.compile();
+      if (allow != null) {
+        compiledAllow = allow.compile();
       }
-      return exit;
+    }
+
+    @Override
+    public boolean process(Person person, long time) {
+      Logic logic = (compiledAllow != null) ? compiledAllow : allow;
+      return logic.test(person, time);
     }
   }
 
@@ -652,27 +725,14 @@ public abstract class State implements Cloneable, Serializable {
     private String valueAttribute;
     private Range<Double> range;
     private String expression;
-    private transient ThreadLocal<ExpressionProcessor> threadExpProcessor;
+    private transient ExpressionProcessor expProcessor;
+    private transient AttributeMap.Key key;
+    private transient AttributeMap.Key valueKey;
     private String seriesData;
     private double period;
     // For GMF 2.0 Support
     private Distribution distribution;
 
-
-    private ThreadLocal<ExpressionProcessor> getExpProcessor() {
-      // If the ThreadLocal instance hasn't been created yet, create it now
-      if (threadExpProcessor == null) {
-        threadExpProcessor = new ThreadLocal<ExpressionProcessor>();
-      }
-
-      // If there's an expression, create the processor for it
-      if (this.expression != null && threadExpProcessor.get() == null) {
-        threadExpProcessor.set(new ExpressionProcessor(this.expression));
-      }
-
-      return threadExpProcessor;
-    }
-
     @Override
     protected void initialize(Module module, String name, JsonObject definition) {
       super.initialize(module, name, definition);
@@ -695,21 +755,51 @@ public abstract class State implements Cloneable, Serializable {
         throw new IllegalStateException(
             String.format("State %s contains an invalid distribution", this.name));
       }
+
+      // Build the expression processor once on the prototype; clones share it, and
+      // ExpressionProcessor keeps a separate evaluation context per thread.
+      if (expression != null) {
+        expProcessor = new ExpressionProcessor(expression);
+      }
+      resolveKeys();
+    }
+
+    private void resolveKeys() {
+      key = AttributeMap.key(attribute);
+      if (valueAttribute != null) {
+        valueKey = AttributeMap.key(valueAttribute);
+      }
+    }
+
+    /**
+     * Java Serialization support method to rebuild the transient expression processor and
+     * attribute keys of a state restored from a population snapshot.
+     * @param ois the stream to read from
+     */
+    private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
+      ois.defaultReadObject();
+      if (expression != null) {
+        expProcessor = new ExpressionProcessor(expression);
+      }
+      resolveKeys();
     }
 
     @Override
     public SetAttribute clone() {
       SetAttribute clone = (SetAttribute) super.clone();
+      clone.expProcessor = expProcessor;
       return clone;
     }
 
     @Override
     public boolean process(Person person, long time) {
-      ThreadLocal<ExpressionProcessor> expProcessor = getExpProcessor();
-      if (expProcessor.get() != null) {
-        value = expProcessor.get().evaluate(person, time);
+      Object value = this.value;
+      if (expProcessor != null) {
+        value = expProcessor.evaluate(person, time);
       } else if (range != null) {
-        value = person.rand(range.low, range.high, range.decimals);
+        // kept unboxed
+        person.attributes.putDouble(key, person.rand(range.low, range.high, range.decimals));
+        return true;
       } else if (seriesData != null) {
         String[] items = seriesData.split(" ");
         TimeSeriesData data = new TimeSeriesData(items.length, period);
@@ -725,21 +815,22 @@ public abstract class State implements Cloneable, Serializable {
 
         value = data;
       } else if (distribution != null) {
-        value = distribution.generate(person);
+        person.attributes.putDouble(key, distribution.generate(person));
+        return true;
       } else if (valueCode != null) {
         value = valueCode;
-      } else if (valueAttribute != null) {
+      } else if (valueKey != null) {
         // the module is setting an attribute to be the value of an existing attribute
-        if (person.attributes.containsKey(valueAttribute)) {
-          value = person.attributes.get(valueAttribute);
+        if (person.attributes.has(valueKey)) {
+          value = person.attributes.getValue(valueKey);
         }
       }
 
       if (value != null) {
-        person.attributes.put(attribute, value);
-      } else if (person.attributes.containsKey(attribute)) {
+        person.attributes.putValue(key, value);
+      } else {
         // intentionally clear out the variable
-        person.attributes.remove(attribute);
+        person.attributes.removeValue(key);
       }
 
       return true;
@@ -757,6 +848,7 @@ public abstract class State implements Cloneable, Serializable {
     private String action;
     private boolean increment;
     private int amount;
+    private transient AttributeMap.Key key;
 
     @Override
     protected void initialize(Module module, String name, JsonObject definition) {
@@ -766,6 +858,17 @@ public abstract class State implements Cloneable, Serializable {
         // default to 1 for legacy compatibility
         amount = 1;
       }
+      key = AttributeMap.key(attribute);
+    }
+
+    /**
+     * Java Serialization support method to look up the attribute key of a state restored from
+     * a population snapshot.
+     * @param ois the stream to read from
+     */
+    private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
+      ois.defaultReadObject();
+      key = AttributeMap.key(attribute);
     }
 
     @Override
@@ -777,10 +880,11 @@ public abstract class State implements Cloneable, Serializable {
     @Override
     public boolean process(Person person, long time) {
       double counter = 0.0;
-      if (person.attributes.containsKey(attribute)) {
-        // this cast as int from double is to handle cases where the attribute
-        // is either a java.lang.Double or java.lang.Integer
-        counter = Double.parseDouble(person.attributes.get(attribute).toString());
+      if (person.attributes.isNumber(key)) {
+        // the attribute is either a java.lang.Double or java.lang.Integer
+        counter = person.attributes.getDouble(key, 0.0);
+      } else if (person.attributes.has(key)) {
+        counter = Double.parseDouble(person.attributes.getValue(key).toString());
       }
 
       if (increment) {
@@ -788,7 +892,7 @@ public abstract class State implements Cloneable, Serializable {
       } else {
         counter = counter - amount;
       }
-      person.attributes.put(attribute, counter);
+      person.attributes.putDouble(key, counter);
       return true;
     }
   }
@@ -842,6 +946,11 @@ public abstract class State implements Cloneable, Serializable {
       return clone;
     }
 
+    @Override
+    boolean keepsPersonData() {
+      return true;
+    }
+
     @Override
     public boolean process(Person person, long time) {
       if (wellness) {
@@ -849,13 +958,13 @@ public abstract class State implements Cloneable, Serializable {
             && person.getCurrentEncounterModule().equals(EncounterModule.NAME)) {
           HealthRecord.Encounter encounter = person.record.currentEncounter(time);
           entry = encounter;
-          String activeKey = EncounterModule.ACTIVE_WELLNESS_ENCOUNTER + " " + module.name;
-          if (person.attributes.containsKey(activeKey)) {
+          AttributeMap.Key activeKey = module.activeWellnessKey();
+          if (person.attributes.has(activeKey)) {
             // check-in with the activeKey...
-            boolean status = (Boolean) person.attributes.get(activeKey);
+            boolean status = person.attributes.getBoolean(activeKey);
             if (status == false) {
               // mark that we have used our active key
-              person.attributes.put(activeKey, true);
+              person.attributes.putBoolean(activeKey, true);
               diagnosePastConditions(person, time);
               if (!encounter.chronicMedsRenewed && person.chronicMedications.size() > 0) {
                 renewChronicMedicationsAtWellness(person, time);
@@ -954,7 +1063,9 @@ public abstract class State implements Cloneable, Serializable {
 
     private void diagnosePastConditions(Person person, long time) {
       // reminder: history[0] is current state, history[size-1] is Initial
-      for (State state : person.history) {
+      List<State> history = (person.history instanceof StateHistory)
+          ? ((StateHistory) person.history).states() : person.history;
+      for (State state : history) {
         if (state instanceof OnsetState) {
           OnsetState onset = (OnsetState) state;
 
@@ -1054,7 +1165,7 @@ public abstract class State implements Cloneable, Serializable {
 
     @Override
     public boolean process(Person person, long time) {
-      String activeKey = EncounterModule.ACTIVE_WELLNESS_ENCOUNTER + " " + module.name;
+      AttributeMap.Key activeKey = module.activeWellnessKey();
       if (person.hasCurrentEncounter()
           && person.getCurrentEncounterModule().equals(module.name)) {
         HealthRecord.Encounter encounter = person.record.currentEncounter(time);
@@ -1070,14 +1181,14 @@ public abstract class State implements Cloneable, Serializable {
       } else if (person.hasCurrentEncounter()
           && person.getCurrentEncounterModule().equals(EncounterModule.NAME)) {
         // exit the current wellness encounter
-        person.attributes.remove(activeKey);
+        person.attributes.removeValue(activeKey);
         return true;
-      } else if (person.attributes.containsKey(activeKey)) {
+      } else if (person.attributes.has(activeKey)) {
         // possibly due to wellness encounters crossing a time-step boundary,
         // it is possible for the EncounterModule to end a wellness encounter
         // while a module did not hit the EncounterEnd state yet...
         // so, as a backup, we check for the presence of the activeKey...
-        person.attributes.remove(activeKey);
+        person.attributes.removeValue(activeKey);
         return true;
       } else if (person.hasCurrentEncounter()) {
         // trying to end an encounter when another module has the reservation
@@ -1117,6 +1228,17 @@ public abstract class State implements Cloneable, Serializable {
       return clone;
     }
 
+    @Override
+    boolean keepsPersonData() {
+      return true;
+    }
+
+    @Override
+    boolean keptInHistory() {
+      // an Encounter diagnoses the onsets in the history that target it
+      return true;
+    }
+
     @Override
     public boolean process(Person person, long time) {
       updateOnsetInfo(person, time);
@@ -1365,6 +1487,11 @@ public abstract class State implements Cloneable, Serializable {
       return clone;
     }
 
+    @Override
+    boolean keepsPersonData() {
+      return true;
+    }
+
     @Override
     public boolean process(Person person, long time) {
       Medication medication = null;
@@ -1486,6 +1613,11 @@ public abstract class State implements Cloneable, Serializable {
       return clone;
     }
 
+    @Override
+    boolean keepsPersonData() {
+      return true;
+    }
+
     @Override
     public boolean process(Person person, long time) {
       String primaryCode = codes.get(0).code;
@@ -1670,7 +1802,7 @@ public abstract class State implements Cloneable, Serializable {
     private String unit;
     private String expression;
     private Distribution distribution;
-    private transient ThreadLocal<ExpressionProcessor> threadExpProcessor;
+    private transient ExpressionProcessor expProcessor;
 
     @Override
     protected void initialize(Module module, String name, JsonObject definition) {
@@ -1679,25 +1811,29 @@ public abstract class State implements Cloneable, Serializable {
         throw new IllegalStateException(
             String.format("State %s contains an invalid distribution", this.name));
       }
-    }
 
-    private ThreadLocal<ExpressionProcessor> getExpProcessor() {
-      // If the ThreadLocal instance hasn't been created yet, create it now
-      if (threadExpProcessor == null) {
-        threadExpProcessor = new ThreadLocal<ExpressionProcessor>();
+      // Shared with every clone, as for SetAttribute.
+      if (expression != null) {
+        expProcessor = new ExpressionProcessor(expression);
       }
+    }
 
-      // If there's an expression, create the processor for it
-      if (this.expression != null && threadExpProcessor.get() == null) {
-        threadExpProcessor.set(new ExpressionProcessor(this.expression));
+    /**
+     * Java Serialization support method to rebuild the transient expression processor of a
+     * state restored from a population snapshot.
+     * @param ois the stream to read from
+     */
+    private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
+      ois.defaultReadObject();
+      if (expression != null) {
+        expProcessor = new ExpressionProcessor(expression);
       }
-
-      return threadExpProcessor;
     }
 
     @Override
     public VitalSign clone() {
       VitalSign clone = (VitalSign) super.clone();
+      clone.expProcessor = expProcessor;
       return clone;
     }
 
@@ -1712,8 +1848,8 @@ public abstract class State implements Cloneable, Serializable {
               (double) range.low, (double) range.high));
         }
       } else {
-        if (getExpProcessor().get() != null) {
-          Number value = (Number) getExpProcessor().get().evaluate(person, time);
+        if (expProcessor != null) {
+          Number value = (Number) expProcessor.evaluate(person, time);
           person.setVitalSign(vitalSign, value.doubleValue());
         } else if (distribution != null) {
           person.setVitalSign(vitalSign, new RandomValueGenerator(person, distribution));
@@ -1771,7 +1907,7 @@ public abstract class State implements Cloneable, Serializable {
     private String unit;
     private String expression;
     private Distribution distribution;
-    private transient ThreadLocal<ExpressionProcessor> threadExpProcessor;
+    private transient ExpressionProcessor expProcessor;
 
     @Override
     protected void initialize(Module module, String name, JsonObject definition) {
@@ -1796,15 +1932,11 @@ public abstract class State implements Cloneable, Serializable {
       }
     }
 
-    private ThreadLocal<ExpressionProcessor> getExpProcessor() {
-      // If the ThreadLocal instance hasn't been created yet, create it now
-      if (threadExpProcessor == null) {
-        threadExpProcessor = new ThreadLocal<ExpressionProcessor>();
-      }
-
-      // If there's an expression, create the processor for it
-      if (expression != null && threadExpProcessor.get() == null) {
-        threadExpProcessor.set(new ExpressionProcessor(expression));
+    private ExpressionProcessor getExpProcessor() {
+      // If there's an expression, create the processor for it. The compiled expression is
+      // cached by ExpressionProcessor, so this is cheap for every clone after the first.
+      if (expression != null && expProcessor == null) {
+        expProcessor = new ExpressionProcessor(expression);
       }
 
       // If there's an attachment, validate it before we process
@@ -1812,7 +1944,7 @@ public abstract class State implements Cloneable, Serializable {
         attachment.validate();
       }
 
-      return threadExpProcessor;
+      return expProcessor;
     }
 
     @Override
@@ -1821,6 +1953,11 @@ public abstract class State implements Cloneable, Serializable {
       return clone;
     }
 
+    @Override
+    boolean keepsPersonData() {
+      return true;
+    }
+
     @Override
     public boolean process(Person person, long time) {
       String primaryCode = codes.get(0).code;
@@ -1841,9 +1978,8 @@ public abstract class State implements Cloneable, Serializable {
           value = person.getVitalSign(vitalSign, time);
         } else if (valueCode != null) {
           value = valueCode;
-        } else if (threadExpProcessor != null
-            && threadExpProcessor.get() != null) {
-          value = threadExpProcessor.get().evaluate(person, time);
+        } else if (expProcessor != null) {
+          value = expProcessor.evaluate(person, time);
         } else if (sampledData != null) {
           // Capture the data lists from person attributes
           sampledData.setSeriesData(person);
@@ -1897,6 +2033,11 @@ public abstract class State implements Cloneable, Serializable {
 
       return clone;
     }
+
+    @Override
+    boolean keepsPersonData() {
+      return true;
+    }
   }
 
   /**
@@ -1990,6 +2131,11 @@ public abstract class State implements Cloneable, Serializable {
       return clone;
     }
 
+    @Override
+    boolean keepsPersonData() {
+      return true;
+    }
+
     @Override
     public boolean process(Person person, long time) {
       // Randomly pick number of series and instances if bounds were provided
@@ -0,0 +1,527 @@
+package org.mitre.synthea.engine;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.HealthRecord.Entry;
+
+/**
+ * The states a person has entered in one module, most recent first, as found in
+ * Person.history and in the person's attributes under the name of the module.
+ * Each visit is kept as a compact record, oldest first: which state was visited, when it was
+ * entered and exited, and the HealthRecord.Entry it made, which Logic looks for when records are
+ * split. The states themselves are the prototypes shared by everyone, so a visit doesn't need a
+ * State of its own. Only states that keep data about the person in their own fields (see
+ * {@link State#keepsPersonData()}) are entered as a copy, which is kept while it is the current
+ * state, and afterwards only if later states look at it.
+ * As a List, visits without a copy are read as a new copy of the state with the times of the
+ * visit, so changes to it are not kept.
+ * The position of the latest visit to each state is also indexed by name, so checking for a
+ * prior state does not scan back through the whole history.
+ */
+public class StateHistory extends AbstractList<State> implements RandomAccess, Serializable {
+  private static final long serialVersionUID = 2L;
+  /** Stands in for an entered or exited time that is null. */
+  private static final long NO_TIME = Long.MIN_VALUE;
+
+  /** The states visited, each once, referred to by their position. */
+  private transient State[] definitions;
+  /** The module each state was entered from, which may be a submodule under another name. */
+  private transient Module[] modules;
+  private transient int definitionCount;
+  /** The visits, oldest first: the state, the times it was entered and exited, its entry. */
+  private transient int[] stateIds;
+  private transient long[] entered;
+  private transient long[] exited;
+  private transient Entry[] entries;
+  /** The person's copy of the state for each visit that has one, or null. */
+  private transient State[] copies;
+  private transient int size;
+  /** The position of the latest visit to each state, or null to rebuild. */
+  private transient Map<String, int[]> lastVisits;
+
+  /**
+   * Create an empty history.
+   */
+  public StateHistory() {
+    this.definitions = new State[8];
+    this.modules = new Module[8];
+    this.stateIds = new int[8];
+    this.entered = new long[8];
+    this.exited = new long[8];
+    this.entries = new Entry[8];
+    this.copies = new State[8];
+    this.lastVisits = new HashMap<String, int[]>();
+  }
+
+  private int position(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    return size - 1 - index;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > stateIds.length) {
+      int length = Math.max(capacity, stateIds.length * 2);
+      stateIds = Arrays.copyOf(stateIds, length);
+      entered = Arrays.copyOf(entered, length);
+      exited = Arrays.copyOf(exited, length);
+      entries = Arrays.copyOf(entries, length);
+      copies = Arrays.copyOf(copies, length);
+    }
+  }
+
+  /**
+   * Make room for visits at the given position, moving the later visits along.
+   */
+  private void open(int position, int count) {
+    int moved = size - position;
+    System.arraycopy(stateIds, position, stateIds, position + count, moved);
+    System.arraycopy(entered, position, entered, position + count, moved);
+    System.arraycopy(exited, position, exited, position + count, moved);
+    System.arraycopy(entries, position, entries, position + count, moved);
+    System.arraycopy(copies, position, copies, position + count, moved);
+  }
+
+  /**
+   * Find the number of a state entered from a module, adding it if it hasn't been visited
+   * before. A copy of a state is numbered as the prototype it was copied from.
+   */
+  private int define(State state, Module module) {
+    State definition = (state.module == null) ? null : state.module.getState(state.name);
+    if (definition == null || definition.getClass() != state.getClass()) {
+      definition = state;
+    }
+    for (int i = definitionCount - 1; i >= 0; i--) {
+      if (definitions[i] == definition && modules[i] == module) {
+        return i;
+      }
+    }
+    if (definitionCount == definitions.length) {
+      definitions = Arrays.copyOf(definitions, definitionCount * 2);
+      modules = Arrays.copyOf(modules, definitionCount * 2);
+    }
+    definitions[definitionCount] = definition;
+    modules[definitionCount] = module;
+    return definitionCount++;
+  }
+
+  private void store(int position, State state, Module module, Long enteredTime,
+      Long exitedTime, Entry entry) {
+    int id = define(state, module);
+    stateIds[position] = id;
+    entered[position] = (enteredTime == null) ? NO_TIME : enteredTime;
+    exited[position] = (exitedTime == null) ? NO_TIME : exitedTime;
+    entries[position] = entry;
+    copies[position] = (state == definitions[id]) ? null : state;
+  }
+
+  /**
+   * Called once a visit is no longer the latest, so it can't change any more. The times are
+   * taken from the person's copy of the state, and the copy dropped unless it is still needed.
+   */
+  private void settle(int position) {
+    State copy = copies[position];
+    if (copy != null) {
+      entered[position] = (copy.entered == null) ? NO_TIME : copy.entered;
+      exited[position] = (copy.exited == null) ? NO_TIME : copy.exited;
+      entries[position] = copy.entry;
+      if (!copy.keptInHistory()) {
+        copies[position] = null;
+      }
+    }
+  }
+
+  private Long enteredAt(int position) {
+    State copy = copies[position];
+    if (copy != null) {
+      return copy.entered;
+    }
+    return (entered[position] == NO_TIME) ? null : entered[position];
+  }
+
+  private Long exitedAt(int position) {
+    State copy = copies[position];
+    if (copy != null) {
+      return copy.exited;
+    }
+    return (exited[position] == NO_TIME) ? null : exited[position];
+  }
+
+  private Entry entryAt(int position) {
+    State copy = copies[position];
+    return (copy != null) ? copy.entry : entries[position];
+  }
+
+  private Module moduleAt(int position) {
+    State copy = copies[position];
+    return (copy != null) ? copy.module : modules[stateIds[position]];
+  }
+
+  private State stateAt(int position) {
+    State copy = copies[position];
+    return (copy != null) ? copy : definitions[stateIds[position]];
+  }
+
+  /**
+   * Get the state of a visit: the person's copy if the visit has one, otherwise the state shared
+   * by everyone, whose entered and exited times are not those of the visit.
+   * @param index The index of the visit, most recent first.
+   * @return the state.
+   */
+  public State getState(int index) {
+    return stateAt(position(index));
+  }
+
+  /**
+   * Get when a visit started.
+   * @param index The index of the visit, most recent first.
+   * @return the time the state was entered, or null if it hasn't been processed yet.
+   */
+  public Long getEntered(int index) {
+    return enteredAt(position(index));
+  }
+
+  /**
+   * Get when a visit ended.
+   * @param index The index of the visit, most recent first.
+   * @return the time the state was exited, or null if the person is still in it.
+   */
+  public Long getExited(int index) {
+    return exitedAt(position(index));
+  }
+
+  /**
+   * Get the entry a visit made in the person's health record.
+   * @param index The index of the visit, most recent first.
+   * @return the entry, or null if the state didn't make one.
+   */
+  public Entry getEntry(int index) {
+    return entryAt(position(index));
+  }
+
+  /**
+   * Get the states of the visits, most recent first, as {@link #getState(int)} does, without
+   * copying any of them.
+   * @return the states.
+   */
+  public List<State> states() {
+    return new States();
+  }
+
+  private class States extends AbstractList<State> implements RandomAccess {
+    @Override
+    public State get(int index) {
+      return getState(index);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+
+  /**
+   * Process the current state, with the same result as {@link State#run(Person, long, boolean)}.
+   * States shared by everyone can't keep the times of the visit, so they are kept here instead.
+   * Those states are never Delayable or CallSubmodule, so they exit at the time they finish.
+   * @param person The person being simulated.
+   * @param time The date within the simulated world.
+   * @param terminateOnDeath Whether to stop without processing the state if the person is dead.
+   * @return true if processing should continue to the next state.
+   */
+  boolean runCurrent(Person person, long time, boolean terminateOnDeath) {
+    int position = size - 1;
+    State copy = copies[position];
+    if (copy != null) {
+      return copy.run(person, time, terminateOnDeath);
+    }
+    if (terminateOnDeath && !person.alive(time)) {
+      return false;
+    }
+    if (entered[position] == NO_TIME) {
+      entered[position] = time;
+    }
+    State state = definitions[stateIds[position]];
+    boolean exit = state.process(person, time);
+    if (exit || state instanceof State.Terminal) {
+      exited[position] = time;
+    }
+    return exit;
+  }
+
+  /**
+   * Get when the latest visit ended, without boxing it, once {@link #runCurrent} has returned
+   * true.
+   */
+  long currentExited() {
+    int position = size - 1;
+    State copy = copies[position];
+    return (copy != null) ? copy.exited : exited[position];
+  }
+
+  @Override
+  public State get(int index) {
+    int position = position(index);
+    State copy = copies[position];
+    if (copy != null) {
+      return copy;
+    }
+    int id = stateIds[position];
+    State view = definitions[id].clone();
+    view.module = modules[id];
+    view.entered = enteredAt(position);
+    view.exited = exitedAt(position);
+    view.entry = entries[position];
+    return view;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public State set(int index, State state) {
+    State previous = get(index);
+    int position = position(index);
+    store(position, state, state.module, state.entered, state.exited, state.entry);
+    if (index > 0) {
+      settle(position);
+    }
+    lastVisits = null;
+    return previous;
+  }
+
+  @Override
+  public void add(int index, State state) {
+    if (index < 0 || index > size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    ensureCapacity(size + 1);
+    if (index == 0 && size > 0) {
+      settle(size - 1);
+    }
+    int position = size - index;
+    open(position, 1);
+    store(position, state, state.module, state.entered, state.exited, state.entry);
+    size++;
+    modCount++;
+    if (index == 0) {
+      visited(position);
+    } else {
+      settle(position);
+      lastVisits = null;
+    }
+  }
+
+  @Override
+  public boolean addAll(int index, Collection<? extends State> added) {
+    if (index < 0 || index > size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    int count = added.size();
+    if (count == 0) {
+      return false;
+    }
+    ensureCapacity(size + count);
+    if (index == 0 && size > 0) {
+      settle(size - 1);
+    }
+    int position = size - index;
+    open(position, count);
+    if (added instanceof StateHistory) {
+      // copy the records, rather than reading each visit as a State
+      StateHistory other = (StateHistory) added;
+      for (int i = 0; i < count; i++) {
+        store(position + i, other.stateAt(i), other.moduleAt(i), other.enteredAt(i),
+            other.exitedAt(i), other.entryAt(i));
+      }
+    } else {
+      int i = count - 1;
+      for (State state : added) {
+        store(position + i, state, state.module, state.entered, state.exited, state.entry);
+        i--;
+      }
+    }
+    size += count;
+    modCount++;
+    for (int i = position; i < position + count; i++) {
+      if (i < size - 1) {
+        settle(i);
+      }
+      if (index == 0) {
+        visited(i);
+      }
+    }
+    if (index != 0) {
+      lastVisits = null;
+    }
+    return true;
+  }
+
+  @Override
+  public State remove(int index) {
+    State removed = get(index);
+    int position = position(index);
+    int moved = size - 1 - position;
+    System.arraycopy(stateIds, position + 1, stateIds, position, moved);
+    System.arraycopy(entered, position + 1, entered, position, moved);
+    System.arraycopy(exited, position + 1, exited, position, moved);
+    System.arraycopy(entries, position + 1, entries, position, moved);
+    System.arraycopy(copies, position + 1, copies, position, moved);
+    size--;
+    entries[size] = null;
+    copies[size] = null;
+    modCount++;
+    lastVisits = null;
+    return removed;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(entries, 0, size, null);
+    Arrays.fill(copies, 0, size, null);
+    Arrays.fill(definitions, 0, definitionCount, null);
+    Arrays.fill(modules, 0, definitionCount, null);
+    definitionCount = 0;
+    size = 0;
+    modCount++;
+    lastVisits = new HashMap<String, int[]>();
+  }
+
+  private void visited(int position) {
+    if (lastVisits != null) {
+      // the slot is updated in place, so a visit doesn't box its position
+      String name = definitions[stateIds[position]].name;
+      int[] last = lastVisits.get(name);
+      if (last == null) {
+        lastVisits.put(name, new int[] {position});
+      } else {
+        last[0] = position;
+      }
+    }
+  }
+
+  /**
+   * Check whether the person has been in the named state, with the same result as
+   * scanning this history with {@link #hadPriorState(List, String, String, Long)}.
+   * The latest visits to the state and to the "since" state are looked up in the index, so
+   * only the states exited after the "within" time, if any, are looked at one by one.
+   * @param name The name of the state.
+   * @param since The name of a state that, if visited more recently, means the answer is false.
+   * @param within The earliest time the state may have been exited, or null for any time.
+   * @return true if the person has been in the state.
+   */
+  public boolean hadPriorState(String name, String since, Long within) {
+    if (lastVisits == null) {
+      lastVisits = new HashMap<String, int[]>();
+      for (int i = 0; i < size; i++) {
+        visited(i);
+      }
+    }
+    int[] lastSlot = lastVisits.get(name);
+    if (lastSlot == null) {
+      return false;
+    }
+    int last = lastSlot[0];
+    if (since != null) {
+      int[] sinceLast = lastVisits.get(since);
+      if (sinceLast != null && sinceLast[0] >= last) {
+        return false;
+      }
+    }
+    if (within != null) {
+      // the scan, most recent first, stops at the first state exited by that time
+      for (int i = size - 1; i >= last; i--) {
+        State copy = copies[i];
+        long exitedTime = (copy == null) ? exited[i]
+            : (copy.exited == null) ? NO_TIME : copy.exited;
+        if (exitedTime != NO_TIME && exitedTime <= within) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Check whether the history of a module shows the named state, scanning it from the most
+   * recent state back until the state, the "since" state, or a state exited by the "within"
+   * time is found.
+   * @param history The states entered in the module, most recent first.
+   * @param name The name of the state.
+   * @param since The name of a state that, if visited more recently, means the answer is false.
+   * @param within The earliest time the state may have been exited, or null for any time.
+   * @return true if the state was found first.
+   */
+  public static boolean hadPriorState(List<State> history, String name, String since,
+      Long within) {
+    for (State state : history) {
+      if (within != null && state.exited != null && state.exited <= within) {
+        return false;
+      }
+      if (since != null && state.name.equals(since)) {
+        return false;
+      }
+      if (state.name.equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeInt(definitionCount);
+    for (int i = 0; i < definitionCount; i++) {
+      out.writeObject(definitions[i]);
+      out.writeObject(modules[i]);
+    }
+    out.writeInt(size);
+    for (int i = 0; i < size; i++) {
+      out.writeInt(stateIds[i]);
+      out.writeLong(entered[i]);
+      out.writeLong(exited[i]);
+      out.writeObject(entries[i]);
+      out.writeObject(copies[i]);
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    definitionCount = in.readInt();
+    definitions = new State[Math.max(definitionCount, 8)];
+    modules = new Module[definitions.length];
+    for (int i = 0; i < definitionCount; i++) {
+      definitions[i] = (State) in.readObject();
+      modules[i] = (Module) in.readObject();
+    }
+    size = in.readInt();
+    int capacity = Math.max(size, 8);
+    stateIds = new int[capacity];
+    entered = new long[capacity];
+    exited = new long[capacity];
+    entries = new Entry[capacity];
+    copies = new State[capacity];
+    for (int i = 0; i < size; i++) {
+      stateIds[i] = in.readInt();
+      entered[i] = in.readLong();
+      exited[i] = in.readLong();
+      entries[i] = (Entry) in.readObject();
+      copies[i] = (State) in.readObject();
+    }
+    lastVisits = null;
+  }
+}
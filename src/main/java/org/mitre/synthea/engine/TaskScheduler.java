@@ -0,0 +1,124 @@
+package org.mitre.synthea.engine;
+
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds numbered tasks, such as the people of a population, to a thread pool while only
+ * keeping a bounded number of them submitted at once. The producer blocks until a slot is
+ * free, so the pool's work queue never grows beyond that bound, however many tasks there are.
+ * Completed tasks are tracked in order, to report how far the run has progressed.
+ */
+final class TaskScheduler {
+  private final ExecutorService threadPool;
+  private final Semaphore slots;
+  private final long reportInterval;
+  private long lastReport;
+
+  private long submitted;
+  private long completed;
+  /** Every task numbered below this has completed. */
+  private long completedInOrder;
+  /** Tasks numbered above completedInOrder that have completed. */
+  private final TreeSet<Long> completedOutOfOrder;
+
+  /**
+   * Create a new scheduler.
+   * @param threadPool The thread pool to run the tasks in.
+   * @param maxInFlight The most tasks that may be submitted and not yet completed at once.
+   * @param reportInterval How often to print the progress of the tasks, in milliseconds.
+   */
+  TaskScheduler(ExecutorService threadPool, int maxInFlight, long reportInterval) {
+    this.threadPool = threadPool;
+    this.slots = new Semaphore(Math.max(1, maxInFlight));
+    this.reportInterval = reportInterval;
+    this.lastReport = System.currentTimeMillis();
+    this.completedOutOfOrder = new TreeSet<Long>();
+  }
+
+  /**
+   * Submit the next task, waiting until there is room for it. Tasks are numbered from zero in
+   * the order they are submitted.
+   * @param task The task.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  void submit(Runnable task) throws InterruptedException {
+    slots.acquire();
+    long number;
+    synchronized (this) {
+      number = submitted++;
+      long now = System.currentTimeMillis();
+      if (now - lastReport >= reportInterval) {
+        lastReport = now;
+        System.out.println("Progress: " + progress());
+      }
+    }
+    try {
+      threadPool.submit(() -> {
+        try {
+          task.run();
+        } finally {
+          complete(number);
+          slots.release();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      complete(number);
+      slots.release();
+      throw e;
+    }
+  }
+
+  private synchronized void complete(long number) {
+    completed++;
+    if (number != completedInOrder) {
+      completedOutOfOrder.add(number);
+      return;
+    }
+    completedInOrder++;
+    while (!completedOutOfOrder.isEmpty() && completedOutOfOrder.first() == completedInOrder) {
+      completedOutOfOrder.pollFirst();
+      completedInOrder++;
+    }
+  }
+
+  /**
+   * Stop accepting tasks and wait for the submitted ones to complete, reporting progress
+   * periodically.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  void shutdownAndWait() throws InterruptedException {
+    threadPool.shutdown();
+    while (!threadPool.awaitTermination(reportInterval, TimeUnit.MILLISECONDS)) {
+      System.out.println("Waiting for threads to finish... " + progress());
+    }
+  }
+
+  /**
+   * Describe the progress of the tasks.
+   * @return the number of tasks completed, submitted, and completed in order.
+   */
+  synchronized String progress() {
+    return String.format("%d of %d submitted tasks complete, all complete through #%d",
+        completed, submitted, completedInOrder);
+  }
+
+  /**
+   * Get the number of tasks that have completed.
+   * @return the number of tasks completed.
+   */
+  synchronized long getCompleted() {
+    return completed;
+  }
+
+  /**
+   * Get the number of tasks that have completed without any earlier task still running.
+   * @return the number of the first task that has not completed.
+   */
+  synchronized long getCompletedInOrder() {
+    return completedInOrder;
+  }
+}
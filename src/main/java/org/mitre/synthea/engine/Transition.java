@@ -5,12 +5,12 @@ import com.google.gson.JsonObject;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.Range;
-import org.apache.commons.math3.distribution.EnumeratedDistribution;
+import org.mitre.synthea.helpers.AliasSampler;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.SimpleCSV;
 import org.mitre.synthea.helpers.Utilities;
@@ -38,6 +38,14 @@ public abstract class Transition implements Serializable {
    */
   public abstract String follow(Person person, long time);
 
+  /**
+   * Compile any logic used by this transition. Called once when the module is loaded.
+   * See {@link Logic#compile()}.
+   */
+  void compile() {
+    // most transitions have no logic to compile
+  }
+
   /**
    * Direct transitions are the simplest of transitions. They transition directly
    * to the indicated state. The value of a direct_transition is simply the name
@@ -138,7 +146,6 @@ public abstract class Transition implements Serializable {
 
     @Override
     public String follow(Person person, long time) {
-      String selectedTransition;
       InsurancePlan current = person.coverage.getPlanAtTime(time);
       String insuranceName;
       if (current != null) {
@@ -146,35 +153,16 @@ public abstract class Transition implements Serializable {
       } else {
         insuranceName = PayerManager.NO_INSURANCE;
       }
+      boolean highEmergency = config.getHighEmergencyUseInsuranceNames().contains(insuranceName);
+      AliasSampler<String> sampler;
       if (time < config.getTelemedicineStartTime()) {
-        if (config.getHighEmergencyUseInsuranceNames().contains(insuranceName)) {
-          EnumeratedDistribution<String> preHigh = config.getPreTelemedHighEmergency();
-          synchronized (preHigh) {
-            preHigh.reseedRandomGenerator(person.randLong());
-            selectedTransition = preHigh.sample();
-          }
-        } else {
-          EnumeratedDistribution<String> preTypical = config.getPreTelemedTypicalEmergency();
-          synchronized (preTypical) {
-            preTypical.reseedRandomGenerator(person.randLong());
-            selectedTransition = preTypical.sample();
-          }
-        }
+        sampler = highEmergency ? config.getPreTelemedHighEmergencySampler()
+            : config.getPreTelemedTypicalEmergencySampler();
       } else {
-        if (config.getHighEmergencyUseInsuranceNames().contains(insuranceName)) {
-          EnumeratedDistribution<String> high = config.getTelemedHighEmergency();
-          synchronized (high) {
-            high.reseedRandomGenerator(person.randLong());
-            selectedTransition = high.sample();
-          }
-        } else {
-          EnumeratedDistribution<String> typical = config.getTelemedTypicalEmergency();
-          synchronized (typical) {
-            typical.reseedRandomGenerator(person.randLong());
-            selectedTransition = typical.sample();
-          }
-        }
+        sampler = highEmergency ? config.getTelemedHighEmergencySampler()
+            : config.getTelemedTypicalEmergencySampler();
       }
+      String selectedTransition = sampler.sample(person);
       switch (selectedTransition) {
         case TelemedicineConfig.AMBULATORY:
           return this.ambulatory;
@@ -216,13 +204,13 @@ public abstract class Transition implements Serializable {
   public static class LookupTableTransition extends Transition {
 
     // Map of lookupTables
-    private static HashMap<String, HashMap<LookupTableKey, List<DistributedTransitionOption>>>
-        lookupTables = new HashMap<String, HashMap<LookupTableKey,
-        List<DistributedTransitionOption>>>();
+    private static Map<String, LookupTable> lookupTables =
+        new ConcurrentHashMap<String, LookupTable>();
     private final List<LookupTableTransitionOption> transitions;
-    private List<String> attributes;
-    private List<DistributedTransitionOption> defaultTransitions;
+    private String[] defaultTransitions;
+    private double[] defaultCumulative;
     private String lookupTableName;
+    private LookupTable lookupTable;
 
     /**
      * Constructor for LookupTableTransition.
@@ -231,41 +219,36 @@ public abstract class Transition implements Serializable {
     public LookupTableTransition(List<LookupTableTransitionOption> lookupTableTransitions) {
 
       this.transitions = lookupTableTransitions;
-      this.defaultTransitions = loadDefaultTransitions();
+      loadDefaultTransitions();
       this.lookupTableName = lookupTableTransitions.get(0).lookupTableName;
       if (lookupTableName == null) {
         throw new RuntimeException(
           "LOOKUP TABLE JSON ERROR: Table name cannot be null.");
       }
-      if (!lookupTables.containsKey(lookupTableName)) {
-        loadLookupTable();
-      }
+      this.lookupTable = lookupTables.computeIfAbsent(lookupTableName,
+          name -> loadLookupTable());
     }
 
     /**
      * Loads the default transitions for this transition.
      */
-    private List<DistributedTransitionOption> loadDefaultTransitions() {
-      List<DistributedTransitionOption> defaultTransitions
-          = new ArrayList<DistributedTransitionOption>();
-      for (LookupTableTransitionOption transitionOption : this.transitions) {
-        DistributedTransitionOption distributedTransitionOption = new DistributedTransitionOption();
-        distributedTransitionOption.transition = transitionOption.transition;
-        distributedTransitionOption.numericDistribution = transitionOption.defaultProbability;
-        defaultTransitions.add(distributedTransitionOption);
+    private void loadDefaultTransitions() {
+      this.defaultTransitions = new String[this.transitions.size()];
+      double[] probabilities = new double[this.transitions.size()];
+      for (int i = 0; i < this.transitions.size(); i++) {
+        LookupTableTransitionOption transitionOption = this.transitions.get(i);
+        this.defaultTransitions[i] = transitionOption.transition;
+        probabilities[i] = transitionOption.defaultProbability;
       }
-      return defaultTransitions;
+      this.defaultCumulative = LookupTable.cumulative(probabilities);
     }
 
     /**
      * Loads the current lookuptable.
      */
-    private void loadLookupTable() {
+    private LookupTable loadLookupTable() {
 
       System.out.println("Loading Lookup Table: " + lookupTableName);
-      // Hashmap for the new lookup table.
-      HashMap<LookupTableKey, List<DistributedTransitionOption>> newTable
-          = new HashMap<LookupTableKey, List<DistributedTransitionOption>>();
 
       // Load in this transitions's CSV file.
       String fileName = Config.get("generate.lookup_tables") + lookupTableName;
@@ -280,24 +263,34 @@ public abstract class Transition implements Serializable {
       // Retrieve CSV column headers.
       List<String> columnHeaders = new ArrayList<String>(lookupTable.get(0).keySet());
       // Parse the list of attributes.
-      this.attributes = new ArrayList<String>(columnHeaders.subList(0,
+      List<String> attributes = new ArrayList<String>(columnHeaders.subList(0,
           columnHeaders.size() - this.transitions.size()));
       // Parse the list of states to transition to.
       List<String> transitionStates = columnHeaders.subList((columnHeaders.size()
           - this.transitions.size()), columnHeaders.size());
+      for (String transitionName : transitionStates) {
+        if (transitions.stream().noneMatch(t -> t.transition.equals(transitionName))) {
+          throw new RuntimeException("LOOKUP TABLE ERROR: CSV column state name '"
+              + transitionName + "' does not match a JSON state to transition to in CSV '"
+              + lookupTableName + "'");
+        }
+      }
+      // The remaining attributes are matched exactly.
+      List<String> columns = new ArrayList<String>(attributes);
+      columns.remove("age");
+      columns.remove("time");
 
-      // Create keys and insert each row of CSV into lookup table map.
+      // Parse each row of the CSV.
+      List<LookupTable.Row> rows = new ArrayList<LookupTable.Row>();
       for (Map<String, String> currentRow : lookupTable) {
         // Extract attributes from current CSV row.
         List<String> rowAttributes = new ArrayList<String>(currentRow.values());
-        rowAttributes = rowAttributes.subList(0, this.attributes.size());
+        rowAttributes = rowAttributes.subList(0, attributes.size());
         // Create age range for lookup table key if age is an attribute.
         Range<Integer> ageRange = null;
         Range<Long> timeRange = null;
-        if (this.attributes.contains("age")) {
-          Integer ageIndex = this.attributes.indexOf("age");
-          // Remove and parse the age range.
-          String value = rowAttributes.remove(ageIndex.intValue());
+        if (attributes.contains("age")) {
+          String value = rowAttributes.get(attributes.indexOf("age"));
           if (!value.contains("-")
               || value.substring(0, value.indexOf("-")).length() < 1
               || value.substring(value.indexOf("-") + 1).length() < 1) {
@@ -310,218 +303,43 @@ public abstract class Transition implements Serializable {
               Integer.parseInt(value.substring(0, value.indexOf("-"))),
               Integer.parseInt(value.substring(value.indexOf("-") + 1)));
         }
-        if (this.attributes.contains("time")) {
-          Integer timeIndex = this.attributes.indexOf("time");
-          // Remove and parse the age range.
-          String value = rowAttributes.remove(timeIndex.intValue());
-          timeRange = Utilities.parseDateRange(value);
+        if (attributes.contains("time")) {
+          timeRange = Utilities.parseDateRange(rowAttributes.get(attributes.indexOf("time")));
         }
-        // Attributes key to inert into lookup table.
-        LookupTableKey attributesLookupKey =
-            new LookupTableKey(rowAttributes, ageRange, timeRange);
-        // Transition probabilities to insert into lookup table.
-        List<DistributedTransitionOption> transitionProbabilities
-            = createDistributedTransitionOptions(currentRow, transitionStates);
-        // Insert the parsed attributes and transition probabilities into lookup table.
-        newTable.put(attributesLookupKey, transitionProbabilities);
-      }
-
-      // Put new table into Hash map of all lookup tables.
-      lookupTables.put(lookupTableName, newTable);
-    }
-
-    /**
-     *  Creates Distributed Transition Options based on CSV row probabilities.
-     */
-    private ArrayList<DistributedTransitionOption> createDistributedTransitionOptions(
-        Map<String, String> currentRow, List<String> transitionStates) {
-
-      ArrayList<DistributedTransitionOption> transitionProbabilities
-          = new ArrayList<DistributedTransitionOption>();
-
-      for (String transitionName : transitionStates) {
-        if (currentRow.containsKey(transitionName)
-            && transitions.stream().anyMatch(t -> t.transition.equals(transitionName))) {
-          DistributedTransitionOption currentOption = new DistributedTransitionOption();
-          currentOption.numericDistribution = Double.parseDouble(currentRow.get(transitionName));
-          currentOption.transition = transitionName;
-          transitionProbabilities.add(currentOption);
-        } else {
-          throw new RuntimeException("LOOKUP TABLE ERROR: CSV column state name '"
-              + transitionName + "' does not match a JSON state to transition to in CSV '"
-              + lookupTableName + "'");
-        }
-      }
-      return transitionProbabilities;
-    }
-
-    @Override
-    public String follow(Person person, long time) {
-      Integer age = null;
-      // Extract Person's list of relevant attributes.
-      ArrayList<String> personsAttributes = new ArrayList<String>();
-      for (String currentAttribute : this.attributes) {
-        if (currentAttribute.equalsIgnoreCase("age")) {
-          age = person.ageInYears(time);
-        } else if (currentAttribute.equalsIgnoreCase("time")) {
-          // do nothing, we already have it
-        } else {
-          if (!person.attributes.containsKey(currentAttribute)) {
-            throw new RuntimeException("LOOKUP TABLE ERROR: Attribute '"
-                + currentAttribute + "' in CSV table '" + this.lookupTableName
-                + "' does not exist as one of this person's attributes.");
+        // Values of the attributes matched exactly.
+        List<String> rowValues = new ArrayList<String>(columns.size());
+        for (int i = 0; i < attributes.size(); i++) {
+          if (columns.contains(attributes.get(i))) {
+            rowValues.add(rowAttributes.get(i));
           }
-          String personsAttribute
-              = person.attributes.get(currentAttribute).toString();
-          personsAttributes.add(personsAttribute);
         }
-      }
-      // Create key from person's attributes to get distributions
-      LookupTableKey personsAttributesLookupKey = new LookupTableKey(personsAttributes, age, time);
-      if (lookupTables.get(lookupTableName).containsKey(personsAttributesLookupKey)) {
-        // Person matches, use their attribute's list of distributedtransitionoptions
-        return pickDistributedTransition(
-          lookupTables.get(lookupTableName).get(personsAttributesLookupKey), person);
-      } else {
-        // No attribute match, use default transition.
-        return pickDistributedTransition(this.defaultTransitions, person);
-      }
-    }
-  }
-
-  public final class LookupTableKey implements Serializable {
-    private final List<String> attributes;
-    /** Age for this patient. May be null if lookup table does not use age. */
-    private final Integer age;
-    /** Age range for this row. Null if this is a person. */
-    private final Range<Integer> ageRange;
-
-    private final Long time;
-    private final Range<Long> timeRange;
-
-    /**
-     * Create a symbolic lookup key for a given row that contains actual patient values.
-     * @param attributes Patient attribute values.
-     * @param age Patient age.
-     */
-    public LookupTableKey(List<String> attributes, Integer age, Long time) {
-      this.attributes = attributes;
-      this.age = age;
-      this.ageRange = null;
-      this.time = time;
-      this.timeRange = null;
-    }
-
-    /**
-     * Create a symbolic lookup key for a given row that contains lookup values.
-     * @param attributes Table attribute values.
-     * @param range If the table contains an age column, range contains the age range
-     *     information for this key.
-     */
-    public LookupTableKey(List<String> attributes, Range<Integer> range, Range<Long> timeRange) {
-      this.attributes = attributes;
-      this.age = null;
-      this.ageRange = range;
-      this.time = null;
-      this.timeRange = timeRange;
-    }
-
-    /**
-     * Overrides the hashcode method. Returns the hash of the List of attributes,
-     * forcing age range to be a hash collision.
-     */
-    @Override
-    public int hashCode() {
-      return this.attributes.hashCode();
-    }
-
-    /**
-     * Overides the equals method. If there is no age in this tranistion, then it just
-     * returns the default List.equals(). If there is an age range, then the age
-     * must fit in the range for this to return true.
-     *
-     * @param obj the object to check that this equals.
-     */
-    @Override
-    public boolean equals(Object obj) {
-      if (obj == null || this.getClass() != obj.getClass()) {
-        return false;
-      }
-      LookupTableKey that = (LookupTableKey) obj;
-
-      boolean agesMatch = true;
-      boolean timesMatch = true;
-
-      if (this.age != null) {
-        if (that.age != null) {
-          agesMatch = (this.age == that.age);
-        } else if (that.ageRange != null) {
-          agesMatch = (that.ageRange.contains(this.age));
-        } else {
-          // that.age == null && that.ageRange == null
-          agesMatch = false;
-        }
-      } else if (that.age != null) {
-        if (this.ageRange != null) {
-          agesMatch = (this.ageRange.contains(that.age));
-        } else {
-          // this.age == null && this.ageRange == null
-          agesMatch = false;
+        // Transition probabilities of the row, in the order of the CSV columns.
+        double[] probabilities = new double[transitionStates.size()];
+        for (int i = 0; i < transitionStates.size(); i++) {
+          probabilities[i] = Double.parseDouble(currentRow.get(transitionStates.get(i)));
         }
-      } else if (this.ageRange != null) {
-        // this.age == null && that.age == null
-        if (that.ageRange != null) {
-          agesMatch = this.ageRange.containsRange(that.ageRange);
-        } else {
-          agesMatch = false;
-        }
-      } else if (that.ageRange != null) {
-        agesMatch = false;
+        rows.add(new LookupTable.Row(rowValues,
+            ageRange == null ? Long.MIN_VALUE : ageRange.getMinimum(),
+            ageRange == null ? Long.MAX_VALUE : ageRange.getMaximum(),
+            timeRange == null ? Long.MIN_VALUE : timeRange.getMinimum(),
+            timeRange == null ? Long.MAX_VALUE : timeRange.getMaximum(),
+            probabilities));
       }
 
-      if (this.time != null) {
-        if (that.time != null) {
-          timesMatch = (this.time == that.time);
-        } else if (that.timeRange != null) {
-          timesMatch = (that.timeRange.contains(this.time));
-        } else {
-          // that.age == null && that.ageRange == null
-          // do nothing. Time will always be populated in one of them
-        }
-      } else if (that.time != null) {
-        if (this.timeRange != null) {
-          timesMatch = (this.timeRange.contains(that.time));
-        } else {
-          // this.age == null && this.ageRange == null
-          timesMatch = false;
-        }
-      } else if (this.timeRange != null) {
-        // this.age == null && that.age == null
-        if (that.timeRange != null) {
-          timesMatch = this.timeRange.containsRange(that.timeRange);
-        } else {
-          timesMatch = false;
-        }
-      } else if (that.timeRange != null) {
-        timesMatch = false;
-      }
-
-      return agesMatch && timesMatch && this.attributes.equals(that.attributes);
+      return new LookupTable(lookupTableName, columns, attributes.contains("age"),
+          transitionStates, rows);
     }
 
-    /**
-     * Overrides the toString method for LookupTableKey.
-     */
     @Override
-    public String toString() {
-      String ending = "";
-      if (this.age != null || this.ageRange != null) {
-        ending = (this.age == null ? ageRange.toString() : this.age.toString());
-      }
-      if (this.time != null || this.timeRange != null) {
-        ending = (this.time == null ? timeRange.toString() : this.time.toString());
+    public String follow(Person person, long time) {
+      double[] cumulative = lookupTable.find(person, time);
+      if (cumulative != null) {
+        // Person matches, use their attribute's transition probabilities
+        return LookupTable.pick(lookupTable.getTransitions(), cumulative, person);
+      } else {
+        // No attribute match, use default transition.
+        return LookupTable.pick(this.defaultTransitions, this.defaultCumulative, person);
       }
-      return attributes.toString() + " : " + ending;
     }
   }
 
@@ -533,6 +351,15 @@ public abstract class Transition implements Serializable {
    */
   public static final class ConditionalTransitionOption extends TransitionOption {
     private Logic condition;
+    private transient Logic compiledCondition;
+
+    String getTransition() {
+      return transition;
+    }
+
+    Logic getCondition() {
+      return condition;
+    }
   }
 
   /**
@@ -553,10 +380,25 @@ public abstract class Transition implements Serializable {
       this.transitions = transitions;
     }
 
+    List<ConditionalTransitionOption> getTransitions() {
+      return transitions;
+    }
+
+    @Override
+    void compile() {
+      for (ConditionalTransitionOption option : transitions) {
+        if (option.condition != null) {
+          option.compiledCondition = option.condition.compile();
+        }
+      }
+    }
+
     @Override
     public String follow(Person person, long time) {
       for (ConditionalTransitionOption option : transitions) {
-        if (option.condition == null || option.condition.test(person, time)) {
+        Logic condition = (option.compiledCondition != null)
+            ? option.compiledCondition : option.condition;
+        if (condition == null || condition.test(person, time)) {
           return option.transition;
         }
       }
@@ -573,6 +415,7 @@ public abstract class Transition implements Serializable {
    */
   public static final class ComplexTransitionOption extends TransitionOption {
     private Logic condition;
+    private transient Logic compiledCondition;
     private List<DistributedTransitionOption> distributions;
   }
 
@@ -598,10 +441,21 @@ public abstract class Transition implements Serializable {
       this.transitions = transitions;
     }
 
+    @Override
+    void compile() {
+      for (ComplexTransitionOption option : transitions) {
+        if (option.condition != null) {
+          option.compiledCondition = option.condition.compile();
+        }
+      }
+    }
+
     @Override
     public String follow(Person person, long time) {
       for (ComplexTransitionOption option : transitions) {
-        if (option.condition == null || option.condition.test(person, time)) {
+        Logic condition = (option.compiledCondition != null)
+            ? option.compiledCondition : option.condition;
+        if (condition == null || condition.test(person, time)) {
           return follow(option, person);
         }
       }
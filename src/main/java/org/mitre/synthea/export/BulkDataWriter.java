@@ -0,0 +1,133 @@
+package org.mitre.synthea.export;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * Writes patient resources to FHIR bulk data (NDJSON) files.
+ * Each exporting thread appends to its own shard of every ResourceType.ndjson file, with its own
+ * parsers, so writing a resource takes no locks. Once the population has been exported the
+ * shards are merged into the final files by {@link #mergeShards()}.
+ */
+public class BulkDataWriter {
+  private static final int SHARD_BUFFER_SIZE = 64 * 1024;
+
+  private static final Map<Thread, BulkDataWriter> writers =
+      new ConcurrentHashMap<Thread, BulkDataWriter>();
+  private static final AtomicInteger nextShard = new AtomicInteger();
+
+  private final int shard;
+  /** Open shards, keyed by the final NDJSON file they belong to. */
+  private final Map<Path, Writer> shards = new LinkedHashMap<Path, Writer>();
+  private final Map<FhirContext, IParser> parsers = new IdentityHashMap<FhirContext, IParser>();
+
+  private BulkDataWriter(int shard) {
+    this.shard = shard;
+  }
+
+  /**
+   * Get the writer owned by the calling thread. The writer must only be used by that thread.
+   * @return the writer for the current thread.
+   */
+  public static BulkDataWriter forCurrentThread() {
+    return writers.computeIfAbsent(Thread.currentThread(),
+        thread -> new BulkDataWriter(nextShard.getAndIncrement()));
+  }
+
+  /**
+   * Append a resource, as a single line of JSON, to this thread's shard of
+   * ResourceType.ndjson in the given directory.
+   * @param context FHIR context of the resource version.
+   * @param outDirectory Directory of the final NDJSON file.
+   * @param resourceType Name of the resource type, which names the file.
+   * @param resource The resource to write.
+   */
+  public void write(FhirContext context, File outDirectory, String resourceType,
+      IBaseResource resource) {
+    IParser parser = parsers.get(context);
+    if (parser == null) {
+      parser = context.newJsonParser().setPrettyPrint(false);
+      parsers.put(context, parser);
+    }
+    Path file = outDirectory.toPath().resolve(resourceType + ".ndjson");
+    try {
+      Writer writer = shards.get(file);
+      if (writer == null) {
+        writer = new BufferedWriter(new OutputStreamWriter(
+            Files.newOutputStream(shardPath(file, shard)), StandardCharsets.UTF_8),
+            SHARD_BUFFER_SIZE);
+        shards.put(file, writer);
+      }
+      parser.encodeResourceToWriter(resource, writer);
+      writer.write(System.lineSeparator());
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private static Path shardPath(Path file, int shard) {
+    return file.resolveSibling(file.getFileName() + "." + shard + ".part");
+  }
+
+  /**
+   * Close the shards written by every thread and merge them into their final NDJSON files.
+   * A shard is renamed when it is the only content of its file, otherwise it is appended.
+   * Must only be called once no thread is writing any more.
+   */
+  public static void mergeShards() {
+    Map<Path, Map<Integer, Path>> files = new LinkedHashMap<Path, Map<Integer, Path>>();
+    for (BulkDataWriter writer : writers.values()) {
+      for (Map.Entry<Path, Writer> entry : writer.shards.entrySet()) {
+        try {
+          entry.getValue().close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+        files.computeIfAbsent(entry.getKey(), file -> new TreeMap<Integer, Path>())
+            .put(writer.shard, shardPath(entry.getKey(), writer.shard));
+      }
+    }
+    writers.clear();
+
+    for (Map.Entry<Path, Map<Integer, Path>> entry : files.entrySet()) {
+      Path file = entry.getKey();
+      List<Path> parts = new ArrayList<Path>(entry.getValue().values());
+      try {
+        if (parts.size() == 1 && !Files.exists(file)) {
+          Files.move(parts.get(0), file);
+          continue;
+        }
+        try (OutputStream out = Files.newOutputStream(file,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+          for (Path part : parts) {
+            Files.copy(part, out);
+            Files.delete(part);
+          }
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+}
@@ -4,12 +4,12 @@ import static org.mitre.synthea.export.ExportHelper.dateFromTimestamp;
 import static org.mitre.synthea.export.ExportHelper.getSystemFromURI;
 import static org.mitre.synthea.export.ExportHelper.iso8601Timestamp;
 
-import com.google.common.collect.Table;
 import com.google.gson.JsonObject;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStreamWriter;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
@@ -21,11 +21,13 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.GregorianCalendar;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -38,9 +40,11 @@ import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.modules.QualityOfLifeModule;
 import org.mitre.synthea.world.agents.Clinician;
 import org.mitre.synthea.world.agents.Payer;
+import org.mitre.synthea.world.agents.Payer.EntryUtilization;
 import org.mitre.synthea.world.agents.PayerManager;
 import org.mitre.synthea.world.agents.Person;
 import org.mitre.synthea.world.agents.Provider;
+import org.mitre.synthea.world.agents.Provider.UtilizationType;
 import org.mitre.synthea.world.concepts.Claim;
 import org.mitre.synthea.world.concepts.HealthRecord;
 import org.mitre.synthea.world.concepts.HealthRecord.CarePlan;
@@ -164,6 +168,27 @@ public class CSVExporter {
    */
   private AtomicLong transactionId;
 
+  /**
+   * Background writers for the patient level files, keyed by the writer they write to. Only
+   * used when exporter.csv.writer_threads is true, otherwise null and rows are written
+   * directly by the thread exporting the patient. Volatile because it is set and cleared by
+   * init() and finishPatientFiles() while exporting threads read it.
+   */
+  private volatile Map<OutputStreamWriter, QueuedFileWriter> queuedWriters;
+
+  /**
+   * Rows of the patient currently being exported by this thread, per output file, that have
+   * not yet been handed to the background writers.
+   */
+  private final ThreadLocal<Map<OutputStreamWriter, StringBuilder>> patientRows =
+      ThreadLocal.withInitial(IdentityHashMap::new);
+
+  /**
+   * Maximum number of patient blocks waiting to be written to each file, before the
+   * exporting threads wait for the background writer to catch up.
+   */
+  private static final int QUEUE_CAPACITY = 64;
+
   /**
    * Constructor for the CSVExporter - initialize the specified files and store
    * the writers in fields.
@@ -174,6 +199,9 @@ public class CSVExporter {
 
   void init() {
     try {
+      // stop any background writers left from a previous initialization
+      finishPatientFiles();
+
       File output = Exporter.getOutputFolder("csv", null);
       output.mkdirs();
       Path outputDirectory = output.toPath();
@@ -262,6 +290,23 @@ public class CSVExporter {
       if (!append) {
         writeCSVHeaders();
       }
+
+      if (Config.getAsBoolean("exporter.csv.writer_threads", false)) {
+        Map<OutputStreamWriter, QueuedFileWriter> queued =
+            new IdentityHashMap<OutputStreamWriter, QueuedFileWriter>();
+        // these files are written once per patient, the rest once at the end of the run
+        for (OutputStreamWriter writer : Arrays.asList(patients, allergies, medications,
+            conditions, careplans, observations, procedures, immunizations, encounters,
+            imagingStudies, devices, supplies, payerTransitions, claims, claimsTransactions,
+            patientExpenses)) {
+          if (writer != NO_OP) {
+            writer.flush();
+            queued.put(writer, new QueuedFileWriter(writer));
+          }
+        }
+        // published only once it is complete
+        queuedWriters = queued;
+      }
     } catch (IOException e) {
       // wrap the exception in a runtime exception.
       // the singleton pattern below doesn't work if the constructor can throw
@@ -385,6 +430,33 @@ public class CSVExporter {
     return SingletonHolder.instance;
   }
 
+  /**
+   * Wait for the background writers to write every patient row handed to them, and stop them.
+   * Rows exported after this are written directly. This method should be called once after all
+   * the Patient records have been exported using the export(Person,long) method, and does
+   * nothing unless exporter.csv.writer_threads is true.
+   *
+   * @throws IOException if any background writer failed to write.
+   */
+  public void finishPatientFiles() throws IOException {
+    Map<OutputStreamWriter, QueuedFileWriter> queuedFiles = queuedWriters;
+    if (queuedFiles == null) {
+      return;
+    }
+    IOException failure = null;
+    for (QueuedFileWriter queued : queuedFiles.values()) {
+      try {
+        queued.finish();
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+    queuedWriters = null;
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
   /**
    * Export the organizations.csv and providers.csv files. This method should be
    * called once after all the Patient records have been exported using the
@@ -395,9 +467,7 @@ public class CSVExporter {
   public void exportOrganizationsAndProviders() throws IOException {
     for (Provider org : Provider.getProviderList()) {
       // Check utilization for hospital before we export
-      Table<Integer, String, AtomicInteger> utilization = org.getUtilization();
-      int totalEncounters =
-          utilization.column(Provider.ENCOUNTERS).values().stream().mapToInt(ai -> ai.get()).sum();
+      int totalEncounters = (int) org.getUtilizationTotal(UtilizationType.ENCOUNTERS);
       if (totalEncounters > 0) {
         organization(org, totalEncounters);
         Map<String, ArrayList<Clinician>> providers = org.clinicianMap;
@@ -437,12 +507,12 @@ public class CSVExporter {
    * @throws IOException if any IO errors occur.
    */
   private void exportPayerTransitions(Person person, long stopTime) throws IOException {
-    for (PlanRecord plan : person.coverage.getPlanHistory()) {
-      if (plan.start <= stopTime) {
-        payerTransition(person, plan);
-      }
+    for (PlanRecord plan : person.coverage.getPlanHistoryUntil(stopTime)) {
+      payerTransition(person, plan);
+    }
+    if (queuedWriters == null) {
+      payerTransitions.flush();
     }
-    payerTransitions.flush();
   }
 
   /**
@@ -452,12 +522,12 @@ public class CSVExporter {
    * @throws IOException if any IO errors occur.
    */
   private void exportPatientExpenses(Person person, long stopTime) throws IOException {
-    for (PlanRecord planRecord : person.coverage.getPlanHistory()) {
-      if (planRecord.start <= stopTime) {
-        patientExpense(person, planRecord);
-      }
+    for (PlanRecord planRecord : person.coverage.getPlanHistoryUntil(stopTime)) {
+      patientExpense(person, planRecord);
+    }
+    if (queuedWriters == null) {
+      patientExpenses.flush();
     }
-    patientExpenses.flush();
   }
 
   /**
@@ -468,7 +538,43 @@ public class CSVExporter {
    * @throws IOException if any IO error occurs
    */
   public void export(Person person, long time) throws IOException {
+    Map<OutputStreamWriter, QueuedFileWriter> queued = queuedWriters;
+    if (queued != null) {
+      try {
+        exportPatientRows(person, time);
+      } finally {
+        handOffPatientRows(queued);
+      }
+      return;
+    }
+
+    exportPatientRows(person, time);
 
+    patients.flush();
+    encounters.flush();
+    conditions.flush();
+    allergies.flush();
+    medications.flush();
+    careplans.flush();
+    observations.flush();
+    procedures.flush();
+    immunizations.flush();
+    imagingStudies.flush();
+    devices.flush();
+    supplies.flush();
+    claims.flush();
+    claimsTransactions.flush();
+    patientExpenses.flush();
+  }
+
+  /**
+   * Write all of a single Person's rows.
+   *
+   * @param person Person to write record data for
+   * @param time   Time the simulation ended
+   * @throws IOException if any IO error occurs
+   */
+  private void exportPatientRows(Person person, long time) throws IOException {
     String personID = patient(person, time);
 
     for (Encounter encounter : person.record.encounters) {
@@ -564,22 +670,25 @@ public class CSVExporter {
         }
       }
     }
+  }
 
-    patients.flush();
-    encounters.flush();
-    conditions.flush();
-    allergies.flush();
-    medications.flush();
-    careplans.flush();
-    observations.flush();
-    procedures.flush();
-    immunizations.flush();
-    imagingStudies.flush();
-    devices.flush();
-    supplies.flush();
-    claims.flush();
-    claimsTransactions.flush();
-    patientExpenses.flush();
+  /**
+   * Hand the rows buffered by this thread to the background writers, one block per file, so
+   * that each patient's rows stay together in every file.
+   *
+   * @param queued The background writers, keyed by the writer they write to
+   * @throws IOException if a background writer has failed
+   */
+  private void handOffPatientRows(Map<OutputStreamWriter, QueuedFileWriter> queued)
+      throws IOException {
+    for (Map.Entry<OutputStreamWriter, StringBuilder> entry : patientRows.get().entrySet()) {
+      StringBuilder rows = entry.getValue();
+      if (rows.length() > 0) {
+        String block = rows.toString();
+        rows.setLength(0);
+        queued.get(entry.getKey()).enqueue(block);
+      }
+    }
   }
 
   /**
@@ -1278,14 +1387,13 @@ public class CSVExporter {
     // REVENUE
     s.append(String.format(Locale.US, "%.2f", payer.getRevenue())).append(',');
     // Covered/Uncovered Encounters/Medications/Procedures/Immunizations
-    s.append(payer.getEncountersCoveredCount()).append(",");
-    s.append(payer.getEncountersUncoveredCount()).append(",");
-    s.append(payer.getMedicationsCoveredCount()).append(",");
-    s.append(payer.getMedicationsUncoveredCount()).append(",");
-    s.append(payer.getProceduresCoveredCount()).append(",");
-    s.append(payer.getProceduresUncoveredCount()).append(",");
-    s.append(payer.getImmunizationsCoveredCount()).append(",");
-    s.append(payer.getImmunizationsUncoveredCount()).append(",");
+    for (EntryUtilization type : new EntryUtilization[] {
+        EntryUtilization.COVERED_ENCOUNTERS, EntryUtilization.UNCOVERED_ENCOUNTERS,
+        EntryUtilization.COVERED_MEDICATIONS, EntryUtilization.UNCOVERED_MEDICATIONS,
+        EntryUtilization.COVERED_PROCEDURES, EntryUtilization.UNCOVERED_PROCEDURES,
+        EntryUtilization.COVERED_IMMUNIZATIONS, EntryUtilization.UNCOVERED_IMMUNIZATIONS}) {
+      s.append(payer.getEntryUtilizationTotal(type)).append(",");
+    }
     // UNIQUE_CUSTOMERS
     s.append(payer.getUniqueCustomers()).append(",");
     // QOLS_AVG
@@ -1977,12 +2085,102 @@ public class CSVExporter {
    * @param writer The place to write it
    * @throws IOException if an I/O error occurs
    */
-  private static void write(String line, OutputStreamWriter writer) throws IOException {
+  private void write(String line, OutputStreamWriter writer) throws IOException {
+    Map<OutputStreamWriter, QueuedFileWriter> queued = queuedWriters;
+    if (queued != null && queued.containsKey(writer)) {
+      // buffer the row until the whole patient has been exported
+      patientRows.get().computeIfAbsent(writer, w -> new StringBuilder()).append(line);
+      return;
+    }
     synchronized (writer) {
       writer.write(line);
     }
   }
 
+  /**
+   * Writes blocks of rows to a single file from a dedicated thread. Exporting threads hand
+   * over all of a patient's rows for the file as one block through a bounded queue, so they do
+   * not contend for the file and each patient's rows are written contiguously.
+   */
+  private static class QueuedFileWriter {
+    /** Marks the end of the queue. Compared by identity. */
+    private static final String END = new String("END");
+
+    private final OutputStreamWriter writer;
+    private final BlockingQueue<String> queue;
+    private final Thread thread;
+    private volatile IOException failure;
+
+    QueuedFileWriter(OutputStreamWriter writer) {
+      this.writer = writer;
+      this.queue = new ArrayBlockingQueue<String>(QUEUE_CAPACITY);
+      this.thread = new Thread(this::drain, "CSVExporter writer");
+      this.thread.setDaemon(true);
+      this.thread.start();
+    }
+
+    /**
+     * Queue a block of rows to be written, waiting if the queue is full.
+     */
+    void enqueue(String block) throws IOException {
+      if (failure != null) {
+        throw failure;
+      }
+      try {
+        queue.put(block);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while queueing CSV rows");
+      }
+    }
+
+    /**
+     * Write every queued block, then stop the writer thread.
+     */
+    void finish() throws IOException {
+      enqueue(END);
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while writing CSV rows");
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+
+    private void drain() {
+      while (true) {
+        String block;
+        try {
+          block = queue.take();
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (block == END) {
+          break;
+        }
+        // after a failure keep taking blocks, so exporting threads are never left waiting
+        if (failure == null) {
+          try {
+            writer.write(block);
+            if (queue.isEmpty()) {
+              writer.flush();
+            }
+          } catch (IOException e) {
+            failure = e;
+          }
+        }
+      }
+      try {
+        writer.flush();
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+  }
+
   /**
    * "No-op" writer to use to prevent writing to excluded files.
    * Note that this uses an Apache "NullOutputStream", but JDK11 provides its own.
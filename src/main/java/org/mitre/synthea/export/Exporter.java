@@ -1,7 +1,5 @@
 package org.mitre.synthea.export;
 
-import ca.uhn.fhir.parser.IParser;
-
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
@@ -195,12 +193,10 @@ public abstract class Exporter {
       File outDirectory = getOutputFolder("fhir_stu3", person);
       if (Config.getAsBoolean("exporter.fhir.bulk_data")) {
         org.hl7.fhir.dstu3.model.Bundle bundle = FhirStu3.convertToFHIR(person, stopTime);
-        IParser parser = FhirStu3.getContext().newJsonParser().setPrettyPrint(false);
+        BulkDataWriter writer = BulkDataWriter.forCurrentThread();
         for (org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent entry : bundle.getEntry()) {
-          String filename = entry.getResource().getResourceType().toString() + ".ndjson";
-          Path outFilePath = outDirectory.toPath().resolve(filename);
-          String entryJson = parser.encodeResourceToString(entry.getResource());
-          appendToFile(outFilePath, entryJson);
+          writer.write(FhirStu3.getContext(), outDirectory,
+              entry.getResource().getResourceType().toString(), entry.getResource());
         }
       } else {
         String bundleJson = FhirStu3.convertToFHIRJson(person, stopTime);
@@ -212,12 +208,10 @@ public abstract class Exporter {
       File outDirectory = getOutputFolder("fhir_dstu2", person);
       if (Config.getAsBoolean("exporter.fhir.bulk_data")) {
         ca.uhn.fhir.model.dstu2.resource.Bundle bundle = FhirDstu2.convertToFHIR(person, stopTime);
-        IParser parser = FhirDstu2.getContext().newJsonParser().setPrettyPrint(false);
+        BulkDataWriter writer = BulkDataWriter.forCurrentThread();
         for (ca.uhn.fhir.model.dstu2.resource.Bundle.Entry entry : bundle.getEntry()) {
-          String filename = entry.getResource().getResourceName() + ".ndjson";
-          Path outFilePath = outDirectory.toPath().resolve(filename);
-          String entryJson = parser.encodeResourceToString(entry.getResource());
-          appendToFile(outFilePath, entryJson);
+          writer.write(FhirDstu2.getContext(), outDirectory,
+              entry.getResource().getResourceName(), entry.getResource());
         }
       } else {
         String bundleJson = FhirDstu2.convertToFHIRJson(person, stopTime);
@@ -228,14 +222,10 @@ public abstract class Exporter {
     if (Config.getAsBoolean("exporter.fhir.export")) {
       File outDirectory = getOutputFolder("fhir", person);
       if (Config.getAsBoolean("exporter.fhir.bulk_data")) {
-        org.hl7.fhir.r4.model.Bundle bundle = FhirR4.convertToFHIR(person, stopTime);
-        IParser parser = FhirR4.getContext().newJsonParser().setPrettyPrint(false);
-        for (org.hl7.fhir.r4.model.Bundle.BundleEntryComponent entry : bundle.getEntry()) {
-          String filename = entry.getResource().getResourceType().toString() + ".ndjson";
-          Path outFilePath = outDirectory.toPath().resolve(filename);
-          String entryJson = parser.encodeResourceToString(entry.getResource());
-          appendToFile(outFilePath, entryJson);
-        }
+        // resources are written as they are converted, without building the whole Bundle
+        BulkDataWriter writer = BulkDataWriter.forCurrentThread();
+        FhirR4.streamToFHIR(person, stopTime, resource -> writer.write(FhirR4.getContext(),
+            outDirectory, resource.getResourceType().toString(), resource));
       } else {
         String bundleJson = FhirR4.convertToFHIRJson(person, stopTime);
         Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "json"));
@@ -434,6 +424,9 @@ public abstract class Exporter {
       deferredExports.clear();
     }
 
+    // merge the patient NDJSON shards before the other exporters append to the same files
+    BulkDataWriter.mergeShards();
+
     try {
       FhirGroupExporterR4.exportAndSave(generator.getRandomizer(), generator.stop);
     } catch (Exception e) {
@@ -494,6 +487,7 @@ public abstract class Exporter {
 
     if (Config.getAsBoolean("exporter.csv.export")) {
       try {
+        CSVExporter.getInstance().finishPatientFiles();
         CSVExporter.getInstance().exportOrganizationsAndProviders();
         CSVExporter.getInstance().exportPayers();
       } catch (IOException e) {
@@ -615,6 +609,7 @@ public abstract class Exporter {
 
     // finally filter out any empty encounters
     filterEntries(record.encounters, Collections.emptyList(), cutoffDate, endTime, keepEncounter);
+    record.invalidateIndexes();
 
     return record;
   }
@@ -694,6 +689,7 @@ public abstract class Exporter {
             iter.remove();
           }
         }
+        record.invalidateIndexes();
       }
     } else {
       Iterator<Encounter> iter = person.record.encounters.iterator();
@@ -704,6 +700,7 @@ public abstract class Exporter {
           iter.remove();
         }
       }
+      person.record.invalidateIndexes();
     }
   }
 
@@ -21,6 +21,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import org.hl7.fhir.r4.model.Address;
@@ -316,6 +317,23 @@ public class FhirR4 {
    * @return FHIR Bundle containing the Person's health record
    */
   public static Bundle convertToFHIR(Person person, long stopTime) {
+    return convertToFHIR(person, stopTime, null);
+  }
+
+  /**
+   * Convert the given Person into FHIR resources, handing each one to the given sink instead of
+   * collecting them all in a Bundle. The resources of each encounter are passed on as soon as the
+   * encounter has been converted, and only those that later resources look up are kept.
+   *
+   * @param person   Person to generate the FHIR resources for
+   * @param stopTime Time the simulation ended
+   * @param sink     Receives every resource, in Bundle order
+   */
+  public static void streamToFHIR(Person person, long stopTime, Consumer<Resource> sink) {
+    convertToFHIR(person, stopTime, sink);
+  }
+
+  private static Bundle convertToFHIR(Person person, long stopTime, Consumer<Resource> sink) {
     Bundle bundle = new Bundle();
     if (TRANSACTION_BUNDLE) {
       bundle.setType(BundleType.TRANSACTION);
@@ -324,6 +342,14 @@ public class FhirR4 {
     }
 
     BundleEntryComponent personEntry = basicInfo(person, bundle, stopTime);
+    final boolean exportProvenance = USE_US_CORE_IG && shouldExport(Provenance.class);
+    // full URLs of the resources already handed to the sink, for the Provenance targets
+    List<String> streamedUrls = sink != null && exportProvenance ? new ArrayList<String>() : null;
+    int streamed = 0;
+    if (sink != null) {
+      // the Patient and its basic resources, so they are targeted even with no encounters
+      streamed = streamEntries(bundle, streamed, sink, streamedUrls);
+    }
 
     for (Encounter encounter : person.record.encounters) {
       BundleEntryComponent encounterEntry = encounter(person, personEntry, bundle, encounter);
@@ -427,15 +453,57 @@ public class FhirR4 {
               encounterClaim, encounter, encounter.claim);
         }
       }
+
+      if (sink != null) {
+        streamed = streamEntries(bundle, streamed, sink, streamedUrls);
+      }
     }
 
-    if (USE_US_CORE_IG && shouldExport(Provenance.class)) {
+    if (exportProvenance) {
       // Add Provenance to the Bundle
-      provenance(bundle, person, stopTime);
+      provenance(bundle, person, stopTime, streamedUrls);
+    }
+    if (sink != null) {
+      streamEntries(bundle, streamed, sink, null);
     }
     return bundle;
   }
 
+  /**
+   * Resource types that are looked up by resources created later in the same Bundle
+   * (see findProviderUrl, findLocationUrl, findPractitioner and findConditionResourceByCode).
+   */
+  private static final HashSet<String> STREAMING_LOOKUP_TYPES = new HashSet<>(Arrays.asList(
+      "Patient", "Organization", "Location", "Practitioner", "Condition"));
+
+  /**
+   * Hand the entries added to the Bundle since the last call to the sink, then drop those that
+   * are never looked up again.
+   *
+   * @param bundle       The Bundle being streamed
+   * @param from         Index of the first entry not yet handed to the sink
+   * @param sink         Receives the resources
+   * @param streamedUrls If not null, collects the full URLs of the streamed entries
+   * @return The index of the first entry that has not been handed to the sink
+   */
+  private static int streamEntries(Bundle bundle, int from, Consumer<Resource> sink,
+      List<String> streamedUrls) {
+    List<BundleEntryComponent> entries = bundle.getEntry();
+    List<BundleEntryComponent> kept = new ArrayList<BundleEntryComponent>();
+    for (BundleEntryComponent entry : entries.subList(from, entries.size())) {
+      sink.accept(entry.getResource());
+      if (streamedUrls != null) {
+        streamedUrls.add(entry.getFullUrl());
+      }
+      if (STREAMING_LOOKUP_TYPES.contains(entry.getResource().fhirType())) {
+        kept.add(entry);
+      }
+    }
+    entries.subList(from, entries.size()).clear();
+    entries.addAll(kept);
+    return entries.size();
+  }
+
   /**
    * Convert the given Person into a JSON String, containing a FHIR Bundle of the Person and the
    * associated entries from their health record.
@@ -2018,9 +2086,11 @@ public class FhirR4 {
    * @param bundle The finished complete Bundle.
    * @param person The person.
    * @param stopTime The time the simulation stopped.
+   * @param streamedUrls Full URLs of the entries already streamed out of the bundle, or null.
    * @return BundleEntryComponent containing a Provenance resource.
    */
-  private static BundleEntryComponent provenance(Bundle bundle, Person person, long stopTime) {
+  private static BundleEntryComponent provenance(Bundle bundle, Person person, long stopTime,
+      List<String> streamedUrls) {
     Provenance provenance = new Provenance();
     if (USE_US_CORE_IG) {
       Meta meta = new Meta();
@@ -2028,8 +2098,14 @@ public class FhirR4 {
           "http://hl7.org/fhir/us/core/StructureDefinition/us-core-provenance");
       provenance.setMeta(meta);
     }
-    for (BundleEntryComponent entry : bundle.getEntry()) {
-      provenance.addTarget(new Reference(entry.getFullUrl()));
+    if (streamedUrls != null) {
+      for (String url : streamedUrls) {
+        provenance.addTarget(new Reference(url));
+      }
+    } else {
+      for (BundleEntryComponent entry : bundle.getEntry()) {
+        provenance.addTarget(new Reference(entry.getFullUrl()));
+      }
     }
     provenance.setRecorded(new Date(stopTime));
 
@@ -1,7 +1,5 @@
 package org.mitre.synthea.export.rif;
 
-import com.google.common.collect.Table;
-
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -18,7 +16,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.Properties;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.mitre.synthea.export.Exporter;
 import org.mitre.synthea.export.rif.BB2RIFStructure.EXPORT_SUMMARY;
@@ -31,6 +28,7 @@ import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.world.agents.Clinician;
 import org.mitre.synthea.world.agents.Person;
 import org.mitre.synthea.world.agents.Provider;
+import org.mitre.synthea.world.agents.Provider.UtilizationType;
 import org.mitre.synthea.world.geography.CMSStateCodeMapper;
 
 /**
@@ -256,9 +254,7 @@ public class BB2RIFExporter {
     for (Provider h : Provider.getProviderList()) {
 
       // filter - exports only those organizations in use
-      Table<Integer, String, AtomicInteger> utilization = h.getUtilization();
-      int totalEncounters = utilization.column(Provider.ENCOUNTERS).values().stream()
-          .mapToInt(ai -> ai.get()).sum();
+      int totalEncounters = (int) h.getUtilizationTotal(UtilizationType.ENCOUNTERS);
 
       if (totalEncounters > 0) {
         // export organization
@@ -0,0 +1,118 @@
+package org.mitre.synthea.helpers;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Immutable discrete distribution, sampled in constant time with Vose's alias method.
+ * Unlike an EnumeratedDistribution, the sampler holds no source of randomness of its own: each
+ * sample takes a single draw from the random number generator it is given (usually a Person).
+ * So one sampler can be shared by every thread without locking or reseeding, and samples are
+ * reproducible from the seed of that random number generator.
+ * @param <T> The type of the values sampled.
+ */
+public class AliasSampler<T> implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final List<T> values;
+  /** Probability of keeping the value in each column, rather than taking its alias. */
+  private final double[] probabilities;
+  /** Index of the alias of each column. */
+  private final int[] aliases;
+
+  /**
+   * Create a new sampler.
+   * @param values The values to sample.
+   * @param weights The weight of each value. Weights do not need to sum to one, but must not be
+   *     negative, and at least one must be positive.
+   */
+  public AliasSampler(List<T> values, double[] weights) {
+    int size = values.size();
+    if (size == 0 || weights.length != size) {
+      throw new IllegalArgumentException(
+          "Expected one weight for each of at least one value, got " + weights.length
+          + " weights for " + size + " values.");
+    }
+    double total = 0;
+    for (double weight : weights) {
+      if (weight < 0 || Double.isNaN(weight) || Double.isInfinite(weight)) {
+        throw new IllegalArgumentException("Invalid weight: " + weight);
+      }
+      total += weight;
+    }
+    if (total <= 0) {
+      throw new IllegalArgumentException("At least one weight must be positive.");
+    }
+
+    this.values = new ArrayList<T>(values);
+    this.probabilities = new double[size];
+    this.aliases = new int[size];
+
+    // scale the weights so the average column is full, then fill each underfull column
+    // with the remainder of an overfull one
+    double[] scaled = new double[size];
+    Deque<Integer> small = new ArrayDeque<Integer>();
+    Deque<Integer> large = new ArrayDeque<Integer>();
+    for (int i = 0; i < size; i++) {
+      scaled[i] = weights[i] * size / total;
+      if (scaled[i] < 1.0) {
+        small.push(i);
+      } else {
+        large.push(i);
+      }
+    }
+    while (!small.isEmpty() && !large.isEmpty()) {
+      int less = small.pop();
+      int more = large.pop();
+      probabilities[less] = scaled[less];
+      aliases[less] = more;
+      scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+      if (scaled[more] < 1.0) {
+        small.push(more);
+      } else {
+        large.push(more);
+      }
+    }
+    // whatever is left over is full, up to rounding error
+    while (!large.isEmpty()) {
+      int more = large.pop();
+      probabilities[more] = 1.0;
+      aliases[more] = more;
+    }
+    while (!small.isEmpty()) {
+      int less = small.pop();
+      probabilities[less] = 1.0;
+      aliases[less] = less;
+    }
+  }
+
+  /**
+   * Sample a value.
+   * @param random The source of randomness. Exactly one value is drawn from it.
+   * @return a value, selected at random by weight.
+   */
+  public T sample(RandomNumberGenerator random) {
+    int size = probabilities.length;
+    double scaled = random.rand() * size;
+    int column = (int) scaled;
+    if (column >= size) {
+      column = size - 1;
+    }
+    if (scaled - column < probabilities[column]) {
+      return values.get(column);
+    }
+    return values.get(aliases[column]);
+  }
+
+  /**
+   * Get the values that may be sampled.
+   * @return the values, in the order they were given.
+   */
+  public List<T> getValues() {
+    return Collections.unmodifiableList(values);
+  }
+}
@@ -0,0 +1,507 @@
+package org.mitre.synthea.helpers;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The attributes of a person. Every attribute name used by the simulation is given a slot, the
+ * same for every person, the first time it is registered or put into any person's attributes,
+ * so each person's values are kept in an array rather than in hash table entries. Once the
+ * slots run out, any further names are kept in a map.
+ *
+ * <p>Attributes read or written on every time step should be reached through a {@link Key},
+ * which looks the slot up once, instead of by name, which hashes the name on every call.
+ * Doubles and longs set through a Key are kept unboxed, and only boxed when read as an Object,
+ * such as through the Map interface. Booleans are kept as the shared Boolean instances.</p>
+ *
+ * <p>Like the ConcurrentHashMap it replaces, the map does not accept null keys or values, and
+ * its iterators never throw ConcurrentModificationException: attributes may be added or
+ * removed while iterating, and the iteration may or may not see them. Unlike it, the map is
+ * meant to be used by one thread at a time, as a person is simulated and then exported.</p>
+ */
+public class AttributeMap extends AbstractMap<String, Object> implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  /** The most attribute names given a slot. */
+  private static final int MAX_SLOTS = 4096;
+  private static final Map<String, Integer> SLOTS = new ConcurrentHashMap<String, Integer>();
+  /** The attribute names, by slot. */
+  private static volatile String[] names = new String[256];
+  private static int slotCount;
+  private static final Object[] NO_VALUES = new Object[0];
+
+  /** Stands in for a value kept unboxed in the numbers of a slot. */
+  private enum Unboxed {
+    DOUBLE,
+    LONG
+  }
+
+  /**
+   * The attribute values, by slot. It only grows as far as the highest slot this person has a
+   * value for, not to the size of the name table.
+   */
+  private transient Object[] values;
+  /** The bits of the unboxed values, by slot, or null if there are none. */
+  private transient long[] numbers;
+  /** The number of values in slots. */
+  private transient int size;
+  /** The attributes whose names have no slot, or null if there are none. */
+  private transient Map<String, Object> unslotted;
+
+  /**
+   * Give an attribute name a slot, if it doesn't have one yet and any are left.
+   * @param name The attribute name.
+   * @return The slot, or -1 if there are none left.
+   */
+  public static int register(String name) {
+    Integer slot = SLOTS.get(name);
+    if (slot != null) {
+      return slot;
+    }
+    synchronized (SLOTS) {
+      slot = SLOTS.get(name);
+      if (slot != null) {
+        return slot;
+      }
+      if (slotCount == MAX_SLOTS) {
+        return -1;
+      }
+      String[] slotNames = names;
+      if (slotCount == slotNames.length) {
+        slotNames = Arrays.copyOf(slotNames, slotNames.length * 2);
+      }
+      slotNames[slotCount] = name;
+      names = slotNames;
+      SLOTS.put(name, slotCount);
+      return slotCount++;
+    }
+  }
+
+  private static int slot(Object name) {
+    Integer slot = SLOTS.get(name);
+    return (slot == null) ? -1 : slot;
+  }
+
+  /**
+   * Get the key of an attribute, giving its name a slot if it doesn't have one yet.
+   * @param name The attribute name.
+   * @return The key.
+   */
+  public static Key key(String name) {
+    return new Key(name, register(name));
+  }
+
+  /**
+   * An attribute name and its slot, looked up once.
+   */
+  public static final class Key {
+    private final String name;
+    /** The slot, or -1 if the name has none and is kept in the map of other attributes. */
+    private final int slot;
+
+    private Key(String name, int slot) {
+      this.name = name;
+      this.slot = slot;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  /**
+   * Create an empty attribute map.
+   */
+  public AttributeMap() {
+    this.values = NO_VALUES;
+  }
+
+  /**
+   * Whether the attribute has a value.
+   * @param key The attribute.
+   * @return true if it has a value.
+   */
+  public boolean has(Key key) {
+    return getValue(key) != null;
+  }
+
+  /**
+   * Get the value of an attribute.
+   * @param key The attribute.
+   * @return The value, or null if it has none.
+   */
+  public Object getValue(Key key) {
+    if (key.slot < 0) {
+      return get(key.name);
+    }
+    return valueAt(key.slot);
+  }
+
+  /**
+   * Get the value in a slot, boxing it if it is kept unboxed.
+   */
+  private Object valueAt(int slot) {
+    if (slot >= values.length) {
+      return null;
+    }
+    Object value = values[slot];
+    if (value == Unboxed.DOUBLE) {
+      return Double.longBitsToDouble(numbers[slot]);
+    } else if (value == Unboxed.LONG) {
+      return numbers[slot];
+    }
+    return value;
+  }
+
+  /**
+   * Whether the attribute has a value that is a number.
+   * @param key The attribute.
+   * @return true if it has a numeric value.
+   */
+  public boolean isNumber(Key key) {
+    if (key.slot < 0) {
+      return get(key.name) instanceof Number;
+    }
+    if (key.slot >= values.length) {
+      return false;
+    }
+    Object value = values[key.slot];
+    return value instanceof Unboxed || value instanceof Number;
+  }
+
+  /**
+   * Get the value of a numeric attribute, without boxing it.
+   * @param key The attribute.
+   * @param missing The value to return if the attribute has none.
+   * @return The value as a double.
+   * @throws ClassCastException if the value is not a number.
+   */
+  public double getDouble(Key key, double missing) {
+    if (key.slot < 0 || key.slot >= values.length) {
+      Object value = (key.slot < 0) ? get(key.name) : null;
+      return (value == null) ? missing : ((Number) value).doubleValue();
+    }
+    Object value = values[key.slot];
+    if (value == Unboxed.DOUBLE) {
+      return Double.longBitsToDouble(numbers[key.slot]);
+    } else if (value == Unboxed.LONG) {
+      return numbers[key.slot];
+    }
+    return (value == null) ? missing : ((Number) value).doubleValue();
+  }
+
+  /**
+   * Get the value of a numeric attribute, without boxing it.
+   * @param key The attribute.
+   * @param missing The value to return if the attribute has none.
+   * @return The value as a long.
+   * @throws ClassCastException if the value is not a number.
+   */
+  public long getLong(Key key, long missing) {
+    if (key.slot < 0 || key.slot >= values.length) {
+      Object value = (key.slot < 0) ? get(key.name) : null;
+      return (value == null) ? missing : ((Number) value).longValue();
+    }
+    Object value = values[key.slot];
+    if (value == Unboxed.LONG) {
+      return numbers[key.slot];
+    } else if (value == Unboxed.DOUBLE) {
+      return (long) Double.longBitsToDouble(numbers[key.slot]);
+    }
+    return (value == null) ? missing : ((Number) value).longValue();
+  }
+
+  /**
+   * Set the value of an attribute to a double, kept unboxed. It reads back as a Double.
+   * @param key The attribute.
+   * @param value The value.
+   */
+  public void putDouble(Key key, double value) {
+    if (key.slot < 0) {
+      put(key.name, value);
+    } else {
+      putNumber(key.slot, Unboxed.DOUBLE, Double.doubleToRawLongBits(value));
+    }
+  }
+
+  /**
+   * Set the value of an attribute to a long, kept unboxed. It reads back as a Long.
+   * @param key The attribute.
+   * @param value The value.
+   */
+  public void putLong(Key key, long value) {
+    if (key.slot < 0) {
+      put(key.name, value);
+    } else {
+      putNumber(key.slot, Unboxed.LONG, value);
+    }
+  }
+
+  private void putNumber(int slot, Unboxed type, long bits) {
+    grow(slot);
+    if (numbers == null || numbers.length < values.length) {
+      numbers = (numbers == null) ? new long[values.length]
+          : Arrays.copyOf(numbers, values.length);
+    }
+    if (values[slot] == null) {
+      size++;
+    }
+    values[slot] = type;
+    numbers[slot] = bits;
+  }
+
+  /**
+   * Set the value of an attribute.
+   * @param key The attribute.
+   * @param value The value, which may not be null.
+   * @return The previous value, or null if it had none.
+   */
+  public Object putValue(Key key, Object value) {
+    Objects.requireNonNull(value);
+    if (key.slot < 0) {
+      return put(key.name, value);
+    }
+    return putSlot(key.slot, value);
+  }
+
+  /**
+   * Remove the value of an attribute.
+   * @param key The attribute.
+   * @return The previous value, or null if it had none.
+   */
+  public Object removeValue(Key key) {
+    if (key.slot < 0) {
+      return remove(key.name);
+    }
+    return removeSlot(key.slot);
+  }
+
+  /**
+   * Get the value of a boolean attribute.
+   * @param key The attribute.
+   * @return The value, or false if it has none.
+   */
+  public boolean getBoolean(Key key) {
+    return Boolean.TRUE.equals(getValue(key));
+  }
+
+  /**
+   * Set the value of a boolean attribute. The shared Boolean instances are stored, so this
+   * never allocates.
+   * @param key The attribute.
+   * @param value The value.
+   */
+  public void putBoolean(Key key, boolean value) {
+    putValue(key, Boolean.valueOf(value));
+  }
+
+  @Override
+  public Object get(Object key) {
+    int slot = slot(key);
+    if (slot >= 0) {
+      return valueAt(slot);
+    }
+    return (unslotted == null) ? null : unslotted.get(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  @Override
+  public Object put(String key, Object value) {
+    Objects.requireNonNull(value);
+    int slot = register(key);
+    if (slot < 0) {
+      if (unslotted == null) {
+        unslotted = new ConcurrentHashMap<String, Object>();
+      }
+      return unslotted.put(key, value);
+    }
+    return putSlot(slot, value);
+  }
+
+  private void grow(int slot) {
+    if (slot >= values.length) {
+      // grow by half again, but never past the name table
+      int grown = Math.min(values.length + (values.length >> 1) + 8, names.length);
+      values = Arrays.copyOf(values, Math.max(slot + 1, grown));
+    }
+  }
+
+  private Object putSlot(int slot, Object value) {
+    grow(slot);
+    Object previous = valueAt(slot);
+    values[slot] = value;
+    if (previous == null) {
+      size++;
+    }
+    return previous;
+  }
+
+  @Override
+  public Object remove(Object key) {
+    int slot = slot(key);
+    if (slot < 0) {
+      return (unslotted == null) ? null : unslotted.remove(key);
+    }
+    return removeSlot(slot);
+  }
+
+  private Object removeSlot(int slot) {
+    if (slot >= values.length || values[slot] == null) {
+      return null;
+    }
+    Object previous = valueAt(slot);
+    values[slot] = null;
+    size--;
+    return previous;
+  }
+
+  @Override
+  public int size() {
+    return size + ((unslotted == null) ? 0 : unslotted.size());
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(values, null);
+    size = 0;
+    unslotted = null;
+  }
+
+  @Override
+  public Set<Map.Entry<String, Object>> entrySet() {
+    return new AbstractSet<Map.Entry<String, Object>>() {
+      @Override
+      public Iterator<Map.Entry<String, Object>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return AttributeMap.this.size();
+      }
+
+      @Override
+      public void clear() {
+        AttributeMap.this.clear();
+      }
+    };
+  }
+
+  /**
+   * Iterates over the values in slots and then over the other attributes.
+   */
+  private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+    private int nextSlot;
+    private Iterator<Map.Entry<String, Object>> others;
+    private String lastKey;
+
+    @Override
+    public boolean hasNext() {
+      Object[] slotValues = values;
+      while (nextSlot < slotValues.length && slotValues[nextSlot] == null) {
+        nextSlot++;
+      }
+      if (nextSlot < slotValues.length) {
+        return true;
+      }
+      if (others == null) {
+        others = (unslotted == null) ? null : unslotted.entrySet().iterator();
+      }
+      return others != null && others.hasNext();
+    }
+
+    @Override
+    public Map.Entry<String, Object> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Map.Entry<String, Object> entry;
+      if (nextSlot < values.length) {
+        entry = new SlotEntry(names[nextSlot], valueAt(nextSlot));
+        nextSlot++;
+      } else {
+        entry = others.next();
+      }
+      lastKey = entry.getKey();
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      if (lastKey == null) {
+        throw new IllegalStateException();
+      }
+      AttributeMap.this.remove(lastKey);
+      lastKey = null;
+    }
+  }
+
+  /**
+   * An attribute in a slot, which writes through to the map when set.
+   */
+  private class SlotEntry extends AbstractMap.SimpleEntry<String, Object> {
+    private static final long serialVersionUID = 1L;
+
+    private SlotEntry(String key, Object value) {
+      super(key, value);
+    }
+
+    @Override
+    public Object setValue(Object value) {
+      put(getKey(), value);
+      return super.setValue(value);
+    }
+  }
+
+  /**
+   * The slots differ from one run to the next, so attributes are written by name. Doubles and
+   * longs are read back unboxed.
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeInt(size());
+    for (Map.Entry<String, Object> entry : entrySet()) {
+      out.writeObject(entry.getKey());
+      out.writeObject(entry.getValue());
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    values = NO_VALUES;
+    numbers = null;
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      String name = (String) in.readObject();
+      Object value = in.readObject();
+      int slot = register(name);
+      if (slot >= 0 && value instanceof Double) {
+        putNumber(slot, Unboxed.DOUBLE, Double.doubleToRawLongBits((Double) value));
+      } else if (slot >= 0 && value instanceof Long) {
+        putNumber(slot, Unboxed.LONG, (Long) value);
+      } else {
+        put(name, value);
+      }
+    }
+  }
+}
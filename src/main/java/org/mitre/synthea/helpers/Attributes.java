@@ -147,6 +147,17 @@ public class Attributes {
       }
     });
 
+    inventoryJavaModules(attributes);
+
+    return attributes;
+  }
+
+  /**
+   * Catalog all attributes used by the Java modules into the given Table.
+   *
+   * @param attributes Table of attributes to add to
+   */
+  private static void inventoryJavaModules(Map<String,Inventory> attributes) {
     CardiovascularDiseaseModule.inventoryAttributes(attributes);
     Framingham.inventoryAttributes(attributes);
     ASCVD.inventoryAttributes(attributes);
@@ -157,8 +168,31 @@ public class Attributes {
     LifecycleModule.inventoryAttributes(attributes);
     QualityOfLifeModule.inventoryAttributes(attributes);
     C19ImmunizationModule.inventoryAttributes(attributes);
+  }
 
-    return attributes;
+  /**
+   * Give every attribute the given module reads or writes a slot in the attributes of each
+   * Person, so that they are kept by slot from the first person on.
+   *
+   * @param module The JSON definition of the module.
+   */
+  public static void register(JsonObject module) {
+    Map<String,Inventory> attributes = new TreeMap<String,Inventory>();
+    inventoryModule(attributes, module);
+    for (String attribute : attributes.keySet()) {
+      AttributeMap.register(attribute);
+    }
+  }
+
+  /**
+   * Give every attribute the Java modules read or write a slot in the attributes of each Person.
+   */
+  public static void registerJavaModules() {
+    Map<String,Inventory> attributes = new TreeMap<String,Inventory>();
+    inventoryJavaModules(attributes);
+    for (String attribute : attributes.keySet()) {
+      AttributeMap.register(attribute);
+    }
   }
 
   /**
@@ -2,7 +2,6 @@ package org.mitre.synthea.helpers;
 
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
-import com.google.common.collect.Sets;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.math.BigDecimal;
@@ -36,6 +35,10 @@ import org.opencds.cqf.cql.engine.serializing.jackson.XmlCqlLibraryReader;
 import org.simulator.math.odes.MultiTable;
 import org.simulator.math.odes.MultiTable.Block.Column;
 
+/**
+ * Evaluates "CQL-lite" expressions. An ExpressionProcessor may be shared between threads:
+ * the compiled Library is shared, and each thread evaluates with its own Context.
+ */
 public class ExpressionProcessor {
   private static final String LIBRARY_NAME = "Synthea";
   private static final ModelManager modelManager = new ModelManager();
@@ -43,13 +46,18 @@ public class ExpressionProcessor {
       new ConcurrentHashMap<String, VitalSign>();
   private static final Set<String> attributeSet =
       Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
-  private final LibraryManager libraryManager = new LibraryManager(modelManager);
-  private String expression;
-  private Library library;
-  private Context context;
-  private String elm;
-  private Map<String,String> paramTypeMap;
-  private BiMap<String,String> cqlParamMap;
+  /** Compiled libraries keyed by CQL text, so identical expressions are only compiled once. */
+  private static final ConcurrentMap<String, Library> libraryCache =
+      new ConcurrentHashMap<String, Library>();
+  private final String expression;
+  private final Library library;
+  private final ThreadLocal<Context> contexts;
+  private final Map<String,String> paramTypeMap;
+  private final BiMap<String,String> cqlParamMap;
+  /** Parameter names, in the order of the slots passed to evaluate(Object[]). */
+  private final String[] paramNames;
+  /** CQL compatible parameter names, by slot. */
+  private final String[] cqlParamNames;
 
   /**
    * Evaluate the given expression, within the context of the given Person and timestamp.
@@ -65,7 +73,8 @@ public class ExpressionProcessor {
    * @return result of the expression
    */
 
-  private String cqlToElm(String cql) {
+  private static String cqlToElm(String cql) {
+    LibraryManager libraryManager = new LibraryManager(modelManager);
     CqlTranslator translator = CqlTranslator.fromText(cql, modelManager, libraryManager);
 
     if (translator.getErrors().size() > 0) {
@@ -81,6 +90,33 @@ public class ExpressionProcessor {
     return elm;
   }
 
+  /**
+   * Compile the given CQL into a Library, or return the Library already compiled for it.
+   * @param cql Complete CQL library text
+   * @return the compiled Library
+   */
+  private static Library compile(String cql) {
+    Library cached = libraryCache.get(cql);
+    if (cached != null) {
+      return cached;
+    }
+    // Compile our constructed CQL expression into elm once for execution
+    String elm = cqlToElm(cql);
+    Library library;
+    // The compiler isn't thread safe, so only allow one thread at a time
+    synchronized (ExpressionProcessor.class) {
+      try {
+        CqlLibraryReader reader = new XmlCqlLibraryReader();
+        library = reader.read(new ByteArrayInputStream(elm.getBytes(StandardCharsets.UTF_8)));
+      } catch (IOException ex) {
+        throw new RuntimeException(ex);
+      }
+    }
+    // if another thread compiled the same CQL first, use theirs
+    cached = libraryCache.putIfAbsent(cql, library);
+    return (cached != null) ? cached : library;
+  }
+
   /**
    * ExpressionProcessor convenience constructor when all parameters are Decimals.
    * @param expression Expression to evaluate for each future set of parameters.
@@ -101,21 +137,15 @@ public class ExpressionProcessor {
     String cleanExpression = replaceParameters(expression);
     String wrappedExpression = convertParameterizedExpressionToCql(cleanExpression);
 
-    // Compile our constructed CQL expression into elm once for execution
-    // The compiler isn't thread safe, so only allow one thread at a time
-    this.elm = cqlToElm(wrappedExpression);
-    synchronized (ExpressionProcessor.class) {
-      try {
-        CqlLibraryReader reader = new XmlCqlLibraryReader();
-        this.library = reader.read(new ByteArrayInputStream(
-            elm.getBytes(StandardCharsets.UTF_8)));
-      } catch (IOException ex) {
-        throw new RuntimeException(ex);
-      }
-    }
-
-    this.context = new Context(library);
+    this.library = compile(wrappedExpression);
+    this.contexts = ThreadLocal.withInitial(() -> new Context(library));
     this.expression = expression;
+
+    this.paramNames = cqlParamMap.keySet().toArray(new String[0]);
+    this.cqlParamNames = new String[paramNames.length];
+    for (int i = 0; i < paramNames.length; i++) {
+      cqlParamNames[i] = cqlParamMap.get(paramNames[i]);
+    }
   }
 
   /**
@@ -134,6 +164,21 @@ public class ExpressionProcessor {
     return cqlParamMap.keySet();
   }
 
+  /**
+   * Returns the parameter names in slot order, as expected by {@link #evaluate(Object[])}.
+   * @return parameter names
+   */
+  public String[] getParamSlots() {
+    return paramNames.clone();
+  }
+
+  /**
+   * Returns the compiled library, which is shared by all processors with the same CQL.
+   */
+  Library getLibrary() {
+    return library;
+  }
+
   /**
    * Returns a map of parameter names to their CQL types as provided to the constructor.
    * @return map of parameter names to CQL type names
@@ -274,13 +319,12 @@ public class ExpressionProcessor {
    * @return evaluation result
    */
   public Object evaluate(Person person, long time) {
-    Map<String,Object> params = new HashMap<String,Object>();
-
-    for (String paramName : getParamNames()) {
-      params.put(paramName, getPersonValue(paramName, person, time, expression));
+    Object[] values = new Object[paramNames.length];
+    for (int i = 0; i < paramNames.length; i++) {
+      values[i] = getPersonValue(paramNames[i], person, time, expression);
     }
 
-    return evaluate(params);
+    return evaluate(values);
   }
 
   /**
@@ -289,38 +333,59 @@ public class ExpressionProcessor {
    * @return evaluation result
    */
   public Object evaluate(Map<String,Object> params) {
-    // Keep track to make sure all parameters are set
-    Set<String> setParams = new HashSet<String>();
-    for (Entry<String,Object> entry : params.entrySet()) {
-      // Set the CQL compatible parameter name in the context
-      context.setParameter(null, cqlParamMap.get(entry.getKey()), entry.getValue());
-      setParams.add(entry.getKey());
+    // Make sure all parameters are set
+    Object[] values = new Object[paramNames.length];
+    List<String> missing = null;
+    for (int i = 0; i < paramNames.length; i++) {
+      if (params.containsKey(paramNames[i])) {
+        values[i] = params.get(paramNames[i]);
+      } else {
+        if (missing == null) {
+          missing = new ArrayList<String>();
+        }
+        missing.add(paramNames[i]);
+      }
     }
 
-    Set<String> missing = Sets.difference(cqlParamMap.keySet(), setParams);
-    Set<String> extra = Sets.difference(setParams, cqlParamMap.keySet());
-
-    if (missing.size() > 0) {
+    if (missing != null) {
       throw new IllegalArgumentException("Missing parameter(s): " + String.join(", ", missing)
       + " for expression \"" + expression + "\"");
     }
-    if (extra.size() > 0) {
+    if (params.size() > paramNames.length) {
+      Set<String> extra = new HashSet<String>(params.keySet());
+      extra.removeAll(cqlParamMap.keySet());
       Logger.getLogger(ExpressionProcessor.class.getName()).log(Level.WARNING,
               "unused parameter(s) provided for expression \"{0}\": {1}",
               new Object[]{expression, String.join(", ",extra)});
     }
 
+    return evaluate(values);
+  }
+
+  /**
+   * Evaluates the expression with the given parameter values, by slot. This avoids building a
+   * map of parameters for each evaluation. May be called concurrently from multiple threads.
+   * @param values parameter values, in the order given by {@link #getParamSlots()}
+   * @return evaluation result
+   */
+  public Object evaluate(Object[] values) {
+    if (values.length != paramNames.length) {
+      throw new IllegalArgumentException("Expected " + paramNames.length
+          + " parameter(s) for expression \"" + expression + "\" but got " + values.length);
+    }
+    Context context = contexts.get();
+    for (int i = 0; i < values.length; i++) {
+      // Set the CQL compatible parameter name in the context
+      context.setParameter(null, cqlParamNames[i], values[i]);
+    }
+
     Object retVal = null;
 
     for (ExpressionDef statement : library.getStatements().getDef()) {
       retVal = statement.evaluate(context);
     }
 
-    try {
-      return retVal;
-    } catch (Exception e) {
-      throw new RuntimeException(e);
-    }
+    return retVal;
   }
 
   private String replaceParameters(String expression) {
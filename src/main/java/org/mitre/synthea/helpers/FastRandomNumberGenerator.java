@@ -0,0 +1,137 @@
+package org.mitre.synthea.helpers;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * A RandomNumberGenerator for sources of randomness used by one thread at a time, such as each
+ * person's. It uses the SplitMix64 algorithm of java.util.SplittableRandom, which is not
+ * serializable, and counts draws in a plain long, so a draw takes no atomic operations.
+ * The numbers differ from DefaultRandomNumberGenerator's for the same seed, so it is only
+ * used when generate.fast_random is set.
+ */
+public class FastRandomNumberGenerator implements RandomNumberGenerator, Serializable {
+  private static final long serialVersionUID = 1L;
+
+  /** The odd increment of SplitMix64, from the golden ratio. */
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+  private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+  private final long seed;
+  private long state;
+  private long count;
+  /** The second of the last pair of normally distributed values, if not yet used. */
+  private double nextGaussian;
+  private boolean haveNextGaussian;
+
+  /**
+   * Create a new fast random number generator.
+   * @param seed The random number generator seed.
+   */
+  public FastRandomNumberGenerator(long seed) {
+    this.seed = seed;
+    this.state = seed;
+  }
+
+  private long nextLong() {
+    long z = (state += GOLDEN_GAMMA);
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  private int nextInt() {
+    return (int) (nextLong() >>> 32);
+  }
+
+  private double nextDouble() {
+    return (nextLong() >>> 11) * DOUBLE_UNIT;
+  }
+
+  @Override
+  public long getSeed() {
+    return seed;
+  }
+
+  @Override
+  public double rand() {
+    count++;
+    return nextDouble();
+  }
+
+  @Override
+  public boolean randBoolean() {
+    count++;
+    return nextLong() < 0;
+  }
+
+  /**
+   * Returns a normally distributed value, with mean 0 and standard deviation 1, using the
+   * polar method. Each pair of uniform values gives two normal values, so every other call
+   * returns the one kept from the call before.
+   */
+  @Override
+  public double randGaussian() {
+    count++;
+    if (haveNextGaussian) {
+      haveNextGaussian = false;
+      return nextGaussian;
+    }
+    double v1;
+    double v2;
+    double s;
+    do {
+      v1 = 2 * nextDouble() - 1;
+      v2 = 2 * nextDouble() - 1;
+      s = v1 * v1 + v2 * v2;
+    } while (s >= 1 || s == 0);
+    double multiplier = Math.sqrt(-2 * Math.log(s) / s);
+    nextGaussian = v2 * multiplier;
+    haveNextGaussian = true;
+    return v1 * multiplier;
+  }
+
+  @Override
+  public int randInt() {
+    count++;
+    return nextInt();
+  }
+
+  /**
+   * Returns a value between 0 (inclusive) and bound (exclusive), without bias.
+   */
+  @Override
+  public int randInt(int bound) {
+    if (bound <= 0) {
+      throw new IllegalArgumentException("bound must be positive");
+    }
+    count++;
+    int r = nextInt();
+    int m = bound - 1;
+    if ((bound & m) == 0) {
+      // a power of two
+      return r & m;
+    }
+    // reject values from the incomplete range at the top
+    for (int u = r >>> 1; u + m - (r = u % bound) < 0; u = nextInt() >>> 1) {
+      continue;
+    }
+    return r;
+  }
+
+  @Override
+  public long randLong() {
+    count++;
+    return nextLong();
+  }
+
+  @Override
+  public UUID randUUID() {
+    return new UUID(randLong(), randLong());
+  }
+
+  @Override
+  public long getCount() {
+    return count;
+  }
+}
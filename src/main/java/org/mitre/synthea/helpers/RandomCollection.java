@@ -1,17 +1,21 @@
 package org.mitre.synthea.helpers;
 
 import java.io.Serializable;
-import java.util.Map.Entry;
-import java.util.NavigableMap;
-import java.util.TreeMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Random collection of objects, with weightings. Intended to be an equivalent to the ruby Pickup
- * gem. Adapted from https://stackoverflow.com/a/6409791/630384
+ * gem. Items are selected in constant time from an alias table, built on the first draw after
+ * an item is added, so each selection still takes a single draw from the random number
+ * generator.
  */
 public class RandomCollection<E> implements Serializable {
-  private final NavigableMap<Double, E> map = new TreeMap<Double, E>();
-  private double total = 0;
+  private final List<E> results = new ArrayList<E>();
+  private double[] weights = new double[8];
+  /** The alias table of the results, or null if one has been added since it was built. */
+  private AliasSampler<E> sampler;
 
   /**
    * Add an object (result) to the collection with a given weight.
@@ -24,8 +28,12 @@ public class RandomCollection<E> implements Serializable {
     if (weight <= 0) {
       return;
     }
-    total += weight;
-    map.put(total, result);
+    if (results.size() == weights.length) {
+      weights = Arrays.copyOf(weights, weights.length * 2);
+    }
+    weights[results.size()] = weight;
+    results.add(result);
+    sampler = null;
   }
 
   /**
@@ -37,14 +45,13 @@ public class RandomCollection<E> implements Serializable {
    * @return a random item from the collection weighted by the item weights.
    */
   public E next(RandomNumberGenerator random) {
-    return next(random.rand() * total);
-  }
-
-  private E next(double value) {
-    Entry<Double, E> entry = map.higherEntry(value);
-    if (entry == null) {
-      entry = map.lastEntry();
+    AliasSampler<E> table = sampler;
+    if (table == null) {
+      // the sampler is immutable, so a collection shared by several threads may build it
+      // more than once, but never sees it half built
+      table = new AliasSampler<E>(results, Arrays.copyOf(weights, results.size()));
+      sampler = table;
     }
-    return entry.getValue();
+    return table.sample(random);
   }
 }
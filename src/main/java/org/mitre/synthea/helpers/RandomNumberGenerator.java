@@ -6,6 +6,20 @@ import java.util.Arrays;
 import java.util.UUID;
 
 public interface RandomNumberGenerator {
+  /**
+   * Create the random number generator for a person or population, as configured by
+   * generate.fast_random.
+   * @param seed The random number generator seed.
+   * @return a FastRandomNumberGenerator if configured, otherwise a
+   *     DefaultRandomNumberGenerator, which reproduces the output of earlier versions.
+   */
+  public static RandomNumberGenerator create(long seed) {
+    if (Config.getAsBoolean("generate.fast_random", false)) {
+      return new FastRandomNumberGenerator(seed);
+    }
+    return new DefaultRandomNumberGenerator(seed);
+  }
+
   /** Returns a double between 0-1 from a uniform distribution. */
   public double rand();
 
@@ -14,6 +14,7 @@ import org.mitre.synthea.helpers.Attributes.Inventory;
 import org.mitre.synthea.helpers.SimpleCSV;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.HealthRecord;
 import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
 import org.mitre.synthea.world.concepts.HealthRecord.Entry;
 
@@ -58,7 +59,7 @@ public class QualityOfLifeModule extends Module {
 
     if (!qalys.containsKey(year)) {
 
-      double[] values = calculate(person, time);
+      double[] values = accumulate(person, time);
 
       dalys.put(year, values[0]);
       qalys.put(year, values[1]);
@@ -109,20 +110,12 @@ public class QualityOfLifeModule extends Module {
     // Years Lost due to Disability = YLD = (disability weight) * (average duration
     // of case)
     // from http://www.who.int/healthinfo/global_burden_disease/metrics_daly/en/
-    double yll = 0.0;
     double yld = 0.0;
 
     int age = person.ageInYears(stop);
     long birthdate = (long) person.attributes.get(Person.BIRTHDATE);
 
-    if (!person.alive(stop)) {
-      // life expectancy equation derived from IHME GBD 2015 Reference Life Table
-      // 6E-5x^3 - 0.0054x^2 - 0.8502x + 86.16
-      // R^2 = 0.99978
-      double l = ((0.00006 * Math.pow(age, 3))
-          - (0.0054 * Math.pow(age, 2)) - (0.8502 * age) + 86.16);
-      yll = l;
-    }
+    double yll = yearsOfLifeLost(person, age, stop);
 
     // Get counts of covered healthcare.
     List<Entry> allConditions = new ArrayList<Entry>();
@@ -176,18 +169,11 @@ public class QualityOfLifeModule extends Module {
     double disabilityWeight = 0.0;
     // calculate yld with yearly timestep
     for (int i = 0; i < age + 1; i++) {
-      long yearStart = birthdate + TimeUnit.DAYS.toMillis((long) (365.25 * i));
-      long yearEnd = birthdate + (TimeUnit.DAYS.toMillis((long) (365.25 * (i + 1) - 1)));
+      long yearStart = yearStart(birthdate, i);
+      long yearEnd = yearEnd(birthdate, i);
       List<Entry> conditionsInYear = conditionsInYear(allConditions, yearStart, yearEnd);
 
-      disabilityWeight = 0.0;
-
-      for (Entry condition : conditionsInYear) {
-        // Get the disability weight for this condition based on the percentageOfCoveredCare.
-        disabilityWeight +=
-            (double) disabilityWeights.get(condition.codes.get(0).code)
-            .getWeight(percentageOfCoveredCare);
-      }
+      disabilityWeight = disabilityWeight(conditionsInYear, percentageOfCoveredCare);
 
       disabilityWeight = Math.min(1.0, weight(disabilityWeight, i + 1));
       yld += disabilityWeight;
@@ -199,6 +185,87 @@ public class QualityOfLifeModule extends Module {
     return new double[] { daly, qaly, 1 - disabilityWeight };
   }
 
+  /**
+   * Calculate the HALYs for this person, at the given time, with the same result as
+   * {@link #calculate(Person, long)}, from running totals kept on the person.
+   * Each call only looks at the conditions recorded since the previous call and the years of
+   * life since then, rather than the person's whole record and life.
+   *
+   * @param person Person to calculate
+   * @param stop   current timestamp
+   * @return array of [daly (cumulative), qaly (cumulative), current disability
+   *         weight]
+   */
+  public static double[] accumulate(Person person, long stop) {
+    Totals totals = person.qualityOfLifeTotals;
+    if (totals == null || !totals.isFor(person)) {
+      totals = new Totals(person);
+      person.qualityOfLifeTotals = totals;
+    }
+    double[] values = totals.update(person, stop);
+    if (values == null) {
+      // the totals are already past this time
+      values = calculate(person, stop);
+    }
+    return values;
+  }
+
+  /**
+   * The share of the person's care that was covered, as calculated from the counts of covered
+   * and uncovered entries in {@link #calculate(Person, long)}. Those counts are divided as whole
+   * numbers, so the share is all of it until any care goes uncovered, and none of it after.
+   */
+  private static double percentageOfCoveredCare(Person person) {
+    if (person.lossOfCareEnabled && !person.lossOfCareRecord.encounters.isEmpty()) {
+      return 0.0;
+    }
+    return 1.0;
+  }
+
+  /**
+   * Years of Life Lost, if the person is dead at the given time.
+   */
+  private static double yearsOfLifeLost(Person person, int age, long stop) {
+    if (!person.alive(stop)) {
+      // life expectancy equation derived from IHME GBD 2015 Reference Life Table
+      // 6E-5x^3 - 0.0054x^2 - 0.8502x + 86.16
+      // R^2 = 0.99978
+      double l = ((0.00006 * Math.pow(age, 3))
+          - (0.0054 * Math.pow(age, 2)) - (0.8502 * age) + 86.16);
+      return l;
+    }
+    return 0.0;
+  }
+
+  /**
+   * The start of a year of life, counted from zero at birth.
+   */
+  private static long yearStart(long birthdate, int year) {
+    return birthdate + TimeUnit.DAYS.toMillis((long) (365.25 * year));
+  }
+
+  /**
+   * The end of a year of life, counted from zero at birth.
+   */
+  private static long yearEnd(long birthdate, int year) {
+    return birthdate + (TimeUnit.DAYS.toMillis((long) (365.25 * (year + 1) - 1)));
+  }
+
+  /**
+   * Sum the disability weights of the given conditions, in order.
+   */
+  private static double disabilityWeight(List<Entry> conditions,
+      double percentageOfCoveredCare) {
+    double disabilityWeight = 0.0;
+    for (Entry condition : conditions) {
+      // Get the disability weight for this condition based on the percentageOfCoveredCare.
+      disabilityWeight +=
+          (double) disabilityWeights.get(condition.codes.get(0).code)
+          .getWeight(percentageOfCoveredCare);
+    }
+    return disabilityWeight;
+  }
+
   /**
    * Given a list of conditions, return a subset that was active during a given time period
    * indicated by stop and stop.
@@ -252,6 +319,136 @@ public class QualityOfLifeModule extends Module {
     Attributes.inventory(attributes, m, "most-recent-qaly", false, true, "Numeric");
   }
 
+  /**
+   * The running totals behind {@link #accumulate(Person, long)}: how far the person's records
+   * have been read, and the sum of the disability weights of each year of life that has
+   * started, which no condition recorded later can change. They are not kept in the person's
+   * attributes, which are exported, nor saved with the person, since they can be rebuilt from
+   * the records.
+   */
+  public static final class Totals {
+    private final RecordConditions covered;
+    private final RecordConditions uncovered;
+    private final double percentageOfCoveredCare;
+    /** The number of years of life, from birth, summed in yld. */
+    private int years;
+    private double yld;
+    /** The age-adjusted disability weight of the latest of those years. */
+    private double disabilityWeight;
+
+    private Totals(Person person) {
+      this.covered = new RecordConditions(person.defaultRecord);
+      this.uncovered =
+          person.lossOfCareEnabled ? new RecordConditions(person.lossOfCareRecord) : null;
+      // the share of covered care applies to every year, so the totals start over if it changes
+      this.percentageOfCoveredCare = percentageOfCoveredCare(person);
+    }
+
+    private boolean isFor(Person person) {
+      return covered.record == person.defaultRecord
+          && (uncovered == null ? !person.lossOfCareEnabled
+              : uncovered.record == person.lossOfCareRecord)
+          && percentageOfCoveredCare == percentageOfCoveredCare(person);
+    }
+
+    /**
+     * Calculate the HALYs at the given time, as {@link QualityOfLifeModule#calculate} does,
+     * adding the years of life that have started since the last update to the totals.
+     * @return the HALYs, or null if the totals already include years after the given time.
+     */
+    private double[] update(Person person, long stop) {
+      int age = person.ageInYears(stop);
+      if (age + 1 < years) {
+        return null;
+      }
+      long birthdate = (long) person.attributes.get(Person.BIRTHDATE);
+      covered.read();
+      if (uncovered != null) {
+        uncovered.read();
+      }
+
+      double yld = this.yld;
+      double disabilityWeight = this.disabilityWeight;
+      for (int i = years; i < age + 1; i++) {
+        long yearStart = yearStart(birthdate, i);
+        long yearEnd = yearEnd(birthdate, i);
+        // covered conditions first, in the order calculate adds them up
+        List<Entry> conditionsInYear = conditionsInYear(covered.conditions, yearStart, yearEnd);
+        if (uncovered != null) {
+          conditionsInYear.addAll(conditionsInYear(uncovered.conditions, yearStart, yearEnd));
+        }
+
+        disabilityWeight = disabilityWeight(conditionsInYear, percentageOfCoveredCare);
+
+        disabilityWeight = Math.min(1.0, weight(disabilityWeight, i + 1));
+        yld += disabilityWeight;
+
+        if (i == years && yearStart < stop) {
+          // the year has started, so the conditions active at its start are all recorded
+          this.years++;
+          this.yld = yld;
+          this.disabilityWeight = disabilityWeight;
+          covered.settle(yearStart);
+          if (uncovered != null) {
+            uncovered.settle(yearStart);
+          }
+        }
+      }
+
+      double yll = yearsOfLifeLost(person, age, stop);
+      double daly = yll + yld;
+      double qaly = age - yld;
+
+      return new double[] { daly, qaly, 1 - disabilityWeight };
+    }
+  }
+
+  /**
+   * The conditions of a health record that may be active at the start of a year of life that
+   * has not yet been added to the totals. New conditions are recorded in the current encounter,
+   * the latest one, so the record is read from where the last read left off in that encounter.
+   */
+  private static class RecordConditions {
+    private final HealthRecord record;
+    private final List<Entry> conditions;
+    /** The encounter to continue reading at. */
+    private int encounter;
+    /** The number of conditions already read from that encounter. */
+    private int condition;
+
+    private RecordConditions(HealthRecord record) {
+      this.record = record;
+      this.conditions = new ArrayList<Entry>();
+    }
+
+    /**
+     * Add the conditions recorded since the last read.
+     */
+    private void read() {
+      List<Encounter> encounters = record.encounters;
+      while (encounter < encounters.size()) {
+        List<Entry> recorded = encounters.get(encounter).conditions;
+        conditions.addAll(recorded.subList(condition, recorded.size()));
+        condition = recorded.size();
+        if (encounter == encounters.size() - 1) {
+          break;
+        }
+        encounter++;
+        condition = 0;
+      }
+    }
+
+    /**
+     * Forget the conditions that cannot be active at the start of any year after the one
+     * starting at the given time: those without a disability weight, and those already ended.
+     */
+    private void settle(long yearStart) {
+      conditions.removeIf(entry -> (entry.stop != 0 && entry.stop <= yearStart)
+          || (!entry.codes.isEmpty()
+              && !disabilityWeights.containsKey(entry.codes.get(0).code)));
+    }
+  }
+
   private static class DisabilityWeight {
     public double low;
     public double medium;
@@ -1,7 +1,5 @@
 package org.mitre.synthea.world.agents;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
 import com.google.gson.internal.LinkedTreeMap;
 
 import java.io.IOException;
@@ -9,13 +7,12 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.mitre.synthea.export.JSONSkip;
@@ -23,7 +20,6 @@ import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.world.agents.behaviors.payeradjustment.IPayerAdjustment;
 import org.mitre.synthea.world.concepts.Claim;
 import org.mitre.synthea.world.concepts.Claim.ClaimEntry;
-import org.mitre.synthea.world.concepts.HealthRecord;
 import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
 import org.mitre.synthea.world.concepts.HealthRecord.Entry;
 import org.mitre.synthea.world.concepts.HealthRecord.Immunization;
@@ -55,25 +51,19 @@ public class Payer implements Serializable {
   private BigDecimal costsUncovered;
   private double totalQOLS; // Total customer quality of life scores.
   // Unique utilizers of Payer, by Person ID, with number of utilizations per Person.
-  private final Map<String, AtomicInteger> customerUtilization;
-  // row: year, column: type, value: count.
-  private transient Table<Integer, String, AtomicInteger> entryUtilization;
+  private final ConcurrentHashMap<String, AtomicInteger> customerUtilization;
+  // ConcurrentHashMap has no null key, so people without an ID share this one.
+  private static final String NO_PERSON_ID = "";
+  // by year and type, broken down by the type of the entry.
+  private transient UtilizationCounter<EntryUtilization> entryUtilization;
 
-  /**
-   * Simple bean used to add Java Serialization support to
-   * com.google.common.collect.Table&lt;Integer, String, AtomicInteger&gt; which doesn't natively
-   * support Serialization.
-   */
-  static class UtilizationBean implements Serializable {
-    public Integer year;
-    public String type;
-    public AtomicInteger count;
-
-    public UtilizationBean(Integer year, String type, AtomicInteger count) {
-      this.year = year;
-      this.type = type;
-      this.count = count;
-    }
+  /** Utilization metrics counted for each payer. */
+  public enum EntryUtilization {
+    COVERED_ENCOUNTERS, UNCOVERED_ENCOUNTERS,
+    COVERED_MEDICATIONS, UNCOVERED_MEDICATIONS,
+    COVERED_PROCEDURES, UNCOVERED_PROCEDURES,
+    COVERED_IMMUNIZATIONS, UNCOVERED_IMMUNIZATIONS,
+    COVERED_NO_COST, UNCOVERED_NO_COST;
   }
 
   /**
@@ -82,31 +72,17 @@ public class Payer implements Serializable {
    */
   private void writeObject(ObjectOutputStream oos) throws IOException {
     oos.defaultWriteObject();
-    ArrayList<UtilizationBean> entryUtilizationElements = null;
-    if (entryUtilization != null) {
-      entryUtilizationElements = new ArrayList<>(entryUtilization.size());
-      for (Table.Cell<Integer, String, AtomicInteger> cell: entryUtilization.cellSet()) {
-        entryUtilizationElements.add(
-                new UtilizationBean(cell.getRowKey(), cell.getColumnKey(), cell.getValue()));
-      }
-    }
-    oos.writeObject(entryUtilizationElements);
+    oos.writeObject(entryUtilization);
   }
 
   /**
    * Java Serialization support for the entryUtilization field.
    * @param ois stream to read from
    */
+  @SuppressWarnings("unchecked")
   private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
     ois.defaultReadObject();
-    ArrayList<UtilizationBean> entryUtilizationElements =
-            (ArrayList<UtilizationBean>)ois.readObject();
-    if (entryUtilizationElements != null) {
-      this.entryUtilization = HashBasedTable.create();
-      for (UtilizationBean u: entryUtilizationElements) {
-        this.entryUtilization.put(u.year, u.type, u.count);
-      }
-    }
+    this.entryUtilization = (UtilizationCounter<EntryUtilization>) ois.readObject();
   }
 
   /**
@@ -131,8 +107,8 @@ public class Payer implements Serializable {
     this.priority = priority;
 
     // Initial tracking values.
-    this.entryUtilization = HashBasedTable.create();
-    this.customerUtilization = new HashMap<String, AtomicInteger>();
+    this.entryUtilization = new UtilizationCounter<EntryUtilization>(EntryUtilization.class);
+    this.customerUtilization = new ConcurrentHashMap<String, AtomicInteger>();
     this.costsCovered = Claim.ZERO_CENTS;
     this.costsUncovered = Claim.ZERO_CENTS;
     this.revenue = Claim.ZERO_CENTS;
@@ -232,11 +208,13 @@ public class Payer implements Serializable {
    *
    * @param personId the person id who utilized the payer.
    */
-  public synchronized void incrementCustomers(String personId) {
-    if (!customerUtilization.containsKey(personId)) {
-      customerUtilization.put(personId, new AtomicInteger(0));
+  public void incrementCustomers(String personId) {
+    String key = personId == null ? NO_PERSON_ID : personId;
+    AtomicInteger years = customerUtilization.get(key);
+    if (years == null) {
+      years = customerUtilization.computeIfAbsent(key, id -> new AtomicInteger(0));
     }
-    customerUtilization.get(personId).incrementAndGet();
+    years.incrementAndGet();
   }
 
   /**
@@ -245,11 +223,8 @@ public class Payer implements Serializable {
    * @param entry the entry covered.
    */
   public void incrementCoveredEntries(Entry entry) {
-
-    String entryType = getEntryType(entry);
-
-    incrementEntries(Utilities.getYear(entry.start), "covered-" + entryType);
-    incrementEntries(Utilities.getYear(entry.start), "covered-" + entryType + "-" + entry.type);
+    entryUtilization.increment(Utilities.getYear(entry.start), getEntryType(entry, true),
+        entry.type);
   }
 
   /**
@@ -258,12 +233,8 @@ public class Payer implements Serializable {
    * @param entry the entry covered.
    */
   public void incrementUncoveredEntries(Entry entry) {
-
-    String entryType = getEntryType(entry);
-
-    incrementEntries(Utilities.getYear(entry.start), "uncovered-" + entryType);
-    incrementEntries(Utilities.getYear(entry.start), "uncovered-" + entryType
-        + "-" + entry.type);
+    entryUtilization.increment(Utilities.getYear(entry.start), getEntryType(entry, false),
+        entry.type);
   }
 
   // Perhaps move to HealthRecord.java
@@ -271,37 +242,22 @@ public class Payer implements Serializable {
    * Determines what entry type (Immunization/Encounter/Procedure/Medication) of the given entry.
    *
    * @param entry the entry to parse.
+   * @param covered whether the entry was covered.
    */
-  private String getEntryType(Entry entry) {
-
-    String entryType;
-
+  private static EntryUtilization getEntryType(Entry entry, boolean covered) {
     if (entry instanceof Encounter) {
-      entryType = HealthRecord.ENCOUNTERS;
+      return covered ? EntryUtilization.COVERED_ENCOUNTERS : EntryUtilization.UNCOVERED_ENCOUNTERS;
     } else if (entry instanceof Medication) {
-      entryType = HealthRecord.MEDICATIONS;
+      return covered ? EntryUtilization.COVERED_MEDICATIONS
+          : EntryUtilization.UNCOVERED_MEDICATIONS;
     } else if (entry instanceof Procedure) {
-      entryType = HealthRecord.PROCEDURES;
+      return covered ? EntryUtilization.COVERED_PROCEDURES : EntryUtilization.UNCOVERED_PROCEDURES;
     } else if (entry instanceof Immunization) {
-      entryType = HealthRecord.IMMUNIZATIONS;
-    } else {
-      // Not an entry with a cost.
-      entryType = "no_cost";
+      return covered ? EntryUtilization.COVERED_IMMUNIZATIONS
+          : EntryUtilization.UNCOVERED_IMMUNIZATIONS;
     }
-    return entryType;
-  }
-
-  /**
-   * Increments encounter utilization for a given year and encounter type.
-   *
-   * @param year the year of the encounter to add
-   * @param key the key (the encounter type and whether it was covered/uncovered)
-   */
-  private synchronized void incrementEntries(Integer year, String key) {
-    if (!entryUtilization.contains(year, key)) {
-      entryUtilization.put(year, key, new AtomicInteger(0));
-    }
-    entryUtilization.get(year, key).incrementAndGet();
+    // Not an entry with a cost.
+    return covered ? EntryUtilization.COVERED_NO_COST : EntryUtilization.UNCOVERED_NO_COST;
   }
 
   /**
@@ -348,10 +304,8 @@ public class Payer implements Serializable {
    * @return  The number of years the person was with the payer.
    */
   public int getCustomerUtilization(String personId) {
-    if (!customerUtilization.containsKey(personId)) {
-      return 0;
-    }
-    return customerUtilization.get(personId).get();
+    AtomicInteger years = customerUtilization.get(personId == null ? NO_PERSON_ID : personId);
+    return years == null ? 0 : years.get();
   }
 
   /**
@@ -375,8 +329,7 @@ public class Payer implements Serializable {
    * @return the number of covered encounters.
    */
   public int getEncountersCoveredCount() {
-    return entryUtilization.column("covered-"
-        + HealthRecord.ENCOUNTERS).values().stream().mapToInt(ai -> ai.get()).sum();
+    return (int) entryUtilization.total(EntryUtilization.COVERED_ENCOUNTERS);
   }
 
   /**
@@ -384,8 +337,7 @@ public class Payer implements Serializable {
    * @return the number of uncovered patient encounters.
    */
   public int getEncountersUncoveredCount() {
-    return entryUtilization.column("uncovered-"
-        + HealthRecord.ENCOUNTERS).values().stream().mapToInt(ai -> ai.get()).sum();
+    return (int) entryUtilization.total(EntryUtilization.UNCOVERED_ENCOUNTERS);
   }
 
   /**
@@ -393,8 +345,7 @@ public class Payer implements Serializable {
    * @return the number of covered medications.
    */
   public int getMedicationsCoveredCount() {
-    return entryUtilization.column("covered-"
-        + HealthRecord.MEDICATIONS).values().stream().mapToInt(ai -> ai.get()).sum();
+    return (int) entryUtilization.total(EntryUtilization.COVERED_MEDICATIONS);
   }
 
   /**
@@ -402,8 +353,7 @@ public class Payer implements Serializable {
    * @return the number of uncovered patient medications.
    */
   public int getMedicationsUncoveredCount() {
-    return entryUtilization.column("uncovered-"
-        + HealthRecord.MEDICATIONS).values().stream().mapToInt(ai -> ai.get()).sum();
+    return (int) entryUtilization.total(EntryUtilization.UNCOVERED_MEDICATIONS);
   }
 
   /**
@@ -411,8 +361,7 @@ public class Payer implements Serializable {
    * @return the number of covered procedures.
    */
   public int getProceduresCoveredCount() {
-    return entryUtilization.column("covered-"
-        + HealthRecord.PROCEDURES).values().stream().mapToInt(ai -> ai.get()).sum();
+    return (int) entryUtilization.total(EntryUtilization.COVERED_PROCEDURES);
   }
 
   /**
@@ -420,8 +369,7 @@ public class Payer implements Serializable {
    * @return the number of uncovered patient procedures.
    */
   public int getProceduresUncoveredCount() {
-    return entryUtilization.column("uncovered-"
-        + HealthRecord.PROCEDURES).values().stream().mapToInt(ai -> ai.get()).sum();
+    return (int) entryUtilization.total(EntryUtilization.UNCOVERED_PROCEDURES);
   }
 
   /**
@@ -429,8 +377,7 @@ public class Payer implements Serializable {
    * @return the number of covered immunizations.
    */
   public int getImmunizationsCoveredCount() {
-    return entryUtilization.column("covered-"
-        + HealthRecord.IMMUNIZATIONS).values().stream().mapToInt(ai -> ai.get()).sum();
+    return (int) entryUtilization.total(EntryUtilization.COVERED_IMMUNIZATIONS);
   }
 
   /**
@@ -438,8 +385,26 @@ public class Payer implements Serializable {
    * @return the number of uncovered patient immunizations.
    */
   public int getImmunizationsUncoveredCount() {
-    return entryUtilization.column("uncovered-"
-        + HealthRecord.IMMUNIZATIONS).values().stream().mapToInt(ai -> ai.get()).sum();
+    return (int) entryUtilization.total(EntryUtilization.UNCOVERED_IMMUNIZATIONS);
+  }
+
+  /**
+   * Get a snapshot of the entries this payer covered and did not cover, by year and type.
+   * Each type is also broken down by the type of the entry.
+   * @return the utilization counts.
+   */
+  public UtilizationCounter.Snapshot<EntryUtilization> getEntryUtilization() {
+    return entryUtilization.snapshot();
+  }
+
+  /**
+   * Get the total of one type of covered or uncovered entries over all years, without taking
+   * a snapshot.
+   * @param type The type of entry utilization.
+   * @return the total count.
+   */
+  public long getEntryUtilizationTotal(EntryUtilization type) {
+    return entryUtilization.total(type);
   }
 
   /**
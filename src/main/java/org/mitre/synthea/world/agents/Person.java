@@ -5,9 +5,9 @@ import java.io.Serializable;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.Instant;
-import java.time.LocalDate;
 import java.time.Period;
 import java.time.ZoneId;
+import java.time.zone.ZoneRules;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -16,14 +16,16 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.mitre.synthea.engine.ExpressedConditionRecord;
 import org.mitre.synthea.engine.ExpressedSymptom;
 import org.mitre.synthea.engine.Module;
 import org.mitre.synthea.engine.State;
+import org.mitre.synthea.engine.StateHistory;
+import org.mitre.synthea.helpers.AttributeMap;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.ConstantValueGenerator;
-import org.mitre.synthea.helpers.DefaultRandomNumberGenerator;
 import org.mitre.synthea.helpers.RandomNumberGenerator;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.helpers.ValueGenerator;
@@ -42,6 +44,11 @@ import org.mitre.synthea.world.geography.quadtree.QuadTreeElement;
 public class Person implements Serializable, RandomNumberGenerator, QuadTreeElement {
   private static final long serialVersionUID = 4322116644425686379L;
   private static final ZoneId timeZone = ZoneId.systemDefault();
+  private static final ZoneRules timeZoneRules = timeZone.getRules();
+  private static final int fixedOffsetSeconds =
+      timeZoneRules.getOffset(Instant.EPOCH).getTotalSeconds();
+  private static final int DAYS_PER_CYCLE = 146097;
+  private static final long DAYS_0000_TO_1970 = (DAYS_PER_CYCLE * 5L) - (30L * 365L + 7L);
 
   public static final String BIRTHDATE = "birthdate";
   public static final String DEATHDATE = "deathdate";
@@ -112,7 +119,7 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
   public static final String ENTITY = "ENTITY";
   public static final String INSURANCE_STATUS = "insurance_status";
 
-  private final DefaultRandomNumberGenerator random;
+  private final RandomNumberGenerator random;
   public long populationSeed;
   /**
    * Tracks the last time that the person was updated over a serialize/deserialize.
@@ -122,7 +129,7 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
    * Tracks the remaining modules for a person over a serialize/deserialize.
    */
   public List<Module> currentModules;
-  public Map<String, Object> attributes;
+  public AttributeMap attributes;
   public Map<VitalSign, ValueGenerator> vitalSigns;
   /** Data structure for storing symptoms faced by a person.
    * Adding the Long keyset to keep track of the time a symptom is set. */
@@ -150,13 +157,26 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
   public List<State> history;
   /** Record of insurance coverage. */
   public CoverageRecord coverage;
+  /** Running totals of the QualityOfLifeModule, rebuilt from the records when missing. */
+  public transient QualityOfLifeModule.Totals qualityOfLifeTotals;
+
+  // Cached age calculation, see updateAge(long)
+  private transient boolean ageCacheValid;
+  private transient long ageBirthTime;
+  private transient int birthYear;
+  private transient int birthMonth;
+  private transient int birthDay;
+  private transient long ageTime;
+  private transient int ageYears;
+  private transient int ageMonths;
+  private transient int ageDays;
 
   /**
    * Person constructor.
    */
   public Person(long seed) {
-    random = new DefaultRandomNumberGenerator(seed);
-    attributes = new ConcurrentHashMap<String, Object>();
+    random = RandomNumberGenerator.create(seed);
+    attributes = new AttributeMap();
     vitalSigns = new ConcurrentHashMap<VitalSign, ValueGenerator>();
     symptoms = new ConcurrentHashMap<String, ExpressedSymptom>();
     /* initialized the onsetConditions field */
@@ -249,11 +269,8 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
   public Period age(long time) {
     Period age = Period.ZERO;
 
-    if (attributes.containsKey(BIRTHDATE)) {
-      LocalDate now = Instant.ofEpochMilli(time).atZone(timeZone).toLocalDate();
-      LocalDate birthdate = Instant.ofEpochMilli((long) attributes.get(BIRTHDATE))
-          .atZone(timeZone).toLocalDate();
-      age = Period.between(birthdate, now);
+    if (updateAge(time)) {
+      age = Period.of(ageYears, ageMonths, ageDays);
     }
     return age;
   }
@@ -265,10 +282,11 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
    * @return decimal age in years
    */
   public double ageInDecimalYears(long time) {
-    Period agePeriod = age(time);
+    if (!updateAge(time)) {
+      return 0;
+    }
 
-    double years = agePeriod.getYears() + agePeriod.getMonths() / 12.0
-        + agePeriod.getDays() / 365.2425;
+    double years = ageYears + ageMonths / 12.0 + ageDays / 365.2425;
 
     if (years < 0) {
       years = 0;
@@ -285,7 +303,10 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
    *         before they were born.
    */
   public int ageInMonths(long time) {
-    int months = (int) age(time).toTotalMonths();
+    if (!updateAge(time)) {
+      return 0;
+    }
+    int months = ageYears * 12 + ageMonths;
     if (months < 0) {
       months = 0;
     }
@@ -300,13 +321,149 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
    *         before they were born.
    */
   public int ageInYears(long time) {
-    int years = age(time).getYears();
+    if (!updateAge(time)) {
+      return 0;
+    }
+    int years = ageYears;
     if (years < 0) {
       years = 0;
     }
     return years;
   }
 
+  /**
+   * Update the cached age fields for the given time, with the same result as
+   * Period.between(birthdate, date) on the local dates in the system time zone. The calendar
+   * fields of the birthdate are computed once, and the age is memoized for the most recent time,
+   * which avoids any allocation when the age is queried repeatedly within a timestep.
+   *
+   * @param time The time when their age should be calculated.
+   * @return false if the person has no birthdate, true otherwise.
+   */
+  private boolean updateAge(long time) {
+    Object birthdate = attributes.get(BIRTHDATE);
+    if (birthdate == null) {
+      return false;
+    }
+    long birthTime = (Long) birthdate;
+    if (!ageCacheValid || birthTime != ageBirthTime) {
+      long birthDate = packedDateFromEpochDay(localEpochDay(birthTime));
+      birthYear = (int) (birthDate >> 9);
+      birthMonth = (int) (birthDate >> 5) & 15;
+      birthDay = (int) birthDate & 31;
+      ageBirthTime = birthTime;
+      ageCacheValid = true;
+    } else if (time == ageTime) {
+      return true;
+    }
+
+    long epochDay = localEpochDay(time);
+    long date = packedDateFromEpochDay(epochDay);
+    int year = (int) (date >> 9);
+    int month = (int) (date >> 5) & 15;
+    int day = (int) date & 31;
+    long birthProlepticMonth = birthYear * 12L + birthMonth - 1;
+    long totalMonths = (year * 12L + month - 1) - birthProlepticMonth;
+    int days = day - birthDay;
+    // same adjustments as LocalDate.until(ChronoLocalDate)
+    if (totalMonths > 0 && days < 0) {
+      totalMonths--;
+      long calcMonth = birthProlepticMonth + totalMonths;
+      int calcYear = (int) Math.floorDiv(calcMonth, 12);
+      int calcMonthOfYear = (int) Math.floorMod(calcMonth, 12) + 1;
+      int calcDay = Math.min(birthDay, lengthOfMonth(calcYear, calcMonthOfYear));
+      days = (int) (epochDay - toEpochDay(calcYear, calcMonthOfYear, calcDay));
+    } else if (totalMonths < 0 && days > 0) {
+      totalMonths++;
+      days -= lengthOfMonth(year, month);
+    }
+    ageYears = (int) (totalMonths / 12);
+    ageMonths = (int) (totalMonths % 12);
+    ageDays = days;
+    ageTime = time;
+    return true;
+  }
+
+  /**
+   * Get the local date, as a count of days from 1970-01-01, of the given time in the system
+   * time zone.
+   */
+  private static long localEpochDay(long time) {
+    int offsetSeconds;
+    if (timeZoneRules.isFixedOffset()) {
+      offsetSeconds = fixedOffsetSeconds;
+    } else {
+      offsetSeconds = timeZoneRules.getOffset(Instant.ofEpochMilli(time)).getTotalSeconds();
+    }
+    return Math.floorDiv(time + offsetSeconds * 1000L, TimeUnit.DAYS.toMillis(1));
+  }
+
+  // The following calendar arithmetic mirrors java.time.LocalDate (ISO proleptic calendar)
+  // but works on primitive fields.
+
+  private static boolean isLeapYear(long year) {
+    return ((year & 3) == 0) && ((year % 100) != 0 || (year % 400) == 0);
+  }
+
+  private static int lengthOfMonth(int year, int month) {
+    switch (month) {
+      case 2:
+        return isLeapYear(year) ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+
+  private static long toEpochDay(long year, long month, long day) {
+    long total = 365 * year;
+    if (year >= 0) {
+      total += (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+    } else {
+      total -= year / -4 - year / -100 + year / -400;
+    }
+    total += ((367 * month - 362) / 12);
+    total += day - 1;
+    if (month > 2) {
+      total--;
+      if (!isLeapYear(year)) {
+        total--;
+      }
+    }
+    return total - DAYS_0000_TO_1970;
+  }
+
+  /**
+   * Convert a count of days from 1970-01-01 into a date, packed into a single long as
+   * (year &lt;&lt; 9) | (month &lt;&lt; 5) | day so that no object needs to be allocated.
+   */
+  private static long packedDateFromEpochDay(long epochDay) {
+    long zeroDay = epochDay + DAYS_0000_TO_1970 - 60;
+    long adjust = 0;
+    if (zeroDay < 0) {
+      long adjustCycles = (zeroDay + 1) / DAYS_PER_CYCLE - 1;
+      adjust = adjustCycles * 400;
+      zeroDay += -adjustCycles * DAYS_PER_CYCLE;
+    }
+    long yearEst = (400 * zeroDay + 591) / DAYS_PER_CYCLE;
+    long doyEst = zeroDay - (365 * yearEst + yearEst / 4 - yearEst / 100 + yearEst / 400);
+    if (doyEst < 0) {
+      yearEst--;
+      doyEst = zeroDay - (365 * yearEst + yearEst / 4 - yearEst / 100 + yearEst / 400);
+    }
+    yearEst += adjust;
+    int marchDoy0 = (int) doyEst;
+    int marchMonth0 = (marchDoy0 * 5 + 2) / 153;
+    int month = (marchMonth0 + 2) % 12 + 1;
+    int day = marchDoy0 - (marchMonth0 * 306 + 5) / 10 + 1;
+    yearEst += marchMonth0 / 10;
+    return (yearEst << 9) | (month << 5) | day;
+  }
+
   /**
    * Returns whether a person is alive at the given time.
    */
@@ -516,18 +673,10 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
     if (history == null) {
       return false;
     }
-    for (State state : history) {
-      if (within != null && state.exited != null && state.exited <= within) {
-        return false;
-      }
-      if (since != null && state.name.equals(since)) {
-        return false;
-      }
-      if (state.name.equals(name)) {
-        return true;
-      }
+    if (history instanceof StateHistory) {
+      return ((StateHistory) history).hadPriorState(name, since, within);
     }
-    return false;
+    return StateHistory.hadPriorState(history, name, since, within);
   }
 
   /**
@@ -626,20 +775,29 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
   // Providers API -----------------------------------------------------------
   public static final String CURRENTPROVIDER = "currentProvider";
   public static final String PREFERREDYPROVIDER = "preferredProvider";
+  /** The preferred provider attribute for each EncounterType, by ordinal. */
+  private static final AttributeMap.Key[] PREFERRED_PROVIDER_KEYS =
+      new AttributeMap.Key[EncounterType.values().length];
+
+  static {
+    for (EncounterType type : EncounterType.values()) {
+      PREFERRED_PROVIDER_KEYS[type.ordinal()] = AttributeMap.key(PREFERREDYPROVIDER + type);
+    }
+  }
 
   /**
    * Get the preferred provider for the specified encounter type. If none is set the
    * provider at the specified time as the preferred provider for this encounter type.
    */
   public Provider getProvider(EncounterType type, long time) {
-    String key = PREFERREDYPROVIDER + type;
-    if (!attributes.containsKey(key)) {
+    AttributeMap.Key key = PREFERRED_PROVIDER_KEYS[type.ordinal()];
+    if (!attributes.has(key)) {
       setProvider(type, time);
     } else {
       Entity entity = (Entity) attributes.get(ENTITY);
       // check to see if this is a fixed identity
       if (entity != null) {
-        Provider provider = (Provider) attributes.get(key);
+        Provider provider = (Provider) attributes.getValue(key);
         HealthRecord healthRecord = getHealthRecord(provider, time);
         long lastEncounterTime = healthRecord.lastEncounterTime();
         // check to see if the provider is valid for this see range
@@ -651,7 +809,7 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
         }
       }
     }
-    return (Provider) attributes.get(key);
+    return (Provider) attributes.getValue(key);
   }
 
   /**
@@ -661,8 +819,8 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
     if (provider == null) {
       throw new RuntimeException("Unable to find provider: " + type);
     }
-    String key = PREFERREDYPROVIDER + type;
-    attributes.put(key, provider);
+    AttributeMap.Key key = PREFERRED_PROVIDER_KEYS[type.ordinal()];
+    attributes.putValue(key, provider);
   }
 
   /**
@@ -1,7 +1,5 @@
 package org.mitre.synthea.world.agents;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
 import com.google.gson.internal.LinkedTreeMap;
 
 import java.awt.geom.Point2D;
@@ -17,11 +15,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.mitre.synthea.export.JSONSkip;
 import org.mitre.synthea.helpers.Config;
-import org.mitre.synthea.helpers.DefaultRandomNumberGenerator;
 import org.mitre.synthea.helpers.RandomNumberGenerator;
 import org.mitre.synthea.helpers.SimpleCSV;
 import org.mitre.synthea.helpers.Utilities;
@@ -44,10 +40,10 @@ public class Provider implements QuadTreeElement, Serializable {
     NURSING, PRIMARY, REHAB, URGENT, VETERAN, PHARMACY, IHS;
   }
 
-  public static final String ENCOUNTERS = "encounters";
-  public static final String PROCEDURES = "procedures";
-  public static final String LABS = "labs";
-  public static final String PRESCRIPTIONS = "prescriptions";
+  /** Utilization metrics counted for each provider. */
+  public enum UtilizationType {
+    ENCOUNTERS, PROCEDURES, LABS, PRESCRIPTIONS;
+  }
 
   // Provider Selection Behavior algorithm choices:
   public static final String NEAREST = "nearest";
@@ -64,6 +60,11 @@ public class Provider implements QuadTreeElement, Serializable {
   private static final double MAX_PROVIDER_SEARCH_DISTANCE =
       Config.getAsDouble("generate.providers.maximum_search_distance", 2);
   private static IProviderFinder providerFinder = buildProviderFinder();
+  /** Not final, so tests can compare the two searches. */
+  static boolean USE_SPATIAL_INDEX =
+      Config.getAsBoolean("generate.providers.spatial_index", false);
+  /** Index for the nearest provider behavior, built on first use after providers are loaded. */
+  private static volatile ProviderIndex providerIndex;
   public static final Boolean USE_HOSPITAL_AS_DEFAULT =
       Config.getAsBoolean("generate.providers.default_to_hospital_on_failure", true);
 
@@ -101,8 +102,8 @@ public class Provider implements QuadTreeElement, Serializable {
   public Set<EncounterType> servicesProvided;
   @JSONSkip
   public Map<String, ArrayList<Clinician>> clinicianMap;
-  // row: year, column: type, value: count
-  private transient Table<Integer, String, AtomicInteger> utilization;
+  // by year and type, with encounters broken down by encounter type
+  private transient UtilizationCounter<UtilizationType> utilization;
 
   /**
    * Java Serialization support for the utilization field.
@@ -110,31 +111,17 @@ public class Provider implements QuadTreeElement, Serializable {
    */
   private void writeObject(ObjectOutputStream oos) throws IOException {
     oos.defaultWriteObject();
-    ArrayList<Payer.UtilizationBean> entryUtilizationElements = null;
-    if (utilization != null) {
-      entryUtilizationElements = new ArrayList<>(utilization.size());
-      for (Table.Cell<Integer, String, AtomicInteger> cell: utilization.cellSet()) {
-        entryUtilizationElements.add(
-                new Payer.UtilizationBean(cell.getRowKey(), cell.getColumnKey(), cell.getValue()));
-      }
-    }
-    oos.writeObject(entryUtilizationElements);
+    oos.writeObject(utilization);
   }
 
   /**
    * Java Serialization support for the utilization field.
    * @param ois stream to read from
    */
+  @SuppressWarnings("unchecked")
   private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
     ois.defaultReadObject();
-    ArrayList<Payer.UtilizationBean> entryUtilizationElements =
-            (ArrayList<Payer.UtilizationBean>)ois.readObject();
-    if (entryUtilizationElements != null) {
-      this.utilization = HashBasedTable.create();
-      for (Payer.UtilizationBean u: entryUtilizationElements) {
-        this.utilization.put(u.year, u.type, u.count);
-      }
-    }
+    this.utilization = (UtilizationCounter<UtilizationType>) ois.readObject();
   }
 
   /**
@@ -146,7 +133,7 @@ public class Provider implements QuadTreeElement, Serializable {
     locationUuid = UUID.randomUUID().toString();
     attributes = new LinkedTreeMap<>();
     revenue = 0.0;
-    utilization = HashBasedTable.create();
+    utilization = new UtilizationCounter<UtilizationType>(UtilizationType.class);
     servicesProvided = new HashSet<EncounterType>();
     clinicianMap = new HashMap<String, ArrayList<Clinician>>();
     coordinates = new Point2D.Double();
@@ -189,34 +176,46 @@ public class Provider implements QuadTreeElement, Serializable {
   }
 
   public void incrementEncounters(EncounterType service, int year) {
-    increment(year, ENCOUNTERS);
-    increment(year, ENCOUNTERS + "-" + service);
+    increment(year, UtilizationType.ENCOUNTERS, service);
   }
 
   public void incrementProcedures(int year) {
-    increment(year, PROCEDURES);
+    increment(year, UtilizationType.PROCEDURES, null);
   }
 
   public void incrementLabs(int year) {
-    increment(year, LABS);
+    increment(year, UtilizationType.LABS, null);
   }
 
   public void incrementPrescriptions(int year) {
-    increment(year, PRESCRIPTIONS);
+    increment(year, UtilizationType.PRESCRIPTIONS, null);
   }
 
-  private synchronized void increment(Integer year, String key) {
-    if (utilization != null) { // TODO remove once utilization stats are made serializable
-      if (!utilization.contains(year, key)) {
-        utilization.put(year, key, new AtomicInteger(0));
-      }
+  private void increment(int year, UtilizationType type, EncounterType service) {
+    if (utilization != null) {
+      utilization.increment(year, type, service == null ? null : service.toString());
+    }
+  }
 
-      utilization.get(year, key).incrementAndGet();
+  /**
+   * Get a snapshot of the utilization of this provider, by year and type.
+   * Encounters are also broken down by encounter type.
+   * @return the utilization counts.
+   */
+  public UtilizationCounter.Snapshot<UtilizationType> getUtilization() {
+    if (utilization == null) {
+      return new UtilizationCounter<UtilizationType>(UtilizationType.class).snapshot();
     }
+    return utilization.snapshot();
   }
 
-  public Table<Integer, String, AtomicInteger> getUtilization() {
-    return utilization;
+  /**
+   * Get the total utilization of one type over all years, without taking a snapshot.
+   * @param type The type of utilization.
+   * @return the total count.
+   */
+  public long getUtilizationTotal(UtilizationType type) {
+    return utilization == null ? 0 : utilization.total(type);
   }
 
   /**
@@ -275,6 +274,9 @@ public class Provider implements QuadTreeElement, Serializable {
    * @return Service provider or null if none is available.
    */
   public static Provider findService(Person person, EncounterType service, long time) {
+    if (useProviderIndex()) {
+      return getProviderIndex().nearest(person, service, MAX_PROVIDER_SEARCH_DISTANCE, null);
+    }
     double maxDistance = MAX_PROVIDER_SEARCH_DISTANCE;
     double degrees = 0.125;
     List<Provider> options = null;
@@ -295,6 +297,10 @@ public class Provider implements QuadTreeElement, Serializable {
    */
   public static Provider findServiceNewProvider(Person person, EncounterType service, long time,
       List<String> takenIds) {
+    if (useProviderIndex()) {
+      return getProviderIndex().nearest(person, service, MAX_PROVIDER_SEARCH_DISTANCE,
+          p -> !takenIds.contains(p.uuid));
+    }
     double maxDistance = MAX_PROVIDER_SEARCH_DISTANCE;
     double degrees = 0.125;
     List<Provider> options = null;
@@ -310,6 +316,28 @@ public class Provider implements QuadTreeElement, Serializable {
     return null;
   }
 
+  /**
+   * Whether provider searches use the spatial index, which answers the same as the nearest
+   * provider behavior with great-circle distances, in a single query.
+   */
+  private static boolean useProviderIndex() {
+    return USE_SPATIAL_INDEX && providerFinder instanceof ProviderFinderNearest;
+  }
+
+  private static ProviderIndex getProviderIndex() {
+    ProviderIndex index = providerIndex;
+    if (index == null) {
+      synchronized (Provider.class) {
+        index = providerIndex;
+        if (index == null) {
+          index = new ProviderIndex(getProviderList());
+          providerIndex = index;
+        }
+      }
+    }
+    return index;
+  }
+
   /**
    * Find a service around a given point.
    * @param person The patient who requires the service.
@@ -345,6 +373,7 @@ public class Provider implements QuadTreeElement, Serializable {
     statesLoaded.clear();
     providerMap = generateQuadTree();
     providerFinder = buildProviderFinder();
+    providerIndex = null;
     loaded = 0;
   }
 
@@ -361,7 +390,7 @@ public class Provider implements QuadTreeElement, Serializable {
    * Load into cache the list of providers for a state.
    * @param location the state being loaded.
    */
-  public static void loadProviders(Location location, DefaultRandomNumberGenerator random) {
+  public static void loadProviders(Location location, RandomNumberGenerator random) {
     if (!statesLoaded.contains(location.state)
         || !statesLoaded.contains(Location.getAbbreviation(location.state))
         || !statesLoaded.contains(Location.getStateName(location.state))) {
@@ -454,6 +483,7 @@ public class Provider implements QuadTreeElement, Serializable {
 
     String resource = Utilities.readResource(filename, true, true);
     Iterator<? extends Map<String,String>> csv = SimpleCSV.parseLineByLine(resource);
+    providerIndex = null;
 
     while (csv.hasNext()) {
       Map<String,String> row = csv.next();
@@ -0,0 +1,121 @@
+package org.mitre.synthea.world.agents;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.mitre.synthea.world.agents.Provider.ProviderType;
+import org.mitre.synthea.world.concepts.HealthRecord.EncounterType;
+import org.mitre.synthea.world.geography.GreatCircleIndex;
+
+/**
+ * Spatial index of the loaded providers for the "nearest" provider selection behavior.
+ * Providers are split by the service they offer and by whether they are VA, IHS or other
+ * facilities, so that a query only searches the providers a person is eligible for, and gives
+ * the same answer as {@link
+ * org.mitre.synthea.world.agents.behaviors.providerfinder.ProviderFinderNearest} except that
+ * distances are great-circle distances.
+ */
+class ProviderIndex {
+  private static final int OTHER = 0;
+  private static final int VETERAN = 1;
+  private static final int IHS = 2;
+
+  /** Indexes of the providers of each service, by facility group. */
+  private final Map<EncounterType, GreatCircleIndex<Provider>[]> byService =
+      new EnumMap<EncounterType, GreatCircleIndex<Provider>[]>(EncounterType.class);
+  /** Indexes of all the providers, by facility group, for queries without a service. */
+  private final GreatCircleIndex<Provider>[] anyService;
+
+  /**
+   * Build the index.
+   * @param providers The providers to index, in load order.
+   */
+  ProviderIndex(List<Provider> providers) {
+    anyService = build(providers);
+    for (EncounterType service : EncounterType.values()) {
+      List<Provider> offering = new ArrayList<Provider>();
+      for (Provider provider : providers) {
+        if (provider.hasService(service)) {
+          offering.add(provider);
+        }
+      }
+      byService.put(service, build(offering));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static GreatCircleIndex<Provider>[] build(List<Provider> providers) {
+    List<List<Provider>> groups = new ArrayList<List<Provider>>();
+    for (int i = 0; i < 3; i++) {
+      groups.add(new ArrayList<Provider>());
+    }
+    for (Provider provider : providers) {
+      groups.get(group(provider)).add(provider);
+    }
+    GreatCircleIndex<Provider>[] indexes = new GreatCircleIndex[groups.size()];
+    for (int i = 0; i < indexes.length; i++) {
+      List<Provider> group = groups.get(i);
+      double[] lons = new double[group.size()];
+      double[] lats = new double[group.size()];
+      for (int j = 0; j < group.size(); j++) {
+        lons[j] = group.get(j).getLonLat().getX();
+        lats[j] = group.get(j).getLonLat().getY();
+      }
+      indexes[i] = new GreatCircleIndex<Provider>(group, lons, lats);
+    }
+    return indexes;
+  }
+
+  private static int group(Provider provider) {
+    if (provider.type == ProviderType.VETERAN) {
+      return VETERAN;
+    } else if (provider.type == ProviderType.IHS) {
+      return IHS;
+    }
+    return OTHER;
+  }
+
+  /**
+   * Find the nearest provider that offers a service and that the person is eligible for.
+   * @param person The patient who requires the service.
+   * @param service The service required, or null for any service.
+   * @param maxDistance The maximum great-circle distance, in degrees of arc.
+   * @param filter Only providers matching the filter are considered, may be null.
+   * @return The nearest provider, a random one of the nearest when several are equally near,
+   *     or null if there is none within the maximum distance.
+   */
+  Provider nearest(Person person, EncounterType service, double maxDistance,
+      Predicate<Provider> filter) {
+    GreatCircleIndex<Provider>[] indexes = service == null ? anyService : byService.get(service);
+    boolean veteran = person.attributes.containsKey(Person.VETERAN);
+    boolean nativeAmerican = "native".equals(person.attributes.get(Person.RACE));
+    boolean emergency =
+        service == EncounterType.URGENTCARE || service == EncounterType.EMERGENCY;
+
+    GreatCircleIndex.Neighbors<Provider> neighbors = new GreatCircleIndex.Neighbors<Provider>(
+        person.getLonLat().getX(), person.getLonLat().getY(), maxDistance);
+    if (veteran && !emergency) {
+      // veterans only go to VA facilities, unless it's an emergency
+      indexes[VETERAN].nearest(neighbors, filter);
+    } else {
+      indexes[OTHER].nearest(neighbors, filter);
+      if (veteran) {
+        indexes[VETERAN].nearest(neighbors, filter);
+      }
+      if (nativeAmerican) {
+        indexes[IHS].nearest(neighbors, filter);
+      }
+    }
+
+    List<Provider> nearest = neighbors.getNearest();
+    if (nearest.isEmpty()) {
+      return null;
+    } else if (nearest.size() == 1) {
+      return nearest.get(0);
+    }
+    return nearest.get(person.randInt(nearest.size()));
+  }
+}
@@ -0,0 +1,185 @@
+package org.mitre.synthea.world.agents;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Utilization counts of a Provider or Payer, by year and metric, optionally broken down by a
+ * detail (ex. the encounter type). Counters are striped LongAdders, so threads recording
+ * utilization of the same shared organization do not contend on a lock. Exporters read the
+ * counts through an immutable {@link Snapshot}.
+ *
+ * @param <M> the metrics counted.
+ */
+public class UtilizationCounter<M extends Enum<M>> implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final Class<M> metrics;
+  private final ConcurrentMap<Integer, Year> years = new ConcurrentHashMap<Integer, Year>();
+
+  /** The counters of a single year. */
+  private static class Year implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final LongAdder[] counts;
+    private final ConcurrentMap<String, LongAdder>[] details;
+
+    @SuppressWarnings("unchecked")
+    private Year(int size) {
+      counts = new LongAdder[size];
+      details = new ConcurrentMap[size];
+      for (int i = 0; i < size; i++) {
+        counts[i] = new LongAdder();
+        details[i] = new ConcurrentHashMap<String, LongAdder>();
+      }
+    }
+  }
+
+  /**
+   * Create a new counter, with all counts zero.
+   * @param metrics The enum of the metrics counted.
+   */
+  public UtilizationCounter(Class<M> metrics) {
+    this.metrics = metrics;
+  }
+
+  private Year year(int year) {
+    Year counters = years.get(year);
+    if (counters == null) {
+      counters = years.computeIfAbsent(year, y -> new Year(metrics.getEnumConstants().length));
+    }
+    return counters;
+  }
+
+  /**
+   * Increment a metric.
+   * @param year The year of the utilization.
+   * @param metric The metric.
+   */
+  public void increment(int year, M metric) {
+    year(year).counts[metric.ordinal()].increment();
+  }
+
+  /**
+   * Increment a metric, and its count for the given detail.
+   * @param year The year of the utilization.
+   * @param metric The metric.
+   * @param detail The detail of the metric, ex. the encounter type. May be null.
+   */
+  public void increment(int year, M metric, String detail) {
+    Year counters = year(year);
+    counters.counts[metric.ordinal()].increment();
+    if (detail == null) {
+      return;
+    }
+    ConcurrentMap<String, LongAdder> details = counters.details[metric.ordinal()];
+    LongAdder count = details.get(detail);
+    if (count == null) {
+      count = details.computeIfAbsent(detail, d -> new LongAdder());
+    }
+    count.increment();
+  }
+
+  /**
+   * Get the total of a metric over all years. Counts still being incremented may or may not be
+   * included.
+   * @param metric The metric.
+   * @return the total count.
+   */
+  public long total(M metric) {
+    long total = 0;
+    for (Year counters : years.values()) {
+      total += counters.counts[metric.ordinal()].sum();
+    }
+    return total;
+  }
+
+  /**
+   * Take a snapshot of the counts. Intended for exporters, once the population is generated.
+   * @return the counts, which will not change any further.
+   */
+  public Snapshot<M> snapshot() {
+    Map<Integer, long[]> counts = new TreeMap<Integer, long[]>();
+    Map<Integer, Map<String, Long>[]> details = new TreeMap<Integer, Map<String, Long>[]>();
+    for (Map.Entry<Integer, Year> entry : years.entrySet()) {
+      Year counters = entry.getValue();
+      long[] yearCounts = new long[counters.counts.length];
+      @SuppressWarnings("unchecked")
+      Map<String, Long>[] yearDetails = new Map[counters.counts.length];
+      for (int i = 0; i < yearCounts.length; i++) {
+        yearCounts[i] = counters.counts[i].sum();
+        yearDetails[i] = new HashMap<String, Long>();
+        for (Map.Entry<String, LongAdder> detail : counters.details[i].entrySet()) {
+          yearDetails[i].put(detail.getKey(), detail.getValue().sum());
+        }
+      }
+      counts.put(entry.getKey(), yearCounts);
+      details.put(entry.getKey(), yearDetails);
+    }
+    return new Snapshot<M>(counts, details);
+  }
+
+  /**
+   * Immutable utilization counts, by year and metric.
+   */
+  public static class Snapshot<M extends Enum<M>> {
+    private final Map<Integer, long[]> counts;
+    private final Map<Integer, Map<String, Long>[]> details;
+
+    private Snapshot(Map<Integer, long[]> counts, Map<Integer, Map<String, Long>[]> details) {
+      this.counts = counts;
+      this.details = details;
+    }
+
+    /**
+     * Get the years with any utilization.
+     * @return the years, in ascending order.
+     */
+    public Set<Integer> getYears() {
+      return Collections.unmodifiableSet(counts.keySet());
+    }
+
+    /**
+     * Get the count of a metric in a year.
+     * @param year The year.
+     * @param metric The metric.
+     * @return the count.
+     */
+    public long get(int year, M metric) {
+      long[] yearCounts = counts.get(year);
+      return yearCounts == null ? 0 : yearCounts[metric.ordinal()];
+    }
+
+    /**
+     * Get the count of a metric in a year, for one detail.
+     * @param year The year.
+     * @param metric The metric.
+     * @param detail The detail of the metric, ex. the encounter type.
+     * @return the count.
+     */
+    public long get(int year, M metric, String detail) {
+      Map<String, Long>[] yearDetails = details.get(year);
+      return yearDetails == null ? 0 : yearDetails[metric.ordinal()].getOrDefault(detail, 0L);
+    }
+
+    /**
+     * Get the total of a metric over all years.
+     * @param metric The metric.
+     * @return the total count.
+     */
+    public long total(M metric) {
+      long total = 0;
+      for (long[] yearCounts : counts.values()) {
+        total += yearCounts[metric.ordinal()];
+      }
+      return total;
+    }
+  }
+}
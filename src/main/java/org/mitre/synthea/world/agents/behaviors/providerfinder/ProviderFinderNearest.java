@@ -1,10 +1,8 @@
 package org.mitre.synthea.world.agents.behaviors.providerfinder;
 
-import static java.util.stream.Collectors.groupingBy;
-
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Optional;
 import java.util.stream.Stream;
 
 import org.mitre.synthea.world.agents.Person;
@@ -38,19 +36,37 @@ public class ProviderFinderNearest implements IProviderFinder {
         options = options.filter(p -> ! ProviderType.IHS.equals(p.type));
       }
     }
-    // Sort by distance
-    Map<Double, List<Provider>> groupedByDistance =
-        options.collect(groupingBy(p -> p.getLonLat().distance(person.getLonLat())));
-    Optional<Double> minDistance = groupedByDistance.keySet().stream().min(Double::compare);
-    if (minDistance.isPresent()) {
-      List<Provider> closestProviderGroup = groupedByDistance.get(minDistance.get());
-      if (closestProviderGroup.size() > 1) {
-        return closestProviderGroup.get(person.randInt(closestProviderGroup.size()));
-      } else {
-        return closestProviderGroup.get(0);
+    return nearest(options, person);
+  }
+
+  /**
+   * Find the provider nearest to the person.
+   * @param options The candidate providers.
+   * @param person The patient.
+   * @return The nearest provider, a random one of the nearest when several are equally near,
+   *     or null if there are no options.
+   */
+  static Provider nearest(Stream<Provider> options, Person person) {
+    List<Provider> closestProviderGroup = new ArrayList<Provider>();
+    double minDistance = Double.POSITIVE_INFINITY;
+    Iterator<Provider> iterator = options.iterator();
+    while (iterator.hasNext()) {
+      Provider provider = iterator.next();
+      double distance = provider.getLonLat().distance(person.getLonLat());
+      if (distance < minDistance) {
+        minDistance = distance;
+        closestProviderGroup.clear();
       }
-    } else {
+      if (distance == minDistance) {
+        closestProviderGroup.add(provider);
+      }
+    }
+    if (closestProviderGroup.isEmpty()) {
       return null;
+    } else if (closestProviderGroup.size() > 1) {
+      return closestProviderGroup.get(person.randInt(closestProviderGroup.size()));
+    } else {
+      return closestProviderGroup.get(0);
     }
   }
 }
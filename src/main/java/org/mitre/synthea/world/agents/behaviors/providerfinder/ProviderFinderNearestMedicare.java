@@ -1,10 +1,6 @@
 package org.mitre.synthea.world.agents.behaviors.providerfinder;
 
-import static java.util.stream.Collectors.groupingBy;
-
 import java.util.List;
-import java.util.Map;
-import java.util.Optional;
 import java.util.stream.Stream;
 
 import org.mitre.synthea.world.agents.Person;
@@ -27,19 +23,6 @@ public class ProviderFinderNearestMedicare implements IProviderFinder {
     // Filter to only Medicare providers...
     options = options.filter(p -> (p.cmsProviderNum != null && !p.cmsProviderNum.isBlank()));
 
-    // Sort by distance
-    Map<Double, List<Provider>> groupedByDistance =
-        options.collect(groupingBy(p -> p.getLonLat().distance(person.getLonLat())));
-    Optional<Double> minDistance = groupedByDistance.keySet().stream().min(Double::compare);
-    if (minDistance.isPresent()) {
-      List<Provider> closestProviderGroup = groupedByDistance.get(minDistance.get());
-      if (closestProviderGroup.size() > 1) {
-        return closestProviderGroup.get(person.randInt(closestProviderGroup.size()));
-      } else {
-        return closestProviderGroup.get(0);
-      }
-    } else {
-      return null;
-    }
+    return ProviderFinderNearest.nearest(options, person);
   }
 }
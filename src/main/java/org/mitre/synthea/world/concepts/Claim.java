@@ -20,6 +20,53 @@ public class Claim implements Serializable {
   private static final long serialVersionUID = -3565704321813987656L;
   public static final BigDecimal ZERO_CENTS = BigDecimal.ZERO.setScale(2);
 
+  /** Powers of ten, for converting amounts of up to nine decimal places to cents. */
+  private static final long[] POWERS_OF_TEN = {
+    1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L,
+    1_000_000_000L
+  };
+
+  /**
+   * Convert an amount of money to whole cents, rounding half even.
+   * @param amount The amount, in dollars.
+   * @return the amount in cents.
+   */
+  static long toCents(BigDecimal amount) {
+    return amount.setScale(2, RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+  }
+
+  /**
+   * Convert whole cents to an amount of money.
+   * @param cents The amount in cents.
+   * @return the amount, in dollars, with a scale of two.
+   */
+  static BigDecimal fromCents(long cents) {
+    return cents == 0L ? ZERO_CENTS : BigDecimal.valueOf(cents, 2);
+  }
+
+  /**
+   * Multiply an amount of money by a rate, rounding half even to whole cents, the same as
+   * <code>rate.multiply(amount).setScale(2, RoundingMode.HALF_EVEN)</code>.
+   * @param rate The rate, ex. a coinsurance.
+   * @param cents The amount in cents.
+   * @return the product in cents.
+   */
+  static long multiplyCents(BigDecimal rate, long cents) {
+    int scale = rate.scale();
+    if (scale >= 0 && scale < POWERS_OF_TEN.length && rate.unscaledValue().bitLength() < 31
+        && Math.abs(cents) < Integer.MAX_VALUE) {
+      long product = rate.unscaledValue().longValue() * cents;
+      long divisor = POWERS_OF_TEN[scale];
+      long quotient = Math.floorDiv(product, divisor);
+      long twiceRemainder = 2 * Math.floorMod(product, divisor);
+      if (twiceRemainder > divisor || (twiceRemainder == divisor && (quotient & 1L) != 0)) {
+        quotient++;
+      }
+      return quotient;
+    }
+    return toCents(rate.multiply(fromCents(cents)));
+  }
+
   public static class ClaimCost {
     /** total cost of the entry. */
     public BigDecimal cost = ZERO_CENTS;
@@ -38,6 +85,17 @@ public class Claim implements Serializable {
     /** otherwise paid by patient out of pocket. */
     public BigDecimal patientOutOfPocket = ZERO_CENTS;
 
+    // The same costs in whole cents. Claim arithmetic is done on these, and the
+    // BigDecimal fields above are only updated from them by publish().
+    transient long costCents;
+    transient long copayCents;
+    transient long deductibleCents;
+    transient long adjustmentCents;
+    transient long coinsuranceCents;
+    transient long paidByPayerCents;
+    transient long secondaryPayerCents;
+    transient long outOfPocketCents;
+
     /**
      * Create a new instance with all costs set to zero.
      */
@@ -48,14 +106,15 @@ public class Claim implements Serializable {
      * Reset all claim costs to zero.
      */
     public void reset() {
-      cost = ZERO_CENTS;
-      copayPaidByPatient = ZERO_CENTS;
-      deductiblePaidByPatient = ZERO_CENTS;
-      adjustment = ZERO_CENTS;
-      coinsurancePaidByPayer = ZERO_CENTS;
-      paidByPayer = ZERO_CENTS;
-      paidBySecondaryPayer = ZERO_CENTS;
-      patientOutOfPocket = ZERO_CENTS;
+      costCents = 0L;
+      copayCents = 0L;
+      deductibleCents = 0L;
+      adjustmentCents = 0L;
+      coinsuranceCents = 0L;
+      paidByPayerCents = 0L;
+      secondaryPayerCents = 0L;
+      outOfPocketCents = 0L;
+      publish();
     }
 
     /**
@@ -63,6 +122,14 @@ public class Claim implements Serializable {
      * @param other the instance to copy costs from
      */
     public ClaimCost(ClaimCost other) {
+      this.costCents = other.costCents;
+      this.copayCents = other.copayCents;
+      this.deductibleCents = other.deductibleCents;
+      this.adjustmentCents = other.adjustmentCents;
+      this.coinsuranceCents = other.coinsuranceCents;
+      this.paidByPayerCents = other.paidByPayerCents;
+      this.secondaryPayerCents = other.secondaryPayerCents;
+      this.outOfPocketCents = other.outOfPocketCents;
       this.cost = other.cost;
       this.copayPaidByPatient = other.copayPaidByPatient;
       this.deductiblePaidByPatient = other.deductiblePaidByPatient;
@@ -78,15 +145,33 @@ public class Claim implements Serializable {
      * @param other the other claim entry.
      */
     public void addCosts(ClaimCost other) {
-      this.cost = this.cost.add(other.cost);
-      this.copayPaidByPatient = this.copayPaidByPatient.add(other.copayPaidByPatient);
-      this.deductiblePaidByPatient
-          = this.deductiblePaidByPatient.add(other.deductiblePaidByPatient);
-      this.adjustment = this.adjustment.add(other.adjustment);
-      this.coinsurancePaidByPayer = this.coinsurancePaidByPayer.add(other.coinsurancePaidByPayer);
-      this.paidByPayer = this.paidByPayer.add(other.paidByPayer);
-      this.paidBySecondaryPayer = this.paidBySecondaryPayer.add(other.paidBySecondaryPayer);
-      this.patientOutOfPocket = this.patientOutOfPocket.add(other.patientOutOfPocket);
+      addCents(other);
+      publish();
+    }
+
+    void addCents(ClaimCost other) {
+      this.costCents += other.costCents;
+      this.copayCents += other.copayCents;
+      this.deductibleCents += other.deductibleCents;
+      this.adjustmentCents += other.adjustmentCents;
+      this.coinsuranceCents += other.coinsuranceCents;
+      this.paidByPayerCents += other.paidByPayerCents;
+      this.secondaryPayerCents += other.secondaryPayerCents;
+      this.outOfPocketCents += other.outOfPocketCents;
+    }
+
+    /**
+     * Update the BigDecimal costs from the costs in cents.
+     */
+    void publish() {
+      this.cost = fromCents(costCents);
+      this.copayPaidByPatient = fromCents(copayCents);
+      this.deductiblePaidByPatient = fromCents(deductibleCents);
+      this.adjustment = fromCents(adjustmentCents);
+      this.coinsurancePaidByPayer = fromCents(coinsuranceCents);
+      this.paidByPayer = fromCents(paidByPayerCents);
+      this.paidBySecondaryPayer = fromCents(secondaryPayerCents);
+      this.patientOutOfPocket = fromCents(outOfPocketCents);
     }
 
     /**
@@ -146,13 +231,16 @@ public class Claim implements Serializable {
      */
     private void assignCosts(PlanRecord planRecord) {
       reset();
+      // the payer adjustment reads the cost of the entry
       this.cost = this.entry.getCost();
-      BigDecimal remainingBalance = this.cost;
+      costCents = toCents(this.cost);
+      long remainingBalance = costCents;
 
       if (!plan.coversService(this.entry)) {
         plan.incrementUncoveredEntries(this.entry);
         // Payer does not cover care
-        this.patientOutOfPocket = remainingBalance;
+        outOfPocketCents = remainingBalance;
+        publish();
         return;
       }
 
@@ -160,56 +248,49 @@ public class Claim implements Serializable {
       // Apply copay to Encounters and Medication claims only
       if ((this.entry instanceof HealthRecord.Encounter)
           || (this.entry instanceof HealthRecord.Medication)) {
-        this.copayPaidByPatient = plan.determineCopay(this.entry);
-        if (this.copayPaidByPatient.compareTo(remainingBalance) > 0) {
-          this.copayPaidByPatient = remainingBalance;
-        }
-        remainingBalance = remainingBalance.subtract(this.copayPaidByPatient);
+        copayCents = Math.min(toCents(plan.determineCopay(this.entry)), remainingBalance);
+        remainingBalance -= copayCents;
       }
       // Check if the patient has remaining deductible
-      if (remainingBalance.compareTo(Claim.ZERO_CENTS) > 0 && planRecord.remainingDeductible
-              .compareTo(Claim.ZERO_CENTS) > 0) {
-        if (planRecord.remainingDeductible.compareTo(remainingBalance) >= 0) {
-          this.deductiblePaidByPatient = remainingBalance;
-        } else {
-          this.deductiblePaidByPatient = planRecord.remainingDeductible;
+      if (remainingBalance > 0L) {
+        long remainingDeductible = toCents(planRecord.remainingDeductible);
+        if (remainingDeductible > 0L) {
+          deductibleCents = Math.min(remainingDeductible, remainingBalance);
+          remainingBalance -= deductibleCents;
+          planRecord.remainingDeductible = fromCents(remainingDeductible - deductibleCents);
         }
-        remainingBalance = remainingBalance.subtract(this.deductiblePaidByPatient);
-        planRecord.remainingDeductible = planRecord.remainingDeductible
-            .subtract(this.deductiblePaidByPatient);
       }
-      if (remainingBalance.compareTo(Claim.ZERO_CENTS) > 0) {
+      if (remainingBalance > 0L) {
         // Check if the payer has an adjustment
-        BigDecimal adjustment = plan.adjustClaim(this, person);
-        remainingBalance = remainingBalance.subtract(adjustment);
+        adjustmentCents = toCents(plan.adjustClaim(this, person));
+        remainingBalance -= adjustmentCents;
       }
-      if (remainingBalance.compareTo(Claim.ZERO_CENTS) > 0) {
+      if (remainingBalance > 0L) {
         // Check if the patient has coinsurance
         BigDecimal patientCoinsurance = plan.getPatientCoinsurance();
         if (patientCoinsurance.compareTo(Claim.ZERO_CENTS) > 0) {
-          BigDecimal payerCoinsurance = BigDecimal.ONE.subtract(plan.getPatientCoinsurance());
+          BigDecimal payerCoinsurance = BigDecimal.ONE.subtract(patientCoinsurance);
           // Payer covers some
-          this.coinsurancePaidByPayer = payerCoinsurance.multiply(remainingBalance)
-                  .setScale(2, RoundingMode.HALF_EVEN);
-          remainingBalance = remainingBalance.subtract(this.coinsurancePaidByPayer);
+          coinsuranceCents = multiplyCents(payerCoinsurance, remainingBalance);
+          remainingBalance -= coinsuranceCents;
         } else {
           // Payer covers all
-          this.paidByPayer = remainingBalance;
-          remainingBalance = remainingBalance.subtract(this.paidByPayer);
+          paidByPayerCents = remainingBalance;
+          remainingBalance = 0L;
         }
       }
-      if (remainingBalance.compareTo(Claim.ZERO_CENTS) > 0) {
+      if (remainingBalance > 0L) {
         // If secondary insurance, payer covers remainder, not patient.
         if (!secondaryPlan.isNoInsurance()) {
-          this.paidBySecondaryPayer = remainingBalance;
-          remainingBalance = remainingBalance.subtract(this.paidBySecondaryPayer);
+          secondaryPayerCents = remainingBalance;
+          remainingBalance = 0L;
         }
       }
-      if (remainingBalance.compareTo(Claim.ZERO_CENTS) > 0) {
+      if (remainingBalance > 0L) {
         // Patient amount
-        this.patientOutOfPocket = remainingBalance;
-        remainingBalance = remainingBalance.subtract(this.patientOutOfPocket);
+        outOfPocketCents = remainingBalance;
       }
+      publish();
     }
   }
 
@@ -276,11 +357,12 @@ public class Claim implements Serializable {
     }
     mainEntry.assignCosts(planRecord);
     totals = new ClaimEntry(mainEntry.entry);
-    totals.addCosts(mainEntry);
+    totals.addCents(mainEntry);
     for (ClaimEntry item : items) {
       item.assignCosts(planRecord);
-      totals.addCosts(item);
+      totals.addCents(item);
     }
+    totals.publish();
 
     planRecord.incrementPatientExpenses(getTotalPatientCost());
     planRecord.incrementPrimaryCoverage(getTotalCoveredCost());
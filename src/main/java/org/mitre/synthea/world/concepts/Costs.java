@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.RandomNumberGenerator;
@@ -61,32 +62,108 @@ public class Costs {
   private static final Map<String, Double> ENCOUNTER_ADJUSTMENT_FACTORS =
       parseEncounterAdjustmentFactors("costs/encounters_adjustments.csv");
 
-  private static double getLocationAdjustmentFactor(Person person, Map<String,Double> table) {
-    // Retrieve the location adjustment factor.
-    double locationAdjustment = 1.0;
-    if (person != null && person.attributes.containsKey(Person.STATE)) {
-      String state = (String) person.attributes.get(Person.STATE);
-      state = Location.getAbbreviation(state);
-      if (table.containsKey(state)) {
-        locationAdjustment = (double) table.get(state);
+  /** The kinds of entry with a cost, each with its own catalog and adjustment factors. */
+  private enum Category {
+    PROCEDURE, MEDICATION, ENCOUNTER, IMMUNIZATION, DEVICE, SUPPLY, LAB, NONE
+  }
+
+  /** The category of each class of entry, resolved once per class instead of per entry. */
+  private static final ClassValue<Category> CATEGORIES = new ClassValue<Category>() {
+    @Override
+    protected Category computeValue(Class<?> type) {
+      if (HealthRecord.Procedure.class.isAssignableFrom(type)) {
+        return Category.PROCEDURE;
+      } else if (HealthRecord.Medication.class.isAssignableFrom(type)) {
+        return Category.MEDICATION;
+      } else if (HealthRecord.Encounter.class.isAssignableFrom(type)) {
+        return Category.ENCOUNTER;
+      } else if (HealthRecord.Immunization.class.isAssignableFrom(type)) {
+        return Category.IMMUNIZATION;
+      } else if (HealthRecord.Device.class.isAssignableFrom(type)) {
+        return Category.DEVICE;
+      } else if (HealthRecord.Supply.class.isAssignableFrom(type)) {
+        return Category.SUPPLY;
+      } else if (HealthRecord.Report.class.isAssignableFrom(type)) {
+        return Category.LAB;
+      }
+      return Category.NONE;
+    }
+  };
+
+  /** Whether each procedure description mentions dialysis. */
+  private static final Map<String, Boolean> DIALYSIS_DISPLAYS =
+      new ConcurrentHashMap<String, Boolean>();
+
+  /** Adjustment factors of each state, keyed by the full state name. */
+  private static final Map<String, StateAdjustments> STATE_ADJUSTMENTS =
+      new ConcurrentHashMap<String, StateAdjustments>();
+
+  /**
+   * The location adjustment factors of a single state, joined from the adjustment CSVs
+   * once per state, so costing an entry does not have to build keys or look up the state
+   * abbreviation.
+   */
+  private static final class StateAdjustments {
+    private static final StateAdjustments NONE = new StateAdjustments(null);
+
+    private final double procedure;
+    private final double dialysis;
+    private final double medication;
+    private final double device;
+    private final double supply;
+    private final double lab;
+    /** Encounter factors keyed by the lower case encounter type. */
+    private final Map<String, Double> encounters;
+
+    private StateAdjustments(String abbreviation) {
+      this.procedure = factor(PROCEDURES_ADJUSTMENT_FACTORS, abbreviation);
+      this.dialysis = factor(DIALYSIS_ADJUSTMENT_FACTORS, abbreviation);
+      this.medication = factor(MEDICATION_ADJUSTMENT_FACTORS, abbreviation);
+      this.device = factor(DEVICE_ADJUSTMENT_FACTORS, abbreviation);
+      this.supply = factor(SUPPLY_ADJUSTMENT_FACTORS, abbreviation);
+      this.lab = factor(LAB_ADJUSTMENT_FACTORS, abbreviation);
+      this.encounters = new HashMap<String, Double>();
+      if (abbreviation != null) {
+        String prefix = abbreviation + "|";
+        for (Map.Entry<String, Double> factor : ENCOUNTER_ADJUSTMENT_FACTORS.entrySet()) {
+          if (factor.getKey().startsWith(prefix)) {
+            this.encounters.put(factor.getKey().substring(prefix.length()), factor.getValue());
+          }
+        }
       }
     }
-    return locationAdjustment;
+
+    private static double factor(Map<String, Double> table, String abbreviation) {
+      Double factor = abbreviation == null ? null : table.get(abbreviation);
+      return factor == null ? 1.0 : factor;
+    }
+
+    private double encounter(String type) {
+      Double factor = encounters.get(type);
+      return factor == null ? 1.0 : factor;
+    }
   }
 
-  private static double getEncounterAdjustmentFactor(Person person, HealthRecord.Encounter entry) {
-    // Retrieve the location adjustment factor.
-    double locationAdjustment = 1.0;
-    if (person != null && person.attributes.containsKey(Person.STATE)) {
-      String state = (String) person.attributes.get(Person.STATE);
-      state = Location.getAbbreviation(state);
-
-      String key = state + "|" + entry.type;
-      if (ENCOUNTER_ADJUSTMENT_FACTORS.containsKey(key)) {
-        locationAdjustment = (double) ENCOUNTER_ADJUSTMENT_FACTORS.get(key);
+  private static StateAdjustments getStateAdjustments(Person person) {
+    if (person == null) {
+      return StateAdjustments.NONE;
+    }
+    String state = (String) person.attributes.get(Person.STATE);
+    if (state == null) {
+      return StateAdjustments.NONE;
+    }
+    return STATE_ADJUSTMENTS.computeIfAbsent(state,
+        s -> new StateAdjustments(Location.getAbbreviation(s)));
+  }
+
+  private static boolean isDialysis(Entry entry) {
+    for (Code code : entry.codes) {
+      if (DIALYSIS_DISPLAYS.computeIfAbsent(code.display,
+          display -> display.toLowerCase().contains("dialysis"))) {
+        return true;
       }
     }
-    return locationAdjustment;
+    return false;
   }
 
   /**
@@ -97,59 +174,62 @@ public class Costs {
    * @return the total cost of the entry.
    */
   public static double determineCostOfEntry(Entry entry, Person person) {
-
-    // Retrieve the location adjustment factor.
-    double locationAdjustment = 1.0;
-    double defaultCost = 0.0;
-    Map<String, CostData> costs = null;
-
-    if (entry instanceof HealthRecord.Procedure) {
-      costs = PROCEDURE_COSTS;
-      defaultCost = DEFAULT_PROCEDURE_COST;
-      boolean dialysis = false;
-      for (Code code : entry.codes) {
-        if (code.display.toLowerCase().contains("dialysis")) {
-          dialysis = true;
-        }
-      }
-      if (dialysis) {
-        locationAdjustment = getLocationAdjustmentFactor(person, DIALYSIS_ADJUSTMENT_FACTORS);
-      } else {
-        locationAdjustment = getLocationAdjustmentFactor(person, PROCEDURES_ADJUSTMENT_FACTORS);
-      }
-    } else if (entry instanceof HealthRecord.Medication) {
-      costs = MEDICATION_COSTS;
-      defaultCost = DEFAULT_MEDICATION_COST;
-      locationAdjustment = getLocationAdjustmentFactor(person, MEDICATION_ADJUSTMENT_FACTORS);
-    } else if (entry instanceof HealthRecord.Encounter) {
-      costs = ENCOUNTER_COSTS;
-      defaultCost = DEFAULT_ENCOUNTER_COST;
-      locationAdjustment = getEncounterAdjustmentFactor(person, (HealthRecord.Encounter) entry);
-    } else if (entry instanceof HealthRecord.Immunization) {
-      costs = IMMUNIZATION_COSTS;
-      defaultCost = DEFAULT_IMMUNIZATION_COST;
-    } else if (entry instanceof HealthRecord.Device) {
-      costs = DEVICE_COSTS;
-      defaultCost = DEFAULT_DEVICE_COST;
-      locationAdjustment = getLocationAdjustmentFactor(person, DEVICE_ADJUSTMENT_FACTORS);
-    } else if (entry instanceof HealthRecord.Supply) {
-      costs = SUPPLY_COSTS;
-      defaultCost = DEFAULT_SUPPLY_COST;
-      locationAdjustment = getLocationAdjustmentFactor(person, SUPPLY_ADJUSTMENT_FACTORS);
-    } else if (entry instanceof HealthRecord.Report) {
-      defaultCost = DEFAULT_LAB_COST;
-      locationAdjustment = getLocationAdjustmentFactor(person, LAB_ADJUSTMENT_FACTORS);
-    } else {
+    Category category = CATEGORIES.get(entry.getClass());
+    if (category == Category.NONE) {
       // Not an entry type that has an associated cost.
       return 0.0;
     }
+    StateAdjustments adjustments = getStateAdjustments(person);
+
+    // Retrieve the location adjustment factor.
+    double locationAdjustment;
+    double defaultCost;
+    Map<String, CostData> costs;
+    switch (category) {
+      case PROCEDURE:
+        costs = PROCEDURE_COSTS;
+        defaultCost = DEFAULT_PROCEDURE_COST;
+        locationAdjustment = isDialysis(entry) ? adjustments.dialysis : adjustments.procedure;
+        break;
+      case MEDICATION:
+        costs = MEDICATION_COSTS;
+        defaultCost = DEFAULT_MEDICATION_COST;
+        locationAdjustment = adjustments.medication;
+        break;
+      case ENCOUNTER:
+        costs = ENCOUNTER_COSTS;
+        defaultCost = DEFAULT_ENCOUNTER_COST;
+        locationAdjustment = adjustments.encounter(entry.type);
+        break;
+      case IMMUNIZATION:
+        costs = IMMUNIZATION_COSTS;
+        defaultCost = DEFAULT_IMMUNIZATION_COST;
+        locationAdjustment = 1.0;
+        break;
+      case DEVICE:
+        costs = DEVICE_COSTS;
+        defaultCost = DEFAULT_DEVICE_COST;
+        locationAdjustment = adjustments.device;
+        break;
+      case SUPPLY:
+        costs = SUPPLY_COSTS;
+        defaultCost = DEFAULT_SUPPLY_COST;
+        locationAdjustment = adjustments.supply;
+        break;
+      default:
+        costs = null;
+        defaultCost = DEFAULT_LAB_COST;
+        locationAdjustment = adjustments.lab;
+        break;
+    }
 
-    String code = entry.codes.get(0).code;;
+    String code = entry.codes.get(0).code;
     // Retrieve the base cost based on the code.
+    CostData costData = costs == null ? null : costs.get(code);
     double baseCost;
-    if (costs != null && costs.containsKey(code)) {
-      baseCost = costs.get(code).chooseCost(person);
-      if (entry instanceof HealthRecord.Medication) {
+    if (costData != null) {
+      baseCost = costData.chooseCost(person);
+      if (category == Category.MEDICATION) {
         // baseCost for medications is PER UNIT, so need to multiply by quantity
         HealthRecord.Medication rx = (HealthRecord.Medication) entry;
         baseCost = baseCost * rx.getQuantity();
@@ -264,13 +344,7 @@ public class Costs {
    * @return true if the entry has a cost; false otherwise
    */
   public static boolean hasCost(Entry entry) {
-    return (entry instanceof HealthRecord.Procedure)
-        || (entry instanceof HealthRecord.Medication)
-        || (entry instanceof HealthRecord.Encounter)
-        || (entry instanceof HealthRecord.Immunization)
-        || (entry instanceof HealthRecord.Report)
-        || (entry instanceof HealthRecord.Device)
-        || (entry instanceof HealthRecord.Supply);
+    return entry != null && CATEGORIES.get(entry.getClass()) != Category.NONE;
   }
 
   /**
@@ -685,10 +685,19 @@ public class HealthRecord implements Serializable {
      */
     public Observation addObservation(long time, String type, Object value) {
       Observation observation = new Observation(time, type, value);
-      this.observations.add(observation);
+      addObservation(observation);
       return observation;
     }
 
+    /**
+     * Add an existing observation to the encounter, e.g. one copied from another record.
+     * @param observation The observation to add
+     */
+    public void addObservation(Observation observation) {
+      this.observations.add(observation);
+      record.indexObservation(this, observation.type);
+    }
+
     /**
      * Add an observation to the encounter and uses the type to set the first code.
      * @param time The time of the observation
@@ -699,7 +708,7 @@ public class HealthRecord implements Serializable {
      */
     public Observation addObservation(long time, String type, Object value, String display) {
       Observation observation = new Observation(time, type, value);
-      this.observations.add(observation);
+      addObservation(observation);
       observation.codes.add(new Code("LOINC", type, display));
       return observation;
     }
@@ -832,6 +841,42 @@ public class HealthRecord implements Serializable {
   public Long death;
   /** The person's demographics at the time of record creation. */
   public Map<String, Object> demographicsAtRecordCreation;
+  /**
+   * Index from observation type to the latest encounter containing an observation of that type,
+   * so that getLatestObservation doesn't need to scan every encounter. Null when the index has
+   * been invalidated and needs to be rebuilt.
+   */
+  @JSONSkip
+  private Map<String, Encounter> latestObservationIndex;
+  /**
+   * Index from EncounterType ordinal to the latest encounter of that type, so that looking up
+   * the last wellness encounter doesn't need to scan every encounter. Null when the encounter
+   * indexes have been invalidated and need to be rebuilt. Encounters added to the list since
+   * the indexes were last used are indexed on demand.
+   */
+  @JSONSkip
+  private Encounter[] latestEncounterByType;
+  /** The number of encounters, from the start of the list, covered by the encounter indexes. */
+  @JSONSkip
+  private int indexedEncounters;
+  /** Whether the indexed encounters are in order of start time, so they can be searched. */
+  @JSONSkip
+  private boolean encountersInStartOrder;
+  /** The latest stop time of the indexed encounters that have ended. */
+  @JSONSkip
+  private long latestEndedEncounterStop;
+  /** The indexed encounters that had not ended, the last time they were checked. */
+  @JSONSkip
+  private List<Encounter> unendedEncounters;
+
+  /** The encounter types, by the string used as the type of an encounter. */
+  private static final Map<String, EncounterType> ENCOUNTER_TYPES = new HashMap<>();
+
+  static {
+    for (EncounterType type : EncounterType.values()) {
+      ENCOUNTER_TYPES.put(type.toString(), type);
+    }
+  }
 
   /**
    * Construct a health record for the supplied person.
@@ -912,13 +957,32 @@ public class HealthRecord implements Serializable {
           EncounterModule.WELL_CHILD_VISIT, EncounterModule.NAME);
       encounter.name = "First Wellness";
     }
-    for (int i = encounters.size() - 1; i >= 0; i--) {
-      encounter = encounters.get(i);
-      if (encounter.start <= time) {
-        return encounter;
+    indexEncounters();
+    if (!encountersInStartOrder) {
+      for (int i = encounters.size() - 1; i >= 0; i--) {
+        encounter = encounters.get(i);
+        if (encounter.start <= time) {
+          return encounter;
+        }
+      }
+      return encounter;
+    }
+    // binary search for the last encounter started by the given time
+    int low = 0;
+    int high = encounters.size() - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (encounters.get(middle).start <= time) {
+        low = middle + 1;
+      } else {
+        high = middle - 1;
       }
     }
-    return encounter;
+    if (high >= 0) {
+      return encounters.get(high);
+    }
+    // none have started yet, so the first one
+    return encounters.isEmpty() ? encounter : encounters.get(0);
   }
 
   /**
@@ -940,13 +1004,17 @@ public class HealthRecord implements Serializable {
    * @return the Encounter or null if it does not exist
    */
   public Encounter lastWellnessEncounter() {
-    for (int i = encounters.size() - 1; i >= 0; i--) {
-      Encounter encounter = encounters.get(i);
-      if (encounter.type.equals(EncounterType.WELLNESS.toString())) {
-        return encounter;
-      }
-    }
-    return null;
+    return lastEncounter(EncounterType.WELLNESS);
+  }
+
+  /**
+   * Return the last encounter of the given type for the individual.
+   * @param type the type of encounter
+   * @return the Encounter or null if it does not exist
+   */
+  public Encounter lastEncounter(EncounterType type) {
+    indexEncounters();
+    return latestEncounterByType[type.ordinal()];
   }
 
   /**
@@ -977,26 +1045,135 @@ public class HealthRecord implements Serializable {
     int count = numberOfObservations;
     if (encounter.observations.size() >= numberOfObservations) {
       while (count > 0) {
-        observation.observations.add(encounter.observations.remove(
-            encounter.observations.size() - 1));
+        Observation child = encounter.observations.remove(encounter.observations.size() - 1);
+        observation.observations.add(child);
+        if (latestObservationIndex != null
+            && latestObservationIndex.get(child.type) == encounter
+            && encounter.findObservation(child.type) == null) {
+          // the child is no longer directly in the encounter, so look further back
+          Encounter previous = scanForLatestObservation(child.type);
+          if (previous == null) {
+            latestObservationIndex.remove(child.type);
+          } else {
+            latestObservationIndex.put(child.type, previous);
+          }
+        }
         count--;
       }
     }
-    encounter.observations.add(observation);
+    encounter.addObservation(observation);
     return observation;
   }
 
   /**
    * Get the latest observation of the specified type or null if none exists.
+   * The latest observation is the first one of the given type in the last encounter
+   * that contains any.
    * @param type the type of observation.
    * @return the latest observation or null if none exists.
    */
   public Observation getLatestObservation(String type) {
+    if (latestObservationIndex == null) {
+      rebuildObservationIndex();
+    }
+    Encounter encounter = latestObservationIndex.get(type);
+    return (encounter == null) ? null : encounter.findObservation(type);
+  }
+
+  /**
+   * Discard any cached lookup indexes on this record. This must be called after the
+   * encounters, or the entries within them, have been modified other than through the methods
+   * of this class (for example, when a record is filtered for export).
+   */
+  public void invalidateIndexes() {
+    latestObservationIndex = null;
+    latestEncounterByType = null;
+  }
+
+  /**
+   * Bring the encounter indexes up to date with the encounters added since they were last used,
+   * rebuilding them if they have been invalidated.
+   */
+  private void indexEncounters() {
+    if (latestEncounterByType == null || indexedEncounters > encounters.size()) {
+      latestEncounterByType = new Encounter[EncounterType.values().length];
+      indexedEncounters = 0;
+      encountersInStartOrder = true;
+      latestEndedEncounterStop = Long.MIN_VALUE;
+      unendedEncounters = new ArrayList<Encounter>();
+    }
+    while (indexedEncounters < encounters.size()) {
+      Encounter encounter = encounters.get(indexedEncounters);
+      EncounterType type = ENCOUNTER_TYPES.get(encounter.type);
+      if (type != null) {
+        latestEncounterByType[type.ordinal()] = encounter;
+      }
+      if (indexedEncounters > 0 && encounter.start < encounters.get(indexedEncounters - 1).start) {
+        // encounters can start out of order when a module rewinds time
+        encountersInStartOrder = false;
+      }
+      unendedEncounters.add(encounter);
+      indexedEncounters++;
+    }
+    // an encounter's stop time is final once it has ended
+    unendedEncounters.removeIf(encounter -> {
+      if (encounter.ended) {
+        latestEndedEncounterStop = Math.max(latestEndedEncounterStop, encounter.stop);
+      }
+      return encounter.ended;
+    });
+  }
+
+  /**
+   * Update the observation index after an observation of the given type was added to the
+   * given encounter.
+   * @param encounter the encounter the observation was added to.
+   * @param type the type of the observation.
+   */
+  private void indexObservation(Encounter encounter, String type) {
+    if (latestObservationIndex == null) {
+      // will be rebuilt on demand
+      return;
+    }
+    Encounter latest = latestObservationIndex.get(type);
+    if (latest == encounter) {
+      // an earlier observation in the same encounter takes precedence
+      return;
+    }
+    int last = encounters.size() - 1;
+    if (last >= 0 && encounters.get(last) == encounter) {
+      // the common case, the observation was added to the latest encounter
+      latestObservationIndex.put(type, encounter);
+      return;
+    }
+    // observations can be added to an older encounter when a module rewinds time
+    int index = encounters.lastIndexOf(encounter);
+    if (index >= 0 && (latest == null || index > encounters.lastIndexOf(latest))) {
+      latestObservationIndex.put(type, encounter);
+    }
+  }
+
+  private void rebuildObservationIndex() {
+    latestObservationIndex = new HashMap<String, Encounter>();
     for (int i = encounters.size() - 1; i >= 0; i--) {
       Encounter encounter = encounters.get(i);
-      Observation obs = encounter.findObservation(type);
-      if (obs != null) {
-        return obs;
+      for (Observation observation : encounter.observations) {
+        latestObservationIndex.putIfAbsent(observation.type, encounter);
+      }
+    }
+  }
+
+  /**
+   * Find the latest encounter containing an observation of the given type, by scanning backwards
+   * through every encounter in the record.
+   * @param type the type of observation.
+   * @return the latest encounter containing an observation of the type, or null if none exists.
+   */
+  Encounter scanForLatestObservation(String type) {
+    for (int i = encounters.size() - 1; i >= 0; i--) {
+      Encounter encounter = encounters.get(i);
+      if (encounter.findObservation(type) != null) {
+        return encounter;
       }
     }
     return null;
@@ -1265,9 +1442,9 @@ public class HealthRecord implements Serializable {
    * @param type the type of the encounter.
    */
   public void encounterEnd(long time, EncounterType type) {
-
-    for (int i = encounters.size() - 1; i >= 0; i--) {
-      Encounter encounter = encounters.get(i);
+    indexEncounters();
+    for (int i = unendedEncounters.size() - 1; i >= 0; i--) {
+      Encounter encounter = unendedEncounters.get(i);
       EncounterType encounterType = EncounterType.fromString(encounter.type);
       if (encounterType == type && !encounter.ended) {
         encounter.end(time);
@@ -1279,8 +1456,17 @@ public class HealthRecord implements Serializable {
     }
   }
 
+  /**
+   * Return the latest stop time of the encounters in this record.
+   * @return the time, or Long.MIN_VALUE if there are no encounters.
+   */
   public long lastEncounterTime() {
-    return encounters.stream().mapToLong(e -> e.stop).max().orElse(Long.MIN_VALUE);
+    indexEncounters();
+    long time = latestEndedEncounterStop;
+    for (Encounter encounter : unendedEncounters) {
+      time = Math.max(time, encounter.stop);
+    }
+    return time;
   }
 
   /**
@@ -10,6 +10,7 @@ import java.util.Map;
 
 import org.apache.commons.math3.distribution.EnumeratedDistribution;
 import org.apache.commons.math3.util.Pair;
+import org.mitre.synthea.helpers.AliasSampler;
 import org.mitre.synthea.helpers.Utilities;
 
 /**
@@ -32,6 +33,12 @@ public class TelemedicineConfig {
   private EnumeratedDistribution<String> telemedHighEmergency;
   private EnumeratedDistribution<String> telemedTypicalEmergency;
 
+  // Lock free samplers of the same distributions, for use during simulation
+  private AliasSampler<String> preTelemedHighEmergencySampler;
+  private AliasSampler<String> preTelemedTypicalEmergencySampler;
+  private AliasSampler<String> telemedHighEmergencySampler;
+  private AliasSampler<String> telemedTypicalEmergencySampler;
+
   /**
    * A class to hold the transition probabilities of a given scenario. A scenario could be a person
    * with a high ED utilization insurance plan and in the telemedicine era.
@@ -67,6 +74,25 @@ public class TelemedicineConfig {
       }
       return new EnumeratedDistribution<>(pmf);
     }
+
+    /**
+     * Turn the configuration information into an AliasSampler, which selects transitions in the
+     * same proportions as the EnumeratedDistribution, using the randomness of the caller.
+     * @return A fully populated AliasSampler
+     */
+    public AliasSampler<String> toAliasSampler() {
+      List<String> values = new ArrayList<>();
+      List<Double> weights = new ArrayList<>();
+      values.add(AMBULATORY);
+      weights.add(ambulatory);
+      values.add(EMERGENCY);
+      weights.add(emergency);
+      if (telemedicine != 0) {
+        values.add(TELEMEDICINE);
+        weights.add(telemedicine);
+      }
+      return new AliasSampler<>(values, weights.stream().mapToDouble(w -> w).toArray());
+    }
   }
 
   public long getTelemedicineStartTime() {
@@ -93,6 +119,22 @@ public class TelemedicineConfig {
     return telemedTypicalEmergency;
   }
 
+  public AliasSampler<String> getPreTelemedHighEmergencySampler() {
+    return preTelemedHighEmergencySampler;
+  }
+
+  public AliasSampler<String> getPreTelemedTypicalEmergencySampler() {
+    return preTelemedTypicalEmergencySampler;
+  }
+
+  public AliasSampler<String> getTelemedHighEmergencySampler() {
+    return telemedHighEmergencySampler;
+  }
+
+  public AliasSampler<String> getTelemedTypicalEmergencySampler() {
+    return telemedTypicalEmergencySampler;
+  }
+
   /**
    * Create an instance of TelemedicineConfig by reading it in from the JSON file in resources.
    * @return A fully populated TelemedicineConfig object
@@ -116,18 +158,22 @@ public class TelemedicineConfig {
       TelemedicineProbabilities preHigh =
               new TelemedicineProbabilities(pre.get("high_emergency_distribution"));
       config.preTelemedHighEmergency = preHigh.toEnumeratedDistribution();
+      config.preTelemedHighEmergencySampler = preHigh.toAliasSampler();
       TelemedicineProbabilities preTypical =
               new TelemedicineProbabilities(pre.get("typical_emergency_distribution"));
       config.preTelemedTypicalEmergency = preTypical.toEnumeratedDistribution();
+      config.preTelemedTypicalEmergencySampler = preTypical.toAliasSampler();
 
       Map<String, Map<String, Double>> telemedicine =
               (Map<String, Map<String, Double>>) configHash.get("during_telemedicine");
       TelemedicineProbabilities telemedicineHigh =
               new TelemedicineProbabilities(telemedicine.get("high_emergency_distribution"));
       config.telemedHighEmergency = telemedicineHigh.toEnumeratedDistribution();
+      config.telemedHighEmergencySampler = telemedicineHigh.toAliasSampler();
       TelemedicineProbabilities telemedicineTypical =
               new TelemedicineProbabilities(telemedicine.get("typical_emergency_distribution"));
       config.telemedTypicalEmergency = telemedicineTypical.toEnumeratedDistribution();
+      config.telemedTypicalEmergencySampler = telemedicineTypical.toAliasSampler();
 
     } catch (Exception e) {
       System.err.println("ERROR: unable to load json: " + filename);
@@ -1,9 +1,12 @@
 package org.mitre.synthea.world.concepts.healthinsurance;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.List;
 
 import org.mitre.synthea.export.JSONSkip;
@@ -108,7 +111,15 @@ public class CoverageRecord implements Serializable {
 
   @JSONSkip
   private Person person;
+  /**
+   * Plans in the order they were set. Each new plan stops the previous one, so as long as
+   * plans are set in time order, the history is sorted by start time and no two plans overlap.
+   */
   private List<PlanRecord> planHistory;
+  /** Whether planHistory is sorted and non-overlapping, so it can be binary searched. */
+  private transient boolean ordered = true;
+  /** The plan most recently found by getPlanRecordAtTime, checked first on the next call. */
+  private transient PlanRecord currentPlanRecord;
 
   /**
    * Create a new CoverageRecord for the given Person.
@@ -144,6 +155,10 @@ public class CoverageRecord implements Serializable {
     } else {
       // Set the new stop date of the last insurance plan to prevent any gaps.
       PlanRecord planRecord = this.getLastPlanRecord();
+      if (time < planRecord.start) {
+        // the earlier plans now overlap the new one, so fall back to searching in order
+        this.ordered = false;
+      }
       planRecord.updateStopTime(time);
     }
 
@@ -178,14 +193,66 @@ public class CoverageRecord implements Serializable {
    * @return the active plan.
    */
   public PlanRecord getPlanRecordAtTime(long time) {
-    for (PlanRecord planRecord : this.planHistory) {
-      if (planRecord.start <= time && time < planRecord.stop) {
+    if (!this.ordered) {
+      for (PlanRecord planRecord : this.planHistory) {
+        if (planRecord.start <= time && time < planRecord.stop) {
+          return planRecord;
+        }
+      }
+      return null;
+    }
+    PlanRecord planRecord = this.currentPlanRecord;
+    if (planRecord != null && planRecord.start <= time && time < planRecord.stop) {
+      return planRecord;
+    }
+    int index = countPlansStartedBy(time) - 1;
+    if (index >= 0) {
+      planRecord = this.planHistory.get(index);
+      if (time < planRecord.stop) {
+        this.currentPlanRecord = planRecord;
         return planRecord;
       }
     }
     return null;
   }
 
+  /**
+   * Get the plans that started at or before a given time, ex. to export them.
+   * @param time the time.
+   * @return the plans, in the order they were set.
+   */
+  public List<PlanRecord> getPlanHistoryUntil(long time) {
+    if (!this.ordered) {
+      List<PlanRecord> plans = new ArrayList<PlanRecord>();
+      for (PlanRecord planRecord : this.planHistory) {
+        if (planRecord.start <= time) {
+          plans.add(planRecord);
+        }
+      }
+      return plans;
+    }
+    return Collections.unmodifiableList(this.planHistory.subList(0, countPlansStartedBy(time)));
+  }
+
+  /**
+   * Binary search the ordered plan history.
+   * @param time the time.
+   * @return the number of plans that started at or before the time.
+   */
+  private int countPlansStartedBy(long time) {
+    int low = 0;
+    int high = this.planHistory.size();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (this.planHistory.get(middle).start <= time) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
   /**
    * Returns this coverage record history's record of the plan at the given time.
    * @param time  The time to get the person's plan at.
@@ -354,6 +421,18 @@ public class CoverageRecord implements Serializable {
     return ownerships;
   }
 
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    this.ordered = true;
+    for (int i = 1; i < this.planHistory.size(); i++) {
+      PlanRecord previous = this.planHistory.get(i - 1);
+      PlanRecord next = this.planHistory.get(i);
+      if (next.start < previous.start || next.start < previous.stop) {
+        this.ordered = false;
+      }
+    }
+  }
+
   /**
    * Returns the amount of income the person has remaining at the given time.
    * @param time  The time to check for.
@@ -31,7 +31,8 @@ public class Demographics implements Comparable<Demographics>, Serializable {
   public String state;
   public String county;
   public Map<String, Double> ages;
-  private RandomCollection<String> ageDistribution;
+  /** Age ranges, as {low, high} in years, parsed once rather than on every draw. */
+  private RandomCollection<int[]> ageDistribution;
   public Map<String, Double> gender;
   private RandomCollection<String> genderDistribution;
   public Map<String, Double> race;
@@ -39,7 +40,8 @@ public class Demographics implements Comparable<Demographics>, Serializable {
   public double ethnicity;
   private RandomCollection<String> ethnicityDistribution;
   public Map<String, Double> income;
-  private RandomCollection<String> incomeDistribution;
+  /** Income ranges, as {low, high} in dollars. */
+  private RandomCollection<int[]> incomeDistribution;
   public Map<String, Double> education;
   private RandomCollection<String> educationDistribution;
 
@@ -51,7 +53,7 @@ public class Demographics implements Comparable<Demographics>, Serializable {
   public int pickAge(RandomNumberGenerator random) {
     // lazy-load in case this randomcollection isn't necessary
     if (ageDistribution == null) {
-      ageDistribution = buildRandomCollectionFromMap(ages);
+      ageDistribution = buildRangeCollectionFromMap(ages, 1);
     }
     /*
      * Sample Age frequency: "ages": { "0..4": 0.03810425832699584, "5..9": 0.04199539968180355,
@@ -59,16 +61,7 @@ public class Demographics implements Comparable<Demographics>, Serializable {
      * 0.040978290790498896 }
      */
 
-    String pickedRange = ageDistribution.next(random);
-
-    String[] range = pickedRange.split("\\.\\.");
-    // TODO this seems like it would benefit from better caching
-    int low = Integer.parseInt(range[0]);
-    int high = Integer.parseInt(range[1]);
-
-    // nextInt is normally exclusive of the top value,
-    // so add 1 to make it inclusive
-    return random.randInt((high - low) + 1) + low;
+    return pickFromRange(ageDistribution.next(random), random);
   }
 
   /**
@@ -242,7 +235,7 @@ public class Demographics implements Comparable<Demographics>, Serializable {
       Map<String, Double> tempIncome = new HashMap<>(income);
       tempIncome.remove("mean");
       tempIncome.remove("median");
-      incomeDistribution = buildRandomCollectionFromMap(tempIncome);
+      incomeDistribution = buildRangeCollectionFromMap(tempIncome, 1000);
     }
 
     /*
@@ -252,15 +245,7 @@ public class Demographics implements Comparable<Demographics>, Serializable {
      * "200..999": 0.054000000000000006 },
      */
 
-    String pickedRange = incomeDistribution.next(random);
-    String[] range = pickedRange.split("\\.\\.");
-    // TODO this seems like it would benefit from better caching
-    int low = Integer.parseInt(range[0]) * 1000;
-    int high = Integer.parseInt(range[1]) * 1000;
-
-    // nextInt is normally exclusive of the top value,
-    // so add 1 to make it inclusive
-    return random.randInt((high - low) + 1) + low;
+    return pickFromRange(incomeDistribution.next(random), random);
   }
 
   /**
@@ -546,6 +531,31 @@ public class Demographics implements Comparable<Demographics>, Serializable {
     return distribution;
   }
 
+  /**
+   * Helper function to convert a map of frequencies of ranges, such as "0..4", into a
+   * RandomCollection of the bounds of each range, multiplied by the given scale.
+   */
+  private static RandomCollection<int[]> buildRangeCollectionFromMap(Map<String, Double> map,
+      int scale) {
+    RandomCollection<int[]> distribution = new RandomCollection<>();
+    for (Map.Entry<String, Double> e : map.entrySet()) {
+      String[] range = e.getKey().split("\\.\\.");
+      int low = Integer.parseInt(range[0]) * scale;
+      int high = Integer.parseInt(range[1]) * scale;
+      distribution.add(e.getValue(), new int[] {low, high});
+    }
+    return distribution;
+  }
+
+  /**
+   * Pick a value uniformly between the bounds of a range, inclusive of both.
+   */
+  private static int pickFromRange(int[] range, RandomNumberGenerator random) {
+    // nextInt is normally exclusive of the top value,
+    // so add 1 to make it inclusive
+    return random.randInt((range[1] - range[0]) + 1) + range[0];
+  }
+
   @Override
   public int compareTo(Demographics o) {
     return (int) (this.population - o.population);
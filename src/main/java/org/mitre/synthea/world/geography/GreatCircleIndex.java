@@ -0,0 +1,178 @@
+package org.mitre.synthea.world.geography;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Immutable k-d tree of items on the surface of the Earth, for nearest neighbor queries by
+ * great-circle (haversine) distance.
+ * Each item is stored as a point on the unit sphere. The straight line distance between two
+ * such points grows with the great-circle distance between them, so the nearest point in
+ * three dimensions is also the nearest along the surface, and one query visits only the
+ * branches that could hold a closer item, however far away the nearest one is.
+ */
+public class GreatCircleIndex<T> {
+  private final Object[] items;
+  /** Unit vector (x, y, z) of each item, in tree order. */
+  private final double[] points;
+  /** Splitting axis of the node at each position. */
+  private final byte[] axes;
+
+  /**
+   * Build the index.
+   * @param items The items to index.
+   * @param lons Longitude of each item, in degrees.
+   * @param lats Latitude of each item, in degrees.
+   */
+  public GreatCircleIndex(List<T> items, double[] lons, double[] lats) {
+    int size = items.size();
+    double[] unsorted = new double[size * 3];
+    for (int i = 0; i < size; i++) {
+      toPoint(lons[i], lats[i], unsorted, i * 3);
+    }
+    Integer[] order = new Integer[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    this.axes = new byte[size];
+    build(order, 0, size, unsorted);
+
+    this.items = new Object[size];
+    this.points = new double[size * 3];
+    for (int i = 0; i < size; i++) {
+      this.items[i] = items.get(order[i]);
+      System.arraycopy(unsorted, order[i] * 3, this.points, i * 3, 3);
+    }
+  }
+
+  /**
+   * Order the subrange so the median along its widest axis sits in the middle, with the
+   * items before it on the lower side, then do the same for both halves.
+   */
+  private void build(Integer[] order, int from, int to, double[] unsorted) {
+    if (to - from < 1) {
+      return;
+    }
+    int axis = widestAxis(order, from, to, unsorted);
+    Arrays.sort(order, from, to,
+        Comparator.comparingDouble((Integer i) -> unsorted[i * 3 + axis]));
+    int mid = (from + to) >>> 1;
+    axes[mid] = (byte) axis;
+    build(order, from, mid, unsorted);
+    build(order, mid + 1, to, unsorted);
+  }
+
+  private static int widestAxis(Integer[] order, int from, int to, double[] unsorted) {
+    int widest = 0;
+    double widestSpread = -1;
+    for (int axis = 0; axis < 3; axis++) {
+      double min = Double.POSITIVE_INFINITY;
+      double max = Double.NEGATIVE_INFINITY;
+      for (int i = from; i < to; i++) {
+        double value = unsorted[order[i] * 3 + axis];
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+      }
+      if (max - min > widestSpread) {
+        widestSpread = max - min;
+        widest = axis;
+      }
+    }
+    return widest;
+  }
+
+  private static void toPoint(double lon, double lat, double[] point, int offset) {
+    double lonRadians = Math.toRadians(lon);
+    double latRadians = Math.toRadians(lat);
+    double cosLat = Math.cos(latRadians);
+    point[offset] = cosLat * Math.cos(lonRadians);
+    point[offset + 1] = cosLat * Math.sin(lonRadians);
+    point[offset + 2] = Math.sin(latRadians);
+  }
+
+  /**
+   * Find the items nearest to a location. Results are accumulated into the given
+   * {@link Neighbors}, so that several indexes can be searched for a single answer.
+   * @param neighbors The query location and the nearest items found so far.
+   * @param filter Only items matching the filter are considered, may be null.
+   */
+  public void nearest(Neighbors<T> neighbors, Predicate<? super T> filter) {
+    search(0, items.length, neighbors, filter);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void search(int from, int to, Neighbors<T> neighbors, Predicate<? super T> filter) {
+    if (to - from < 1) {
+      return;
+    }
+    int mid = (from + to) >>> 1;
+    double[] query = neighbors.point;
+    int offset = mid * 3;
+    double dx = points[offset] - query[0];
+    double dy = points[offset + 1] - query[1];
+    double dz = points[offset + 2] - query[2];
+    double distance = dx * dx + dy * dy + dz * dz;
+    if (distance <= neighbors.bound) {
+      T item = (T) items[mid];
+      if (filter == null || filter.test(item)) {
+        neighbors.offer(item, distance);
+      }
+    }
+
+    int axis = axes[mid];
+    double split = query[axis] - points[offset + axis];
+    if (split < 0) {
+      search(from, mid, neighbors, filter);
+      if (split * split <= neighbors.bound) {
+        search(mid + 1, to, neighbors, filter);
+      }
+    } else {
+      search(mid + 1, to, neighbors, filter);
+      if (split * split <= neighbors.bound) {
+        search(from, mid, neighbors, filter);
+      }
+    }
+  }
+
+  /**
+   * The items nearest to a query location, within a maximum great-circle distance.
+   * All the items at exactly the nearest distance are kept.
+   */
+  public static class Neighbors<T> {
+    private final double[] point = new double[3];
+    /** Squared straight line distance of the nearest items, or of the maximum distance. */
+    private double bound;
+    private final List<T> nearest = new ArrayList<T>();
+
+    /**
+     * Start a query.
+     * @param lon Longitude of the query location, in degrees.
+     * @param lat Latitude of the query location, in degrees.
+     * @param maxDistance Maximum great-circle distance, in degrees of arc.
+     */
+    public Neighbors(double lon, double lat, double maxDistance) {
+      toPoint(lon, lat, point, 0);
+      double chord = 2 * Math.sin(Math.toRadians(Math.min(maxDistance, 180.0)) / 2);
+      bound = chord * chord;
+    }
+
+    private void offer(T item, double distance) {
+      if (distance < bound) {
+        nearest.clear();
+        bound = distance;
+      }
+      nearest.add(item);
+    }
+
+    /**
+     * Get the nearest items found.
+     * @return the items tied at the nearest distance, in the order they were found.
+     */
+    public List<T> getNearest() {
+      return nearest;
+    }
+  }
+}
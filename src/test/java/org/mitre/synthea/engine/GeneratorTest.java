@@ -2,7 +2,10 @@ package org.mitre.synthea.engine;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -10,7 +13,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.file.Files;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -18,7 +23,9 @@ import java.util.UUID;
 
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import org.mitre.synthea.TestHelper;
 import org.mitre.synthea.export.Exporter;
@@ -30,9 +37,12 @@ import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.world.agents.PayerManager;
 import org.mitre.synthea.world.agents.Person;
 import org.mitre.synthea.world.agents.Provider;
+import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
 import org.mitre.synthea.world.geography.Location;
 
 public class GeneratorTest {
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
 
   /**
    * Configure settings across these tests.
@@ -270,6 +280,132 @@ public class GeneratorTest {
     generateThread.interrupt();
   }
 
+  @Test
+  public void testIncrementalTimeTravel() throws Exception {
+    // Skip if physiology generators are enabled since they are incompatible with Java
+    // serialization
+    if (Boolean.valueOf(Config.get("physiology.generators.enabled", "false"))) {
+      System.out.println("Skipping test GeneratorTest.testIncrementalTimeTravel");
+      System.out.println("Set config physiology.generators.enabled=false to enable this test");
+      return;
+    }
+    File dead = tempFolder.newFile("dead.snapshot");
+    File alive = tempFolder.newFile("alive.snapshot");
+    Generator.GeneratorOptions opts = new Generator.GeneratorOptions();
+    opts.population = 3;
+    opts.seed = 42L;
+    opts.clinicianSeed = 42L;
+    opts.updatedPopulationSnapshotPath = alive;
+    new Generator(opts).run();
+    // the same people, dead, since only_dead_patients can take too many attempts
+    try (PopulationSnapshot.Writer writer = new PopulationSnapshot.Writer(dead)) {
+      for (Person person : readSnapshot(alive)) {
+        person.recordDeath(person.lastUpdated, null);
+        writer.write(person);
+      }
+    }
+
+    String yearsOfHistory = Config.get("exporter.years_of_history");
+    Config.set("generate.incremental_time_travel", "true");
+    Config.set("exporter.text.export", "true");
+    Config.set("exporter.years_of_history", "0");
+    // name files by id, since names can change as people are updated
+    Config.set("exporter.use_uuid_filenames", "true");
+    try {
+      opts = new Generator.GeneratorOptions();
+      opts.initialPopulationSnapshotPath = dead;
+      opts.daysToTravelForward = 30;
+      File output = tempFolder.newFolder();
+      Config.set("exporter.baseDirectory", output.toString());
+      Generator generator = new Generator(opts);
+      generator.run();
+      assertEquals(3, generator.totalGeneratedPopulation.get());
+      assertEquals(3, generator.stats.get("dead").get());
+      // dead people are exported again, exactly as they were, without being simulated again
+      for (Person person : readSnapshot(dead)) {
+        List<String> lines = readTextExport(output, person);
+        assertTrue(lines.contains("Age:                 DECEASED"));
+        assertEquals(person.record.encounters.size(), encounterLines(lines));
+      }
+
+      opts.initialPopulationSnapshotPath = alive;
+      output = tempFolder.newFolder();
+      Config.set("exporter.baseDirectory", output.toString());
+      generator = new Generator(opts);
+      generator.run();
+      assertEquals(3, generator.totalGeneratedPopulation.get());
+      for (Person person : readSnapshot(alive)) {
+        List<String> lines = readTextExport(output, person);
+        assertTrue(encounterLines(lines) >= person.record.encounters.size());
+      }
+    } finally {
+      Config.set("generate.incremental_time_travel", "false");
+      Config.set("exporter.text.export", "false");
+      Config.set("exporter.years_of_history", yearsOfHistory);
+      Config.set("exporter.use_uuid_filenames", "false");
+    }
+  }
+
+  @Test
+  public void testUpdateModulesOnlyResetsChangedModules() throws Exception {
+    Generator generator = new Generator(new Generator.GeneratorOptions());
+    Person person = generator.generatePerson(0, 42L);
+    PopulationSnapshot.Summary summary = PopulationSnapshot.Summary.of(person);
+    String found = null;
+    for (Module module : person.currentModules) {
+      if (module.getContentHash() != null && summary.getModules().containsKey(module.name)) {
+        found = module.name;
+        break;
+      }
+    }
+    assertNotNull(found);
+    final String name = found;
+    String hash = summary.getModules().get(name).moduleHash;
+    Object history = person.attributes.get(name);
+
+    // an unchanged module carries on, even from a state this check doesn't know
+    summary.getModules().put(name, new PopulationSnapshot.ModulePosition("Unknown", 0L, hash));
+    generator.updateModules(person, summary);
+    assertSame(history, person.attributes.get(name));
+    // a changed module that still has the current state carries on from it
+    String state = ((State) ((List<?>) history).get(0)).name;
+    summary.getModules().put(name, new PopulationSnapshot.ModulePosition(state, 0L, "changed"));
+    generator.updateModules(person, summary);
+    assertSame(history, person.attributes.get(name));
+    // a changed module without it starts again
+    summary.getModules().put(name,
+        new PopulationSnapshot.ModulePosition("Unknown", 0L, "changed"));
+    generator.updateModules(person, summary);
+    assertNull(person.attributes.get(name));
+    assertTrue(person.currentModules.stream().anyMatch(module -> module.name.equals(name)));
+  }
+
+  private static List<Person> readSnapshot(File snapshot) throws Exception {
+    List<Person> people = new ArrayList<Person>();
+    try (PopulationSnapshot.Reader reader = new PopulationSnapshot.Reader(snapshot)) {
+      for (Person person = reader.next(); person != null; person = reader.next()) {
+        people.add(person);
+      }
+    }
+    return people;
+  }
+
+  private static List<String> readTextExport(File output, Person person) throws IOException {
+    File file = output.toPath().resolve("text")
+        .resolve(Exporter.filename(person, "", "txt")).toFile();
+    assertTrue(file.getName() + " was not exported", file.exists());
+    return Files.readAllLines(file.toPath());
+  }
+
+  private static int encounterLines(List<String> lines) {
+    int start = lines.indexOf("ENCOUNTERS:") + 1;
+    int end = start;
+    while (!lines.get(end).startsWith("-----")) {
+      end++;
+    }
+    return end - start;
+  }
+
   @Test
   public void testUpdateAfterCreation() throws Exception {
     // Get 100 people
@@ -358,6 +494,45 @@ public class GeneratorTest {
     }
   }
 
+  @Test
+  public void testEventSchedulingMatchesTickScheduling() throws Exception {
+    Generator.GeneratorOptions opts = new Generator.GeneratorOptions();
+    opts.population = 1;
+    opts.minAge = 50;
+    opts.maxAge = 100;
+    opts.ageSpecified = true;
+    Generator generator = new Generator(opts);
+    long[] seeds = {0L, 1L, 42L, 1234567890L};
+    for (long personSeed : seeds) {
+      generator.eventScheduling = false;
+      Person tick = generator.createPerson(personSeed,
+          generator.randomDemographics(new DefaultRandomNumberGenerator(personSeed)));
+      generator.eventScheduling = true;
+      Person event = generator.createPerson(personSeed,
+          generator.randomDemographics(new DefaultRandomNumberGenerator(personSeed)));
+
+      // the same random draws must have happened in both modes
+      assertEquals(tick.getCount(), event.getCount());
+      assertEquals(tick.lastUpdated, event.lastUpdated);
+      assertEquals(tick.attributes.keySet(), event.attributes.keySet());
+      assertEquals(tick.attributes.get(Person.DEATHDATE), event.attributes.get(Person.DEATHDATE));
+      assertEquals(tick.record.encounters.size(), event.record.encounters.size());
+      for (int i = 0; i < tick.record.encounters.size(); i++) {
+        Encounter expected = tick.record.encounters.get(i);
+        Encounter actual = event.record.encounters.get(i);
+        assertEquals(expected.type, actual.type);
+        assertEquals(expected.start, actual.start);
+        assertEquals(expected.stop, actual.stop);
+        assertEquals(expected.codes, actual.codes);
+        assertEquals(expected.conditions.size(), actual.conditions.size());
+        assertEquals(expected.medications.size(), actual.medications.size());
+        assertEquals(expected.observations.size(), actual.observations.size());
+        assertEquals(expected.procedures.size(), actual.procedures.size());
+      }
+    }
+    generator.eventScheduling = false;
+  }
+
   @Test
   public void testKeepPatientsModule() throws Exception {
     Generator.GeneratorOptions opts = new Generator.GeneratorOptions();
@@ -374,4 +549,66 @@ public class GeneratorTest {
       assertTrue((Boolean)p.attributes.get("diabetes"));
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testKeepPatientsEarlyRejection() throws Exception {
+    Config.set("generate.keep_patients_early_rejection", "true");
+    Config.set("generate.keep_patients_early_rejection.redraw_demographics", "true");
+    try {
+      Generator.GeneratorOptions opts = new Generator.GeneratorOptions();
+      opts.population = 2;
+      opts.minAge = 35;
+      opts.maxAge = 75;
+      opts.ageSpecified = true;
+      opts.keepPatientsModulePath =
+          new File("src/test/resources/keep_patients_module/keep_elderly_diabetics.json");
+      // keep module checks that patients are at least 70 and have attribute diabetes == true
+
+      Generator generator = new Generator(opts);
+      for (int i = 0; i < opts.population; i++) {
+        Person p = generator.generatePerson(i, 42L + i);
+        assertTrue((Boolean) p.attributes.get("diabetes"));
+        assertTrue(p.ageInYears(p.lastUpdated + generator.timestep) >= 70);
+      }
+      // people too young to reach 70 are rejected before they are simulated, and retried
+      // with new demographics, while diabetes can only be checked at the end
+      Map<String, Integer> early = generator.keepCriteria.getRejectedEarly();
+      assertEquals(1, early.size());
+      assertTrue(early.keySet().iterator().next().startsWith("Age "));
+    } finally {
+      Config.set("generate.keep_patients_early_rejection", "false");
+      Config.set("generate.keep_patients_early_rejection.redraw_demographics", "false");
+    }
+  }
+
+  @Test
+  public void testKeepPatientsEarlyRejectionKeepsDemographics() throws Exception {
+    Config.set("generate.keep_patients_early_rejection", "true");
+    Config.set("generate.max_attempts_to_keep_patient", "5");
+    try {
+      Generator.GeneratorOptions opts = new Generator.GeneratorOptions();
+      opts.population = 1;
+      opts.minAge = 35;
+      opts.maxAge = 40;
+      opts.ageSpecified = true;
+      opts.keepPatientsModulePath =
+          new File("src/test/resources/keep_patients_module/keep_elderly_diabetics.json");
+
+      Generator generator = new Generator(opts);
+      // nobody aged 35 to 40 can be 70, and each attempt keeps the same demographics,
+      // so the slot still fails after the maximum number of attempts
+      try {
+        generator.generatePerson(0, 42L);
+        fail("Expected the attempts to keep a patient to run out");
+      } catch (RuntimeException e) {
+        assertTrue(e.getMessage().startsWith("Failed to produce a matching patient after 5"));
+      }
+      Map<String, Integer> early = generator.keepCriteria.getRejectedEarly();
+      assertEquals(1, early.size());
+      assertEquals(5, early.values().iterator().next().intValue());
+    } finally {
+      Config.set("generate.keep_patients_early_rejection", "false");
+      Config.set("generate.max_attempts_to_keep_patient", "1000");
+    }
+  }
+}
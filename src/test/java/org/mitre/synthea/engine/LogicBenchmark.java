@@ -0,0 +1,133 @@
+package org.mitre.synthea.engine;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mitre.synthea.TestHelper;
+import org.mitre.synthea.engine.Transition.ConditionalTransition;
+import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.helpers.Utilities;
+import org.mitre.synthea.world.agents.Person;
+
+/**
+ * Micro-benchmark comparing interpreted and compiled logic, by evaluating every Guard and
+ * ConditionalTransition in the bundled modules against a small generated population.
+ * Run with: ./gradlew benchmark -Pbenchmark=org.mitre.synthea.engine.LogicBenchmark
+ */
+public class LogicBenchmark {
+  private static final int POPULATION = 20;
+  private static final int ROUNDS = 5;
+
+  /**
+   * Run the benchmark.
+   * @param args unused
+   */
+  public static void main(String[] args) throws Exception {
+    TestHelper.loadTestProperties();
+    TestHelper.exportOff();
+    Generator generator = new Generator(POPULATION);
+    generator.options.overflow = false;
+    Person[] people = new Person[POPULATION];
+    for (int i = 0; i < POPULATION; i++) {
+      people[i] = generator.generatePerson(i);
+    }
+    long time = generator.stop;
+
+    Config.set("generate.compile_logic", "false");
+    List<State> interpretedGuards = new ArrayList<State>();
+    List<State> interpretedTransitions = new ArrayList<State>();
+    loadStates(interpretedGuards, interpretedTransitions);
+    Config.set("generate.compile_logic", "true");
+    List<State> compiledGuards = new ArrayList<State>();
+    List<State> compiledTransitions = new ArrayList<State>();
+    loadStates(compiledGuards, compiledTransitions);
+
+    // states that throw for some of the population (ex, a missing observation) are left out
+    List<Integer> guards = usable(interpretedGuards, people, time, true);
+    List<Integer> transitions = usable(interpretedTransitions, people, time, false);
+    System.out.printf("%d guards, %d conditional transitions, %d people%n",
+        guards.size(), transitions.size(), POPULATION);
+
+    System.out.println("round, interpreted guards/s, compiled guards/s, "
+        + "interpreted transitions/s, compiled transitions/s");
+    for (int round = 1; round <= ROUNDS; round++) {
+      System.out.printf("%d, %.0f, %.0f, %.0f, %.0f%n", round,
+          measure(interpretedGuards, guards, people, time, true),
+          measure(compiledGuards, guards, people, time, true),
+          measure(interpretedTransitions, transitions, people, time, false),
+          measure(compiledTransitions, transitions, people, time, false));
+    }
+  }
+
+  private static void loadStates(List<State> guards, List<State> transitions)
+      throws Exception {
+    Path modulesPath = Module.getModulesPath();
+    Path basePath = modulesPath.getParent();
+    List<Module> modules = new ArrayList<Module>();
+    Utilities.walkAllModules(modulesPath, path -> {
+      boolean submodule = !path.getParent().equals(modulesPath);
+      try {
+        modules.add(Module.loadFile(basePath.relativize(path), submodule, null, false));
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    for (Module module : modules) {
+      for (String name : module.getStateNames()) {
+        State state = module.getState(name);
+        if (state instanceof State.Guard) {
+          guards.add(state.clone());
+        } else if (state.getTransition() instanceof ConditionalTransition) {
+          transitions.add(state.clone());
+        }
+      }
+    }
+  }
+
+  private static List<Integer> usable(List<State> states, Person[] people, long time,
+      boolean guard) {
+    List<Integer> indexes = new ArrayList<Integer>();
+    for (int i = 0; i < states.size(); i++) {
+      try {
+        for (Person person : people) {
+          evaluate(states.get(i), person, time, guard);
+        }
+        indexes.add(i);
+      } catch (RuntimeException e) {
+        // not usable with this population
+      }
+    }
+    return indexes;
+  }
+
+  private static boolean evaluate(State state, Person person, long time, boolean guard) {
+    if (guard) {
+      return state.process(person, time);
+    }
+    return state.transition(person, time) != null;
+  }
+
+  private static double measure(List<State> states, List<Integer> indexes, Person[] people,
+      long time, boolean guard) {
+    long evaluations = 0;
+    long passed = 0;
+    long start = System.nanoTime();
+    for (int repeat = 0; repeat < 20; repeat++) {
+      for (int index : indexes) {
+        State state = states.get(index);
+        for (Person person : people) {
+          if (evaluate(state, person, time, guard)) {
+            passed++;
+          }
+          evaluations++;
+        }
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    if (passed < 0) {
+      throw new IllegalStateException("unreachable, keeps the results live");
+    }
+    return evaluations / (elapsed / 1e9);
+  }
+}
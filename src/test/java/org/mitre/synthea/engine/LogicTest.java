@@ -80,7 +80,10 @@ public class LogicTest {
     JsonObject definition = tests.getAsJsonObject(testName).deepCopy();
     Logic logic = Utilities.getGson().fromJson(definition, Logic.class);
 
-    return logic.test(person, time);
+    boolean result = logic.test(person, time);
+    // the compiled form must give the same answer as the interpreted reference
+    assertEquals(testName, result, logic.compile().test(person, time));
+    return result;
   }
 
   @Test
@@ -143,6 +146,41 @@ public class LogicTest {
     assertTrue(doTest("ageNe40Test"));
   }
 
+  private boolean isFalseThrough(String testName, long end) {
+    JsonObject definition = tests.getAsJsonObject(testName).deepCopy();
+    Logic logic = Utilities.getGson().fromJson(definition, Logic.class);
+
+    boolean result = logic.isFalseThrough(person, time, end);
+    assertEquals(testName, result, logic.compile().isFalseThrough(person, time, end));
+    return result;
+  }
+
+  @Test
+  public void testIsFalseThrough() {
+    long twoYears = time + Utilities.convertTime("years", 2);
+    long tenYears = time + Utilities.convertTime("years", 10);
+    setPatientAge(35);
+    assertFalse(isFalseThrough("ageLt40Test", tenYears));
+    assertFalse(isFalseThrough("ageGte40Test", tenYears));
+    assertTrue(isFalseThrough("ageGte40Test", twoYears));
+    // equality may or may not be met along the way, so it is never certain to be false
+    assertFalse(isFalseThrough("ageEq40Test", twoYears));
+
+    setPatientAge(45);
+    assertTrue(isFalseThrough("ageLt40Test", tenYears));
+    assertTrue(isFalseThrough("ageLte40Test", tenYears));
+    assertFalse(isFalseThrough("ageGt40Test", twoYears));
+
+    time = TestHelper.timestamp(1981, 4, 28, 0, 0, 0);
+    assertTrue(isFalseThrough("after2000Test", TestHelper.timestamp(1999, 1, 1, 0, 0, 0)));
+    assertFalse(isFalseThrough("after2000Test", TestHelper.timestamp(2001, 1, 1, 0, 0, 0)));
+    assertFalse(isFalseThrough("beforeSeptemberTest", TestHelper.timestamp(1999, 1, 1, 0, 0, 0)));
+
+    assertTrue(isFalseThrough("falseTest", time));
+    assertFalse(isFalseThrough("trueTest", time));
+    assertFalse(isFalseThrough("notTrueTest", time));
+  }
+
   @Test
   public void test_race_exists() {
     person.attributes.put(Person.RACE, "white");
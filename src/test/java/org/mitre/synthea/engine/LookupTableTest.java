@@ -0,0 +1,136 @@
+package org.mitre.synthea.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.mitre.synthea.engine.LookupTable.SegmentIndex;
+import org.mitre.synthea.helpers.RandomNumberGenerator;
+import org.mitre.synthea.helpers.Utilities;
+import org.mitre.synthea.world.agents.Person;
+
+public class LookupTableTest {
+
+  @Test
+  public void testSegmentIndexFindsFirstCoveringRange() {
+    Random random = new Random(11L);
+    int size = 200;
+    long[] lows = new long[size];
+    long[] highs = new long[size];
+    for (int i = 0; i < size; i++) {
+      lows[i] = random.nextInt(1000);
+      highs[i] = lows[i] + random.nextInt(50);
+    }
+    SegmentIndex<Integer> index = SegmentIndex.build(lows, highs, covering -> covering[0]);
+
+    for (long key = -10; key < 1100; key++) {
+      Integer expected = null;
+      for (int i = 0; i < size; i++) {
+        if (lows[i] <= key && key <= highs[i]) {
+          expected = i;
+          break;
+        }
+      }
+      assertEquals(expected, index.get(key));
+    }
+  }
+
+  @Test
+  public void testFindByAttributesAgeAndTime() {
+    long time2000 = Utilities.localDateToTimestamp(LocalDate.of(2000, 1, 1));
+    long time2010 = Utilities.localDateToTimestamp(LocalDate.of(2010, 1, 1));
+    List<LookupTable.Row> rows = new ArrayList<LookupTable.Row>();
+    rows.add(new LookupTable.Row(Arrays.asList("M"), 0, 49,
+        Long.MIN_VALUE, time2010 - 1, new double[] {0.1, 0.9}));
+    rows.add(new LookupTable.Row(Arrays.asList("M"), 0, 49,
+        time2010, Long.MAX_VALUE, new double[] {0.2, 0.8}));
+    rows.add(new LookupTable.Row(Arrays.asList("M"), 50, 140,
+        Long.MIN_VALUE, Long.MAX_VALUE, new double[] {0.3, 0.3}));
+    rows.add(new LookupTable.Row(Arrays.asList("F"), 0, 140,
+        Long.MIN_VALUE, Long.MAX_VALUE, new double[] {0.4, 0.6}));
+    LookupTable table = new LookupTable("test.csv", Arrays.asList(Person.GENDER), true,
+        Arrays.asList("Yes", "No"), rows);
+
+    Person person = new Person(0L);
+    person.attributes.put(Person.BIRTHDATE, time2000 - Utilities.convertTime("years", 30));
+    person.attributes.put(Person.GENDER, "M");
+    assertArrayEquals(new double[] {0.1, 1.0}, table.find(person, time2000), 0.0);
+    assertArrayEquals(new double[] {0.2, 1.0}, table.find(person, time2010), 0.0);
+    assertArrayEquals(new double[] {0.3, 0.6},
+        table.find(person, time2010 + Utilities.convertTime("years", 25)), 0.0);
+    person.attributes.put(Person.GENDER, "F");
+    assertArrayEquals(new double[] {0.4, 1.0}, table.find(person, time2000), 0.0);
+    person.attributes.put(Person.GENDER, "X");
+    assertNull(table.find(person, time2000));
+
+    // probabilities summing to less than one leave the remainder to the last transition
+    RandomNumberGenerator random = mock(RandomNumberGenerator.class);
+    when(random.rand()).thenReturn(0.95, 0.25, 0.45);
+    String[] transitions = table.getTransitions();
+    assertEquals("No", LookupTable.pick(transitions, new double[] {0.3, 0.6}, random));
+    assertEquals("Yes", LookupTable.pick(transitions, new double[] {0.3, 0.6}, random));
+    assertEquals("No", LookupTable.pick(transitions, new double[] {0.3, 0.6}, random));
+  }
+
+  @Test
+  public void testAgeRangesIncludeTheirBounds() {
+    List<LookupTable.Row> rows = new ArrayList<LookupTable.Row>();
+    rows.add(new LookupTable.Row(Arrays.asList("foo", "bar"), 0, 30,
+        Long.MIN_VALUE, Long.MAX_VALUE, new double[] {1.0, 0.0}));
+    rows.add(new LookupTable.Row(Arrays.asList("foo", "bar"), 31, 60,
+        Long.MIN_VALUE, Long.MAX_VALUE, new double[] {0.0, 1.0}));
+    LookupTable table = new LookupTable("test.csv",
+        Arrays.asList("lookup_table_test_a", "lookup_table_test_b"), true,
+        Arrays.asList("Gold", "Platinum"), rows);
+
+    long time = Utilities.localDateToTimestamp(LocalDate.of(2000, 1, 1));
+    Person person = new Person(0L);
+    person.attributes.put("lookup_table_test_a", "foo");
+    person.attributes.put("lookup_table_test_b", "bar");
+    for (int age : new int[] {0, 20, 30}) {
+      person.attributes.put(Person.BIRTHDATE,
+          Utilities.localDateToTimestamp(LocalDate.of(2000 - age, 1, 1)));
+      assertArrayEquals(new double[] {1.0, 1.0}, table.find(person, time), 0.0);
+    }
+    for (int age : new int[] {31, 50, 60}) {
+      person.attributes.put(Person.BIRTHDATE,
+          Utilities.localDateToTimestamp(LocalDate.of(2000 - age, 1, 1)));
+      assertArrayEquals(new double[] {0.0, 1.0}, table.find(person, time), 0.0);
+    }
+    person.attributes.put(Person.BIRTHDATE,
+        Utilities.localDateToTimestamp(LocalDate.of(1930, 1, 1)));
+    assertNull(table.find(person, time));
+
+    // the ages match, but the attributes don't
+    person.attributes.put(Person.BIRTHDATE,
+        Utilities.localDateToTimestamp(LocalDate.of(1980, 1, 1)));
+    person.attributes.put("lookup_table_test_b", "baz");
+    assertNull(table.find(person, time));
+  }
+
+  @Test
+  public void testFindByAttributesWithoutAge() {
+    List<LookupTable.Row> rows = new ArrayList<LookupTable.Row>();
+    rows.add(new LookupTable.Row(Arrays.asList("foo", "bar"), Long.MIN_VALUE, Long.MAX_VALUE,
+        Long.MIN_VALUE, Long.MAX_VALUE, new double[] {0.5, 0.5}));
+    LookupTable table = new LookupTable("test.csv",
+        Arrays.asList("lookup_table_test_a", "lookup_table_test_b"), false,
+        Arrays.asList("Yes", "No"), rows);
+
+    Person person = new Person(0L);
+    person.attributes.put("lookup_table_test_a", "foo");
+    person.attributes.put("lookup_table_test_b", "bar");
+    assertArrayEquals(new double[] {0.5, 1.0}, table.find(person, 0L), 0.0);
+    person.attributes.put("lookup_table_test_b", "baz");
+    assertNull(table.find(person, 0L));
+  }
+}
@@ -0,0 +1,87 @@
+package org.mitre.synthea.engine;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.mitre.synthea.TestHelper;
+import org.mitre.synthea.world.agents.Person;
+
+/**
+ * Micro-benchmark of the memory that module states take: the bytes allocated per generated
+ * person and per state they enter, and the bytes their module histories keep once they have
+ * been generated, to compare between revisions.
+ * Run with: ./gradlew benchmark -Pbenchmark=org.mitre.synthea.engine.ModuleAllocationBenchmark
+ */
+public class ModuleAllocationBenchmark {
+  private static final int ROUNDS = 5;
+  private static final int POPULATION = 20;
+  /** The same people are generated every round. */
+  private static final long SEED = 1234L;
+
+  /**
+   * Run the benchmark.
+   * @param args unused
+   */
+  public static void main(String[] args) throws Exception {
+    TestHelper.loadTestProperties();
+    TestHelper.exportOff();
+    Generator generator = new Generator(POPULATION);
+    generator.options.overflow = false;
+
+    System.out.println("round, bytes/generated person, states entered/person, "
+        + "bytes/state entered, history bytes kept/person");
+    for (int round = 1; round <= ROUNDS; round++) {
+      List<Person> people = new ArrayList<Person>();
+      long allocated = allocated(() -> {
+        for (int i = 0; i < POPULATION; i++) {
+          people.add(generator.generatePerson(i, SEED + i));
+        }
+      });
+      long entered = 0;
+      for (Person person : people) {
+        for (Object attribute : person.attributes.values()) {
+          if (isHistory(attribute)) {
+            entered += ((List<?>) attribute).size();
+          }
+        }
+      }
+      long withHistories = usedHeap();
+      for (Person person : people) {
+        Iterator<Map.Entry<String, Object>> iterator = person.attributes.entrySet().iterator();
+        while (iterator.hasNext()) {
+          if (isHistory(iterator.next().getValue())) {
+            iterator.remove();
+          }
+        }
+        person.history = null;
+      }
+      long kept = withHistories - usedHeap();
+      System.out.printf("%d, %d, %d, %d, %d%n", round, allocated / POPULATION,
+          entered / POPULATION, allocated / Math.max(entered, 1), kept / POPULATION);
+    }
+  }
+
+  private static boolean isHistory(Object attribute) {
+    return attribute instanceof List && !((List<?>) attribute).isEmpty()
+        && ((List<?>) attribute).get(0) instanceof State;
+  }
+
+  private static long allocated(Runnable task) {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long id = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(id);
+    task.run();
+    return threads.getThreadAllocatedBytes(id) - before;
+  }
+
+  private static long usedHeap() {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+}
@@ -228,6 +228,23 @@ public class ModuleTest {
     }
   }
 
+  @Test
+  public void testContentHash() throws Exception {
+    String json = "{\"name\": \"Content Hash\", \"states\": {"
+        + "\"Initial\": {\"type\": \"Initial\", \"direct_transition\": \"Terminal\"},"
+        + "\"Terminal\": {\"type\": \"Terminal\"}}}";
+    Module module = new Module(JsonParser.parseString(json).getAsJsonObject(), false);
+    Module same = new Module(JsonParser.parseString(json).getAsJsonObject(), false);
+    assertNotNull(module.getContentHash());
+    assertEquals(module.getContentHash(), same.getContentHash());
+    assertEquals(module.getContentHash(), module.clone().getContentHash());
+
+    JsonObject edited = JsonParser.parseString(json).getAsJsonObject();
+    edited.getAsJsonObject("states").getAsJsonObject("Initial")
+        .addProperty("direct_transition", "Initial");
+    assertFalse(module.getContentHash().equals(new Module(edited, false).getContentHash()));
+  }
+
   @Test
   public void getModuleByPath_missingModule() {
     Module module = Module.getModuleByPath("missing_module");
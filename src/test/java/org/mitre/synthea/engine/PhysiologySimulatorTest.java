@@ -1,6 +1,8 @@
 package org.mitre.synthea.engine;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import com.google.common.collect.Lists;
@@ -142,6 +144,36 @@ public class PhysiologySimulatorTest {
     assertEquals(4, pngCount);
   }
 
+  @Test
+  public void testResultCache() throws DerivativeException {
+    PhysiologySimulator physio = new PhysiologySimulator(
+        "circulation/Smith2004_CVS_human.xml", "runge_kutta", 0.01, 4);
+    long hits = PhysiologySimulator.getCacheStats().hitCount();
+
+    Map<String,Double> inputs = new HashMap<String,Double>();
+    inputs.put("R_sys", 1.23456789);
+    MultiTable first = physio.run(inputs);
+    // inputs that are the same to the configured precision share a result
+    inputs.put("R_sys", 1.23456791);
+    MultiTable second = new PhysiologySimulator(
+        "circulation/Smith2004_CVS_human.xml", "runge_kutta", 0.01, 4).run(inputs);
+    assertSame(first, second);
+    assertEquals(hits + 1, PhysiologySimulator.getCacheStats().hitCount());
+    assertEquals(1.23457, first.getColumn("R_sys").getValue(0), 0.0000001);
+
+    // a different simulation of the same model does not
+    MultiTable shorter = new PhysiologySimulator(
+        "circulation/Smith2004_CVS_human.xml", "runge_kutta", 0.01, 2).run(inputs);
+    assertNotSame(first, shorter);
+  }
+
+  @Test
+  public void testRoundToSignificantDigits() {
+    assertEquals(123.457, PhysiologySimulator.roundToSignificantDigits(123.4567, 6), 0.0);
+    assertEquals(-0.00123, PhysiologySimulator.roundToSignificantDigits(-0.0012345, 3), 1e-12);
+    assertEquals(0.0, PhysiologySimulator.roundToSignificantDigits(0.0, 3), 0.0);
+  }
+
   @Test
   public void testGetSolvers() {
     Set<String> solvers = PhysiologySimulator.getSolvers();
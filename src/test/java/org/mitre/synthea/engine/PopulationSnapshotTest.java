@@ -0,0 +1,303 @@
+package org.mitre.synthea.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mitre.synthea.TestHelper;
+import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.agents.Provider;
+import org.mitre.synthea.world.concepts.HealthRecord.Code;
+import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
+
+public class PopulationSnapshotTest {
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static List<Person> people(int count) {
+    List<Person> people = new ArrayList<Person>();
+    for (int i = 0; i < count; i++) {
+      Person person = new Person(i);
+      person.attributes.put(Person.ID, "person-" + i);
+      person.attributes.put(Person.CAUSE_OF_DEATH, "Natural causes");
+      person.lastUpdated = i;
+      people.add(person);
+    }
+    return people;
+  }
+
+  private static List<Person> readAll(File file) throws Exception {
+    List<Person> people = new ArrayList<Person>();
+    try (PopulationSnapshot.Reader reader = new PopulationSnapshot.Reader(file)) {
+      Person person = reader.next();
+      while (person != null) {
+        people.add(person);
+        person = reader.next();
+      }
+      assertNull(reader.next());
+    }
+    return people;
+  }
+
+  private static void assertSamePeople(List<Person> expected, List<Person> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).attributes.get(Person.ID),
+          actual.get(i).attributes.get(Person.ID));
+      assertEquals(expected.get(i).lastUpdated, actual.get(i).lastUpdated);
+    }
+  }
+
+  @Test
+  public void testWriteAndRead() throws Exception {
+    List<Person> people = people(25);
+    File file = tempFolder.newFile("snapshot.bin");
+    try (PopulationSnapshot.Writer writer = new PopulationSnapshot.Writer(file)) {
+      for (Person person : people) {
+        writer.write(person);
+      }
+      assertEquals(people.size(), writer.getCount());
+    }
+    assertSamePeople(people, readAll(file));
+
+    File empty = tempFolder.newFile("empty.bin");
+    new PopulationSnapshot.Writer(empty).close();
+    assertEquals(0, readAll(empty).size());
+  }
+
+  @Test
+  public void testConcurrentWrites() throws Exception {
+    List<Person> people = people(400);
+    for (Person person : people) {
+      // strings and codes that other people share, so threads add to the tables together
+      person.attributes.put("snapshot_test_shared", "shared value " + (person.lastUpdated % 7));
+      person.attributes.put("snapshot_test_code",
+          new Code("SNOMED-CT", String.valueOf(person.lastUpdated % 5), "Test code"));
+    }
+    File file = tempFolder.newFile("concurrent.bin");
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    try (PopulationSnapshot.Writer writer = new PopulationSnapshot.Writer(file)) {
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (Person person : people) {
+        futures.add(pool.submit(() -> {
+          writer.write(person);
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      assertEquals(people.size(), writer.getCount());
+    } finally {
+      pool.shutdown();
+    }
+
+    // the people may be written in any order
+    Map<Object, Person> read = new HashMap<Object, Person>();
+    for (Person person : readAll(file)) {
+      read.put(person.attributes.get(Person.ID), person);
+    }
+    assertEquals(people.size(), read.size());
+    for (Person expected : people) {
+      Person actual = read.get(expected.attributes.get(Person.ID));
+      assertEquals(expected.lastUpdated, actual.lastUpdated);
+      assertEquals(expected.attributes.get("snapshot_test_shared"),
+          actual.attributes.get("snapshot_test_shared"));
+      assertEquals(((Code) expected.attributes.get("snapshot_test_code")).code,
+          ((Code) actual.attributes.get("snapshot_test_code")).code);
+      assertEquals("Natural causes", actual.attributes.get(Person.CAUSE_OF_DEATH));
+    }
+  }
+
+  @Test
+  public void testReadListSnapshot() throws Exception {
+    List<Person> people = people(10);
+    File file = tempFolder.newFile("list.bin");
+    try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
+      oos.writeObject(people);
+    }
+    assertSamePeople(people, readAll(file));
+
+    // one person at a time, followed by a null
+    File stream = tempFolder.newFile("stream.bin");
+    try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(stream))) {
+      for (Person person : people) {
+        oos.writeObject(person);
+      }
+      oos.writeObject(null);
+    }
+    assertSamePeople(people, readAll(stream));
+  }
+
+  @Test(expected = InvalidClassException.class)
+  public void testRejectsChangedClass() throws Exception {
+    ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+    try (PopulationSnapshot.Writer writer = new PopulationSnapshot.Writer(snapshot)) {
+      writer.write(people(1).get(0));
+    }
+    // as if a field of Person had been renamed since the snapshot was written
+    byte[] bytes = snapshot.toByteArray();
+    int field = new String(bytes, StandardCharsets.ISO_8859_1).indexOf("populationSeed");
+    assertTrue(field > 0);
+    bytes[field] = 'P';
+    try (PopulationSnapshot.Reader reader =
+        new PopulationSnapshot.Reader(new ByteArrayInputStream(bytes))) {
+      reader.nextRecord();
+    }
+  }
+
+  @Test
+  public void testRoundTripGeneratedPopulation() throws Exception {
+    Person[] original = TestHelper.getGeneratedPeople();
+    ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+    try (PopulationSnapshot.Writer writer = new PopulationSnapshot.Writer(snapshot)) {
+      for (Person person : original) {
+        writer.write(person);
+      }
+    }
+
+    List<Person> people = new ArrayList<Person>();
+    List<PopulationSnapshot.Summary> summaries = new ArrayList<PopulationSnapshot.Summary>();
+    try (PopulationSnapshot.Reader reader =
+        new PopulationSnapshot.Reader(new ByteArrayInputStream(snapshot.toByteArray()))) {
+      PopulationSnapshot.Record record = reader.nextRecord();
+      while (record != null) {
+        // the summary is read without decoding the person
+        summaries.add(record.getSummary());
+        people.add(record.getPerson());
+        record = reader.nextRecord();
+      }
+    }
+
+    assertEquals(original.length, people.size());
+    Map<String, Provider> providers = new HashMap<String, Provider>();
+    int javaSerializedSize = 0;
+    BigDecimal totalCost = BigDecimal.ZERO;
+    int claimItems = 0;
+    for (int i = 0; i < original.length; i++) {
+      Person expected = original[i];
+      Person actual = people.get(i);
+      assertEquals(expected.getSeed(), actual.getSeed());
+      assertEquals(expected.getCount(), actual.getCount());
+      assertEquals(expected.randInt(), actual.randInt());
+      assertEquals(expected.populationSeed, actual.populationSeed);
+      assertEquals(expected.lastUpdated, actual.lastUpdated);
+      assertEquals(expected.attributes.keySet(), actual.attributes.keySet());
+      assertEquals(expected.attributes.get(Person.NAME), actual.attributes.get(Person.NAME));
+      assertEquals(expected.hasMultipleRecords, actual.hasMultipleRecords);
+      assertEquals(expected.history.size(), actual.history.size());
+      for (int j = 0; j < expected.history.size(); j++) {
+        assertEquals(expected.history.get(j).name, actual.history.get(j).name);
+        assertEquals(expected.history.get(j).module.name, actual.history.get(j).module.name);
+      }
+      assertEquals(expected.record.encounters.size(), actual.record.encounters.size());
+      for (int j = 0; j < expected.record.encounters.size(); j++) {
+        Encounter expectedEncounter = expected.record.encounters.get(j);
+        Encounter actualEncounter = actual.record.encounters.get(j);
+        assertEquals(expectedEncounter.type, actualEncounter.type);
+        assertEquals(expectedEncounter.start, actualEncounter.start);
+        assertEquals(expectedEncounter.stop, actualEncounter.stop);
+        assertEquals(expectedEncounter.codes.toString(), actualEncounter.codes.toString());
+        assertEquals(expectedEncounter.conditions.size(), actualEncounter.conditions.size());
+        assertEquals(expectedEncounter.medications.size(), actualEncounter.medications.size());
+        // claim costs are not serialized, but the entry costs they are built from are
+        assertEquals(expectedEncounter.getCost(), actualEncounter.getCost());
+        totalCost = totalCost.add(actualEncounter.getCost());
+        assertEquals(expectedEncounter.claim.items.size(), actualEncounter.claim.items.size());
+        for (int k = 0; k < expectedEncounter.claim.items.size(); k++) {
+          assertEquals(expectedEncounter.claim.items.get(k).entry.getCost(),
+              actualEncounter.claim.items.get(k).entry.getCost());
+        }
+        claimItems += actualEncounter.claim.items.size();
+        if (expectedEncounter.provider != null) {
+          assertEquals(expectedEncounter.provider.uuid, actualEncounter.provider.uuid);
+          // each provider is read once and shared by all of their patients
+          Provider shared = providers.putIfAbsent(actualEncounter.provider.uuid,
+              actualEncounter.provider);
+          if (shared != null) {
+            assertSame(shared, actualEncounter.provider);
+          }
+        }
+      }
+      assertEquals(expected.coverage.getPlanHistory().size(),
+          actual.coverage.getPlanHistory().size());
+
+      PopulationSnapshot.Summary summary = summaries.get(i);
+      assertEquals(expected.lastUpdated, summary.getLastUpdated());
+      assertEquals(!expected.alive(expected.lastUpdated), summary.isDead());
+      for (Map.Entry<String, PopulationSnapshot.ModulePosition> module
+          : summary.getModules().entrySet()) {
+        @SuppressWarnings("unchecked")
+        List<State> history = (List<State>) expected.attributes.get(module.getKey());
+        assertEquals(history.get(0).name, module.getValue().state);
+        assertNotNull(module.getValue().moduleHash);
+        assertEquals(history.get(0).module.getContentHash(), module.getValue().moduleHash);
+      }
+
+      ByteArrayOutputStream alone = new ByteArrayOutputStream();
+      try (ObjectOutputStream oos = new ObjectOutputStream(alone)) {
+        oos.writeObject(expected);
+      }
+      javaSerializedSize += alone.size();
+    }
+    // the compared costs are real values, not defaults that match on both sides
+    assertTrue(totalCost.signum() > 0);
+    assertTrue(claimItems > 0);
+    // much smaller than serializing each person on their own. The generated people differ
+    // from run to run, and the snapshot has been from a half to 60% of the size.
+    assertTrue(snapshot.size() < javaSerializedSize * 3 / 4);
+  }
+
+  @Test
+  public void testTaskSchedulerBoundsTasksInFlight() throws Exception {
+    int maxInFlight = 3;
+    ExecutorService threadPool = Executors.newFixedThreadPool(2);
+    TaskScheduler scheduler = new TaskScheduler(threadPool, maxInFlight, Long.MAX_VALUE);
+    int[] running = new int[1];
+    int[] mostRunning = new int[1];
+    for (int i = 0; i < 50; i++) {
+      scheduler.submit(() -> {
+        synchronized (running) {
+          running[0]++;
+          mostRunning[0] = Math.max(mostRunning[0], running[0]);
+        }
+        try {
+          Thread.sleep(1);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        synchronized (running) {
+          running[0]--;
+        }
+      });
+      // submitted tasks that have not completed yet never exceed the bound
+      assertTrue(i + 1 - scheduler.getCompleted() <= maxInFlight);
+    }
+    scheduler.shutdownAndWait();
+    assertEquals(50, scheduler.getCompleted());
+    assertEquals(50, scheduler.getCompletedInOrder());
+    assertTrue(mostRunning[0] <= 2);
+  }
+}
@@ -0,0 +1,228 @@
+package org.mitre.synthea.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.mitre.synthea.TestHelper;
+import org.mitre.synthea.helpers.Utilities;
+import org.mitre.synthea.world.agents.Person;
+
+public class StateHistoryTest {
+
+  private static void assertSameState(State expected, State actual) {
+    assertSame(expected.getClass(), actual.getClass());
+    assertEquals(expected.name, actual.name);
+    assertEquals(expected.entered, actual.entered);
+    assertEquals(expected.exited, actual.exited);
+  }
+
+  private static void assertSameStates(List<State> expected, List<State> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertSameState(expected.get(i), actual.get(i));
+    }
+    Iterator<State> iterator = actual.iterator();
+    for (State state : expected) {
+      assertSameState(state, iterator.next());
+    }
+  }
+
+  @Test
+  public void testMatchesLinkedList() throws Exception {
+    Module module = TestHelper.getFixture("initial_to_terminal.json");
+    State initial = module.getState("Initial");
+    State terminal = module.getState("Terminal");
+
+    List<State> expected = new LinkedList<State>();
+    List<State> actual = new StateHistory();
+    assertSameStates(expected, actual);
+
+    // more states than the initial capacity, most recent first
+    for (int i = 0; i < 20; i++) {
+      // the shared terminal is added as it is, so its times are the same in both lists
+      State state = (i % 3 == 0) ? terminal : initial.clone();
+      if (state != terminal) {
+        state.entered = (long) i;
+        state.exited = (i % 2 == 0) ? null : (long) i + 1;
+      }
+      expected.add(0, state);
+      actual.add(0, state);
+      assertSameStates(expected, actual);
+    }
+
+    List<State> added = Arrays.asList(initial.clone(), terminal.clone(), initial.clone());
+    expected.addAll(0, added);
+    actual.addAll(0, added);
+    assertSameStates(expected, actual);
+    expected.addAll(5, added);
+    actual.addAll(5, added);
+    assertSameStates(expected, actual);
+
+    State inserted = initial.clone();
+    expected.add(7, inserted);
+    actual.add(7, inserted);
+    expected.add(expected.size(), inserted);
+    actual.add(inserted);
+    assertSameStates(expected, actual);
+
+    assertSameState(expected.remove(0), actual.remove(0));
+    assertSameState(expected.remove(4), actual.remove(4));
+    assertSameState(expected.remove(expected.size() - 1), actual.remove(actual.size() - 1));
+    assertSameStates(expected, actual);
+
+    assertSameState(expected.set(2, terminal), actual.set(2, terminal));
+    assertSameStates(expected, actual);
+
+    actual.clear();
+    assertEquals(0, actual.size());
+    actual.add(0, initial);
+    assertSameState(initial, actual.get(0));
+  }
+
+  @Test
+  public void testSharesStatesWithoutPersonData() throws Exception {
+    Module module = TestHelper.getFixture("condition_onset.json");
+    Person person = new Person(0L);
+    person.attributes.put(Person.BIRTHDATE, 0L);
+    module.process(person, 1000L);
+    StateHistory history = (StateHistory) person.attributes.get(module.name);
+    assertEquals(3, history.size());
+    // a Delay keeps when it ends, so the person has their own copy
+    State delay = history.getState(0);
+    assertTrue(delay instanceof State.Delay);
+    assertNotSame(module.getState("6_Month_Delay"), delay);
+    // an onset is kept for the encounter that will diagnose it
+    State onset = history.getState(1);
+    assertNotSame(module.getState("Diabetes"), onset);
+    assertEquals(onset.entered, history.getEntered(1));
+    // the Initial state keeps nothing, so only the times of the visit are kept
+    assertSame(module.getState("Initial"), history.getState(2));
+    assertEquals(1000L, (long) history.getEntered(2));
+    assertEquals(1000L, (long) history.getExited(2));
+    State initial = history.get(2);
+    assertNotSame(module.getState("Initial"), initial);
+    assertEquals(1000L, (long) initial.entered);
+    assertNull(module.getState("Initial").entered);
+
+    module = TestHelper.getFixture("delay.json");
+    module.process(person, 0L);
+    module.process(person, Utilities.convertTime("minutes", 1));
+    history = (StateHistory) person.attributes.get(module.name);
+    assertEquals("2_Minute_Delay", history.getState(0).name);
+    // the first Delay is over, so the copy is no longer needed
+    assertSame(module.getState("2_Second_Delay"), history.getState(1));
+    assertEquals(Utilities.convertTime("seconds", 2), (long) history.getExited(1));
+    assertEquals(Utilities.convertTime("seconds", 2), (long) history.get(1).exited);
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    Module module = TestHelper.getFixture("initial_to_terminal.json");
+    StateHistory history = new StateHistory();
+    history.add(0, module.getState("Initial"));
+    history.add(0, module.getState("Terminal"));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(history);
+    }
+    StateHistory read;
+    try (ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      read = (StateHistory) in.readObject();
+    }
+    assertEquals(2, read.size());
+    assertEquals("Terminal", read.get(0).name);
+    assertEquals("Initial", read.get(1).name);
+    // a history read back can keep growing
+    read.add(0, module.getState("Initial"));
+    assertEquals("Initial", read.get(0).name);
+    assertEquals(3, read.size());
+  }
+
+  private static void assertSamePriorStates(StateHistory history) {
+    Set<String> names = new LinkedHashSet<String>();
+    List<Long> times = new ArrayList<Long>();
+    times.add(null);
+    for (State state : history) {
+      names.add(state.name);
+      if (state.exited != null) {
+        times.add(state.exited);
+        times.add(state.exited - 1);
+      }
+    }
+    names.add("Never_Entered");
+    List<String> sinces = new ArrayList<String>(names);
+    sinces.add(null);
+    for (String name : names) {
+      for (String since : sinces) {
+        for (Long within : times) {
+          assertEquals(name + " since " + since + " within " + within,
+              StateHistory.hadPriorState(history, name, since, within),
+              history.hadPriorState(name, since, within));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testPriorStateMatchesScan() throws Exception {
+    int checked = 0;
+    for (Person person : TestHelper.getGeneratedPeople()) {
+      for (Object attribute : person.attributes.values()) {
+        if (attribute instanceof StateHistory) {
+          StateHistory history = (StateHistory) attribute;
+          if (history.size() <= 50) {
+            assertSamePriorStates(history);
+            checked++;
+          }
+        }
+      }
+    }
+    assertTrue(checked > 0);
+
+    Module module = TestHelper.getFixture("initial_to_terminal.json");
+    StateHistory history = new StateHistory();
+    List<State> submoduleHistory = new ArrayList<State>();
+    long time = 0L;
+    for (int i = 0; i < 12; i++) {
+      State state = module.getState(i % 4 == 0 ? "Terminal" : "Initial").clone();
+      state.entered = time;
+      time += (i % 3) * 1000L;
+      state.exited = (i == 11) ? null : time;
+      if (i > 5 && i < 9) {
+        submoduleHistory.add(0, state);
+      } else {
+        history.add(0, state);
+      }
+    }
+    // histories from submodules are added to the front all at once
+    history.addAll(0, submoduleHistory);
+    assertSamePriorStates(history);
+    // the index is rebuilt after other changes
+    history.remove(3);
+    assertSamePriorStates(history);
+    history.set(0, module.getState("Terminal"));
+    assertSamePriorStates(history);
+    history.add(2, module.getState("Initial").clone());
+    assertSamePriorStates(history);
+    history.clear();
+    assertSamePriorStates(history);
+  }
+}
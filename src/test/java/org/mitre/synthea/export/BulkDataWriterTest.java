@@ -0,0 +1,95 @@
+package org.mitre.synthea.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ca.uhn.fhir.parser.IParser;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mitre.synthea.TestHelper;
+import org.mitre.synthea.export.Exporter.ExporterRuntimeOptions;
+import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.world.agents.Person;
+
+public class BulkDataWriterTest {
+  /**
+   * Temporary folder for any exported files, guaranteed to be deleted at the end of the test.
+   */
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @After
+  public void tearDown() {
+    TestHelper.exportOff();
+  }
+
+  @Test
+  public void testStreamedBulkExportMatchesBundle() throws Exception {
+    TestHelper.loadTestProperties();
+    Person[] people = TestHelper.getGeneratedPeople();
+    TestHelper.exportOff();
+    File exportDir = tempFolder.newFolder();
+    Config.set("exporter.baseDirectory", exportDir.toString());
+    Config.set("exporter.fhir.export", "true");
+    Config.set("exporter.fhir.bulk_data", "true");
+    FhirR4.reloadIncludeExclude();
+
+    long stopTime = System.currentTimeMillis();
+    ExporterRuntimeOptions options = new ExporterRuntimeOptions();
+    options.yearsOfHistory = 0;
+
+    // export from several threads at once, as Generator.run does
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (Person person : people) {
+      futures.add(pool.submit(() -> Exporter.export(person, stopTime, options)));
+    }
+    pool.shutdown();
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    BulkDataWriter.mergeShards();
+
+    // every resource of the full Bundles must have been written, exactly once
+    IParser parser = FhirR4.getContext().newJsonParser().setPrettyPrint(false);
+    Map<String, List<String>> expected = new HashMap<String, List<String>>();
+    for (Person person : people) {
+      Bundle bundle = FhirR4.convertToFHIR(person, stopTime);
+      for (BundleEntryComponent entry : bundle.getEntry()) {
+        String filename = entry.getResource().fhirType() + ".ndjson";
+        expected.computeIfAbsent(filename, file -> new ArrayList<String>())
+            .add(parser.encodeResourceToString(entry.getResource()));
+      }
+    }
+
+    File fhirFolder = exportDir.toPath().resolve("fhir").toFile();
+    File[] files = fhirFolder.listFiles();
+    assertEquals(expected.size(), files.length);
+    for (File file : files) {
+      assertFalse("Shard was not merged: " + file.getName(), file.getName().endsWith(".part"));
+      assertTrue("Unexpected file: " + file.getName(), expected.containsKey(file.getName()));
+      List<String> lines = Files.readAllLines(file.toPath());
+      List<String> resources = expected.get(file.getName());
+      Collections.sort(lines);
+      Collections.sort(resources);
+      assertEquals(file.getName(), resources, lines);
+    }
+  }
+}
@@ -1,10 +1,20 @@
 package org.mitre.synthea.export;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Before;
 import org.junit.ClassRule;
@@ -244,4 +254,73 @@ public class CSVExporterTest {
   }
 
 
-}
\ No newline at end of file
+  @Test
+  public void testCSVExportWithWriterThreads() throws Exception {
+    Config.set("exporter.csv.included_files", "");
+    Config.set("exporter.csv.excluded_files", "");
+    Config.set("exporter.csv.writer_threads", "true");
+    try {
+      CSVExporter.getInstance().init();
+
+      int numberOfPeople = 10;
+      ExporterRuntimeOptions exportOpts = new ExporterRuntimeOptions();
+      GeneratorOptions generatorOpts = new GeneratorOptions();
+      generatorOpts.population = numberOfPeople;
+      Generator generator = new Generator(generatorOpts, exportOpts);
+      generator.options.overflow = false;
+      // export from several threads at once, as Generator.run does
+      ExecutorService pool = Executors.newFixedThreadPool(4);
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (int i = 0; i < numberOfPeople; i++) {
+        final int index = i;
+        futures.add(pool.submit(() -> generator.generatePerson(index)));
+      }
+      pool.shutdown();
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      Exporter.runPostCompletionExports(generator, exportOpts);
+    } finally {
+      Config.set("exporter.csv.writer_threads", "false");
+    }
+
+    File expectedExportFolder = exportDir.toPath().resolve("csv").toFile();
+    Set<String> patientIds = new HashSet<String>();
+    for (Map<String, String> row : readCSV(expectedExportFolder, "patients.csv")) {
+      patientIds.add(row.get("Id"));
+    }
+    assertFalse(patientIds.isEmpty());
+
+    assertContiguous(readCSV(expectedExportFolder, "encounters.csv"), "PATIENT", patientIds);
+    assertContiguous(readCSV(expectedExportFolder, "observations.csv"), "PATIENT", patientIds);
+    assertContiguous(readCSV(expectedExportFolder, "claims_transactions.csv"), "PATIENTID",
+        patientIds);
+  }
+
+  private static List<LinkedHashMap<String, String>> readCSV(File folder, String filename)
+      throws Exception {
+    String csvData = new String(Files.readAllBytes(folder.toPath().resolve(filename)));
+    assertTrue("CSV validation: " + filename, SimpleCSV.isValid(csvData));
+    return SimpleCSV.parse(csvData);
+  }
+
+  /**
+   * Check that all the rows for each patient are next to each other.
+   */
+  private static void assertContiguous(List<? extends Map<String, String>> rows, String column,
+      Set<String> patientIds) {
+    Set<String> finished = new HashSet<String>();
+    String current = null;
+    for (Map<String, String> row : rows) {
+      String id = row.get(column);
+      assertTrue("Unknown patient " + id, patientIds.contains(id));
+      if (!id.equals(current)) {
+        if (current != null) {
+          finished.add(current);
+        }
+        assertFalse("Rows for patient " + id + " are not contiguous", finished.contains(id));
+        current = id;
+      }
+    }
+  }
+}
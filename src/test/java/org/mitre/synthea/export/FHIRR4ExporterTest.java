@@ -25,7 +25,9 @@ import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
 import org.hl7.fhir.r4.model.Media;
 import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Provenance;
 import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Resource;
 import org.hl7.fhir.r4.model.SampledData;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -325,6 +327,35 @@ public class FHIRR4ExporterTest {
     }
   }
 
+  @Test
+  public void testStreamedProvenanceWithoutEncounters() throws Exception {
+    boolean useUsCoreIG = FhirR4.USE_US_CORE_IG;
+    String included = Config.get("exporter.fhir.included_resources", "");
+    String excluded = Config.get("exporter.fhir.excluded_resources", "");
+    Config.set("exporter.fhir.included_resources", "");
+    Config.set("exporter.fhir.excluded_resources", "");
+    FhirR4.reloadIncludeExclude();
+    FhirR4.USE_US_CORE_IG = true;
+    try {
+      Person person = TestHelper.getGeneratedPeople()[0];
+      person.record.encounters.clear();
+
+      List<Resource> streamed = new ArrayList<Resource>();
+      FhirR4.streamToFHIR(person, System.currentTimeMillis(), streamed::add);
+
+      assertEquals("Patient", streamed.get(0).fhirType());
+      Resource last = streamed.get(streamed.size() - 1);
+      assertTrue(last instanceof Provenance);
+      // every streamed resource before the Provenance is one of its targets
+      assertEquals(streamed.size() - 1, ((Provenance) last).getTarget().size());
+    } finally {
+      FhirR4.USE_US_CORE_IG = useUsCoreIG;
+      Config.set("exporter.fhir.included_resources", included);
+      Config.set("exporter.fhir.excluded_resources", excluded);
+      FhirR4.reloadIncludeExclude();
+    }
+  }
+
   @Test
   public void testShouldExport() {
     // nothing set for either == allow everything
@@ -0,0 +1,58 @@
+package org.mitre.synthea.helpers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class AliasSamplerTest {
+
+  private static final List<String> VALUES =
+      Arrays.asList("ambulatory", "emergency", "telemedicine");
+
+  @Test
+  public void testProportions() {
+    double[] weights = {0.66, 0.25, 0.09};
+    AliasSampler<String> sampler = new AliasSampler<String>(VALUES, weights);
+    RandomNumberGenerator random = new DefaultRandomNumberGenerator(7L);
+    Map<String, Integer> counts = new HashMap<String, Integer>();
+    int samples = 100_000;
+    for (int i = 0; i < samples; i++) {
+      counts.merge(sampler.sample(random), 1, Integer::sum);
+    }
+    for (int i = 0; i < VALUES.size(); i++) {
+      assertEquals(weights[i], counts.get(VALUES.get(i)) / (double) samples, 0.01);
+    }
+    // one draw per sample
+    assertEquals(samples, random.getCount());
+  }
+
+  @Test
+  public void testZeroWeights() {
+    AliasSampler<String> sampler = new AliasSampler<String>(VALUES, new double[] {0, 2.5, 0});
+    RandomNumberGenerator random = new DefaultRandomNumberGenerator(0L);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals("emergency", sampler.sample(random));
+    }
+  }
+
+  @Test
+  public void testDeterministicPerSeed() {
+    AliasSampler<String> sampler =
+        new AliasSampler<String>(VALUES, new double[] {0.56, 0.2, 0.24});
+    RandomNumberGenerator first = new DefaultRandomNumberGenerator(19L);
+    RandomNumberGenerator second = new DefaultRandomNumberGenerator(19L);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(sampler.sample(first), sampler.sample(second));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoPositiveWeight() {
+    new AliasSampler<String>(VALUES, new double[] {0, 0, 0});
+  }
+}
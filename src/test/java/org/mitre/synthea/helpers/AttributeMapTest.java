@@ -0,0 +1,168 @@
+package org.mitre.synthea.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class AttributeMapTest {
+
+  @Test
+  public void testMatchesHashMap() {
+    Map<String, Object> expected = new HashMap<String, Object>();
+    AttributeMap actual = new AttributeMap();
+    assertTrue(actual.isEmpty());
+    for (int i = 0; i < 500; i++) {
+      String key = "attribute_map_test_" + (i % 300);
+      Object value = (i % 3 == 0) ? Boolean.TRUE : (Object) (i * 0.5);
+      assertEquals(expected.put(key, value), actual.put(key, value));
+      if (i % 7 == 0) {
+        String removed = "attribute_map_test_" + (i % 50);
+        assertEquals(expected.remove(removed), actual.remove(removed));
+      }
+      assertEquals(expected.size(), actual.size());
+    }
+    assertEquals(expected, actual);
+    assertEquals(actual, expected);
+    assertEquals(expected.hashCode(), actual.hashCode());
+    assertNull(actual.get("attribute_map_test_never_put"));
+    assertFalse(actual.containsKey("attribute_map_test_never_put"));
+    assertNull(actual.remove("attribute_map_test_never_put"));
+
+    // each person keeps their own values
+    AttributeMap other = new AttributeMap();
+    other.put("attribute_map_test_1", "other");
+    assertEquals("other", other.get("attribute_map_test_1"));
+    assertEquals(expected.get("attribute_map_test_1"), actual.get("attribute_map_test_1"));
+    assertEquals(1, other.size());
+  }
+
+  @Test
+  public void testIteration() {
+    AttributeMap attributes = new AttributeMap();
+    for (int i = 0; i < 20; i++) {
+      attributes.put("attribute_map_test_" + i, i);
+    }
+    // entries write through, and attributes can be added or removed while iterating
+    Iterator<Map.Entry<String, Object>> iterator = attributes.entrySet().iterator();
+    int seen = 0;
+    while (iterator.hasNext()) {
+      Map.Entry<String, Object> entry = iterator.next();
+      int value = (Integer) entry.getValue();
+      if (value % 2 == 0) {
+        iterator.remove();
+      } else {
+        entry.setValue(value * 10);
+      }
+      attributes.put("attribute_map_test_added_while_iterating", -1);
+      seen++;
+    }
+    assertTrue(seen >= 20);
+    assertEquals(11, attributes.size());
+    assertEquals(30, attributes.get("attribute_map_test_3"));
+    assertNull(attributes.get("attribute_map_test_4"));
+
+    attributes.keySet().removeIf(key -> key.endsWith("_while_iterating"));
+    assertEquals(10, attributes.size());
+    attributes.clear();
+    assertTrue(attributes.isEmpty());
+    assertFalse(attributes.entrySet().iterator().hasNext());
+  }
+
+  @Test
+  public void testKeys() {
+    AttributeMap.Key flag = AttributeMap.key("attribute_map_test_flag");
+    AttributeMap.Key object = AttributeMap.key("attribute_map_test_object");
+    AttributeMap attributes = new AttributeMap();
+    assertFalse(attributes.has(flag));
+    assertFalse(attributes.getBoolean(flag));
+
+    // a key and its name reach the same value
+    attributes.putBoolean(flag, false);
+    assertTrue(attributes.has(flag));
+    assertFalse(attributes.getBoolean(flag));
+    assertEquals(false, attributes.get("attribute_map_test_flag"));
+    attributes.put("attribute_map_test_flag", true);
+    assertTrue(attributes.getBoolean(flag));
+
+    assertNull(attributes.putValue(object, "first"));
+    assertEquals("first", attributes.putValue(object, "second"));
+    assertEquals("second", attributes.get(object.getName()));
+    assertEquals(2, attributes.size());
+    assertEquals("second", attributes.removeValue(object));
+    assertNull(attributes.getValue(object));
+    assertFalse(attributes.containsKey("attribute_map_test_object"));
+    assertEquals(1, attributes.size());
+  }
+
+  @Test
+  public void testUnboxedNumbers() {
+    AttributeMap.Key real = AttributeMap.key("attribute_map_test_real");
+    AttributeMap.Key whole = AttributeMap.key("attribute_map_test_whole");
+    AttributeMap attributes = new AttributeMap();
+    assertFalse(attributes.isNumber(real));
+    assertEquals(-1.0, attributes.getDouble(real, -1.0), 0.0);
+    assertEquals(-1L, attributes.getLong(whole, -1L));
+
+    // unboxed values read back boxed, as the type they were set as
+    attributes.putDouble(real, 2.5);
+    attributes.putLong(whole, 1L << 40);
+    assertTrue(attributes.isNumber(real));
+    assertEquals(2.5, attributes.getDouble(real, 0.0), 0.0);
+    assertEquals(2L, attributes.getLong(real, 0L));
+    assertEquals(1L << 40, attributes.getLong(whole, 0L));
+    assertEquals(2.5, attributes.get("attribute_map_test_real"));
+    assertEquals(1L << 40, attributes.getValue(whole));
+    assertEquals(2, attributes.size());
+    Map<String, Object> expected = new HashMap<String, Object>();
+    expected.put("attribute_map_test_real", 2.5);
+    expected.put("attribute_map_test_whole", 1L << 40);
+    assertEquals(expected, attributes);
+
+    // boxed values are read the same way, and replace unboxed ones
+    assertEquals(2.5, attributes.put("attribute_map_test_real", 3));
+    assertTrue(attributes.isNumber(real));
+    assertEquals(3.0, attributes.getDouble(real, 0.0), 0.0);
+    assertEquals(1L << 40, attributes.removeValue(whole));
+    assertFalse(attributes.isNumber(whole));
+    attributes.put("attribute_map_test_whole", "text");
+    assertFalse(attributes.isNumber(whole));
+    assertEquals(2, attributes.size());
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testRejectsNullValues() {
+    new AttributeMap().put("attribute_map_test_null", null);
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    AttributeMap attributes = new AttributeMap();
+    attributes.put("attribute_map_test_name", "Value");
+    attributes.put("attribute_map_test_count", 3);
+    attributes.putDouble(AttributeMap.key("attribute_map_test_real"), 0.5);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(attributes);
+    }
+    Object read;
+    try (ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      read = in.readObject();
+    }
+    assertEquals(attributes, read);
+    assertEquals(0.5, ((AttributeMap) read).getDouble(AttributeMap.key("attribute_map_test_real"),
+        0.0), 0.0);
+  }
+}
@@ -0,0 +1,60 @@
+package org.mitre.synthea.helpers;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Micro-benchmark measuring the throughput of a single ExpressionProcessor shared by an
+ * increasing number of threads, up to 32.
+ * Run with: ./gradlew benchmark -Pbenchmark=org.mitre.synthea.helpers.ExpressionProcessorBenchmark
+ */
+public class ExpressionProcessorBenchmark {
+  private static final int EVALUATIONS_PER_THREAD = 20_000;
+  private static final String EXPRESSION = "#{weight} / ((#{height} / 100) * (#{height} / 100))";
+
+  /**
+   * Run the benchmark.
+   * @param args unused
+   */
+  public static void main(String[] args) throws Exception {
+    ExpressionProcessor expProcessor = new ExpressionProcessor(EXPRESSION);
+    // warm up
+    measure(expProcessor, 4);
+
+    System.out.println("threads, evaluations/s");
+    for (int threads : new int[] {1, 2, 4, 8, 16, 32}) {
+      System.out.printf("%d, %.0f%n", threads, measure(expProcessor, threads));
+    }
+  }
+
+  private static double measure(ExpressionProcessor expProcessor, int threads)
+      throws Exception {
+    String[] slots = expProcessor.getParamSlots();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    List<Future<Double>> results = new ArrayList<Future<Double>>();
+    long start = System.nanoTime();
+    for (int t = 0; t < threads; t++) {
+      results.add(pool.submit(() -> {
+        double total = 0;
+        Object[] values = new Object[slots.length];
+        for (int i = 0; i < EVALUATIONS_PER_THREAD; i++) {
+          for (int s = 0; s < slots.length; s++) {
+            values[s] = new BigDecimal(slots[s].equals("weight") ? 50 + (i % 50) : 170);
+          }
+          total += ((Number) expProcessor.evaluate(values)).doubleValue();
+        }
+        return total;
+      }));
+    }
+    for (Future<Double> result : results) {
+      result.get();
+    }
+    long elapsed = System.nanoTime() - start;
+    pool.shutdown();
+    return (double) threads * EVALUATIONS_PER_THREAD / (elapsed / 1e9);
+  }
+}
@@ -2,12 +2,19 @@ package org.mitre.synthea.helpers;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 import org.mitre.synthea.world.agents.Person;
@@ -130,4 +137,75 @@ public class ExpressionProcessorTest {
     assertEquals(18.0, result.doubleValue(), 0.0001);
 
   }
+
+  @Test
+  public void testCompiledExpressionCache() {
+    ExpressionProcessor first = new ExpressionProcessor("#{cache_var} * 4");
+    ExpressionProcessor second = new ExpressionProcessor("#{cache_var} * 4");
+    ExpressionProcessor other = new ExpressionProcessor("#{cache_var} * 5");
+
+    assertSame(first.getLibrary(), second.getLibrary());
+    assertNotSame(first.getLibrary(), other.getLibrary());
+
+    Map<String,Object> params = new HashMap<String,Object>();
+    params.put("cache_var", new BigDecimal(3));
+    assertEquals(12.0, first.evaluateNumeric(params).doubleValue(), 0.0001);
+    assertEquals(12.0, second.evaluateNumeric(params).doubleValue(), 0.0001);
+    assertEquals(15.0, other.evaluateNumeric(params).doubleValue(), 0.0001);
+  }
+
+  @Test
+  public void testParameterSlots() {
+    ExpressionProcessor expProcessor = new ExpressionProcessor("#{slot_a} - #{slot_b}");
+    String[] slots = expProcessor.getParamSlots();
+    assertEquals(2, slots.length);
+
+    Object[] values = new Object[slots.length];
+    for (int i = 0; i < slots.length; i++) {
+      values[i] = slots[i].equals("slot_a") ? new BigDecimal(10) : new BigDecimal(4);
+    }
+    Number result = (Number) expProcessor.evaluate(values);
+    assertEquals(6.0, result.doubleValue(), 0.0001);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingParameter() {
+    ExpressionProcessor expProcessor = new ExpressionProcessor("#{missing_a} + #{missing_b}");
+    Map<String,Object> params = new HashMap<String,Object>();
+    params.put("missing_a", new BigDecimal(1));
+    expProcessor.evaluate(params);
+  }
+
+  @Test
+  public void testConcurrentEvaluation() throws Exception {
+    // a single processor shared by every thread, as a module state would be
+    ExpressionProcessor expProcessor = new ExpressionProcessor("#{thread_var} * 2 + #{loop_var}");
+    String[] slots = expProcessor.getParamSlots();
+    int threads = 32;
+    int evaluations = 200;
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    List<Future<Integer>> failures = new ArrayList<Future<Integer>>();
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      failures.add(pool.submit(() -> {
+        int wrong = 0;
+        Object[] values = new Object[slots.length];
+        for (int i = 0; i < evaluations; i++) {
+          for (int s = 0; s < slots.length; s++) {
+            values[s] = new BigDecimal(slots[s].equals("thread_var") ? thread : i);
+          }
+          Number result = (Number) expProcessor.evaluate(values);
+          if (result.intValue() != thread * 2 + i) {
+            wrong++;
+          }
+        }
+        return wrong;
+      }));
+    }
+    pool.shutdown();
+    assertTrue(pool.awaitTermination(5, TimeUnit.MINUTES));
+    for (Future<Integer> failure : failures) {
+      assertEquals(0, failure.get().intValue());
+    }
+  }
 }
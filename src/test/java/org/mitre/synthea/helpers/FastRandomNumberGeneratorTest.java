@@ -0,0 +1,113 @@
+package org.mitre.synthea.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FastRandomNumberGeneratorTest {
+
+  @Test
+  public void testReproducible() {
+    RandomNumberGenerator first = new FastRandomNumberGenerator(42L);
+    RandomNumberGenerator second = new FastRandomNumberGenerator(42L);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(first.randLong(), second.randLong());
+      assertEquals(first.rand(), second.rand(), 0.0);
+      assertEquals(first.randGaussian(), second.randGaussian(), 0.0);
+      assertEquals(first.randInt(37), second.randInt(37));
+    }
+    assertEquals(4000, first.getCount());
+    assertEquals(42L, first.getSeed());
+    assertNotEquals(new FastRandomNumberGenerator(43L).randLong(),
+        new FastRandomNumberGenerator(42L).randLong());
+    // two draws per UUID
+    first.randUUID();
+    assertEquals(4002, first.getCount());
+  }
+
+  @Test
+  public void testDistributions() {
+    RandomNumberGenerator random = new FastRandomNumberGenerator(7L);
+    int samples = 200_000;
+    int[] counts = new int[10];
+    int trues = 0;
+    double sum = 0;
+    double sumOfSquares = 0;
+    for (int i = 0; i < samples; i++) {
+      double value = random.rand();
+      assertTrue(value >= 0 && value < 1);
+      int bucket = random.randInt(counts.length);
+      assertTrue(bucket >= 0 && bucket < counts.length);
+      counts[bucket]++;
+      if (random.randBoolean()) {
+        trues++;
+      }
+      double gaussian = random.randGaussian();
+      sum += gaussian;
+      sumOfSquares += gaussian * gaussian;
+    }
+    for (int count : counts) {
+      assertEquals(0.1, count / (double) samples, 0.005);
+    }
+    assertEquals(0.5, trues / (double) samples, 0.005);
+    double mean = sum / samples;
+    assertEquals(0.0, mean, 0.01);
+    assertEquals(1.0, Math.sqrt(sumOfSquares / samples - mean * mean), 0.01);
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(random.randInt(16) < 16);
+      assertEquals(0, random.randInt(1));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsBound() {
+    new FastRandomNumberGenerator(0L).randInt(0);
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    RandomNumberGenerator random = new FastRandomNumberGenerator(11L);
+    random.rand();
+    // leave the second of a pair of normal values pending
+    random.randGaussian();
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(random);
+    }
+    RandomNumberGenerator read;
+    try (ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      read = (RandomNumberGenerator) in.readObject();
+    }
+    assertEquals(random.getCount(), read.getCount());
+    assertEquals(random.getSeed(), read.getSeed());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(random.randGaussian(), read.randGaussian(), 0.0);
+      assertEquals(random.randLong(), read.randLong());
+    }
+  }
+
+  @Test
+  public void testConfigSwitch() {
+    String previous = Config.get("generate.fast_random", "false");
+    try {
+      Config.set("generate.fast_random", "false");
+      assertTrue(RandomNumberGenerator.create(5L) instanceof DefaultRandomNumberGenerator);
+      // the default keeps reproducing java.util.Random
+      assertEquals(new Random(5L).nextLong(), RandomNumberGenerator.create(5L).randLong());
+      Config.set("generate.fast_random", "true");
+      assertTrue(RandomNumberGenerator.create(5L) instanceof FastRandomNumberGenerator);
+    } finally {
+      Config.set("generate.fast_random", previous);
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package org.mitre.synthea.helpers;
 
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
 
 import org.junit.Assert;
@@ -120,4 +122,66 @@ public class RandomCollectionTest {
     Assert.assertTrue(3 == asian);
   }
 
+  @Test
+  public void testAddAfterNext() {
+    RandomCollection<String> rc = new RandomCollection<String>();
+    rc.add(1.0, "white");
+    RandomNumberGenerator random = new DefaultRandomNumberGenerator(0);
+    Assert.assertEquals("white", rc.next(random));
+    rc.add(1000.0, "black");
+    int black = 0;
+    for (int i = 0; i < 100; i++) {
+      if (rc.next(random).equals("black")) {
+        black++;
+      }
+    }
+    Assert.assertTrue(black > 90);
+  }
+
+  @Test
+  public void testMatchesCumulativeWeights() {
+    double[] weights = {0.038, 0.5, 0.0, 0.2, 0.001, 0.261, 0.17};
+    RandomCollection<Integer> rc = new RandomCollection<Integer>();
+    // the lookup of cumulative weights that the collection used before its alias table
+    TreeMap<Double, Integer> cumulative = new TreeMap<Double, Integer>();
+    double total = 0;
+    for (int i = 0; i < weights.length; i++) {
+      rc.add(weights[i], i);
+      if (weights[i] > 0) {
+        total += weights[i];
+        cumulative.put(total, i);
+      }
+    }
+
+    int samples = 200_000;
+    int[] aliasCounts = new int[weights.length];
+    int[] cumulativeCounts = new int[weights.length];
+    RandomNumberGenerator aliasRandom = new DefaultRandomNumberGenerator(1);
+    RandomNumberGenerator cumulativeRandom = new DefaultRandomNumberGenerator(2);
+    for (int i = 0; i < samples; i++) {
+      aliasCounts[rc.next(aliasRandom)]++;
+      Map.Entry<Double, Integer> entry = cumulative.higherEntry(cumulativeRandom.rand() * total);
+      cumulativeCounts[(entry == null ? cumulative.lastEntry() : entry).getValue()]++;
+    }
+    Assert.assertEquals(samples, aliasRandom.getCount());
+
+    // chi-squared test that both samples come from the same distribution
+    double chiSquared = 0;
+    int categories = 0;
+    for (int i = 0; i < weights.length; i++) {
+      int sum = aliasCounts[i] + cumulativeCounts[i];
+      if (sum == 0) {
+        Assert.assertEquals(0.0, weights[i], 0.0);
+        continue;
+      }
+      categories++;
+      double difference = aliasCounts[i] - cumulativeCounts[i];
+      chiSquared += difference * difference / sum;
+      Assert.assertEquals(weights[i] / total, aliasCounts[i] / (double) samples, 0.005);
+    }
+    Assert.assertEquals(6, categories);
+    // the 0.999 quantile of the chi-squared distribution with 5 degrees of freedom
+    Assert.assertTrue("chi-squared " + chiSquared, chiSquared < 20.515);
+  }
+
 }
@@ -0,0 +1,60 @@
+package org.mitre.synthea.helpers;
+
+/**
+ * Micro-benchmark of the draws per second, on one core, of the default random number
+ * generator, backed by java.util.Random, and the fast one, for each kind of draw.
+ * Run with:
+ * ./gradlew benchmark -Pbenchmark=org.mitre.synthea.helpers.RandomNumberGeneratorBenchmark
+ */
+public class RandomNumberGeneratorBenchmark {
+  private static final int DRAWS = 10_000_000;
+  private static final int ROUNDS = 5;
+
+  /**
+   * Run the benchmark.
+   * @param args unused
+   */
+  public static void main(String[] args) {
+    System.out.println("round, draw, default draws/s, fast draws/s");
+    for (int round = 1; round <= ROUNDS; round++) {
+      for (String draw : new String[] {"rand", "randInt(bound)", "randGaussian", "randLong"}) {
+        double standard = measure(new DefaultRandomNumberGenerator(round), draw);
+        double fast = measure(new FastRandomNumberGenerator(round), draw);
+        System.out.printf("%d, %s, %.0f, %.0f%n", round, draw, standard, fast);
+      }
+    }
+  }
+
+  private static double measure(RandomNumberGenerator random, String draw) {
+    double sink = 0;
+    long start = System.nanoTime();
+    switch (draw) {
+      case "rand":
+        for (int i = 0; i < DRAWS; i++) {
+          sink += random.rand();
+        }
+        break;
+      case "randInt(bound)":
+        for (int i = 0; i < DRAWS; i++) {
+          sink += random.randInt(100);
+        }
+        break;
+      case "randGaussian":
+        for (int i = 0; i < DRAWS; i++) {
+          sink += random.randGaussian();
+        }
+        break;
+      default:
+        for (int i = 0; i < DRAWS; i++) {
+          sink += random.randLong();
+        }
+        break;
+    }
+    long elapsed = System.nanoTime() - start;
+    if (sink == Double.MIN_VALUE) {
+      // keep the draws from being optimized away
+      System.out.println(sink);
+    }
+    return DRAWS / (elapsed / 1e9);
+  }
+}
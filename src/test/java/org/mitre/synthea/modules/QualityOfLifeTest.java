@@ -1,6 +1,9 @@
 package org.mitre.synthea.modules;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -112,6 +115,45 @@ public class QualityOfLifeTest {
     assertEquals(true, (qalyDeceased > 33 && qalyDeceased < 34));
   }
 
+  @Test
+  public void testAccumulateMatchesCalculate() {
+    for (int year = 0; year <= 35; year++) {
+      long time = TimeUnit.DAYS.toMillis((long) (365.25 * year) + 100);
+      if (year == 28) {
+        // recorded in the same encounter as the earlier conditions
+        Entry depression = person.record.conditionStart(time, "370143000");
+        depression.codes.add(new Code("SNOMED", "370143000", "Major depressive disorder"));
+      } else if (year == 31) {
+        person.record.conditionEnd(time, "370143000");
+      } else if (year == 33) {
+        person.recordDeath(time, null);
+      }
+      // asked twice in the same year of life, as on a new calendar year
+      for (long offset : new long[] { 0L, TimeUnit.DAYS.toMillis(200) }) {
+        assertArrayEquals(QualityOfLifeModule.calculate(person, time + offset),
+            QualityOfLifeModule.accumulate(person, time + offset), 0.0);
+      }
+    }
+    // an earlier time than the totals have reached
+    long earlier = TimeUnit.DAYS.toMillis((long) (365.25 * 12));
+    assertArrayEquals(QualityOfLifeModule.calculate(person, earlier),
+        QualityOfLifeModule.accumulate(person, earlier), 0.0);
+    // the totals hold the records, so they are kept off the exported attributes
+    assertNotNull(person.qualityOfLifeTotals);
+    for (Object value : person.attributes.values()) {
+      assertFalse(value instanceof QualityOfLifeModule.Totals);
+    }
+  }
+
+  @Test
+  public void testAccumulateMatchesCalculateForGeneratedPeople() throws Exception {
+    for (Person generated : TestHelper.getGeneratedPeople()) {
+      long time = generated.lastUpdated;
+      assertArrayEquals(QualityOfLifeModule.calculate(generated, time),
+          QualityOfLifeModule.accumulate(generated, time), 0.0);
+    }
+  }
+
   @Test
   public void testConditionsInYear() {
     List<Entry> allConditions = new ArrayList<Entry>();
@@ -31,6 +31,8 @@ import org.mitre.synthea.world.concepts.HealthRecord;
 import org.mitre.synthea.world.concepts.HealthRecord.Code;
 import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
 import org.mitre.synthea.world.concepts.HealthRecord.EncounterType;
+import org.mitre.synthea.world.concepts.healthinsurance.CoverageRecord;
+import org.mitre.synthea.world.concepts.healthinsurance.CoverageRecord.PlanRecord;
 import org.mitre.synthea.world.concepts.healthinsurance.InsurancePlan;
 import org.mitre.synthea.world.geography.Location;
 
@@ -486,6 +488,40 @@ public class PayerTest {
     assertEquals(2, person.coverage.getPlanHistory().size());
   }
 
+  @Test
+  public void planHistoryLookup() {
+    person = new Person(0L);
+    person.attributes.put(Person.BIRTHDATE, 0L);
+    InsurancePlan plan = testPrivatePayer1.getPlans().iterator().next();
+    long year = Utilities.convertTime("years", 1);
+    for (int i = 0; i < 40; i++) {
+      person.coverage.setPlanAtTime(i * year / 2, i % 3 == 0 ? plan
+          : PayerManager.getNoInsurancePlan(), PayerManager.getNoInsurancePlan());
+    }
+    assertPlanHistoryLookup(person.coverage, 25 * year);
+    assertEquals(21, person.coverage.getPlanHistoryUntil(10 * year).size());
+
+    // setting a plan earlier than the last one leaves overlapping plans
+    person.coverage.setPlanAtTime(5 * year, plan, PayerManager.getNoInsurancePlan());
+    assertPlanHistoryLookup(person.coverage, 25 * year);
+    assertEquals(40, person.coverage.getPlanHistoryUntil(19 * year).size());
+  }
+
+  private static void assertPlanHistoryLookup(CoverageRecord coverage, long end) {
+    for (long time = -1000L; time < end; time += Utilities.convertTime("days", 7)) {
+      PlanRecord expected = null;
+      for (PlanRecord planRecord : coverage.getPlanHistory()) {
+        if (planRecord.start <= time && time < planRecord.stop) {
+          expected = planRecord;
+          break;
+        }
+      }
+      assertEquals(expected, coverage.getPlanRecordAtTime(time));
+      // the cached current plan must not change the answer
+      assertEquals(expected, coverage.getPlanRecordAtTime(time));
+    }
+  }
+
   @Test
   public void loadGovernmentPayers() {
     assertNotNull(PayerManager.getGovernmentPayer(PayerManager.MEDICARE));
@@ -12,6 +12,9 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.nio.file.Files;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.Period;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -160,6 +163,37 @@ public class PersonTest {
     testAgeMonths(birthdate, now, 11);
   }
 
+  @Test
+  public void testAgeMatchesPeriod() {
+    ZoneId zone = ZoneId.systemDefault();
+    RandomNumberGenerator random = new DefaultRandomNumberGenerator(0L);
+    long hundredYears = TimeUnit.DAYS.toMillis(36525);
+    for (int i = 0; i < 100_000; i++) {
+      long birthdate = (long) ((random.rand() - 0.3) * hundredYears);
+      long now;
+      if (i % 2 == 0) {
+        now = birthdate + (long) ((random.rand() - 0.05) * hundredYears);
+      } else {
+        // within a few years of birth, to exercise month and day boundaries
+        now = birthdate + TimeUnit.DAYS.toMillis(random.randInt(1500) - 100)
+            + random.randInt((int) TimeUnit.DAYS.toMillis(1));
+      }
+      person.attributes.put(Person.BIRTHDATE, birthdate);
+      Period expected = Period.between(
+          Instant.ofEpochMilli(birthdate).atZone(zone).toLocalDate(),
+          Instant.ofEpochMilli(now).atZone(zone).toLocalDate());
+      assertEquals(expected, person.age(now));
+      assertEquals(Math.max(0, expected.getYears()), person.ageInYears(now));
+      assertEquals(Math.max(0, expected.toTotalMonths()), person.ageInMonths(now));
+      double years = expected.getYears() + expected.getMonths() / 12.0
+          + expected.getDays() / 365.2425;
+      assertEquals(Math.max(0, years), person.ageInDecimalYears(now), 0.0);
+    }
+    person.attributes.remove(Person.BIRTHDATE);
+    assertEquals(Period.ZERO, person.age(0L));
+    assertEquals(0, person.ageInYears(0L));
+  }
+
   private void testAgeYears(long birthdate, long now, long expectedAge) {
     person.attributes.put(Person.BIRTHDATE, birthdate);
     assertEquals(expectedAge, person.ageInYears(now));
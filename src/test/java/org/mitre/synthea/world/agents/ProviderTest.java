@@ -6,6 +6,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -196,6 +197,61 @@ public class ProviderTest {
     Assert.assertNotNull(provider);
   }
 
+  @Test
+  public void testNearestIsNearestByGreatCircle() {
+    boolean useSpatialIndex = Provider.USE_SPATIAL_INDEX;
+    Provider.USE_SPATIAL_INDEX = true;
+    try {
+      checkNearestByGreatCircle();
+    } finally {
+      Provider.USE_SPATIAL_INDEX = useSpatialIndex;
+    }
+  }
+
+  private void checkNearestByGreatCircle() {
+    Provider.loadProviders(location, providerRandom);
+    List<Provider> providers = Provider.getProviderList();
+    for (int i = 0; i < 50; i++) {
+      Person person = new Person(i);
+      location.assignPoint(person, location.randomCityName(person));
+      if (i % 3 == 0) {
+        person.attributes.put(Person.VETERAN, "vietnam");
+      }
+      for (EncounterType service : new EncounterType[] {
+          EncounterType.WELLNESS, EncounterType.EMERGENCY, EncounterType.INPATIENT}) {
+        boolean emergency = service == EncounterType.EMERGENCY;
+        Provider provider = Provider.findService(person, service, 0);
+        Assert.assertNotNull(provider);
+        Assert.assertTrue(provider.hasService(service));
+        Assert.assertTrue(provider.accepts(person, 0));
+        if (!emergency && person.attributes.containsKey(Person.VETERAN)) {
+          Assert.assertEquals(ProviderType.VETERAN, provider.type);
+        }
+
+        double nearest = Double.POSITIVE_INFINITY;
+        for (Provider other : providers) {
+          boolean eligible = other.hasService(service) && other.accepts(person, 0)
+              && (emergency || !person.attributes.containsKey(Person.VETERAN)
+                  || other.type == ProviderType.VETERAN);
+          if (eligible) {
+            nearest = Math.min(nearest, greatCircle(person, other));
+          }
+        }
+        Assert.assertEquals(nearest, greatCircle(person, provider), 1e-9);
+      }
+    }
+  }
+
+  private static double greatCircle(Person person, Provider provider) {
+    double lat1 = Math.toRadians(person.getY());
+    double lat2 = Math.toRadians(provider.getY());
+    double dlat = lat2 - lat1;
+    double dlon = Math.toRadians(provider.getX() - person.getX());
+    double a = Math.pow(Math.sin(dlat / 2), 2)
+        + Math.cos(lat1) * Math.cos(lat2) * Math.pow(Math.sin(dlon / 2), 2);
+    return Math.toDegrees(2 * Math.asin(Math.sqrt(a)));
+  }
+
   @Ignore("VA Facilities are not guaranteed to exist with international configurations.")
   @Test
   public void testVaFacilityOnlyAcceptsVeteran() {
@@ -0,0 +1,84 @@
+package org.mitre.synthea.world.agents;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.mitre.synthea.world.agents.Provider.UtilizationType;
+
+public class UtilizationCounterTest {
+
+  @Test
+  public void testConcurrentIncrements() throws Exception {
+    UtilizationCounter<UtilizationType> counter =
+        new UtilizationCounter<UtilizationType>(UtilizationType.class);
+    int threads = 8;
+    int increments = 10_000;
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (int t = 0; t < threads; t++) {
+      futures.add(pool.submit(() -> {
+        for (int i = 0; i < increments; i++) {
+          int year = 2000 + (i % 10);
+          counter.increment(year, UtilizationType.ENCOUNTERS,
+              (i / 10) % 2 == 0 ? "wellness" : "er");
+          counter.increment(year, UtilizationType.LABS);
+        }
+      }));
+    }
+    pool.shutdown();
+    for (Future<?> future : futures) {
+      future.get();
+    }
+
+    UtilizationCounter.Snapshot<UtilizationType> snapshot = counter.snapshot();
+    assertEquals(threads * increments, counter.total(UtilizationType.ENCOUNTERS));
+    assertEquals(threads * increments, snapshot.total(UtilizationType.ENCOUNTERS));
+    assertEquals(threads * increments, snapshot.total(UtilizationType.LABS));
+    assertEquals(0, snapshot.total(UtilizationType.PROCEDURES));
+    assertEquals(10, snapshot.getYears().size());
+    assertEquals(threads * increments / 10, snapshot.get(2003, UtilizationType.ENCOUNTERS));
+    assertEquals(threads * increments / 20,
+        snapshot.get(2003, UtilizationType.ENCOUNTERS, "er"));
+    assertEquals(0, snapshot.get(2003, UtilizationType.LABS, "er"));
+    assertEquals(0, snapshot.get(1999, UtilizationType.ENCOUNTERS));
+
+    // the snapshot does not change with later increments
+    counter.increment(2003, UtilizationType.ENCOUNTERS);
+    assertEquals(threads * increments / 10, snapshot.get(2003, UtilizationType.ENCOUNTERS));
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    UtilizationCounter<UtilizationType> counter =
+        new UtilizationCounter<UtilizationType>(UtilizationType.class);
+    counter.increment(2020, UtilizationType.ENCOUNTERS, "wellness");
+    counter.increment(2021, UtilizationType.PRESCRIPTIONS);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(counter);
+    }
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    @SuppressWarnings("unchecked")
+    UtilizationCounter<UtilizationType> copy =
+        (UtilizationCounter<UtilizationType>) in.readObject();
+
+    UtilizationCounter.Snapshot<UtilizationType> snapshot = copy.snapshot();
+    assertEquals(Arrays.asList(2020, 2021), new ArrayList<Integer>(snapshot.getYears()));
+    assertEquals(1, snapshot.get(2020, UtilizationType.ENCOUNTERS, "wellness"));
+    assertEquals(1, snapshot.total(UtilizationType.PRESCRIPTIONS));
+    copy.increment(2020, UtilizationType.ENCOUNTERS);
+    assertEquals(2, copy.total(UtilizationType.ENCOUNTERS));
+  }
+}
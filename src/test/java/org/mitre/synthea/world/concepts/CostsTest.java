@@ -3,6 +3,8 @@ package org.mitre.synthea.world.concepts;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.Random;
 
 import org.junit.Before;
@@ -170,6 +172,54 @@ public class CostsTest {
     assertEquals(expectedCost, cost, 0.01); // assert the cost is within $0.01
   }
 
+  @Test public void testStateAdjustmentsByEncounterTypeAndDialysis() {
+    person.attributes.put(Person.STATE, "Massachusetts");
+    double defaultEncounterCost = Config.getAsDouble("generate.costs.default_encounter_cost");
+    double defaultProcedureCost = Config.getAsDouble("generate.costs.default_procedure_cost");
+
+    Code code = new Code("SNOMED","111111111111111111","Unknown encounter");
+    Entry wellness = person.record.encounterStart(time, EncounterType.WELLNESS);
+    wellness.codes.add(code);
+    assertEquals(defaultEncounterCost * 1.0944,
+        Costs.determineCostOfEntry(wellness, person), 0.0001);
+    Entry emergency = person.record.encounterStart(time, EncounterType.EMERGENCY);
+    emergency.codes.add(code);
+    assertEquals(defaultEncounterCost * 1.1695,
+        Costs.determineCostOfEntry(emergency, person), 0.0001);
+
+    code = new Code("SNOMED","111111111111111111","Unknown renal DIALYSIS (procedure)");
+    Entry dialysis = person.record.procedure(time, code.display);
+    dialysis.codes.add(code);
+    assertEquals(defaultProcedureCost * 1.0646,
+        Costs.determineCostOfEntry(dialysis, person), 0.0001);
+    code = new Code("SNOMED","111111111111111111","Unknown procedure");
+    Entry procedure = person.record.procedure(time, code.display);
+    procedure.codes.add(code);
+    assertEquals(defaultProcedureCost * 0.8628,
+        Costs.determineCostOfEntry(procedure, person), 0.0001);
+
+    // unknown states are not adjusted
+    person.attributes.put(Person.STATE, "Atlantis");
+    assertEquals(defaultProcedureCost, Costs.determineCostOfEntry(procedure, person), 0.0001);
+  }
+
+  @Test public void testMultiplyCents() {
+    Random random = new Random(5L);
+    for (int i = 0; i < 10000; i++) {
+      BigDecimal rate = BigDecimal.ONE.subtract(BigDecimal.valueOf(random.nextInt(1000), 3));
+      if (i % 2 == 0) {
+        rate = BigDecimal.ONE.subtract(BigDecimal.valueOf(random.nextDouble()));
+      }
+      long cents = random.nextInt(10_000_000);
+      BigDecimal expected = rate.multiply(BigDecimal.valueOf(cents, 2))
+          .setScale(2, RoundingMode.HALF_EVEN);
+      assertEquals(expected, Claim.fromCents(Claim.multiplyCents(rate, cents)));
+    }
+    assertEquals(Claim.ZERO_CENTS, Claim.fromCents(0L));
+    assertEquals(1234L, Claim.toCents(new BigDecimal("12.345")));
+    assertEquals(1236L, Claim.toCents(new BigDecimal("12.355")));
+  }
+
   @Test public void testTriangularDistributionLimits() {
     Random random = new Random();
     double min = 0;
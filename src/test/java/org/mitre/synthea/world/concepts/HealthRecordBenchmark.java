@@ -0,0 +1,78 @@
+package org.mitre.synthea.world.concepts;
+
+import org.mitre.synthea.TestHelper;
+import org.mitre.synthea.world.agents.PayerManager;
+import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.agents.Provider;
+import org.mitre.synthea.world.concepts.HealthRecord.EncounterType;
+import org.mitre.synthea.world.geography.Location;
+
+/**
+ * Micro-benchmark comparing the cost of finding the latest observation by scanning every
+ * encounter against the indexed lookup, as the size of the record grows.
+ * Run with: ./gradlew benchmark -Pbenchmark=org.mitre.synthea.world.concepts.HealthRecordBenchmark
+ */
+public class HealthRecordBenchmark {
+  private static final int LOOKUPS = 100_000;
+  private static final String[] TYPES = {"8302-2", "29463-7", "39156-5", "72166-2", "8480-6"};
+
+  /**
+   * Run the benchmark.
+   * @param args unused
+   */
+  public static void main(String[] args) throws Exception {
+    TestHelper.loadTestProperties();
+    PayerManager.loadPayers(new Location("Massachusetts", null));
+    Provider provider = TestHelper.buildMockProvider();
+
+    System.out.println("encounters, scan ns/lookup, index ns/lookup");
+    for (int size : new int[] {10, 100, 1_000, 10_000}) {
+      HealthRecord record = buildRecord(provider, size);
+      // warm up both paths before measuring
+      measure(record, true);
+      measure(record, false);
+      double scan = measure(record, true);
+      double index = measure(record, false);
+      System.out.printf("%d, %.1f, %.1f%n", size, scan, index);
+    }
+  }
+
+  private static HealthRecord buildRecord(Provider provider, int encounters) {
+    Person person = new Person(0L);
+    for (EncounterType type : EncounterType.values()) {
+      person.setProvider(type, provider);
+    }
+    person.attributes.put(Person.BIRTHDATE, 0L);
+    person.coverage.setPlanToNoInsurance(0L);
+    HealthRecord record = new HealthRecord(person);
+    for (int i = 0; i < encounters; i++) {
+      record.encounterStart(i, EncounterType.WELLNESS);
+      // most encounters record only some of the observation types
+      record.observation(i, TYPES[i % 2], i);
+      record.observation(i, TYPES[2], i);
+      if (i == 0) {
+        // only ever recorded once, at the very start of the record
+        record.observation(i, TYPES[3], i);
+      }
+    }
+    return record;
+  }
+
+  private static double measure(HealthRecord record, boolean scan) {
+    long found = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < LOOKUPS; i++) {
+      String type = TYPES[i % TYPES.length];
+      Object result = scan ? record.scanForLatestObservation(type)
+          : record.getLatestObservation(type);
+      if (result != null) {
+        found++;
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    if (found == 0) {
+      throw new IllegalStateException("benchmark found no observations");
+    }
+    return (double) elapsed / LOOKUPS;
+  }
+}
@@ -16,6 +16,7 @@ import org.mitre.synthea.world.concepts.HealthRecord.Code;
 import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
 import org.mitre.synthea.world.concepts.HealthRecord.EncounterType;
 import org.mitre.synthea.world.concepts.HealthRecord.Medication;
+import org.mitre.synthea.world.concepts.HealthRecord.Observation;
 import org.mitre.synthea.world.concepts.HealthRecord.Report;
 import org.mitre.synthea.world.concepts.healthinsurance.InsurancePlan;
 import org.mitre.synthea.world.geography.Location;
@@ -149,4 +150,140 @@ public class HealthRecordTest {
     long quantity = medication.getQuantity();
     Assert.assertEquals(180, quantity);
   }
+
+  @Test
+  public void testLatestObservation() {
+    Person person = new Person(0L);
+    setProvider(person);
+    person.attributes.put(Person.BIRTHDATE, 0L);
+    person.coverage.setPlanToNoInsurance(time);
+    HealthRecord record = new HealthRecord(person);
+    Assert.assertNull(record.getLatestObservation("A"));
+
+    record.encounterStart(time, EncounterType.WELLNESS);
+    record.observation(time, "A", 1);
+    record.observation(time, "A", 2);
+    record.observation(time, "B", 3);
+    // the first observation within the latest encounter wins
+    Assert.assertEquals(1, record.getLatestObservation("A").value);
+
+    record.encounterStart(time + 1, EncounterType.WELLNESS);
+    record.observation(time + 1, "A", 4);
+    Assert.assertEquals(4, record.getLatestObservation("A").value);
+    Assert.assertEquals(3, record.getLatestObservation("B").value);
+
+    // observations moved into a multi-observation are no longer found directly
+    record.observation(time + 1, "B", 5);
+    Assert.assertEquals(5, record.getLatestObservation("B").value);
+    record.multiObservation(time + 1, "M", 1);
+    Assert.assertEquals(3, record.getLatestObservation("B").value);
+    Assert.assertEquals(1, record.getLatestObservation("M").observations.size());
+
+    // direct modifications are picked up once the indexes are invalidated
+    record.encounters.remove(1);
+    record.invalidateIndexes();
+    Assert.assertEquals(1, record.getLatestObservation("A").value);
+    Assert.assertNull(record.getLatestObservation("M"));
+  }
+
+  @Test
+  public void testLatestObservationMatchesScan() {
+    Person person = new Person(0L);
+    setProvider(person);
+    person.attributes.put(Person.BIRTHDATE, 0L);
+    person.coverage.setPlanToNoInsurance(time);
+    HealthRecord record = new HealthRecord(person);
+    String[] types = {"A", "B", "C", "D", "E"};
+    for (int i = 0; i < 200; i++) {
+      long t = time + i;
+      record.encounterStart(t, EncounterType.WELLNESS);
+      int count = person.randInt(4);
+      for (int j = 0; j < count; j++) {
+        record.observation(t, types[person.randInt(types.length)], i);
+      }
+      if (count > 1 && person.randInt(4) == 0) {
+        record.multiObservation(t, types[person.randInt(types.length)], 2);
+      }
+      for (String type : types) {
+        Encounter expected = record.scanForLatestObservation(type);
+        Observation actual = record.getLatestObservation(type);
+        if (expected == null) {
+          Assert.assertNull(actual);
+        } else {
+          Assert.assertSame(expected.findObservation(type), actual);
+        }
+      }
+    }
+  }
+
+  private static Encounter scanForCurrentEncounter(HealthRecord record, long time) {
+    for (int i = record.encounters.size() - 1; i >= 0; i--) {
+      if (record.encounters.get(i).start <= time) {
+        return record.encounters.get(i);
+      }
+    }
+    return record.encounters.get(0);
+  }
+
+  private static Encounter scanForLastEncounter(HealthRecord record, EncounterType type) {
+    for (int i = record.encounters.size() - 1; i >= 0; i--) {
+      if (record.encounters.get(i).type.equals(type.toString())) {
+        return record.encounters.get(i);
+      }
+    }
+    return null;
+  }
+
+  private static void assertEncounterIndexMatchesScan(HealthRecord record, long until) {
+    for (EncounterType type : EncounterType.values()) {
+      Assert.assertSame(scanForLastEncounter(record, type), record.lastEncounter(type));
+    }
+    Assert.assertSame(scanForLastEncounter(record, EncounterType.WELLNESS),
+        record.lastWellnessEncounter());
+    for (long t = -1; t <= until; t++) {
+      Assert.assertSame(scanForCurrentEncounter(record, t), record.currentEncounter(t));
+    }
+    Assert.assertEquals(record.encounters.stream().mapToLong(e -> e.stop).max().getAsLong(),
+        record.lastEncounterTime());
+  }
+
+  @Test
+  public void testEncounterIndexMatchesScan() {
+    Person person = new Person(0L);
+    setProvider(person);
+    person.attributes.put(Person.BIRTHDATE, 0L);
+    person.coverage.setPlanToNoInsurance(time);
+    HealthRecord record = new HealthRecord(person);
+    Assert.assertNull(record.lastWellnessEncounter());
+    Assert.assertEquals(Long.MIN_VALUE, record.lastEncounterTime());
+
+    EncounterType[] types = EncounterType.values();
+    long t = time;
+    for (int i = 0; i < 100; i++) {
+      // several encounters can start at the same time
+      t += person.randInt(3);
+      EncounterType type = types[person.randInt(types.length)];
+      Encounter encounter = record.encounterStart(t, type);
+      // ending an encounter determines its cost, which needs a code
+      encounter.codes.add(new Code("SNOMED-CT", "185349003", "Encounter for check up"));
+      if (person.randInt(3) > 0) {
+        record.encounterEnd(t + person.randInt(5), type);
+      }
+      assertEncounterIndexMatchesScan(record, t + 1);
+    }
+
+    // encounters added directly to the list are picked up
+    record.encounters.add(record.new Encounter(t + 2, EncounterType.WELLNESS.toString()));
+    assertEncounterIndexMatchesScan(record, t + 3);
+
+    // an encounter that starts before the previous one, as when a module rewinds time
+    record.encounterStart(t - 10, EncounterType.EMERGENCY);
+    assertEncounterIndexMatchesScan(record, t + 3);
+
+    // direct modifications are picked up once the indexes are invalidated
+    record.encounters.remove(record.encounters.size() - 2);
+    record.encounters.remove(0);
+    record.invalidateIndexes();
+    assertEncounterIndexMatchesScan(record, t + 3);
+  }
 }
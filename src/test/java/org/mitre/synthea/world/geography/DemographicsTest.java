@@ -1,11 +1,13 @@
 package org.mitre.synthea.world.geography;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import com.google.common.collect.Table;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Map;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -101,4 +103,35 @@ public class DemographicsTest {
     assertTrue(languageMap.get("english") > 6400 && languageMap.get("english") < 7000);
     assertTrue(languageMap.get("chinese") > 900 && languageMap.get("chinese") < 1900);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void pickAge() {
+    Map<String, Integer> groupCounts = new HashMap<String, Integer>();
+    int samples = 100000;
+    for (int i = 0; i < samples; i++) {
+      int age = philly.pickAge(random);
+      assertTrue(age >= 0 && age <= 110);
+      String group = null;
+      for (String range : philly.ages.keySet()) {
+        String[] bounds = range.split("\\.\\.");
+        if (age >= Integer.parseInt(bounds[0]) && age <= Integer.parseInt(bounds[1])) {
+          group = range;
+        }
+      }
+      groupCounts.merge(group, 1, Integer::sum);
+    }
+    double total = philly.ages.values().stream().mapToDouble(Double::doubleValue).sum();
+    for (Map.Entry<String, Double> e : philly.ages.entrySet()) {
+      int count = groupCounts.getOrDefault(e.getKey(), 0);
+      assertEquals(e.getKey(), e.getValue() / total, count / (double) samples, 0.005);
+    }
+  }
+
+  @Test
+  public void pickIncome() {
+    for (int i = 0; i < 10000; i++) {
+      int income = philly.pickIncome(random);
+      assertTrue(income >= 0 && income <= 999000);
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package org.mitre.synthea.world.geography;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class GreatCircleIndexTest {
+
+  /**
+   * Great-circle distance in degrees of arc, with the haversine formula.
+   */
+  private static double haversine(double lon1, double lat1, double lon2, double lat2) {
+    double dlat = Math.toRadians(lat2 - lat1);
+    double dlon = Math.toRadians(lon2 - lon1);
+    double a = Math.pow(Math.sin(dlat / 2), 2) + Math.cos(Math.toRadians(lat1))
+        * Math.cos(Math.toRadians(lat2)) * Math.pow(Math.sin(dlon / 2), 2);
+    return Math.toDegrees(2 * Math.asin(Math.sqrt(a)));
+  }
+
+  @Test
+  public void testNearestMatchesHaversine() {
+    Random random = new Random(42L);
+    int size = 2000;
+    List<Integer> items = new ArrayList<Integer>();
+    double[] lons = new double[size];
+    double[] lats = new double[size];
+    for (int i = 0; i < size; i++) {
+      items.add(i);
+      // a mix of clustered and spread out points, including across the antimeridian
+      lons[i] = i % 2 == 0 ? -71 + random.nextDouble() : random.nextDouble() * 360 - 180;
+      lats[i] = i % 2 == 0 ? 42 + random.nextDouble() : random.nextDouble() * 170 - 85;
+    }
+    GreatCircleIndex<Integer> index = new GreatCircleIndex<Integer>(items, lons, lats);
+
+    for (int q = 0; q < 500; q++) {
+      double lon = random.nextDouble() * 360 - 180;
+      double lat = random.nextDouble() * 170 - 85;
+      double maxDistance = q % 3 == 0 ? 5.0 : 180.0;
+      boolean odd = q % 2 == 0;
+
+      int expected = -1;
+      double expectedDistance = Double.POSITIVE_INFINITY;
+      for (int i = 0; i < size; i++) {
+        double distance = haversine(lon, lat, lons[i], lats[i]);
+        if ((!odd || i % 2 == 1) && distance <= maxDistance && distance < expectedDistance) {
+          expected = i;
+          expectedDistance = distance;
+        }
+      }
+
+      GreatCircleIndex.Neighbors<Integer> neighbors =
+          new GreatCircleIndex.Neighbors<Integer>(lon, lat, maxDistance);
+      index.nearest(neighbors, odd ? i -> i % 2 == 1 : null);
+      if (expected == -1) {
+        assertTrue(neighbors.getNearest().isEmpty());
+      } else {
+        assertEquals(Arrays.asList(expected), neighbors.getNearest());
+      }
+    }
+  }
+
+  @Test
+  public void testTiesAcrossIndexes() {
+    double[] lons = {10, 10, 12};
+    double[] lats = {20, 20, 20};
+    GreatCircleIndex<String> first =
+        new GreatCircleIndex<String>(Arrays.asList("a", "b", "c"), lons, lats);
+    GreatCircleIndex<String> second = new GreatCircleIndex<String>(
+        Arrays.asList("d"), new double[] {10}, new double[] {20});
+    GreatCircleIndex.Neighbors<String> neighbors =
+        new GreatCircleIndex.Neighbors<String>(10.5, 20.5, 180);
+    first.nearest(neighbors, null);
+    second.nearest(neighbors, null);
+    List<String> nearest = new ArrayList<String>(neighbors.getNearest());
+    nearest.sort(null);
+    assertEquals(Arrays.asList("a", "b", "d"), nearest);
+  }
+
+  @Test
+  public void testEmptyIndex() {
+    GreatCircleIndex<String> index = new GreatCircleIndex<String>(
+        new ArrayList<String>(), new double[0], new double[0]);
+    GreatCircleIndex.Neighbors<String> neighbors =
+        new GreatCircleIndex.Neighbors<String>(0, 0, 180);
+    index.nearest(neighbors, null);
+    assertTrue(neighbors.getNearest().isEmpty());
+  }
+}